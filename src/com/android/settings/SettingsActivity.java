@@ -51,6 +51,7 @@ import android.util.Log;
 import android.view.View;
 import android.view.View.OnClickListener;
 import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
 import android.widget.Button;
 import android.widget.Toolbar;
 
@@ -61,6 +62,8 @@ import com.android.settings.backup.BackupSettingsActivity;
 import com.android.settings.core.FeatureFlags;
 import com.android.settings.core.SubSettingLauncher;
 import com.android.settings.core.gateway.SettingsGateway;
+import com.android.settings.core.instrumentation.LaunchTracker;
+import com.android.settings.core.instrumentation.TraceRecorder;
 import com.android.settings.dashboard.DashboardFeatureProvider;
 import com.android.settings.dashboard.DashboardSummary;
 import com.android.settings.overlay.FeatureFactory;
@@ -188,10 +191,68 @@ public class SettingsActivity extends SettingsDrawerActivity
 
     private DashboardFeatureProvider mDashboardFeatureProvider;
 
+    // Phases of this launch, from the creation of the activity to its first draw
+    private final LaunchTracker.Launch mLaunch = LaunchTracker.getInstance().startLaunch();
+    // Work deferred until the first frame is drawn, so that it doesn't slow down the launch
+    private final List<Runnable> mAfterFirstDraw = new ArrayList<>();
+    private final Runnable mUpdateDeviceIndex = this::updateDeviceIndex;
+    private boolean mFirstDrawDone;
+
+    private final ViewTreeObserver.OnDrawListener mFirstDrawListener =
+            new ViewTreeObserver.OnDrawListener() {
+                private boolean mDrawn;
+
+                @Override
+                public void onDraw() {
+                    if (mDrawn) {
+                        return;
+                    }
+                    mDrawn = true;
+                    mLaunch.mark(LaunchTracker.PHASE_FIRST_DRAW);
+                    // Draw listeners can't be removed while they are dispatched.
+                    mContent.post(() -> {
+                        mContent.getViewTreeObserver().removeOnDrawListener(this);
+                        onFirstDraw();
+                    });
+                }
+            };
+
     public SwitchBar getSwitchBar() {
         return mSwitchBar;
     }
 
+    /**
+     * Returns the phases of the launch of this activity, for its fragments to mark.
+     */
+    public LaunchTracker.Launch getLaunch() {
+        return mLaunch;
+    }
+
+    /**
+     * Runs {@code work} on the main thread once the first frame of this activity is drawn, or
+     * now if it already is. Meant for work not needed to show the page.
+     */
+    public void runAfterFirstDraw(Runnable work) {
+        if (mFirstDrawDone) {
+            work.run();
+        } else if (!mAfterFirstDraw.contains(work)) {
+            mAfterFirstDraw.add(work);
+        }
+    }
+
+    @VisibleForTesting
+    void onFirstDraw() {
+        if (mFirstDrawDone) {
+            return;
+        }
+        mFirstDrawDone = true;
+        LaunchTracker.getInstance().finish(mLaunch);
+        for (Runnable work : mAfterFirstDraw) {
+            work.run();
+        }
+        mAfterFirstDraw.clear();
+    }
+
     @Override
     public boolean onPreferenceStartFragment(PreferenceFragment caller, Preference pref) {
         new SubSettingLauncher(this)
@@ -262,6 +323,10 @@ public class SettingsActivity extends SettingsDrawerActivity
         final boolean isSubSettings = this instanceof SubSettings ||
                 intent.getBooleanExtra(EXTRA_SHOW_FRAGMENT_AS_SUBSETTING, false);
 
+        mLaunch.setDestination(!mIsShowingDashboard && initialFragmentName != null
+                ? initialFragmentName : DashboardSummary.class.getName());
+        mLaunch.mark(LaunchTracker.PHASE_INTENT_PARSED);
+
         // If this is a sub settings, then apply the SubSettings Theme for the ActionBar content
         // insets
         if (isSubSettings) {
@@ -272,6 +337,8 @@ public class SettingsActivity extends SettingsDrawerActivity
                 R.layout.settings_main_dashboard : R.layout.settings_main_prefs);
 
         mContent = findViewById(R.id.main_content);
+        // Not on the decor view: creating it before setTheme() would drop the SubSettings theme.
+        mContent.getViewTreeObserver().addOnDrawListener(mFirstDrawListener);
 
         getFragmentManager().addOnBackStackChangedListener(this);
 
@@ -494,7 +561,7 @@ public class SettingsActivity extends SettingsDrawerActivity
         registerReceiver(mBatteryInfoReceiver, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
 
         updateTilesList();
-        updateDeviceIndex();
+        runAfterFirstDraw(mUpdateDeviceIndex);
     }
 
     @Override
@@ -585,7 +652,9 @@ public class SettingsActivity extends SettingsDrawerActivity
             throw new IllegalArgumentException("Invalid fragment for this activity: "
                     + fragmentName);
         }
+        final long traceStart = TraceRecorder.getInstance().begin();
         Fragment f = Fragment.instantiate(this, fragmentName, args);
+        mLaunch.mark(LaunchTracker.PHASE_FRAGMENT_INSTANTIATED);
         FragmentTransaction transaction = getFragmentManager().beginTransaction();
         transaction.replace(R.id.main_content, f);
         if (withTransition) {
@@ -601,6 +670,7 @@ public class SettingsActivity extends SettingsDrawerActivity
         }
         transaction.commitAllowingStateLoss();
         getFragmentManager().executePendingTransactions();
+        TraceRecorder.getInstance().end(TraceRecorder.SPAN_FRAGMENT_CREATE, traceStart);
         Log.d(LOG_TAG, "Executed frag manager pendingTransactions");
         return f;
     }
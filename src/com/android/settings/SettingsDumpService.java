@@ -29,10 +29,23 @@ import android.os.storage.VolumeInfo;
 import android.telephony.SubscriptionInfo;
 import android.telephony.SubscriptionManager;
 import android.telephony.TelephonyManager;
+import android.util.ArraySet;
+import android.util.JsonWriter;
+import android.util.Log;
 
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.settings.applications.ProcStatsData;
+import com.android.settings.core.PreferenceControllerPrefetcher;
+import com.android.settings.core.instrumentation.LaunchTracker;
+import com.android.settings.core.instrumentation.PerfCounters;
+import com.android.settings.core.instrumentation.TraceRecorder;
+import com.android.settings.datausage.DataUsageSnapshot;
+import com.android.settings.datausage.DataUsageStatsCache;
+import com.android.settings.fuelgauge.BatteryStatsSnapshot;
+import com.android.settings.fuelgauge.BatteryUsageHistoryStore;
 import com.android.settings.fuelgauge.batterytip.AnomalyConfigJobService;
+import com.android.settings.fuelgauge.batterytip.AnomalyIngestFilter;
+import com.android.settings.utils.AppIconCache;
 import com.android.settingslib.net.DataUsageController;
 
 import org.json.JSONArray;
@@ -41,9 +54,34 @@ import org.json.JSONObject;
 
 import java.io.File;
 import java.io.FileDescriptor;
+import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
+/**
+ * Dumps the state of Settings as one JSON object, with one entry per section.
+ *
+ * <p>Sections are written as soon as each of them is computed, so a slow one doesn't hold back
+ * the ones before it. Each section is given {@link #SECTION_BUDGET_MS} to complete, after which
+ * it is reported as timed out and the dump moves on. The sections to dump can be selected by
+ * passing their keys as arguments, e.g.
+ * {@code adb shell dumpsys activity service com.android.settings/.SettingsDumpService storage}.
+ * Sections too large for bug reports, such as {@link #KEY_TRACE_EVENTS}, are only dumped when
+ * requested.
+ */
 public class SettingsDumpService extends Service {
+    private static final String TAG = "SettingsDumpService";
+
     @VisibleForTesting
     static final String KEY_SERVICE = "service";
     @VisibleForTesting
@@ -57,9 +95,41 @@ public class SettingsDumpService extends Service {
     @VisibleForTesting
     static final String KEY_ANOMALY_DETECTION = "anomaly_detection";
     @VisibleForTesting
+    static final String KEY_APP_ICON_CACHE = "app_icon_cache";
+    @VisibleForTesting
+    static final String KEY_BATTERY_STATS_SNAPSHOT = "battery_stats_snapshot";
+    @VisibleForTesting
+    static final String KEY_BATTERY_USAGE_HISTORY = "battery_usage_history";
+    @VisibleForTesting
+    static final String KEY_DATA_USAGE_STATS_CACHE = "data_usage_stats_cache";
+    @VisibleForTesting
+    static final String KEY_PERF_COUNTERS = "perf_counters";
+    @VisibleForTesting
+    static final String KEY_TRACE = "trace";
+    @VisibleForTesting
+    static final String KEY_TRACE_EVENTS = "trace_events";
+    @VisibleForTesting
+    static final String KEY_LAUNCH_TIMINGS = "launch_timings";
+    @VisibleForTesting
+    static final String KEY_SECTION_TIMINGS = "section_timings";
+    @VisibleForTesting
+    static final long SECTION_BUDGET_MS = 2000;
+    @VisibleForTesting
     static final Intent BROWSER_INTENT =
             new Intent("android.intent.action.VIEW", Uri.parse("http://"));
 
+    @VisibleForTesting
+    long mSectionBudgetMs = SECTION_BUDGET_MS;
+
+    /**
+     * Computes the value of one section: a {@link JSONObject}, a {@link JSONArray}, a string or
+     * {@code null}.
+     */
+    @VisibleForTesting
+    interface Section {
+        Object dump() throws Exception;
+    }
+
     @Override
     public IBinder onBind(Intent intent) {
         return null;
@@ -67,20 +137,115 @@ public class SettingsDumpService extends Service {
 
     @Override
     protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
-        JSONObject dump = new JSONObject();
+        final Set<String> selected = args != null && args.length > 0
+                ? new ArraySet<>(Arrays.asList(args)) : null;
+        final Map<String, Section> sections = getSections();
+        final JSONObject timings = new JSONObject();
+        final JsonWriter jsonWriter = new JsonWriter(writer);
+        // Sections run on their own thread, so that one past its budget can be left behind.
+        final ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            jsonWriter.beginObject();
+            jsonWriter.name(KEY_SERVICE).value("Settings State");
+            for (Map.Entry<String, Section> section : sections.entrySet()) {
+                final String key = section.getKey();
+                if (selected != null ? !selected.contains(key) : isOnDemand(key)) {
+                    continue;
+                }
+                final long startTime = System.currentTimeMillis();
+                final Object value = dumpSection(executor, section.getValue());
+                timings.put(key, System.currentTimeMillis() - startTime);
+                jsonWriter.name(key);
+                writeValue(jsonWriter, value);
+                jsonWriter.flush();
+            }
+            jsonWriter.name(KEY_SECTION_TIMINGS);
+            writeValue(jsonWriter, timings);
+            jsonWriter.endObject();
+            jsonWriter.flush();
+        } catch (IOException | JSONException e) {
+            Log.w(TAG, "Failed to dump", e);
+        } finally {
+            executor.shutdownNow();
+        }
+        writer.println();
+    }
 
+    /**
+     * Returns the sections of the dump, in the order they are written.
+     */
+    @VisibleForTesting
+    Map<String, Section> getSections() {
+        final Map<String, Section> sections = new LinkedHashMap<>();
+        sections.put(KEY_STORAGE, this::dumpStorage);
+        sections.put(KEY_DATAUSAGE, this::dumpDataUsage);
+        sections.put(KEY_MEMORY, this::dumpMemory);
+        sections.put(KEY_DEFAULT_BROWSER_APP, this::dumpDefaultBrowser);
+        sections.put(KEY_ANOMALY_DETECTION, this::dumpAnomalyDetection);
+        sections.put(KEY_APP_ICON_CACHE, () -> AppIconCache.getInstance(this).dump());
+        sections.put(KEY_BATTERY_STATS_SNAPSHOT,
+                () -> BatteryStatsSnapshot.getInstance(this).dump());
+        sections.put(KEY_BATTERY_USAGE_HISTORY,
+                () -> BatteryUsageHistoryStore.getInstance(this).dump());
+        sections.put(KEY_DATA_USAGE_STATS_CACHE, () -> DataUsageStatsCache.getInstance().dump());
+        sections.put(KEY_PERF_COUNTERS, this::dumpPerfCounters);
+        sections.put(KEY_TRACE, () -> TraceRecorder.getInstance().dump());
+        sections.put(KEY_TRACE_EVENTS, () -> TraceRecorder.getInstance().dumpEvents());
+        sections.put(KEY_LAUNCH_TIMINGS, () -> LaunchTracker.getInstance().dump());
+        return sections;
+    }
+
+    /**
+     * Returns whether the section {@code key} is too large for the default dump, and is only
+     * dumped when requested.
+     */
+    private static boolean isOnDemand(String key) {
+        return KEY_TRACE_EVENTS.equals(key);
+    }
+
+    private Object dumpSection(ExecutorService executor, Section section) throws JSONException {
+        final Future<Object> future = executor.submit(section::dump);
         try {
-            dump.put(KEY_SERVICE, "Settings State");
-            dump.put(KEY_STORAGE, dumpStorage());
-            dump.put(KEY_DATAUSAGE, dumpDataUsage());
-            dump.put(KEY_MEMORY, dumpMemory());
-            dump.put(KEY_DEFAULT_BROWSER_APP, dumpDefaultBrowser());
-            dump.put(KEY_ANOMALY_DETECTION, dumpAnomalyDetection());
-        } catch (Exception e) {
-            e.printStackTrace();
+            return future.get(mSectionBudgetMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true /* mayInterruptIfRunning */);
+            return new JSONObject().put("error", "timeout").put("budget_ms", mSectionBudgetMs);
+        } catch (ExecutionException e) {
+            return new JSONObject().put("error", String.valueOf(e.getCause()));
+        } catch (InterruptedException e) {
+            future.cancel(true /* mayInterruptIfRunning */);
+            Thread.currentThread().interrupt();
+            return new JSONObject().put("error", "interrupted");
         }
+    }
 
-        writer.println(dump);
+    private static void writeValue(JsonWriter writer, Object value)
+            throws IOException, JSONException {
+        if (value == null || value == JSONObject.NULL) {
+            writer.nullValue();
+        } else if (value instanceof JSONObject) {
+            final JSONObject obj = (JSONObject) value;
+            writer.beginObject();
+            for (Iterator<String> keys = obj.keys(); keys.hasNext(); ) {
+                final String key = keys.next();
+                writer.name(key);
+                writeValue(writer, obj.get(key));
+            }
+            writer.endObject();
+        } else if (value instanceof JSONArray) {
+            final JSONArray array = (JSONArray) value;
+            writer.beginArray();
+            for (int i = 0; i < array.length(); i++) {
+                writeValue(writer, array.get(i));
+            }
+            writer.endArray();
+        } else if (value instanceof Boolean) {
+            writer.value((Boolean) value);
+        } else if (value instanceof Number) {
+            writer.value((Number) value);
+        } else {
+            writer.value(value.toString());
+        }
     }
 
     private JSONObject dumpMemory() throws JSONException {
@@ -99,7 +264,7 @@ public class SettingsDumpService extends Service {
 
     private JSONObject dumpDataUsage() throws JSONException {
         JSONObject obj = new JSONObject();
-        DataUsageController controller = new DataUsageController(this);
+        DataUsageSnapshot snapshot = DataUsageSnapshot.getInstance(this);
         ConnectivityManager connectivityManager = getSystemService(ConnectivityManager.class);
         SubscriptionManager manager = SubscriptionManager.from(this);
         TelephonyManager telephonyManager = TelephonyManager.from(this);
@@ -108,25 +273,33 @@ public class SettingsDumpService extends Service {
             for (SubscriptionInfo info : manager.getAllSubscriptionInfoList()) {
                 NetworkTemplate mobileAll = NetworkTemplate.buildTemplateMobileAll(
                         telephonyManager.getSubscriberId(info.getSubscriptionId()));
-                final JSONObject usage = dumpDataUsage(mobileAll, controller);
+                final JSONObject usage = dumpDataUsage(snapshot, info.getSubscriptionId(),
+                        mobileAll);
                 usage.put("subId", info.getSubscriptionId());
                 array.put(usage);
             }
             obj.put("cell", array);
         }
         if (connectivityManager.isNetworkSupported(ConnectivityManager.TYPE_WIFI)) {
-            obj.put("wifi", dumpDataUsage(NetworkTemplate.buildTemplateWifiWildcard(), controller));
+            obj.put("wifi", dumpDataUsage(snapshot, SubscriptionManager.INVALID_SUBSCRIPTION_ID,
+                    NetworkTemplate.buildTemplateWifiWildcard()));
         }
         if (connectivityManager.isNetworkSupported(ConnectivityManager.TYPE_ETHERNET)) {
-            obj.put("ethernet", dumpDataUsage(NetworkTemplate.buildTemplateEthernet(), controller));
+            obj.put("ethernet", dumpDataUsage(snapshot,
+                    SubscriptionManager.INVALID_SUBSCRIPTION_ID,
+                    NetworkTemplate.buildTemplateEthernet()));
         }
+        obj.put("snapshot", snapshot.dump());
         return obj;
     }
 
-    private JSONObject dumpDataUsage(NetworkTemplate template, DataUsageController controller)
-            throws JSONException {
+    private JSONObject dumpDataUsage(DataUsageSnapshot snapshot, int subId,
+            NetworkTemplate template) throws JSONException {
         JSONObject obj = new JSONObject();
-        DataUsageController.DataUsageInfo usage = controller.getDataUsageInfo(template);
+        DataUsageController.DataUsageInfo usage = snapshot.get(subId, template);
+        if (usage == null) {
+            return obj;
+        }
         obj.put("carrier", usage.carrier);
         obj.put("start", usage.startDate);
         obj.put("usage", usage.usageLevel);
@@ -176,7 +349,42 @@ public class SettingsDumpService extends Service {
                 AnomalyConfigJobService.KEY_ANOMALY_CONFIG_VERSION,
                 0 /* defValue */);
         obj.put("anomaly_config_version", String.valueOf(currentVersion));
+        obj.put("ingest", AnomalyIngestFilter.getInstance().dump());
 
         return obj;
     }
+
+    @VisibleForTesting
+    JSONObject dumpPerfCounters() throws JSONException {
+        final JSONObject obj = new JSONObject();
+        obj.put("latencies", PerfCounters.getInstance().dump());
+
+        final JSONObject hitRates = new JSONObject();
+        final JSONObject icons = AppIconCache.getInstance(this).dump();
+        hitRates.put("app_icon", icons.get("icon_hit_rate"));
+        hitRates.put("app_label", icons.get("label_hit_rate"));
+        final JSONObject stats = DataUsageStatsCache.getInstance().dump();
+        hitRates.put("data_usage_summary",
+                getHitRate(stats.getLong("summary_hits"), stats.getLong("summary_misses")));
+        hitRates.put("data_usage_chart",
+                getHitRate(stats.getLong("chart_data_hits"), stats.getLong("chart_data_misses")));
+        final JSONObject snapshot = DataUsageSnapshot.getInstance(this).dump();
+        hitRates.put("data_usage_snapshot", getHitRate(snapshot.getLong("hits"),
+                snapshot.getLong("queries") + snapshot.getLong("shared_queries")));
+        final JSONObject batteryStats = BatteryStatsSnapshot.getInstance(this).dump();
+        hitRates.put("battery_stats_snapshot", getHitRate(batteryStats.getLong("parses_avoided"),
+                batteryStats.getLong("parses")));
+        final JSONObject prefetches = PreferenceControllerPrefetcher.getInstance().dump();
+        hitRates.put("controller_prefetch",
+                getHitRate(prefetches.getLong("hits"), prefetches.getLong("misses")));
+        obj.put("hit_rates", hitRates);
+
+        return obj;
+    }
+
+    @VisibleForTesting
+    static String getHitRate(long hits, long misses) {
+        final long requests = hits + misses;
+        return String.valueOf(requests > 0 ? (float) hits / requests : 0f);
+    }
 }
@@ -30,6 +30,7 @@ import android.support.annotation.VisibleForTesting;
 import android.support.annotation.XmlRes;
 import android.support.v7.preference.Preference;
 import android.support.v7.preference.PreferenceGroup;
+import android.support.v7.preference.PreferenceGroupAdapter;
 import android.support.v7.preference.PreferenceScreen;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
@@ -37,12 +38,14 @@ import android.text.TextUtils;
 import android.util.ArrayMap;
 import android.util.Log;
 import android.view.LayoutInflater;
+import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.Button;
 
 import com.android.settings.applications.LayoutPreference;
 import com.android.settings.core.InstrumentedPreferenceFragment;
+import com.android.settings.core.PreferenceControllerPrefetcher;
 import com.android.settings.core.instrumentation.InstrumentedDialogFragment;
 import com.android.settings.search.actionbar.SearchMenuController;
 import com.android.settings.support.actionbar.HelpMenuController;
@@ -116,6 +119,18 @@ public abstract class SettingsPreferenceFragment extends InstrumentedPreferenceF
 
     private LayoutPreference mHeader;
 
+    // Prefetches the page of a preference as soon as it is touched, ahead of the click
+    private final RecyclerView.OnItemTouchListener mPrefetchTouchListener =
+            new RecyclerView.SimpleOnItemTouchListener() {
+                @Override
+                public boolean onInterceptTouchEvent(RecyclerView listView, MotionEvent event) {
+                    if (event.getActionMasked() == MotionEvent.ACTION_DOWN) {
+                        prefetchPreferenceAt(listView, event.getX(), event.getY());
+                    }
+                    return false;
+                }
+            };
+
     private View mEmptyView;
     private LinearLayoutManager mLayoutManager;
     private ArrayMap<String, Preference> mPreferenceCache;
@@ -144,9 +159,31 @@ public abstract class SettingsPreferenceFragment extends InstrumentedPreferenceF
         final View root = super.onCreateView(inflater, container, savedInstanceState);
         mPinnedHeaderFrameLayout = root.findViewById(R.id.pinned_header);
         mButtonBar = root.findViewById(R.id.button_bar);
+        final RecyclerView listView = getListView();
+        if (listView != null) {
+            listView.addOnItemTouchListener(mPrefetchTouchListener);
+        }
         return root;
     }
 
+    @VisibleForTesting
+    void prefetchPreferenceAt(RecyclerView listView, float x, float y) {
+        final View child = listView.findChildViewUnder(x, y);
+        if (child == null || !(listView.getAdapter() instanceof PreferenceGroupAdapter)) {
+            return;
+        }
+        final int position = listView.getChildAdapterPosition(child);
+        if (position == RecyclerView.NO_POSITION) {
+            return;
+        }
+        final Preference preference =
+                ((PreferenceGroupAdapter) listView.getAdapter()).getItem(position);
+        if (preference != null && preference.getFragment() != null) {
+            PreferenceControllerPrefetcher.getInstance().prefetch(getContext(),
+                    preference.getFragment());
+        }
+    }
+
     @Override
     public void addPreferencesFromResource(@XmlRes int preferencesResId) {
         super.addPreferencesFromResource(preferencesResId);
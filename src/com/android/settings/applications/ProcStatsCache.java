@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import android.os.SystemClock;
+import android.support.annotation.VisibleForTesting;
+import android.util.LongSparseArray;
+
+import com.android.internal.app.procstats.ProcessStats;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Process-wide cache of the {@link ProcessStats} snapshots used by {@link ProcStatsData}, and of
+ * the package entries aggregated from them, keyed by duration.
+ *
+ * <p>A snapshot is considered current for {@link #MAX_AGE_MS} after it was loaded, so switching
+ * between the 3/6/12/24 hour views (including ones prefetched in the background) does not go
+ * back to the process stats service or redo the aggregation.
+ */
+class ProcStatsCache {
+
+    @VisibleForTesting
+    static final long MAX_AGE_MS = 60 * 1000;
+
+    private static ProcStatsCache sInstance;
+
+    private final LongSparseArray<Entry> mEntries = new LongSparseArray<>();
+
+    static class Entry {
+        final ProcessStats stats;
+        final long loadTime;
+
+        // Results aggregated from stats for the given states. The list is never modified,
+        // callers take a copy of it to sort.
+        int[] memStates;
+        int[] states;
+        ArrayList<ProcStatsPackageEntry> pkgEntries;
+        ProcStatsData.MemInfo memInfo;
+        long memTotalTime;
+
+        Entry(ProcessStats stats, long loadTime) {
+            this.stats = stats;
+            this.loadTime = loadTime;
+        }
+
+        boolean hasResults(ProcessStats stats, int[] memStates, int[] states) {
+            return this.stats == stats && pkgEntries != null
+                    && Arrays.equals(this.memStates, memStates)
+                    && Arrays.equals(this.states, states);
+        }
+    }
+
+    static synchronized ProcStatsCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new ProcStatsCache();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns the current entry for {@code duration}, or null if there is none or it expired.
+     */
+    synchronized Entry get(long duration) {
+        trimLocked(SystemClock.elapsedRealtime());
+        return mEntries.get(duration);
+    }
+
+    /**
+     * Whether a current snapshot for {@code duration} is cached.
+     */
+    synchronized boolean contains(long duration) {
+        return get(duration) != null;
+    }
+
+    synchronized Entry putStats(long duration, ProcessStats stats) {
+        final long now = SystemClock.elapsedRealtime();
+        trimLocked(now);
+        final Entry entry = new Entry(stats, now);
+        mEntries.put(duration, entry);
+        return entry;
+    }
+
+    /**
+     * Stores a copy of the results aggregated from {@code stats}, if it is still the cached
+     * snapshot for {@code duration}.
+     */
+    synchronized void putResults(long duration, ProcessStats stats, int[] memStates,
+            int[] states, ArrayList<ProcStatsPackageEntry> pkgEntries,
+            ProcStatsData.MemInfo memInfo, long memTotalTime) {
+        final Entry entry = mEntries.get(duration);
+        if (entry == null || entry.stats != stats) {
+            return;
+        }
+        entry.memStates = memStates;
+        entry.states = states;
+        entry.pkgEntries = new ArrayList<>(pkgEntries);
+        entry.memInfo = memInfo;
+        entry.memTotalTime = memTotalTime;
+    }
+
+    @VisibleForTesting
+    synchronized int size() {
+        return mEntries.size();
+    }
+
+    synchronized void clear() {
+        mEntries.clear();
+    }
+
+    private void trimLocked(long now) {
+        for (int i = mEntries.size() - 1; i >= 0; i--) {
+            if (now - mEntries.valueAt(i).loadTime > MAX_AGE_MS) {
+                mEntries.removeAt(i);
+            }
+        }
+    }
+}
@@ -40,6 +40,7 @@ import com.android.internal.app.procstats.ServiceState;
 import com.android.internal.util.MemInfoReader;
 import com.android.settings.R;
 import com.android.settings.Utils;
+import com.android.settingslib.utils.ThreadUtils;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -137,9 +138,47 @@ public class ProcStatsData {
         return pkgEntries;
     }
 
+    /**
+     * Loads, in the background, the stats for each of {@code durations} that are not cached
+     * yet, so that switching to them later does not need to wait for the stats service.
+     */
+    public void prefetchDurations(long[] durations) {
+        final ProcStatsCache cache = ProcStatsCache.getInstance();
+        final int[] memStates = mMemStates;
+        final int[] states = mStates;
+        // The current duration is loaded by the foreground refresh.
+        final long currentDuration = mDuration;
+        ThreadUtils.postOnBackgroundThread(() -> {
+            for (long duration : durations) {
+                if (duration == currentDuration || cache.contains(duration)) {
+                    continue;
+                }
+                final ProcStatsData data = new ProcStatsData(mContext, false);
+                data.mMemStates = memStates;
+                data.mStates = states;
+                data.mDuration = duration;
+                data.refreshStats(true);
+            }
+        });
+    }
+
     public void refreshStats(boolean forceLoad) {
+        final ProcStatsCache cache = ProcStatsCache.getInstance();
+        ProcStatsCache.Entry cached = cache.get(mDuration);
         if (mStats == null || forceLoad) {
-            load();
+            if (cached != null) {
+                mStats = cached.stats;
+            } else if (load()) {
+                cached = cache.putStats(mDuration, mStats);
+            }
+        }
+        if (cached != null && cached.hasResults(mStats, mMemStates, mStates)) {
+            // Already aggregated these stats, e.g. when switching back to this duration.
+            // Copied, as the UI sorts the list.
+            pkgEntries = new ArrayList<>(cached.pkgEntries);
+            mMemInfo = cached.memInfo;
+            memTotalTime = cached.memTotalTime;
+            return;
         }
 
         pkgEntries = new ArrayList<>();
@@ -168,6 +207,9 @@ public class ProcStatsData {
         ProcStatsPackageEntry osPkg = createOsEntry(bgTotals, runTotals, totalMem,
                 mMemInfo.baseCacheRam);
         pkgEntries.add(osPkg);
+
+        cache.putResults(mDuration, mStats, mMemStates, mStates, pkgEntries, mMemInfo,
+                memTotalTime);
     }
 
     private void createPkgMap(ArrayList<ProcStatsEntry> procEntries, ProcessDataCollection bgTotals,
@@ -195,24 +237,25 @@ public class ProcStatsData {
 
         long zramMem = (long) (zramWeight / memTotalTime);
         long totalTime = 0;
-        for (int i = pkgEntries.size() - 1; i >= 0; i--) {
+        // Sum up the run times of each package in a single pass over the processes.
+        final int numPkgs = pkgEntries.size();
+        final long[] pkgRunTimes = new long[numPkgs];
+        final long[] maxRunTimes = new long[numPkgs];
+        for (int i = numPkgs - 1; i >= 0; i--) {
             ProcStatsPackageEntry entry = pkgEntries.get(i);
             for (int j = entry.mEntries.size() - 1; j >= 0; j--) {
                 ProcStatsEntry proc = entry.mEntries.get(j);
-                totalTime += proc.mRunDuration;
+                pkgRunTimes[i] += proc.mRunDuration;
+                if (proc.mRunDuration > maxRunTimes[i]) {
+                    maxRunTimes[i] = proc.mRunDuration;
+                }
             }
+            totalTime += pkgRunTimes[i];
         }
-        for (int i = pkgEntries.size() - 1; i >= 0 && totalTime > 0; i--) {
+        for (int i = numPkgs - 1; i >= 0 && totalTime > 0; i--) {
             ProcStatsPackageEntry entry = pkgEntries.get(i);
-            long pkgRunTime = 0;
-            long maxRunTime = 0;
-            for (int j = entry.mEntries.size() - 1; j >= 0; j--) {
-                ProcStatsEntry proc = entry.mEntries.get(j);
-                pkgRunTime += proc.mRunDuration;
-                if (proc.mRunDuration > maxRunTime) {
-                    maxRunTime = proc.mRunDuration;
-                }
-            }
+            final long pkgRunTime = pkgRunTimes[i];
+            final long maxRunTime = maxRunTimes[i];
             long pkgZRam = (zramMem*pkgRunTime)/totalTime;
             if (pkgZRam > 0) {
                 zramMem -= pkgZRam;
@@ -341,7 +384,12 @@ public class ProcStatsData {
         return procEntries;
     }
 
-    private void load() {
+    /**
+     * Loads {@link #mStats} for the current duration.
+     *
+     * @return true if the stats were read successfully and can be cached.
+     */
+    private boolean load() {
         try {
             ParcelFileDescriptor pfd = mProcessStats.getStatsOverTime(mDuration);
             mStats = new ProcessStats(false);
@@ -353,10 +401,13 @@ public class ProcStatsData {
             }
             if (mStats.mReadError != null) {
                 Log.w(TAG, "Failure reading process stats: " + mStats.mReadError);
+                return false;
             }
+            return true;
         } catch (RemoteException e) {
             Log.e(TAG, "RemoteException:", e);
         }
+        return false;
     }
 
     public static class MemInfo {
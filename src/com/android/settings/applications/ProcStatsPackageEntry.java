@@ -25,6 +25,7 @@ import android.os.Parcelable;
 import android.util.Log;
 import com.android.settings.R;
 import com.android.settings.Utils;
+import com.android.settings.utils.AppIconCache;
 
 import java.util.ArrayList;
 
@@ -125,7 +126,7 @@ public class ProcStatsPackageEntry implements Parcelable {
                         PackageManager.MATCH_DISABLED_COMPONENTS |
                         PackageManager.MATCH_DISABLED_UNTIL_USED_COMPONENTS |
                         PackageManager.MATCH_ANY_USER);
-                mUiLabel = mUiTargetApp.loadLabel(pm).toString();
+                mUiLabel = AppIconCache.getInstance(context).getLabel(mUiTargetApp);
             }
         } catch (PackageManager.NameNotFoundException e) {
             Log.d(TAG, "could not find package: " + mPackage);
@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import android.app.ActivityManager;
+import android.util.SparseBooleanArray;
+import android.util.SparseLongArray;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Tracks the running process and service lists between {@link RunningState} refreshes.
+ *
+ * <p>Each process is reduced to a signature keyed by pid, and the services of each uid are
+ * folded into a signature keyed by uid. Comparing against the previous refresh tells
+ * {@link RunningState} whether it can skip rebuilding its items entirely, and which uids
+ * need their service items recomputed. It also drives the adaptive polling delay and keeps
+ * the CPU time spent per refresh.
+ */
+class ProcessDeltaTracker {
+
+    /**
+     * Maximum number of times the polling delay is doubled while nothing changes.
+     */
+    static final int MAX_BACKOFF_SHIFT = 3;
+
+    private SparseLongArray mProcessSignatures = new SparseLongArray();
+    private SparseLongArray mNewProcessSignatures = new SparseLongArray();
+    private SparseLongArray mServiceSignatures = new SparseLongArray();
+    private SparseLongArray mNewServiceSignatures = new SparseLongArray();
+    private final SparseBooleanArray mChangedUids = new SparseBooleanArray();
+
+    private boolean mHaveSnapshot;
+    private boolean mLastChanged;
+    private boolean mMemoryChanged;
+    private int mUnchangedRefreshes;
+
+    private int mRefreshCount;
+    private int mSkippedCount;
+    private long mLastCpuTimeNanos;
+    private long mTotalCpuTimeNanos;
+
+    /**
+     * Compares the given lists against the previous call.
+     *
+     * @return true if any process or service changed since the last call, or if there was
+     * no previous snapshot to compare against.
+     */
+    boolean computeDelta(List<ActivityManager.RunningAppProcessInfo> processes,
+            List<ActivityManager.RunningServiceInfo> services) {
+        mChangedUids.clear();
+        mMemoryChanged = false;
+        mNewProcessSignatures.clear();
+        mNewServiceSignatures.clear();
+
+        final int numProcesses = processes != null ? processes.size() : 0;
+        for (int i = 0; i < numProcesses; i++) {
+            final ActivityManager.RunningAppProcessInfo pi = processes.get(i);
+            mNewProcessSignatures.put(pi.pid, processSignature(pi));
+        }
+        final int numServices = services != null ? services.size() : 0;
+        for (int i = 0; i < numServices; i++) {
+            final ActivityManager.RunningServiceInfo si = services.get(i);
+            final long prev = mNewServiceSignatures.get(si.uid, 0);
+            mNewServiceSignatures.put(si.uid, prev * 31 + serviceSignature(si));
+        }
+
+        boolean changed = !mHaveSnapshot;
+        changed |= diff(mProcessSignatures, mNewProcessSignatures, true, processes);
+        changed |= diff(mServiceSignatures, mNewServiceSignatures, false, null);
+
+        // Swap, so the arrays are reused on the next refresh.
+        SparseLongArray tmp = mProcessSignatures;
+        mProcessSignatures = mNewProcessSignatures;
+        mNewProcessSignatures = tmp;
+        tmp = mServiceSignatures;
+        mServiceSignatures = mNewServiceSignatures;
+        mNewServiceSignatures = tmp;
+        mHaveSnapshot = true;
+        mLastChanged = changed;
+        return changed;
+    }
+
+    /**
+     * Whether the processes or services of {@code uid} changed in the last
+     * {@link #computeDelta} call.
+     */
+    boolean isUidChanged(int uid) {
+        return !mHaveSnapshot || mChangedUids.get(uid);
+    }
+
+    /**
+     * Forgets the previous snapshot, so the next refresh recomputes everything.
+     */
+    void invalidate() {
+        mHaveSnapshot = false;
+        mUnchangedRefreshes = 0;
+        mProcessSignatures.clear();
+        mServiceSignatures.clear();
+    }
+
+    /**
+     * Records that the memory shown for a process changed in the refresh that followed the
+     * last {@link #computeDelta}, even though the lists didn't.
+     */
+    void setMemoryChanged() {
+        mMemoryChanged = true;
+    }
+
+    /**
+     * Returns the delay until the next refresh. The delay doubles for each consecutive
+     * refresh where neither the lists nor the memory shown changed, up to
+     * {@link #MAX_BACKOFF_SHIFT} times.
+     */
+    long getNextDelay(long baseDelay) {
+        if (mLastChanged || mMemoryChanged) {
+            mUnchangedRefreshes = 0;
+        } else if (mUnchangedRefreshes < MAX_BACKOFF_SHIFT) {
+            mUnchangedRefreshes++;
+        }
+        return baseDelay << mUnchangedRefreshes;
+    }
+
+    /**
+     * Records the CPU time spent by the refresh that followed the last {@link #computeDelta}.
+     */
+    void recordRefresh(long cpuTimeNanos) {
+        mRefreshCount++;
+        if (!mLastChanged) {
+            mSkippedCount++;
+        }
+        mLastCpuTimeNanos = cpuTimeNanos;
+        mTotalCpuTimeNanos += cpuTimeNanos;
+    }
+
+    int getRefreshCount() {
+        return mRefreshCount;
+    }
+
+    int getSkippedCount() {
+        return mSkippedCount;
+    }
+
+    long getLastCpuTimeNanos() {
+        return mLastCpuTimeNanos;
+    }
+
+    long getAverageCpuTimeNanos() {
+        return mRefreshCount > 0 ? mTotalCpuTimeNanos / mRefreshCount : 0;
+    }
+
+    private boolean diff(SparseLongArray oldSignatures, SparseLongArray newSignatures,
+            boolean byPid, List<ActivityManager.RunningAppProcessInfo> processes) {
+        boolean changed = false;
+        final int numNew = newSignatures.size();
+        for (int i = 0; i < numNew; i++) {
+            final int key = newSignatures.keyAt(i);
+            final int oldIndex = oldSignatures.indexOfKey(key);
+            if (oldIndex < 0 || oldSignatures.valueAt(oldIndex) != newSignatures.valueAt(i)) {
+                changed = true;
+                markChanged(key, byPid, processes);
+            }
+        }
+        // Anything that went away also counts as a change.
+        final int numOld = oldSignatures.size();
+        for (int i = 0; i < numOld; i++) {
+            final int key = oldSignatures.keyAt(i);
+            if (newSignatures.indexOfKey(key) < 0) {
+                changed = true;
+                if (!byPid) {
+                    mChangedUids.put(key, true);
+                }
+            }
+        }
+        return changed;
+    }
+
+    private void markChanged(int key, boolean byPid,
+            List<ActivityManager.RunningAppProcessInfo> processes) {
+        if (!byPid) {
+            mChangedUids.put(key, true);
+            return;
+        }
+        final int numProcesses = processes.size();
+        for (int i = 0; i < numProcesses; i++) {
+            final ActivityManager.RunningAppProcessInfo pi = processes.get(i);
+            if (pi.pid == key) {
+                mChangedUids.put(pi.uid, true);
+                return;
+            }
+        }
+    }
+
+    private static long processSignature(ActivityManager.RunningAppProcessInfo pi) {
+        long h = pi.uid;
+        h = h * 31 + Objects.hashCode(pi.processName);
+        h = h * 31 + pi.importance;
+        h = h * 31 + pi.lru;
+        h = h * 31 + pi.flags;
+        h = h * 31 + pi.importanceReasonPid;
+        h = h * 31 + pi.importanceReasonCode;
+        return h;
+    }
+
+    private static long serviceSignature(ActivityManager.RunningServiceInfo si) {
+        long h = Objects.hashCode(si.service);
+        h = h * 31 + si.pid;
+        h = h * 31 + Objects.hashCode(si.process);
+        h = h * 31 + (si.started ? 1 : 0);
+        h = h * 31 + (si.foreground ? 1 : 0);
+        h = h * 31 + si.flags;
+        h = h * 31 + si.clientLabel;
+        h = h * 31 + Objects.hashCode(si.clientPackage);
+        h = h * 31 + si.restarting;
+        h = h * 31 + si.activeSince;
+        return h;
+    }
+}
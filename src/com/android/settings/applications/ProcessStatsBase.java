@@ -75,6 +75,8 @@ public abstract class ProcessStatsBase extends SettingsPreferenceFragment
                 : args != null ? args.getInt(ARG_DURATION_INDEX) : 0;
         mStatsManager.setDuration(icicle != null
                 ? icicle.getLong(DURATION, sDurations[0]) : sDurations[0]);
+        // Warm up the other durations so switching between them is instant.
+        mStatsManager.prefetchDurations(sDurations);
     }
 
     @Override
@@ -96,6 +98,9 @@ public abstract class ProcessStatsBase extends SettingsPreferenceFragment
         super.onDestroy();
         if (getActivity().isChangingConfigurations()) {
             mStatsManager.xferStats();
+        } else if (getActivity().isFinishing()) {
+            // Don't keep the snapshots of every duration once the memory screens are left.
+            ProcStatsCache.getInstance().clear();
         }
     }
 
@@ -22,6 +22,8 @@ import android.text.TextUtils;
 import android.text.format.Formatter;
 
 import android.util.Log;
+
+import com.android.settings.utils.AppIconCache;
 import com.android.settings.widget.AppPreference;
 
 public class ProcessStatsPreference extends AppPreference {
@@ -42,7 +44,7 @@ public class ProcessStatsPreference extends AppPreference {
             Log.d(TAG, "PackageEntry contained no package name or uiLabel");
         }
         if (entry.mUiTargetApp != null) {
-            setIcon(entry.mUiTargetApp.loadIcon(pm));
+            AppIconCache.getInstance(getContext()).loadIcon(entry.mUiTargetApp, this::setIcon);
         } else {
             setIcon(pm.getDefaultActivityIcon());
         }
@@ -32,6 +32,7 @@ import android.content.pm.UserInfo;
 import android.content.res.Resources;
 import android.graphics.drawable.Drawable;
 import android.graphics.drawable.Drawable.ConstantState;
+import android.os.Debug;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
@@ -61,6 +62,7 @@ import java.util.List;
 public class RunningState {
     static final String TAG = "RunningState";
     static final boolean DEBUG_COMPARE = false;
+    static final boolean DEBUG_REFRESH = false;
 
     static Object sGlobalLock = new Object();
     static RunningState sInstance;
@@ -137,6 +139,10 @@ public class RunningState {
     // Temporary structure used when updating above information.
     final SparseArray<AppProcessInfo> mTmpAppProcesses = new SparseArray<AppProcessInfo>();
 
+    // Detects which processes and services changed between refreshes, so we
+    // only rebuild the items that need it and back off polling when idle.
+    final ProcessDeltaTracker mDeltaTracker = new ProcessDeltaTracker();
+
     int mSequence = 0;
 
     final Comparator<RunningState.MergedItem> mBackgroundComparator
@@ -243,7 +249,7 @@ public class RunningState {
                     mHandler.sendMessage(cmd);
                     removeMessages(MSG_UPDATE_CONTENTS);
                     msg = obtainMessage(MSG_UPDATE_CONTENTS);
-                    sendMessageDelayed(msg, CONTENTS_UPDATE_DELAY);
+                    sendMessageDelayed(msg, mDeltaTracker.getNextDelay(CONTENTS_UPDATE_DELAY));
                     break;
             }
         }
@@ -489,11 +495,19 @@ public class RunningState {
             }
         }
 
-        boolean updateService(Context context, ActivityManager.RunningServiceInfo service) {
+        boolean updateService(Context context, ActivityManager.RunningServiceInfo service,
+                boolean uidChanged) {
             final PackageManager pm = context.getPackageManager();
 
             boolean changed = false;
             ServiceItem si = mServices.get(service.service);
+            if (si != null && !uidChanged) {
+                // Nothing about the services of this uid changed since the last
+                // refresh, so there is no need to reload the description.
+                si.mCurSeq = mCurSeq;
+                si.mRunningService = service;
+                return false;
+            }
             if (si == null) {
                 changed = true;
                 si = new ServiceItem(mUserId);
@@ -549,7 +563,12 @@ public class RunningState {
         }
         
         boolean updateSize(Context context, long pss, int curSeq) {
-            mSize = pss * 1024;
+            final long size = pss * 1024;
+            if (size == mSize && mSizeStr != null) {
+                // Memory didn't change, no need to format it again.
+                return false;
+            }
+            mSize = size;
             if (mCurSeq == curSeq) {
                 String sizeStr = Formatter.formatShortFileSize(
                         context, mSize);
@@ -856,6 +875,7 @@ public class RunningState {
     }
 
     private void reset() {
+        mDeltaTracker.invalidate();
         mServiceProcessesByName.clear();
         mServiceProcessesByPid.clear();
         mInterestingProcesses.clear();
@@ -893,44 +913,17 @@ public class RunningState {
         userItem.mChildren.add(newItem);
     }
 
-    private boolean update(Context context, ActivityManager am) {
+    private boolean updateItems(Context context,
+            List<ActivityManager.RunningServiceInfo> services,
+            List<ActivityManager.RunningAppProcessInfo> processes) {
         final PackageManager pm = context.getPackageManager();
 
         mSequence++;
-        
-        boolean changed = false;
 
-        // Retrieve list of services, filtering out anything that definitely
-        // won't be shown in the UI.
-        List<ActivityManager.RunningServiceInfo> services 
-                = am.getRunningServices(MAX_SERVICES);
-        int NS = services != null ? services.size() : 0;
-        for (int i=0; i<NS; i++) {
-            ActivityManager.RunningServiceInfo si = services.get(i);
-            // We are not interested in services that have not been started
-            // and don't have a known client, because
-            // there is nothing the user can do about them.
-            if (!si.started && si.clientLabel == 0) {
-                services.remove(i);
-                i--;
-                NS--;
-                continue;
-            }
-            // We likewise don't care about services running in a
-            // persistent process like the system or phone.
-            if ((si.flags&ActivityManager.RunningServiceInfo.FLAG_PERSISTENT_PROCESS)
-                    != 0) {
-                services.remove(i);
-                i--;
-                NS--;
-                continue;
-            }
-        }
+        boolean changed = false;
+        final int NS = services != null ? services.size() : 0;
 
-        // Retrieve list of running processes, organizing them into a sparse
-        // array for easy retrieval.
-        List<ActivityManager.RunningAppProcessInfo> processes
-                = am.getRunningAppProcesses();
+        // Organize the running processes into a sparse array for easy retrieval.
         final int NP = processes != null ? processes.size() : 0;
         mTmpAppProcesses.clear();
         for (int i=0; i<NP; i++) {
@@ -1019,7 +1012,7 @@ public class RunningState {
                 proc.mDependentProcesses.clear();
                 proc.mCurSeq = mSequence;
             }
-            changed |= proc.updateService(context, si);
+            changed |= proc.updateService(context, si, mDeltaTracker.isUidChanged(si.uid));
         }
         
         // Now update the map of other processes that are running (but
@@ -1276,7 +1269,52 @@ public class RunningState {
                 mMergedItems = newMergedItems;
             }
         }
-        
+
+        return changed;
+    }
+
+    private boolean update(Context context, ActivityManager am) {
+        final long startCpuTime = Debug.threadCpuTimeNanos();
+
+        boolean changed = false;
+
+        // Retrieve list of services, filtering out anything that definitely
+        // won't be shown in the UI.
+        List<ActivityManager.RunningServiceInfo> services 
+                = am.getRunningServices(MAX_SERVICES);
+        int NS = services != null ? services.size() : 0;
+        for (int i=0; i<NS; i++) {
+            ActivityManager.RunningServiceInfo si = services.get(i);
+            // We are not interested in services that have not been started
+            // and don't have a known client, because
+            // there is nothing the user can do about them.
+            if (!si.started && si.clientLabel == 0) {
+                services.remove(i);
+                i--;
+                NS--;
+                continue;
+            }
+            // We likewise don't care about services running in a
+            // persistent process like the system or phone.
+            if ((si.flags&ActivityManager.RunningServiceInfo.FLAG_PERSISTENT_PROCESS)
+                    != 0) {
+                services.remove(i);
+                i--;
+                NS--;
+                continue;
+            }
+        }
+
+        // Retrieve list of running processes.
+        List<ActivityManager.RunningAppProcessInfo> processes
+                = am.getRunningAppProcesses();
+
+        // Only rebuild our items if some process or service actually changed
+        // since the last refresh; otherwise we just need to refresh memory.
+        if (mDeltaTracker.computeDelta(processes, services)) {
+            changed = updateItems(context, services, processes);
+        }
+
         // Count number of interesting other (non-active) processes, and
         // build a list of all processes we will retrieve memory for.
         mAllProcessItems.clear();
@@ -1284,7 +1322,7 @@ public class RunningState {
         int numBackgroundProcesses = 0;
         int numForegroundProcesses = 0;
         int numServiceProcesses = 0;
-        NRP = mRunningProcesses.size();
+        final int NRP = mRunningProcesses.size();
         for (int i=0; i<NRP; i++) {
             ProcessItem proc = mRunningProcesses.valueAt(i);
             if (proc.mCurSeq != mSequence) {
@@ -1313,6 +1351,7 @@ public class RunningState {
         ArrayList<MergedItem> newBackgroundItems = null;
         ArrayList<MergedItem> newUserBackgroundItems = null;
         boolean diffUsers = false;
+        boolean memoryChanged = false;
         try {
             final int numProc = mAllProcessItems.size();
             int[] pids = new int[numProc];
@@ -1324,7 +1363,11 @@ public class RunningState {
             int bgIndex = 0;
             for (int i=0; i<pids.length; i++) {
                 ProcessItem proc = mAllProcessItems.get(i);
+                final String oldSizeStr = proc.mSizeStr;
                 changed |= proc.updateSize(context, pss[i], mSequence);
+                // Only a change visible on screen counts, PSS moves a little all the time.
+                // updateSize() only replaces mSizeStr when its text changes.
+                memoryChanged |= proc.mSizeStr != oldSizeStr;
                 if (proc.mCurSeq == mSequence) {
                     serviceProcessMemory += proc.mSize;
                 } else if (proc.mRunningProcessInfo.importance >=
@@ -1410,7 +1453,10 @@ public class RunningState {
         }
 
         for (int i=0; i<mMergedItems.size(); i++) {
-            mMergedItems.get(i).updateSize(context);
+            final MergedItem mergedItem = mMergedItems.get(i);
+            final String oldSizeStr = mergedItem.mSizeStr;
+            mergedItem.updateSize(context);
+            memoryChanged |= mergedItem.mSizeStr != oldSizeStr;
         }
         
         synchronized (mLock) {
@@ -1432,7 +1478,18 @@ public class RunningState {
                 mLock.notifyAll();
             }
         }
-        
+
+        if (memoryChanged) {
+            mDeltaTracker.setMemoryChanged();
+        }
+        final long cpuTime = Debug.threadCpuTimeNanos() - startCpuTime;
+        mDeltaTracker.recordRefresh(cpuTime);
+        if (DEBUG_REFRESH) {
+            Log.d(TAG, "Refresh took " + cpuTime / 1000 + "us cpu, items rebuilt: "
+                    + changed + ", skipped " + mDeltaTracker.getSkippedCount()
+                    + " of " + mDeltaTracker.getRefreshCount());
+        }
+
         return changed;
     }
     
@@ -1453,4 +1510,11 @@ public class RunningState {
             return mUserBackgroundItems;
         }
     }
+
+    /**
+     * Returns the thread CPU time, in nanoseconds, spent by the most recent refresh.
+     */
+    long getLastRefreshCpuTimeNanos() {
+        return mDeltaTracker.getLastCpuTimeNanos();
+    }
 }
@@ -36,13 +36,13 @@ import com.android.settings.core.BasePreferenceController;
 import com.android.settings.fuelgauge.AdvancedPowerUsageDetail;
 import com.android.settings.fuelgauge.BatteryEntry;
 import com.android.settings.fuelgauge.BatteryStatsHelperLoader;
+import com.android.settings.fuelgauge.BatteryStatsSnapshot;
 import com.android.settings.fuelgauge.BatteryUtils;
 import com.android.settingslib.core.lifecycle.Lifecycle;
 import com.android.settingslib.core.lifecycle.LifecycleObserver;
 import com.android.settingslib.core.lifecycle.events.OnPause;
 import com.android.settingslib.core.lifecycle.events.OnResume;
 
-import java.util.ArrayList;
 import java.util.List;
 
 public class AppBatteryPreferenceController extends BasePreferenceController
@@ -149,11 +149,14 @@ public class AppBatteryPreferenceController extends BasePreferenceController
             final int dischargeAmount = mBatteryHelper.getStats().getDischargeAmount(
                     BatteryStats.STATS_SINCE_CHARGED);
 
-            final List<BatterySipper> usageList = new ArrayList<>(mBatteryHelper.getUsageList());
+            // Smearing the hidden sippers modifies them, and the helper is shared.
+            final List<BatterySipper> usageList =
+                    BatteryStatsSnapshot.copyUsageList(mBatteryHelper);
             final double hiddenAmount = mBatteryUtils.removeHiddenBatterySippers(usageList);
+            final BatterySipper sipper = findTargetSipper(usageList, mSipper.getUid());
             final int percentOfMax = (int) mBatteryUtils.calculateBatteryPercent(
-                    mSipper.totalPowerMah, mBatteryHelper.getTotalPower(), hiddenAmount,
-                    dischargeAmount);
+                    (sipper != null ? sipper : mSipper).totalPowerMah,
+                    mBatteryHelper.getTotalPower(), hiddenAmount, dischargeAmount);
             mBatteryPercent = Utils.formatPercentage(percentOfMax);
             mPreference.setSummary(mContext.getString(R.string.battery_summary, mBatteryPercent));
         } else {
@@ -168,7 +171,10 @@ public class AppBatteryPreferenceController extends BasePreferenceController
 
     @VisibleForTesting
     BatterySipper findTargetSipper(BatteryStatsHelper batteryHelper, int uid) {
-        final List<BatterySipper> usageList = batteryHelper.getUsageList();
+        return findTargetSipper(batteryHelper.getUsageList(), uid);
+    }
+
+    private static BatterySipper findTargetSipper(List<BatterySipper> usageList, int uid) {
         for (int i = 0, size = usageList.size(); i < size; i++) {
             final BatterySipper sipper = usageList.get(i);
             if (sipper.getUid() == uid) {
@@ -117,6 +117,7 @@ public class AppOpsCategory extends ListFragment implements
 
         @Override public void onReceive(Context context, Intent intent) {
             // Tell the loader about the change.
+            AppOpsSnapshot.getInstance().invalidate();
             mLoader.onContentChanged();
         }
     }
@@ -381,6 +382,7 @@ public class AppOpsCategory extends ListFragment implements
                         entry.getAppEntry().getApplicationInfo().uid,
                         entry.getAppEntry().getApplicationInfo().packageName,
                         mode);
+                AppOpsSnapshot.getInstance().invalidate();
                 entry.overridePrimaryOpMode(mode);
             } else {
                 mCurrentPkgName = entry.getAppEntry().getApplicationInfo().packageName;
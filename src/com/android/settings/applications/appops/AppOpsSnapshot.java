@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications.appops;
+
+import android.app.AppOpsManager;
+import android.os.SystemClock;
+import android.support.annotation.VisibleForTesting;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Snapshot of {@link AppOpsManager#getPackagesForOps} for the ops of every
+ * {@link AppOpsState.OpsTemplate}, shared by all the App ops tabs.
+ *
+ * <p>The snapshot is taken with a single call for the union of all template ops, and indexed
+ * per package by op code. Each tab then picks its own ops out of it instead of asking
+ * {@link AppOpsManager} again.
+ */
+class AppOpsSnapshot {
+
+    @VisibleForTesting
+    static final long MAX_AGE_MS = 5000;
+
+    private static AppOpsSnapshot sInstance;
+
+    private final int[] mAllOps;
+    private final BitSet mAllOpsSet = new BitSet(AppOpsManager._NUM_OP);
+
+    private List<PackageEntry> mPackages;
+    private long mTimestamp;
+
+    /**
+     * The ops of one package, indexed by op code.
+     */
+    private static class PackageEntry {
+        final AppOpsManager.PackageOps pkgOps;
+        final SparseArray<AppOpsManager.OpEntry> ops;
+
+        PackageEntry(AppOpsManager.PackageOps pkgOps) {
+            this.pkgOps = pkgOps;
+            final List<AppOpsManager.OpEntry> entries = pkgOps.getOps();
+            ops = new SparseArray<>(entries.size());
+            for (int i = 0; i < entries.size(); i++) {
+                final AppOpsManager.OpEntry op = entries.get(i);
+                ops.put(op.getOp(), op);
+            }
+        }
+    }
+
+    static synchronized AppOpsSnapshot getInstance() {
+        if (sInstance == null) {
+            sInstance = new AppOpsSnapshot(AppOpsState.ALL_TEMPLATES);
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    AppOpsSnapshot(AppOpsState.OpsTemplate[] templates) {
+        for (AppOpsState.OpsTemplate tpl : templates) {
+            for (int op : tpl.ops) {
+                mAllOpsSet.set(op);
+            }
+        }
+        mAllOps = new int[mAllOpsSet.cardinality()];
+        for (int op = mAllOpsSet.nextSetBit(0), i = 0; op >= 0;
+                op = mAllOpsSet.nextSetBit(op + 1)) {
+            mAllOps[i++] = op;
+        }
+    }
+
+    /**
+     * Equivalent to {@link AppOpsManager#getPackagesForOps(int[])}, but served from the
+     * shared snapshot whenever {@code ops} is covered by it.
+     */
+    List<AppOpsManager.PackageOps> getPackagesForOps(AppOpsManager appOps, int[] ops) {
+        if (!covers(ops)) {
+            return appOps.getPackagesForOps(ops);
+        }
+        final List<PackageEntry> packages = getPackages(appOps);
+        if (packages == null) {
+            return null;
+        }
+        final List<AppOpsManager.PackageOps> result = new ArrayList<>();
+        for (int i = 0; i < packages.size(); i++) {
+            final PackageEntry pkg = packages.get(i);
+            List<AppOpsManager.OpEntry> pkgOps = null;
+            // Keep the order of the requested ops, like AppOpsManager does.
+            for (int op : ops) {
+                final AppOpsManager.OpEntry entry = pkg.ops.get(op);
+                if (entry != null) {
+                    if (pkgOps == null) {
+                        pkgOps = new ArrayList<>();
+                    }
+                    pkgOps.add(entry);
+                }
+            }
+            if (pkgOps != null) {
+                result.add(new AppOpsManager.PackageOps(pkg.pkgOps.getPackageName(),
+                        pkg.pkgOps.getUid(), pkgOps));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Drops the snapshot, e.g. after an op mode was changed or a package was updated.
+     */
+    synchronized void invalidate() {
+        mPackages = null;
+    }
+
+    private synchronized List<PackageEntry> getPackages(AppOpsManager appOps) {
+        final long now = SystemClock.elapsedRealtime();
+        if (mPackages == null || now - mTimestamp > MAX_AGE_MS) {
+            final List<AppOpsManager.PackageOps> pkgs = appOps.getPackagesForOps(mAllOps);
+            if (pkgs == null) {
+                return null;
+            }
+            mPackages = new ArrayList<>(pkgs.size());
+            for (int i = 0; i < pkgs.size(); i++) {
+                mPackages.add(new PackageEntry(pkgs.get(i)));
+            }
+            mTimestamp = now;
+        }
+        return mPackages;
+    }
+
+    private boolean covers(int[] ops) {
+        for (int op : ops) {
+            if (!mAllOpsSet.get(op)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
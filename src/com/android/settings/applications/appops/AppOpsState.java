@@ -27,10 +27,12 @@ import android.graphics.drawable.Drawable;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.text.format.DateUtils;
+import android.util.ArrayMap;
 import android.util.Log;
 import android.util.SparseArray;
 
 import com.android.settings.R;
+import com.android.settings.utils.AppIconCache;
 
 import java.io.File;
 import java.text.Collator;
@@ -264,13 +266,16 @@ public class AppOpsState {
         }
 
         public String getLabel() {
+            if (mLabel == null) {
+                loadLabel(mState.mContext);
+            }
             return mLabel;
         }
 
         public Drawable getIcon() {
             if (mIcon == null) {
                 if (mApkFile.exists()) {
-                    mIcon = mInfo.loadIcon(mState.mPm);
+                    mIcon = loadIcon();
                     return mIcon;
                 } else {
                     mMounted = false;
@@ -280,7 +285,7 @@ public class AppOpsState {
                 // its icon.
                 if (mApkFile.exists()) {
                     mMounted = true;
-                    mIcon = mInfo.loadIcon(mState.mPm);
+                    mIcon = loadIcon();
                     return mIcon;
                 }
             } else {
@@ -292,7 +297,7 @@ public class AppOpsState {
         }
 
         @Override public String toString() {
-            return mLabel;
+            return getLabel();
         }
 
         void loadLabel(Context context) {
@@ -302,11 +307,14 @@ public class AppOpsState {
                     mLabel = mInfo.packageName;
                 } else {
                     mMounted = true;
-                    CharSequence label = mInfo.loadLabel(context.getPackageManager());
-                    mLabel = label != null ? label.toString() : mInfo.packageName;
+                    mLabel = AppIconCache.getInstance(context).getLabel(mInfo);
                 }
             }
         }
+
+        private Drawable loadIcon() {
+            return AppIconCache.getInstance(mState.mContext).getIcon(mInfo);
+        }
     }
 
     /**
@@ -523,8 +531,8 @@ public class AppOpsState {
                     return null;
                 }
             }
+            // The label is loaded lazily, when first needed for sorting or display.
             appEntry = new AppEntry(this, appInfo);
-            appEntry.loadLabel(context);
             appEntries.put(packageName, appEntry);
         }
         return appEntry;
@@ -541,15 +549,14 @@ public class AppOpsState {
         final HashMap<String, AppEntry> appEntries = new HashMap<String, AppEntry>();
         final List<AppOpEntry> entries = new ArrayList<AppOpEntry>();
 
-        final ArrayList<String> perms = new ArrayList<String>();
-        final ArrayList<Integer> permOps = new ArrayList<Integer>();
+        // Maps each permission shown by this template to its op.
+        final ArrayMap<String, Integer> permOps = new ArrayMap<String, Integer>();
         final int[] opToOrder = new int[AppOpsManager._NUM_OP];
         for (int i=0; i<tpl.ops.length; i++) {
             if (tpl.showPerms[i]) {
                 String perm = AppOpsManager.opToPermission(tpl.ops[i]);
-                if (perm != null && !perms.contains(perm)) {
-                    perms.add(perm);
-                    permOps.add(tpl.ops[i]);
+                if (perm != null && !permOps.containsKey(perm)) {
+                    permOps.put(perm, tpl.ops[i]);
                     opToOrder[tpl.ops[i]] = i;
                 }
             }
@@ -559,7 +566,7 @@ public class AppOpsState {
         if (packageName != null) {
             pkgs = mAppOps.getOpsForPackage(uid, packageName, tpl.ops);
         } else {
-            pkgs = mAppOps.getPackagesForOps(tpl.ops);
+            pkgs = AppOpsSnapshot.getInstance().getPackagesForOps(mAppOps, tpl.ops);
         }
 
         if (pkgs != null) {
@@ -586,8 +593,10 @@ public class AppOpsState {
             } catch (NameNotFoundException e) {
             }
         } else {
-            String[] permsArray = new String[perms.size()];
-            perms.toArray(permsArray);
+            String[] permsArray = new String[permOps.size()];
+            for (int i=0; i<permsArray.length; i++) {
+                permsArray[i] = permOps.keyAt(i);
+            }
             apps = mPm.getPackagesHoldingPermissions(permsArray, 0);
         }
         for (int i=0; i<apps.size(); i++) {
@@ -611,27 +620,27 @@ public class AppOpsState {
                     }
                     if (DEBUG) Log.d(TAG, "Pkg " + appInfo.packageName + ": requested perm "
                             + appInfo.requestedPermissions[j]);
-                    for (int k=0; k<perms.size(); k++) {
-                        if (!perms.get(k).equals(appInfo.requestedPermissions[j])) {
-                            continue;
-                        }
-                        if (DEBUG) Log.d(TAG, "Pkg " + appInfo.packageName + " perm " + perms.get(k)
-                                + " has op " + permOps.get(k) + ": " + appEntry.hasOp(permOps.get(k)));
-                        if (appEntry.hasOp(permOps.get(k))) {
-                            continue;
-                        }
-                        if (dummyOps == null) {
-                            dummyOps = new ArrayList<AppOpsManager.OpEntry>();
-                            pkgOps = new AppOpsManager.PackageOps(
-                                    appInfo.packageName, appInfo.applicationInfo.uid, dummyOps);
+                    final Integer op = permOps.get(appInfo.requestedPermissions[j]);
+                    if (op == null) {
+                        continue;
+                    }
+                    if (DEBUG) Log.d(TAG, "Pkg " + appInfo.packageName + " perm "
+                            + appInfo.requestedPermissions[j] + " has op " + op + ": "
+                            + appEntry.hasOp(op));
+                    if (appEntry.hasOp(op)) {
+                        continue;
+                    }
+                    if (dummyOps == null) {
+                        dummyOps = new ArrayList<AppOpsManager.OpEntry>();
+                        pkgOps = new AppOpsManager.PackageOps(
+                                appInfo.packageName, appInfo.applicationInfo.uid, dummyOps);
 
-                        }
-                        AppOpsManager.OpEntry opEntry = new AppOpsManager.OpEntry(
-                                permOps.get(k), AppOpsManager.MODE_ALLOWED, 0, 0, 0, -1, null);
-                        dummyOps.add(opEntry);
-                        addOp(entries, pkgOps, appEntry, opEntry, packageName == null,
-                                packageName == null ? 0 : opToOrder[opEntry.getOp()]);
                     }
+                    AppOpsManager.OpEntry opEntry = new AppOpsManager.OpEntry(
+                            op, AppOpsManager.MODE_ALLOWED, 0, 0, 0, -1, null);
+                    dummyOps.add(opEntry);
+                    addOp(entries, pkgOps, appEntry, opEntry, packageName == null,
+                            packageName == null ? 0 : opToOrder[opEntry.getOp()]);
                 }
             }
         }
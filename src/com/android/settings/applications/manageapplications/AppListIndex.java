@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications.manageapplications;
+
+import android.content.Context;
+import android.support.annotation.VisibleForTesting;
+import android.util.ArrayMap;
+
+import com.android.settingslib.applications.ApplicationsState;
+import com.android.settingslib.applications.ApplicationsState.AppEntry;
+import com.android.settingslib.applications.ApplicationsState.AppFilter;
+
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Caches filter and sort results over the apps of an {@link
+ * com.android.settingslib.applications.ApplicationsState.Session}.
+ *
+ * <p>Each filter is run once per generation of the app list and its result kept as a bitmap of
+ * app indexes, and each comparator sorts the whole list once. Switching between filters or
+ * sort orders then only intersects bitmaps and walks a pre-sorted ordering.
+ */
+class AppListIndex {
+
+    private final Context mContext;
+    private final ArrayMap<AppFilter, BitSet> mFilterResults = new ArrayMap<>();
+    private final ArrayMap<Comparator<AppEntry>, int[]> mOrderings = new ArrayMap<>();
+
+    private List<AppEntry> mApps;
+    private int mGeneration;
+
+    AppListIndex(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Returns the apps of {@code allApps} accepted by every filter of {@code filters}, sorted by
+     * {@code comparator}. This is the same list {@code Session.rebuild} would return for a
+     * {@code CompoundFilter} of {@code filters}.
+     */
+    synchronized ArrayList<AppEntry> query(List<AppEntry> allApps, List<AppFilter> filters,
+            Comparator<AppEntry> comparator) {
+        if (!isSameList(allApps)) {
+            reset();
+            mApps = new ArrayList<>(allApps);
+        }
+        final int count = mApps.size();
+        final BitSet matches = new BitSet(count);
+        matches.set(0, count);
+        for (int i = 0; i < filters.size(); i++) {
+            matches.and(getFilterResult(filters.get(i)));
+        }
+
+        final ArrayList<AppEntry> result = new ArrayList<>(matches.cardinality());
+        if (comparator == null) {
+            for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+                result.add(mApps.get(i));
+            }
+            return result;
+        }
+        final int[] order = getOrdering(comparator);
+        for (int i = 0; i < order.length; i++) {
+            if (matches.get(order[i])) {
+                result.add(mApps.get(order[i]));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Drops all cached results, e.g. when the app list or the extra info of its apps changed.
+     */
+    synchronized void invalidate() {
+        reset();
+        mApps = null;
+    }
+
+    /**
+     * Drops the cached orderings only, e.g. when app sizes changed but the filters still hold.
+     */
+    synchronized void invalidateOrderings() {
+        mOrderings.clear();
+    }
+
+    @VisibleForTesting
+    synchronized int getGeneration() {
+        return mGeneration;
+    }
+
+    private BitSet getFilterResult(AppFilter filter) {
+        BitSet result = mFilterResults.get(filter);
+        if (result == null) {
+            final int count = mApps.size();
+            result = new BitSet(count);
+            filter.init(mContext);
+            for (int i = 0; i < count; i++) {
+                if (filter.filterApp(mApps.get(i))) {
+                    result.set(i);
+                }
+            }
+            mFilterResults.put(filter, result);
+        }
+        return result;
+    }
+
+    private int[] getOrdering(Comparator<AppEntry> comparator) {
+        int[] ordering = mOrderings.get(comparator);
+        if (ordering == null) {
+            final int count = mApps.size();
+            for (int i = 0; i < count; i++) {
+                // Comparators such as ALPHA_COMPARATOR need the label.
+                mApps.get(i).ensureLabel(mContext);
+            }
+            // The sort is stable, so any subset of this ordering is sorted the same way as
+            // sorting the subset on its own.
+            if (isKeyComparator(comparator)) {
+                ordering = sortByKeys(comparator);
+            } else {
+                final Integer[] indexes = new Integer[count];
+                for (int i = 0; i < count; i++) {
+                    indexes[i] = i;
+                }
+                Arrays.sort(indexes, (a, b) -> comparator.compare(mApps.get(a), mApps.get(b)));
+                ordering = new int[count];
+                for (int i = 0; i < count; i++) {
+                    ordering[i] = indexes[i];
+                }
+            }
+            mOrderings.put(comparator, ordering);
+        }
+        return ordering;
+    }
+
+    /**
+     * Sorts on a copy of the sizes and labels, taken under the lock of each entry. The background
+     * handler of ApplicationsState updates sizes while we sort, and a size changing in the middle
+     * of the sort breaks its contract.
+     */
+    private int[] sortByKeys(Comparator<AppEntry> comparator) {
+        final int count = mApps.size();
+        final SortKey[] keys = new SortKey[count];
+        for (int i = 0; i < count; i++) {
+            final AppEntry entry = mApps.get(i);
+            synchronized (entry) {
+                keys[i] = new SortKey(i, entry, getSize(comparator, entry));
+            }
+        }
+        Arrays.sort(keys, SortKey::compare);
+        final int[] ordering = new int[count];
+        for (int i = 0; i < count; i++) {
+            ordering[i] = keys[i].index;
+        }
+        return ordering;
+    }
+
+    private static boolean isKeyComparator(Comparator<AppEntry> comparator) {
+        return comparator == ApplicationsState.ALPHA_COMPARATOR
+                || comparator == ApplicationsState.SIZE_COMPARATOR
+                || comparator == ApplicationsState.INTERNAL_SIZE_COMPARATOR
+                || comparator == ApplicationsState.EXTERNAL_SIZE_COMPARATOR;
+    }
+
+    private static long getSize(Comparator<AppEntry> comparator, AppEntry entry) {
+        if (comparator == ApplicationsState.SIZE_COMPARATOR) {
+            return entry.size;
+        } else if (comparator == ApplicationsState.INTERNAL_SIZE_COMPARATOR) {
+            return entry.internalSize;
+        } else if (comparator == ApplicationsState.EXTERNAL_SIZE_COMPARATOR) {
+            return entry.externalSize;
+        }
+        // Sorted by label only.
+        return 0;
+    }
+
+    /**
+     * The fields the comparators of {@link ApplicationsState} sort on: size, largest first, then
+     * label, package name and uid.
+     */
+    private static final class SortKey {
+        private static final Collator sCollator = Collator.getInstance();
+
+        final int index;
+        final long size;
+        final String label;
+        final String packageName;
+        final int uid;
+
+        SortKey(int index, AppEntry entry, long size) {
+            this.index = index;
+            this.size = size;
+            label = entry.label;
+            packageName = entry.info != null ? entry.info.packageName : null;
+            uid = entry.info != null ? entry.info.uid : 0;
+        }
+
+        static int compare(SortKey a, SortKey b) {
+            int result = Long.compare(b.size, a.size);
+            if (result != 0) {
+                return result;
+            }
+            result = compareStrings(a.label, b.label);
+            if (result != 0) {
+                return result;
+            }
+            result = compareStrings(a.packageName, b.packageName);
+            if (result != 0) {
+                return result;
+            }
+            return Integer.compare(a.uid, b.uid);
+        }
+
+        private static int compareStrings(String a, String b) {
+            if (a == null || b == null) {
+                return a == null ? (b == null ? 0 : -1) : 1;
+            }
+            return sCollator.compare(a, b);
+        }
+    }
+
+    private boolean isSameList(List<AppEntry> allApps) {
+        if (mApps == null || mApps.size() != allApps.size()) {
+            return false;
+        }
+        for (int i = 0; i < allApps.size(); i++) {
+            if (mApps.get(i) != allApps.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void reset() {
+        mFilterResults.clear();
+        mOrderings.clear();
+        mGeneration++;
+    }
+}
@@ -119,6 +119,13 @@ public class ApplicationViewHolder extends RecyclerView.ViewHolder {
         mAppIcon.setImageDrawable(icon);
     }
 
+    /**
+     * Clears the icon of a recycled row until the icon of its new app is loaded.
+     */
+    void clearIcon() {
+        mAppIcon.setImageDrawable(null);
+    }
+
     void updateDisableView(ApplicationInfo info) {
         if ((info.flags & ApplicationInfo.FLAG_INSTALLED) == 0) {
             mDisabled.setVisibility(View.VISIBLE);
@@ -130,6 +130,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -845,6 +846,7 @@ public class ManageApplications extends InstrumentedFragment
         private final Context mContext;
         private final AppStateBaseBridge mExtraInfoBridge;
         private final LoadingViewController mLoadingViewController;
+        private final AppListIndex mIndex;
 
         private AppFilterItem mAppFilter;
         private ArrayList<ApplicationsState.AppEntry> mEntries;
@@ -855,6 +857,8 @@ public class ManageApplications extends InstrumentedFragment
         private boolean mHasReceivedLoadEntries;
         private boolean mHasReceivedBridgeCallback;
         private FileViewHolderController mExtraViewController;
+        // Entries whose row was bound before their icon was loaded.
+        private final ArraySet<AppEntry> mEntriesWithoutIcon = new ArraySet<>();
 
         // This is to remember and restore the last scroll position when this
         // fragment is paused. We need this special handling because app entries are added gradually
@@ -877,6 +881,7 @@ public class ManageApplications extends InstrumentedFragment
                     mManageApplications.mListContainer
             );
             mContext = manageApplications.getActivity();
+            mIndex = new AppListIndex(mContext);
             mAppFilter = appFilter;
             if (mManageApplications.mListType == LIST_TYPE_NOTIFICATION) {
                 mExtraInfoBridge = new AppStateNotificationBridge(mContext, mState, this,
@@ -955,6 +960,8 @@ public class ManageApplications extends InstrumentedFragment
             if (DEBUG) Log.i(TAG, "Resume!  mResumed=" + mResumed);
             if (!mResumed) {
                 mResumed = true;
+                // Apps may have changed while we were paused, e.g. from the app details screen.
+                mIndex.invalidate();
                 mSession.onResume();
                 mLastSortMode = sort;
                 if (mExtraInfoBridge != null) {
@@ -1025,7 +1032,9 @@ public class ManageApplications extends InstrumentedFragment
                 // Don't rebuild the list until all the app entries are loaded.
                 return;
             }
-            ApplicationsState.AppFilter filterObj;
+            // The filters are applied together, like a CompoundFilter of all of them. Keeping
+            // them apart lets the index reuse the result of each one across rebuilds.
+            final List<AppFilter> filters = new ArrayList<>(4);
             Comparator<AppEntry> comparatorObj;
             boolean emulated = Environment.isExternalStorageEmulated();
             if (emulated) {
@@ -1033,17 +1042,15 @@ public class ManageApplications extends InstrumentedFragment
             } else {
                 mWhichSize = SIZE_INTERNAL;
             }
-            filterObj = mAppFilter.getFilter();
+            filters.add(mAppFilter.getFilter());
             if (mCompositeFilter != null) {
-                filterObj = new CompoundFilter(filterObj, mCompositeFilter);
+                filters.add(mCompositeFilter);
             }
             if (!mManageApplications.mShowSystem) {
                 if (LIST_TYPES_WITH_INSTANT.contains(mManageApplications.mListType)) {
-                    filterObj = new CompoundFilter(filterObj,
-                            ApplicationsState.FILTER_DOWNLOADED_AND_LAUNCHER_AND_INSTANT);
+                    filters.add(ApplicationsState.FILTER_DOWNLOADED_AND_LAUNCHER_AND_INSTANT);
                 } else {
-                    filterObj = new CompoundFilter(filterObj,
-                            ApplicationsState.FILTER_DOWNLOADED_AND_LAUNCHER);
+                    filters.add(ApplicationsState.FILTER_DOWNLOADED_AND_LAUNCHER);
                 }
             }
             switch (mLastSortMode) {
@@ -1071,14 +1078,11 @@ public class ManageApplications extends InstrumentedFragment
                     break;
             }
 
-            filterObj = new CompoundFilter(filterObj, ApplicationsState.FILTER_NOT_HIDE);
-            AppFilter finalFilterObj = filterObj;
+            filters.add(ApplicationsState.FILTER_NOT_HIDE);
             ThreadUtils.postOnBackgroundThread(() -> {
-                final ArrayList<AppEntry> entries = mSession.rebuild(finalFilterObj,
-                        comparatorObj, false);
-                if (entries != null) {
-                    ThreadUtils.postOnMainThread(() -> onRebuildComplete(entries));
-                }
+                final ArrayList<AppEntry> entries = mIndex.query(mSession.getAllApps(), filters,
+                        comparatorObj);
+                ThreadUtils.postOnMainThread(() -> onRebuildComplete(entries));
             });
         }
 
@@ -1134,6 +1138,8 @@ public class ManageApplications extends InstrumentedFragment
                 entries = removeDuplicateIgnoringUser(entries);
             }
             mEntries = entries;
+            // Every row is bound again, and asks again for the icons still missing.
+            mEntriesWithoutIcon.clear();
             notifyDataSetChanged();
             if (getItemCount() == 0) {
                 mManageApplications.mRecyclerView.setVisibility(View.GONE);
@@ -1175,6 +1181,7 @@ public class ManageApplications extends InstrumentedFragment
         @Override
         public void onExtraInfoUpdated() {
             mHasReceivedBridgeCallback = true;
+            mIndex.invalidate();
             rebuild();
         }
 
@@ -1185,18 +1192,33 @@ public class ManageApplications extends InstrumentedFragment
 
         @Override
         public void onPackageListChanged() {
+            mIndex.invalidate();
             rebuild();
         }
 
         @Override
         public void onPackageIconChanged() {
-            // We ensure icons are loaded when their item is displayed, so
-            // don't care about icons loaded in the background.
+            if (mEntries == null || mEntriesWithoutIcon.isEmpty()) {
+                return;
+            }
+            // Rebind the rows that were bound before their icon was loaded.
+            final int size = mEntries.size();
+            for (int i = 0; i < size; i++) {
+                final AppEntry entry = mEntries.get(i);
+                final boolean hasIcon;
+                synchronized (entry) {
+                    hasIcon = entry.icon != null;
+                }
+                if (hasIcon && mEntriesWithoutIcon.remove(entry)) {
+                    notifyItemChanged(i);
+                }
+            }
         }
 
         @Override
         public void onLoadEntriesCompleted() {
             mHasReceivedLoadEntries = true;
+            mIndex.invalidate();
             // We may have been skipping rebuilds until this came in, trigger one now.
             rebuild();
         }
@@ -1218,6 +1240,7 @@ public class ManageApplications extends InstrumentedFragment
                     // user viewed, and are sorting by size...  they may
                     // have cleared data, so we immediately want to resort
                     // the list with the new size to reflect it to the user.
+                    mIndex.invalidateOrderings();
                     rebuild();
                     return;
                 } else {
@@ -1229,6 +1252,7 @@ public class ManageApplications extends InstrumentedFragment
         @Override
         public void onLauncherInfoChanged() {
             if (!mManageApplications.mShowSystem) {
+                mIndex.invalidate();
                 rebuild();
             }
         }
@@ -1236,6 +1260,7 @@ public class ManageApplications extends InstrumentedFragment
         @Override
         public void onAllSizesComputed() {
             if (mLastSortMode == R.id.sort_order_size) {
+                mIndex.invalidateOrderings();
                 rebuild();
             }
         }
@@ -1286,8 +1311,13 @@ public class ManageApplications extends InstrumentedFragment
                 ApplicationsState.AppEntry entry = mEntries.get(position);
                 synchronized (entry) {
                     holder.setTitle(entry.label);
-                    mState.ensureIcon(entry);
-                    holder.setIcon(entry.icon);
+                    if (entry.icon != null) {
+                        holder.setIcon(entry.icon);
+                    } else {
+                        // Not loaded by ApplicationsState yet, don't decode it while binding.
+                        holder.clearIcon();
+                        loadIcon(entry);
+                    }
                     updateSummary(holder, entry);
                     updateSwitch(holder, entry);
                     holder.updateDisableView(entry.info);
@@ -1297,6 +1327,18 @@ public class ManageApplications extends InstrumentedFragment
             holder.itemView.setOnClickListener(mManageApplications);
         }
 
+        private void loadIcon(AppEntry entry) {
+            if (!mEntriesWithoutIcon.add(entry)) {
+                // Already being loaded.
+                return;
+            }
+            ThreadUtils.postOnBackgroundThread(() -> {
+                // Loads the badged icon into entry.icon, as ApplicationsState does.
+                mState.ensureIcon(entry);
+                ThreadUtils.postOnMainThread(this::onPackageIconChanged);
+            });
+        }
+
         private void updateSummary(ApplicationViewHolder holder, AppEntry entry) {
             switch (mManageApplications.mListType) {
                 case LIST_TYPE_NOTIFICATION:
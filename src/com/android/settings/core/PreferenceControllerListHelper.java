@@ -44,22 +44,37 @@ public class PreferenceControllerListHelper {
 
     private static final String TAG = "PrefCtrlListHelper";
 
+    /**
+     * Flags of the metadata needed by {@link #getPreferenceControllersFromMetadata}.
+     */
+    static final int CONTROLLER_METADATA_FLAGS =
+            MetadataFlag.FLAG_NEED_KEY | MetadataFlag.FLAG_NEED_PREF_CONTROLLER;
+
     /**
      * Instantiates a list of controller based on xml definition.
      */
     @NonNull
     public static List<BasePreferenceController> getPreferenceControllersFromXml(Context context,
             @XmlRes int xmlResId) {
-        final List<BasePreferenceController> controllers = new ArrayList<>();
         List<Bundle> preferenceMetadata;
         try {
             preferenceMetadata = PreferenceXmlParserUtils.extractMetadata(context, xmlResId,
-                    MetadataFlag.FLAG_NEED_KEY | MetadataFlag.FLAG_NEED_PREF_CONTROLLER);
+                    CONTROLLER_METADATA_FLAGS);
         } catch (IOException | XmlPullParserException e) {
             Log.e(TAG, "Failed to parse preference xml for getting controllers", e);
-            return controllers;
+            return new ArrayList<>();
         }
+        return getPreferenceControllersFromMetadata(context, preferenceMetadata);
+    }
 
+    /**
+     * Instantiates a list of controller based on the metadata of an xml definition, extracted
+     * with {@link #CONTROLLER_METADATA_FLAGS}.
+     */
+    @NonNull
+    public static List<BasePreferenceController> getPreferenceControllersFromMetadata(
+            Context context, List<Bundle> preferenceMetadata) {
+        final List<BasePreferenceController> controllers = new ArrayList<>();
         for (Bundle metadata : preferenceMetadata) {
             final String controllerName = metadata.getString(METADATA_CONTROLLER);
             if (TextUtils.isEmpty(controllerName)) {
@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.core;
+
+import static com.android.settings.core.PreferenceXmlParserUtils.METADATA_CONTROLLER;
+
+import android.annotation.NonNull;
+import android.annotation.XmlRes;
+import android.content.Context;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.provider.SearchIndexableResource;
+import android.support.annotation.VisibleForTesting;
+import android.text.TextUtils;
+import android.util.ArrayMap;
+import android.util.Log;
+
+import com.android.settings.search.DatabaseIndexingUtils;
+import com.android.settings.search.Indexable;
+import com.android.settingslib.utils.ThreadUtils;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.List;
+
+/**
+ * Prefetches what a settings page needs to build its xml preference controllers, on a
+ * background thread, before the page is shown.
+ *
+ * <p>A page is prefetched by the class name of its fragment when a preference leading to it is
+ * touched, or when {@link SubSettingLauncher} starts it. Its preference xml, found through the
+ * {@link Indexable.SearchIndexProvider} of the fragment, is parsed into metadata and the classes
+ * of its controllers are loaded. {@link com.android.settings.dashboard.DashboardFragment} then
+ * creates its controllers from that metadata with its own context: controllers keep the context
+ * they are created with, and some create handlers, so they aren't created ahead of time.
+ *
+ * <p>A prefetch is used once, and dropped after {@link #PREFETCH_TTL_MS} if unused.
+ */
+public class PreferenceControllerPrefetcher {
+    private static final String TAG = "PrefCtrlPrefetcher";
+
+    @VisibleForTesting
+    static final long PREFETCH_TTL_MS = 30000;
+    @VisibleForTesting
+    static final int MAX_PREFETCHES = 8;
+
+    private static PreferenceControllerPrefetcher sInstance;
+
+    // Prefetches by fragment class name, guarded by this
+    private final ArrayMap<String, Prefetch> mPrefetches = new ArrayMap<>();
+    private long mHits;
+    private long mMisses;
+
+    public static synchronized PreferenceControllerPrefetcher getInstance() {
+        if (sInstance == null) {
+            sInstance = new PreferenceControllerPrefetcher();
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    PreferenceControllerPrefetcher() {
+    }
+
+    /**
+     * Starts prefetching the page of the fragment {@code fragmentName} in the background, unless
+     * it already is.
+     */
+    public void prefetch(Context context, String fragmentName) {
+        if (TextUtils.isEmpty(fragmentName)) {
+            return;
+        }
+        final Prefetch prefetch = new Prefetch(SystemClock.elapsedRealtime());
+        synchronized (this) {
+            trimLocked(prefetch.mCreatedMs);
+            if (mPrefetches.containsKey(fragmentName)
+                    || mPrefetches.size() >= MAX_PREFETCHES) {
+                return;
+            }
+            mPrefetches.put(fragmentName, prefetch);
+        }
+        final Context appContext = context.getApplicationContext();
+        ThreadUtils.postOnBackgroundThread(() -> load(appContext, fragmentName, prefetch));
+    }
+
+    /**
+     * Returns the xml preference controllers of the fragment {@code fragmentName}, whose screen
+     * is {@code xmlResId}, created with {@code context}. Uses the prefetched metadata if ready,
+     * otherwise parses the xml.
+     */
+    @NonNull
+    public List<BasePreferenceController> getPreferenceControllers(Context context,
+            String fragmentName, @XmlRes int xmlResId) {
+        final List<Bundle> metadata = takeMetadata(fragmentName, xmlResId);
+        if (metadata == null) {
+            return PreferenceControllerListHelper.getPreferenceControllersFromXml(context,
+                    xmlResId);
+        }
+        return PreferenceControllerListHelper.getPreferenceControllersFromMetadata(context,
+                metadata);
+    }
+
+    /**
+     * Returns the number of pages built from a prefetch and without, for {@code dumpsys}.
+     */
+    public synchronized JSONObject dump() throws JSONException {
+        final JSONObject obj = new JSONObject();
+        obj.put("hits", mHits);
+        obj.put("misses", mMisses);
+        obj.put("pending", mPrefetches.size());
+        return obj;
+    }
+
+    private synchronized List<Bundle> takeMetadata(String fragmentName, @XmlRes int xmlResId) {
+        final Prefetch prefetch = mPrefetches.remove(fragmentName);
+        if (prefetch == null || !prefetch.mLoaded || prefetch.mMetadata == null
+                || prefetch.mXmlResId != xmlResId
+                || SystemClock.elapsedRealtime() - prefetch.mCreatedMs >= PREFETCH_TTL_MS) {
+            mMisses++;
+            return null;
+        }
+        mHits++;
+        return prefetch.mMetadata;
+    }
+
+    private void load(Context context, String fragmentName, Prefetch prefetch) {
+        final int xmlResId;
+        List<Bundle> metadata = null;
+        try {
+            xmlResId = getXmlResId(context, fragmentName);
+            if (xmlResId > 0) {
+                metadata = PreferenceXmlParserUtils.extractMetadata(context, xmlResId,
+                        PreferenceControllerListHelper.CONTROLLER_METADATA_FLAGS);
+                loadControllerClasses(context, metadata);
+            }
+        } catch (Exception e) {
+            // Only an optimization, the page parses its xml itself.
+            Log.w(TAG, "Failed to prefetch " + fragmentName, e);
+            return;
+        }
+        synchronized (this) {
+            prefetch.mXmlResId = xmlResId;
+            prefetch.mMetadata = metadata;
+            prefetch.mLoaded = true;
+        }
+    }
+
+    /**
+     * Loads the classes of the controllers, without initializing them, so that creating the
+     * controllers doesn't have to.
+     */
+    private static void loadControllerClasses(Context context, List<Bundle> metadata) {
+        final ClassLoader classLoader = context.getClassLoader();
+        for (Bundle preference : metadata) {
+            final String controllerName = preference.getString(METADATA_CONTROLLER);
+            if (TextUtils.isEmpty(controllerName)) {
+                continue;
+            }
+            try {
+                Class.forName(controllerName, false /* initialize */, classLoader);
+            } catch (ClassNotFoundException e) {
+                // Reported when the controllers are created.
+            }
+        }
+    }
+
+    /**
+     * Returns the preference xml of the fragment {@code fragmentName}, as indexed for search, or
+     * 0 if it isn't known.
+     */
+    @VisibleForTesting
+    static int getXmlResId(Context context, String fragmentName) {
+        final Class<?> clazz;
+        try {
+            clazz = Class.forName(fragmentName, false /* initialize */, context.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            return 0;
+        }
+        if (!DatabaseIndexingUtils.isIndexableClass(clazz)) {
+            return 0;
+        }
+        final Indexable.SearchIndexProvider provider =
+                DatabaseIndexingUtils.getSearchIndexProvider(clazz);
+        if (provider == null) {
+            return 0;
+        }
+        final List<SearchIndexableResource> resources =
+                provider.getXmlResourcesToIndex(context, true /* enabled */);
+        if (resources == null || resources.isEmpty()) {
+            return 0;
+        }
+        for (SearchIndexableResource resource : resources) {
+            if (fragmentName.equals(resource.className)) {
+                return resource.xmlResId;
+            }
+        }
+        // Without a class name, a single resource is the screen of the fragment itself.
+        return resources.size() == 1 ? resources.get(0).xmlResId : 0;
+    }
+
+    private void trimLocked(long now) {
+        for (int i = mPrefetches.size() - 1; i >= 0; i--) {
+            if (now - mPrefetches.valueAt(i).mCreatedMs >= PREFETCH_TTL_MS) {
+                mPrefetches.removeAt(i);
+            }
+        }
+    }
+
+    private static final class Prefetch {
+        final long mCreatedMs;
+        boolean mLoaded;
+        @XmlRes
+        int mXmlResId;
+        List<Bundle> mMetadata;
+
+        Prefetch(long createdMs) {
+            mCreatedMs = createdMs;
+        }
+    }
+}
@@ -113,12 +113,22 @@ public class SubSettingLauncher {
         } else if (launchAsUser && !launchForResult) {
             launchAsUser(intent, mLaunchRequest.userHandle);
         } else if (!launchAsUser && launchForResult) {
+            prefetch();
             launchForResult(mLaunchRequest.mResultListener, intent, mLaunchRequest.mRequestCode);
         } else {
+            prefetch();
             launch(intent);
         }
     }
 
+    /**
+     * Prefetches the destination while the activity starts, when it is shown in this process.
+     */
+    private void prefetch() {
+        PreferenceControllerPrefetcher.getInstance().prefetch(mContext,
+                mLaunchRequest.destinationName);
+    }
+
     public Intent toIntent() {
         final Intent intent = new Intent(Intent.ACTION_MAIN);
         intent.setClass(mContext, SubSettings.class);
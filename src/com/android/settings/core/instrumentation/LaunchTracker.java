@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.core.instrumentation;
+
+import android.os.SystemClock;
+import android.support.annotation.VisibleForTesting;
+import android.util.ArrayMap;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * Timings of the launches of {@link com.android.settings.SettingsActivity}, kept per destination
+ * fragment and reported by {@code dumpsys} in the launch timings section of
+ * {@link com.android.settings.SettingsDumpService}.
+ *
+ * <p>Each launch is a {@link Launch} started when the activity is created, whose phases are
+ * marked as ms offsets from that start. It is recorded by {@link #finish(Launch)} after the first
+ * draw, and logged if it took longer than {@link #LAUNCH_BUDGET_MS} to draw.
+ */
+public class LaunchTracker {
+    private static final String TAG = "LaunchTracker";
+
+    /** The intent has been parsed and the destination fragment resolved. */
+    public static final int PHASE_INTENT_PARSED = 0;
+    /** The destination fragment has been instantiated. */
+    public static final int PHASE_FRAGMENT_INSTANTIATED = 1;
+    /** The preference controllers of the destination fragment have been created. */
+    public static final int PHASE_CONTROLLERS_CREATED = 2;
+    /** The preferences of the destination fragment have been updated with their state. */
+    public static final int PHASE_DATA_READY = 3;
+    /** The first frame of the activity has been drawn. */
+    public static final int PHASE_FIRST_DRAW = 4;
+
+    private static final String[] PHASE_NAMES = {
+            "intent_parsed",
+            "fragment_instantiated",
+            "controllers_created",
+            "data_ready",
+            "first_draw",
+    };
+    private static final int PHASE_COUNT = PHASE_NAMES.length;
+
+    @VisibleForTesting
+    static final long LAUNCH_BUDGET_MS = 500;
+    @VisibleForTesting
+    static final int MAX_RECENT_LAUNCHES = 5;
+    @VisibleForTesting
+    static final int MAX_DESTINATIONS = 64;
+
+    private static LaunchTracker sInstance;
+
+    private final ArrayMap<String, History> mHistories = new ArrayMap<>();
+
+    public static synchronized LaunchTracker getInstance() {
+        if (sInstance == null) {
+            sInstance = new LaunchTracker();
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    LaunchTracker() {
+    }
+
+    /**
+     * Starts a launch, to mark on the main thread and to {@link #finish(Launch)} once drawn.
+     */
+    public Launch startLaunch() {
+        return new Launch(SystemClock.uptimeMillis());
+    }
+
+    /**
+     * Records {@code launch} in the history of its destination. The phases marked after this
+     * call are ignored.
+     */
+    public void finish(Launch launch) {
+        if (launch.mFinished) {
+            return;
+        }
+        launch.mFinished = true;
+        if (launch.mDestination == null) {
+            return;
+        }
+        final long durationMs = launch.getDurationMs();
+        final boolean overBudget = durationMs > LAUNCH_BUDGET_MS;
+        if (overBudget) {
+            Log.w(TAG, "Launch of " + launch.mDestination + " took " + durationMs + " ms, over "
+                    + LAUNCH_BUDGET_MS + " ms: " + launch);
+        }
+
+        synchronized (this) {
+            History history = mHistories.get(launch.mDestination);
+            if (history == null) {
+                if (mHistories.size() >= MAX_DESTINATIONS) {
+                    return;
+                }
+                history = new History();
+                mHistories.put(launch.mDestination, history);
+            }
+            history.add(launch.mPhaseMs, overBudget);
+        }
+    }
+
+    /**
+     * Returns the launch timings per destination, for {@code dumpsys}.
+     */
+    public synchronized JSONObject dump() throws JSONException {
+        final JSONObject obj = new JSONObject();
+        obj.put("budget_ms", LAUNCH_BUDGET_MS);
+        final JSONObject destinations = new JSONObject();
+        for (int i = 0, size = mHistories.size(); i < size; i++) {
+            destinations.put(mHistories.keyAt(i), mHistories.valueAt(i).dump());
+        }
+        obj.put("destinations", destinations);
+        return obj;
+    }
+
+    /**
+     * Phases of one launch.
+     */
+    public static class Launch {
+        private final long mStartMs;
+        // Offset of each phase from the start, or -1 until it is marked
+        private final long[] mPhaseMs = new long[PHASE_COUNT];
+        private String mDestination;
+        private boolean mFinished;
+
+        @VisibleForTesting
+        Launch(long startMs) {
+            mStartMs = startMs;
+            Arrays.fill(mPhaseMs, -1);
+        }
+
+        /**
+         * Sets the class name of the fragment this launch shows.
+         */
+        public void setDestination(String destination) {
+            mDestination = destination;
+        }
+
+        /**
+         * Marks {@code phase}, one of the {@code PHASE_} constants, as reached now. Only the
+         * first mark of each phase counts.
+         */
+        public void mark(int phase) {
+            if (mFinished || mPhaseMs[phase] >= 0) {
+                return;
+            }
+            mPhaseMs[phase] = SystemClock.uptimeMillis() - mStartMs;
+        }
+
+        /**
+         * Returns the offset of {@code phase} from the start in ms, or -1 if not reached.
+         */
+        public long getPhaseMs(int phase) {
+            return mPhaseMs[phase];
+        }
+
+        /**
+         * Returns the time taken by the launch: up to the first draw, or to the latest phase
+         * reached if it didn't draw.
+         */
+        long getDurationMs() {
+            if (mPhaseMs[PHASE_FIRST_DRAW] >= 0) {
+                return mPhaseMs[PHASE_FIRST_DRAW];
+            }
+            long durationMs = 0;
+            for (long phaseMs : mPhaseMs) {
+                durationMs = Math.max(durationMs, phaseMs);
+            }
+            return durationMs;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder builder = new StringBuilder();
+            for (int phase = 0; phase < PHASE_COUNT; phase++) {
+                if (mPhaseMs[phase] < 0) {
+                    continue;
+                }
+                if (builder.length() > 0) {
+                    builder.append(", ");
+                }
+                builder.append(PHASE_NAMES[phase]).append('=').append(mPhaseMs[phase]);
+            }
+            return builder.toString();
+        }
+    }
+
+    /**
+     * Launches of one destination: count, total and slowest offset per phase, and the phases of
+     * the last {@link #MAX_RECENT_LAUNCHES} launches.
+     */
+    private static final class History {
+        private final long[] mCounts = new long[PHASE_COUNT];
+        private final long[] mTotals = new long[PHASE_COUNT];
+        private final long[] mMaxes = new long[PHASE_COUNT];
+        private final ArrayDeque<long[]> mRecent = new ArrayDeque<>(MAX_RECENT_LAUNCHES);
+        private long mLaunches;
+        private long mOverBudget;
+
+        void add(long[] phaseMs, boolean overBudget) {
+            mLaunches++;
+            if (overBudget) {
+                mOverBudget++;
+            }
+            for (int phase = 0; phase < PHASE_COUNT; phase++) {
+                if (phaseMs[phase] < 0) {
+                    continue;
+                }
+                mCounts[phase]++;
+                mTotals[phase] += phaseMs[phase];
+                mMaxes[phase] = Math.max(mMaxes[phase], phaseMs[phase]);
+            }
+            if (mRecent.size() == MAX_RECENT_LAUNCHES) {
+                mRecent.removeFirst();
+            }
+            mRecent.addLast(phaseMs.clone());
+        }
+
+        JSONObject dump() throws JSONException {
+            final JSONObject obj = new JSONObject();
+            obj.put("launches", mLaunches);
+            obj.put("over_budget", mOverBudget);
+            final JSONObject phases = new JSONObject();
+            for (int phase = 0; phase < PHASE_COUNT; phase++) {
+                if (mCounts[phase] == 0) {
+                    continue;
+                }
+                final JSONObject timing = new JSONObject();
+                timing.put("avg_ms", mTotals[phase] / mCounts[phase]);
+                timing.put("max_ms", mMaxes[phase]);
+                phases.put(PHASE_NAMES[phase], timing);
+            }
+            obj.put("phases", phases);
+            final JSONArray recent = new JSONArray();
+            for (long[] launch : mRecent) {
+                final JSONObject entry = new JSONObject();
+                for (int phase = 0; phase < PHASE_COUNT; phase++) {
+                    if (launch[phase] >= 0) {
+                        entry.put(PHASE_NAMES[phase], launch[phase]);
+                    }
+                }
+                recent.put(entry);
+            }
+            obj.put("recent", recent);
+            return obj;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.core.instrumentation;
+
+import android.support.annotation.VisibleForTesting;
+import android.util.ArrayMap;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Process-wide latency counters of the slow operations of Settings, reported by
+ * {@code dumpsys} in the perf counters section of {@link com.android.settings.SettingsDumpService}.
+ *
+ * <p>Each counter keeps the number of samples, their total and the slowest one, so that
+ * recording is cheap enough to be always on.
+ */
+public class PerfCounters {
+
+    /** Time taken by a search index update, full or not. */
+    public static final String SEARCH_INDEX = "search_index";
+    /** Time taken by the search index database update, part of {@link #SEARCH_INDEX}. */
+    public static final String SEARCH_INDEX_UPDATE_DATABASE = "search_index_update_database";
+    /** Time between starting the data usage summary loader and binding its result. */
+    public static final String DATA_USAGE_SUMMARY_LOAD = "data_usage_summary_load";
+
+    private static final int COUNT = 0;
+    private static final int TOTAL = 1;
+    private static final int MAX = 2;
+
+    private static PerfCounters sInstance;
+
+    // Samples of each counter: count, total and max, in ms.
+    private final ArrayMap<String, long[]> mLatencies = new ArrayMap<>();
+
+    public static synchronized PerfCounters getInstance() {
+        if (sInstance == null) {
+            sInstance = new PerfCounters();
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    PerfCounters() {
+    }
+
+    /**
+     * Records one sample of {@code durationMs} for the counter {@code name}.
+     */
+    public synchronized void recordLatency(String name, long durationMs) {
+        long[] samples = mLatencies.get(name);
+        if (samples == null) {
+            samples = new long[3];
+            mLatencies.put(name, samples);
+        }
+        samples[COUNT]++;
+        samples[TOTAL] += durationMs;
+        samples[MAX] = Math.max(samples[MAX], durationMs);
+    }
+
+    /**
+     * Returns the counters, for {@code dumpsys}.
+     */
+    public synchronized JSONObject dump() throws JSONException {
+        final JSONObject obj = new JSONObject();
+        for (int i = 0, size = mLatencies.size(); i < size; i++) {
+            final long[] samples = mLatencies.valueAt(i);
+            final JSONObject counter = new JSONObject();
+            counter.put("count", samples[COUNT]);
+            counter.put("avg_ms", samples[TOTAL] / samples[COUNT]);
+            counter.put("max_ms", samples[MAX]);
+            obj.put(mLatencies.keyAt(i), counter);
+        }
+        return obj;
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.core.instrumentation;
+
+import android.support.annotation.VisibleForTesting;
+import android.util.Base64;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Always-on recorder of the latency of named spans, kept in a ring buffer of the last
+ * {@link #CAPACITY} spans and exported by {@link com.android.settings.SettingsDumpService}.
+ *
+ * <p>A span is timed with {@link #begin()} and recorded with {@link #end(int, long)}. Recording
+ * neither locks nor allocates: each span claims a slot with an atomic increment and writes its
+ * fields into primitive arrays. The slots are guarded by a sequence number, so that a dump skips
+ * the spans being written, and the oldest spans are overwritten once the buffer is full.
+ *
+ * <p>The binary export, base64 encoded, is a big endian int version ({@link #FORMAT_VERSION}),
+ * then for each span from the oldest: a short span id, a long start time in ns of
+ * {@link System#nanoTime()}, and an int duration in µs.
+ */
+public class TraceRecorder {
+
+    /** Creation of the fragment of a settings page, up to its first transaction. */
+    public static final int SPAN_FRAGMENT_CREATE = 0;
+    /** Load of the data of a screen by a loader, from its start to the bind of its result. */
+    public static final int SPAN_LOADER = 1;
+    /** Search index update. */
+    public static final int SPAN_SEARCH_INDEX = 2;
+    /** Bind of a slice. */
+    public static final int SPAN_SLICE_BIND = 3;
+    /**
+     * Load of the summaries of a dashboard, from the start of its summary providers to the first
+     * summary of the last of them.
+     */
+    public static final int SPAN_SUMMARY_LOAD = 4;
+
+    private static final String[] SPAN_NAMES = {
+            "fragment_create",
+            "loader",
+            "search_index",
+            "slice_bind",
+            "summary_load",
+    };
+
+    @VisibleForTesting
+    static final int CAPACITY = 2048;
+    @VisibleForTesting
+    static final int FORMAT_VERSION = 1;
+    private static final int MASK = CAPACITY - 1;
+    private static final int RECORD_BYTES = 2 + 8 + 4;
+
+    // Created eagerly: getInstance() is called twice per span, it must not take a lock.
+    private static final TraceRecorder sInstance = new TraceRecorder();
+
+    // Index of the next span, in the order they were recorded
+    private final AtomicLong mNextIndex = new AtomicLong();
+    // Sequence of each slot: index + 1 once written, negative while being written
+    private final AtomicLongArray mSequences = new AtomicLongArray(CAPACITY);
+    private final int[] mSpanIds = new int[CAPACITY];
+    private final long[] mStartNanos = new long[CAPACITY];
+    private final long[] mDurationNanos = new long[CAPACITY];
+
+    public static TraceRecorder getInstance() {
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    TraceRecorder() {
+    }
+
+    /**
+     * Returns the start time of a span, to pass to {@link #end(int, long)}.
+     */
+    public long begin() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the span {@code spanId}, one of the {@code SPAN_} constants, started at
+     * {@code startNanos} by {@link #begin()}.
+     */
+    public void end(int spanId, long startNanos) {
+        final long duration = System.nanoTime() - startNanos;
+        final long index = mNextIndex.getAndIncrement();
+        final int slot = (int) (index & MASK);
+        mSequences.set(slot, -(index + 1));
+        mSpanIds[slot] = spanId;
+        mStartNanos[slot] = startNanos;
+        mDurationNanos[slot] = duration;
+        mSequences.set(slot, index + 1);
+    }
+
+    /**
+     * Returns the number of spans recorded, including the ones overwritten since.
+     */
+    public long getRecordedCount() {
+        return mNextIndex.get();
+    }
+
+    /**
+     * Returns the spans still in the buffer as their count, total and slowest duration per span
+     * name, along with all of them in the binary format described above.
+     */
+    public JSONObject dump() throws JSONException {
+        final Snapshot snapshot = snapshot();
+        final long[] counts = new long[SPAN_NAMES.length];
+        final long[] totals = new long[SPAN_NAMES.length];
+        final long[] maxes = new long[SPAN_NAMES.length];
+        final ByteBuffer buffer = ByteBuffer.allocate(4 + snapshot.size * RECORD_BYTES);
+        buffer.putInt(FORMAT_VERSION);
+        for (int i = 0; i < snapshot.size; i++) {
+            final int spanId = snapshot.spanIds[i];
+            final long durationMicros = snapshot.durationNanos[i] / 1000;
+            buffer.putShort((short) spanId);
+            buffer.putLong(snapshot.startNanos[i]);
+            buffer.putInt((int) Math.min(durationMicros, Integer.MAX_VALUE));
+            if (spanId >= 0 && spanId < SPAN_NAMES.length) {
+                counts[spanId]++;
+                totals[spanId] += durationMicros;
+                maxes[spanId] = Math.max(maxes[spanId], durationMicros);
+            }
+        }
+
+        final JSONObject obj = new JSONObject();
+        obj.put("recorded", snapshot.recorded);
+        obj.put("buffered", snapshot.size);
+        final JSONObject spans = new JSONObject();
+        for (int spanId = 0; spanId < SPAN_NAMES.length; spanId++) {
+            if (counts[spanId] == 0) {
+                continue;
+            }
+            final JSONObject span = new JSONObject();
+            span.put("count", counts[spanId]);
+            span.put("avg_us", totals[spanId] / counts[spanId]);
+            span.put("max_us", maxes[spanId]);
+            spans.put(SPAN_NAMES[spanId], span);
+        }
+        obj.put("spans", spans);
+        obj.put("events", Base64.encodeToString(buffer.array(), Base64.NO_WRAP));
+        return obj;
+    }
+
+    /**
+     * Returns the spans still in the buffer as a JSON array, from the oldest.
+     */
+    public JSONArray dumpEvents() throws JSONException {
+        final Snapshot snapshot = snapshot();
+        final JSONArray events = new JSONArray();
+        for (int i = 0; i < snapshot.size; i++) {
+            final int spanId = snapshot.spanIds[i];
+            final JSONObject event = new JSONObject();
+            event.put("name", spanId >= 0 && spanId < SPAN_NAMES.length
+                    ? SPAN_NAMES[spanId] : String.valueOf(spanId));
+            event.put("start_ns", snapshot.startNanos[i]);
+            event.put("duration_us", snapshot.durationNanos[i] / 1000);
+            events.put(event);
+        }
+        return events;
+    }
+
+    /**
+     * Copies the complete spans out of the buffer, skipping the ones being written.
+     */
+    @VisibleForTesting
+    Snapshot snapshot() {
+        final long next = mNextIndex.get();
+        final long first = Math.max(0, next - CAPACITY);
+        final Snapshot snapshot = new Snapshot((int) (next - first));
+        snapshot.recorded = next;
+        for (long index = first; index < next; index++) {
+            final int slot = (int) (index & MASK);
+            final long sequence = mSequences.get(slot);
+            if (sequence != index + 1) {
+                // Still being written, or already overwritten by a newer span.
+                continue;
+            }
+            final int spanId = mSpanIds[slot];
+            final long startNanos = mStartNanos[slot];
+            final long durationNanos = mDurationNanos[slot];
+            if (mSequences.get(slot) != sequence) {
+                continue;
+            }
+            snapshot.spanIds[snapshot.size] = spanId;
+            snapshot.startNanos[snapshot.size] = startNanos;
+            snapshot.durationNanos[snapshot.size] = durationNanos;
+            snapshot.size++;
+        }
+        return snapshot;
+    }
+
+    @VisibleForTesting
+    static final class Snapshot {
+        final int[] spanIds;
+        final long[] startNanos;
+        final long[] durationNanos;
+        int size;
+        long recorded;
+
+        Snapshot(int capacity) {
+            spanIds = new int[capacity];
+            startNanos = new long[capacity];
+            durationNanos = new long[capacity];
+        }
+    }
+}
@@ -28,9 +28,12 @@ import android.util.ArrayMap;
 import android.util.ArraySet;
 import android.util.Log;
 
+import com.android.settings.SettingsActivity;
 import com.android.settings.SettingsPreferenceFragment;
 import com.android.settings.core.BasePreferenceController;
 import com.android.settings.core.PreferenceControllerListHelper;
+import com.android.settings.core.PreferenceControllerPrefetcher;
+import com.android.settings.core.instrumentation.LaunchTracker;
 import com.android.settings.overlay.FeatureFactory;
 import com.android.settings.search.Indexable;
 import com.android.settingslib.core.AbstractPreferenceController;
@@ -73,9 +76,10 @@ public abstract class DashboardFragment extends SettingsPreferenceFragment
         // Load preference controllers from code
         final List<AbstractPreferenceController> controllersFromCode =
                 createPreferenceControllers(context);
-        // Load preference controllers from xml definition
-        final List<BasePreferenceController> controllersFromXml = PreferenceControllerListHelper
-                .getPreferenceControllersFromXml(context, getPreferenceScreenResId());
+        // Load preference controllers from xml definition, prefetched if this page was
+        final List<BasePreferenceController> controllersFromXml =
+                PreferenceControllerPrefetcher.getInstance().getPreferenceControllers(context,
+                        getClass().getName(), getPreferenceScreenResId());
         // Filter xml-based controllers in case a similar controller is created from code already.
         final List<BasePreferenceController> uniqueControllerFromXml =
                 PreferenceControllerListHelper.filterControllers(
@@ -101,6 +105,7 @@ public abstract class DashboardFragment extends SettingsPreferenceFragment
         for (AbstractPreferenceController controller : controllers) {
             addPreferenceController(controller);
         }
+        markLaunchPhase(context, LaunchTracker.PHASE_CONTROLLERS_CREATED);
     }
 
     @Override
@@ -167,6 +172,16 @@ public abstract class DashboardFragment extends SettingsPreferenceFragment
     public void onResume() {
         super.onResume();
         updatePreferenceStates();
+        markLaunchPhase(getActivity(), LaunchTracker.PHASE_DATA_READY);
+    }
+
+    /**
+     * Marks {@code phase} of the launch of the hosting activity, if it is tracked.
+     */
+    private static void markLaunchPhase(Context context, int phase) {
+        if (context instanceof SettingsActivity) {
+            ((SettingsActivity) context).getLaunch().mark(phase);
+        }
     }
 
     @Override
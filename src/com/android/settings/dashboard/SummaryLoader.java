@@ -32,6 +32,7 @@ import android.util.ArraySet;
 import android.util.Log;
 
 import com.android.settings.SettingsActivity;
+import com.android.settings.core.instrumentation.TraceRecorder;
 import com.android.settings.overlay.FeatureFactory;
 import com.android.settingslib.drawer.DashboardCategory;
 import com.android.settingslib.drawer.Tile;
@@ -59,6 +60,9 @@ public class SummaryLoader {
     private boolean mListening;
     private boolean mWorkerListening;
     private ArraySet<BroadcastReceiver> mReceivers = new ArraySet<>();
+    // Providers that haven't set a summary since they started listening, and when they started.
+    private final ArraySet<SummaryProvider> mPendingProviders = new ArraySet<>();
+    private long mSummaryLoadStart;
 
     public SummaryLoader(Activity activity, String categoryKey) {
         mDashboardFeatureProvider = FeatureFactory.getFactory(activity)
@@ -81,6 +85,7 @@ public class SummaryLoader {
     }
 
     public void setSummary(SummaryProvider provider, final CharSequence summary) {
+        onSummaryLoaded(provider);
         final ComponentName component = mSummaryProviderMap.get(provider);
         ThreadUtils.postOnMainThread(() -> {
 
@@ -224,7 +229,8 @@ public class SummaryLoader {
         }
     }
 
-    private synchronized void setListeningW(boolean listening) {
+    @VisibleForTesting
+    synchronized void setListeningW(boolean listening) {
         if (mWorkerListening == listening) {
             return;
         }
@@ -232,6 +238,13 @@ public class SummaryLoader {
         if (DEBUG) {
             Log.d(TAG, "Listening " + listening);
         }
+        // Summaries arrive after setListening returns, the span ends with the last of them.
+        mPendingProviders.clear();
+        mSummaryLoadStart = 0;
+        if (listening && !mSummaryProviderMap.isEmpty()) {
+            mPendingProviders.addAll(mSummaryProviderMap.keySet());
+            mSummaryLoadStart = TraceRecorder.getInstance().begin();
+        }
         for (SummaryProvider p : mSummaryProviderMap.keySet()) {
             try {
                 p.setListening(listening);
@@ -241,6 +254,13 @@ public class SummaryLoader {
         }
     }
 
+    private synchronized void onSummaryLoaded(SummaryProvider provider) {
+        if (mPendingProviders.remove(provider) && mPendingProviders.isEmpty()) {
+            TraceRecorder.getInstance().end(TraceRecorder.SPAN_SUMMARY_LOAD, mSummaryLoadStart);
+            mSummaryLoadStart = 0;
+        }
+    }
+
     private synchronized void makeProviderW(Tile tile) {
         SummaryProvider provider = getSummaryProvider(tile);
         if (provider != null) {
@@ -109,6 +109,8 @@ public class AppDataUsage extends DataUsageBase implements Preference.OnPreferen
     private SpinnerPreference mCycle;
     private RestrictedSwitchPreference mUnrestrictedData;
     private DataSaverBackend mDataSaverBackend;
+    @VisibleForTesting
+    DataUsageStatsCache mStatsCache = DataUsageStatsCache.getInstance();
 
     @Override
     public void onCreate(Bundle icicle) {
@@ -239,8 +241,14 @@ public class AppDataUsage extends DataUsageBase implements Preference.OnPreferen
             mDataSaverBackend.addListener(this);
         }
         mPolicy = services.mPolicyEditor.getPolicy(mTemplate);
-        getLoaderManager().restartLoader(LOADER_CHART_DATA,
-                ChartDataLoader.buildArgs(mTemplate, mAppItem), mChartDataCallbacks);
+        final ChartData cachedData = mStatsCache.getChartData(mTemplate, mAppItem.key);
+        if (cachedData != null) {
+            getLoaderManager().destroyLoader(LOADER_CHART_DATA);
+            bindChartData(cachedData);
+        } else {
+            getLoaderManager().restartLoader(LOADER_CHART_DATA,
+                    ChartDataLoader.buildArgs(mTemplate, mAppItem), mChartDataCallbacks);
+        }
         updatePrefs();
     }
 
@@ -331,6 +339,12 @@ public class AppDataUsage extends DataUsageBase implements Preference.OnPreferen
         }
     }
 
+    private void bindChartData(ChartData data) {
+        mChartData = data;
+        mCycleAdapter.updateCycleList(mPolicy, mChartData);
+        bindData();
+    }
+
     private void bindData() {
         final long backgroundBytes, foregroundBytes;
         if (mChartData == null || mStart == 0) {
@@ -458,9 +472,8 @@ public class AppDataUsage extends DataUsageBase implements Preference.OnPreferen
 
         @Override
         public void onLoadFinished(Loader<ChartData> loader, ChartData data) {
-            mChartData = data;
-            mCycleAdapter.updateCycleList(mPolicy, mChartData);
-            bindData();
+            mStatsCache.putChartData(mTemplate, mAppItem.key, data);
+            bindChartData(data);
         }
 
         @Override
@@ -37,15 +37,26 @@ public class AppStateDataUsageBridge extends AppStateBaseBridge {
         final int N = apps.size();
         for (int i = 0; i < N; i++) {
             AppEntry app = apps.get(i);
-            app.extraInfo = new DataUsageState(mDataSaverBackend.isWhitelisted(app.info.uid),
-                    mDataSaverBackend.isBlacklisted(app.info.uid));
+            updateState(app, app.info.uid);
         }
     }
 
     @Override
     protected void updateExtraInfo(AppEntry app, String pkg, int uid) {
-        app.extraInfo = new DataUsageState(mDataSaverBackend.isWhitelisted(uid),
-                mDataSaverBackend.isBlacklisted(uid));
+        updateState(app, uid);
+    }
+
+    private void updateState(AppEntry app, int uid) {
+        final boolean whitelisted = mDataSaverBackend.isWhitelisted(uid);
+        final boolean blacklisted = mDataSaverBackend.isBlacklisted(uid);
+        if (app.extraInfo instanceof DataUsageState) {
+            // Update in place, the state is shared with the preference of the app.
+            final DataUsageState state = (DataUsageState) app.extraInfo;
+            state.isDataSaverWhitelisted = whitelisted;
+            state.isDataSaverBlacklisted = blacklisted;
+        } else {
+            app.extraInfo = new DataUsageState(whitelisted, blacklisted);
+        }
     }
 
     public static class DataUsageState {
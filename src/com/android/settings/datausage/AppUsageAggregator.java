@@ -0,0 +1,359 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.datausage;
+
+import static android.net.TrafficStats.UID_REMOVED;
+import static android.net.TrafficStats.UID_TETHERING;
+
+import android.net.NetworkStats;
+import android.os.UserHandle;
+import android.support.annotation.WorkerThread;
+import android.util.SparseBooleanArray;
+
+import com.android.settingslib.AppItem;
+import com.android.settingslib.net.UidDetailProvider;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Collapses the per-uid entries of a {@link NetworkStats} summary into the {@link AppItem}s
+ * listed by {@link DataUsageList}: apps of the current user and its profiles, one item per
+ * other user or managed profile, removed apps, tethering and the system.
+ *
+ * <p>Totals are accumulated in primitive arrays indexed by an int-keyed open-addressing table,
+ * the profiles are looked up in a bitmap, and {@link AppItem}s are only created for the result,
+ * ordered as {@link AppItem#compareTo(AppItem)}. The arrays are kept and reused by the next
+ * aggregation.
+ */
+public class AppUsageAggregator {
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int NO_LINK = -1;
+    // Category of an item created for a restricted uid without usage, left as AppItem sets it.
+    private static final int CATEGORY_DEFAULT = -1;
+
+    /**
+     * Tells whether a user that isn't a profile of the current user still exists.
+     */
+    public interface UserLookup {
+        boolean isUserKnown(int userId);
+    }
+
+    /**
+     * Result of {@link #aggregate}.
+     */
+    public static class Result {
+        /** Items sorted as {@link AppItem#compareTo(AppItem)}. */
+        public final List<AppItem> items;
+        /** Largest total of any item, before the list was cut. */
+        public final long largest;
+
+        Result(List<AppItem> items, long largest) {
+            this.items = items;
+            this.largest = largest;
+        }
+    }
+
+    private final UserLookup mUserLookup;
+
+    // Open-addressing table from collapse key to item index + 1, 0 being an empty slot.
+    private int[] mTable = new int[INITIAL_CAPACITY * 2];
+
+    // Items, in creation order
+    private int mItemCount;
+    private int[] mItemKey = new int[INITIAL_CAPACITY];
+    private int[] mItemCategory = new int[INITIAL_CAPACITY];
+    private long[] mItemTotal = new long[INITIAL_CAPACITY];
+    private boolean[] mItemRestricted = new boolean[INITIAL_CAPACITY];
+    private int[] mItemLastLink = new int[INITIAL_CAPACITY];
+
+    // Uids of each item, as linked lists starting at the last one added
+    private int mLinkCount;
+    private int[] mLinkUid = new int[INITIAL_CAPACITY];
+    private int[] mLinkNext = new int[INITIAL_CAPACITY];
+
+    private long[] mProfileBits = new long[1];
+    private final SparseBooleanArray mKnownUsers = new SparseBooleanArray();
+    private int[] mOrder = new int[INITIAL_CAPACITY];
+    private AppItem[] mBuiltItems = new AppItem[INITIAL_CAPACITY];
+
+    public AppUsageAggregator(UserLookup userLookup) {
+        mUserLookup = userLookup;
+    }
+
+    /**
+     * Aggregates {@code stats} and marks the {@code restrictedUids} of the profiles.
+     *
+     * @param currentUserId   the user whose apps are listed on their own
+     * @param profileUserIds  the current user and its profiles
+     * @param maxCount        the number of items to keep at most
+     */
+    @WorkerThread
+    public synchronized Result aggregate(NetworkStats stats, int[] restrictedUids,
+            int currentUserId, int[] profileUserIds, int maxCount) {
+        reset(profileUserIds);
+
+        long largest = 0;
+        NetworkStats.Entry entry = null;
+        final int size = stats != null ? stats.size() : 0;
+        for (int i = 0; i < size; i++) {
+            entry = stats.getValues(i, entry);
+            final int uid = entry.uid;
+            final long bytes = entry.rxBytes + entry.txBytes;
+
+            final int collapseKey;
+            final int category;
+            final int userId = UserHandle.getUserId(uid);
+            if (UserHandle.isApp(uid)) {
+                if (isProfile(userId)) {
+                    if (userId != currentUserId) {
+                        // Add to a managed user item.
+                        largest = accumulate(UidDetailProvider.buildKeyForUser(userId),
+                                AppItem.CATEGORY_USER, uid, bytes, largest);
+                    }
+                    // Add to app item.
+                    collapseKey = uid;
+                    category = AppItem.CATEGORY_APP;
+                } else if (!isUserKnown(userId)) {
+                    // If it is a removed user add it to the removed users' key
+                    collapseKey = UID_REMOVED;
+                    category = AppItem.CATEGORY_APP;
+                } else {
+                    // Add to other user item.
+                    collapseKey = UidDetailProvider.buildKeyForUser(userId);
+                    category = AppItem.CATEGORY_USER;
+                }
+            } else if (uid == UID_REMOVED || uid == UID_TETHERING) {
+                collapseKey = uid;
+                category = AppItem.CATEGORY_APP;
+            } else {
+                collapseKey = android.os.Process.SYSTEM_UID;
+                category = AppItem.CATEGORY_APP;
+            }
+            largest = accumulate(collapseKey, category, uid, bytes, largest);
+        }
+
+        if (restrictedUids != null) {
+            for (int uid : restrictedUids) {
+                // Only splice in restricted state for current user or managed users
+                if (!isProfile(UserHandle.getUserId(uid))) {
+                    continue;
+                }
+                int index = find(uid);
+                if (index < 0) {
+                    index = add(uid, CATEGORY_DEFAULT);
+                    mItemTotal[index] = -1;
+                }
+                mItemRestricted[index] = true;
+            }
+        }
+
+        return new Result(buildSortedItems(maxCount), largest);
+    }
+
+    private void reset(int[] profileUserIds) {
+        Arrays.fill(mTable, 0);
+        mItemCount = 0;
+        mLinkCount = 0;
+        mKnownUsers.clear();
+
+        int maxUserId = 0;
+        for (int userId : profileUserIds) {
+            maxUserId = Math.max(maxUserId, userId);
+        }
+        final int words = (maxUserId >> 6) + 1;
+        if (mProfileBits.length < words) {
+            mProfileBits = new long[words];
+        } else {
+            Arrays.fill(mProfileBits, 0);
+        }
+        for (int userId : profileUserIds) {
+            if (userId >= 0) {
+                mProfileBits[userId >> 6] |= 1L << (userId & 63);
+            }
+        }
+    }
+
+    private boolean isProfile(int userId) {
+        final int word = userId >> 6;
+        return userId >= 0 && word < mProfileBits.length
+                && (mProfileBits[word] & (1L << (userId & 63))) != 0;
+    }
+
+    private boolean isUserKnown(int userId) {
+        final int index = mKnownUsers.indexOfKey(userId);
+        if (index >= 0) {
+            return mKnownUsers.valueAt(index);
+        }
+        final boolean known = mUserLookup.isUserKnown(userId);
+        mKnownUsers.put(userId, known);
+        return known;
+    }
+
+    private long accumulate(int collapseKey, int category, int uid, long bytes, long largest) {
+        int index = find(collapseKey);
+        if (index < 0) {
+            index = add(collapseKey, category);
+        }
+        addUid(index, uid);
+        mItemTotal[index] += bytes;
+        return Math.max(largest, mItemTotal[index]);
+    }
+
+    private int find(int key) {
+        final int mask = mTable.length - 1;
+        for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+            final int index = mTable[slot] - 1;
+            if (index < 0) {
+                return -1;
+            }
+            if (mItemKey[index] == key) {
+                return index;
+            }
+        }
+    }
+
+    private int add(int key, int category) {
+        if ((mItemCount + 1) * 2 > mTable.length) {
+            rehash(mTable.length * 2);
+        }
+        if (mItemCount == mItemKey.length) {
+            final int capacity = mItemCount * 2;
+            mItemKey = Arrays.copyOf(mItemKey, capacity);
+            mItemCategory = Arrays.copyOf(mItemCategory, capacity);
+            mItemTotal = Arrays.copyOf(mItemTotal, capacity);
+            mItemRestricted = Arrays.copyOf(mItemRestricted, capacity);
+            mItemLastLink = Arrays.copyOf(mItemLastLink, capacity);
+        }
+        final int index = mItemCount++;
+        mItemKey[index] = key;
+        mItemCategory[index] = category;
+        mItemTotal[index] = 0;
+        mItemRestricted[index] = false;
+        mItemLastLink[index] = NO_LINK;
+        insert(key, index);
+        return index;
+    }
+
+    private void insert(int key, int index) {
+        final int mask = mTable.length - 1;
+        int slot = hash(key) & mask;
+        while (mTable[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        mTable[slot] = index + 1;
+    }
+
+    private void rehash(int capacity) {
+        mTable = new int[capacity];
+        for (int i = 0; i < mItemCount; i++) {
+            insert(mItemKey[i], i);
+        }
+    }
+
+    private void addUid(int index, int uid) {
+        final int last = mItemLastLink[index];
+        if (last != NO_LINK && mLinkUid[last] == uid) {
+            // Entries of the same uid usually follow each other.
+            return;
+        }
+        if (mLinkCount == mLinkUid.length) {
+            final int capacity = mLinkCount * 2;
+            mLinkUid = Arrays.copyOf(mLinkUid, capacity);
+            mLinkNext = Arrays.copyOf(mLinkNext, capacity);
+        }
+        mLinkUid[mLinkCount] = uid;
+        mLinkNext[mLinkCount] = last;
+        mItemLastLink[index] = mLinkCount++;
+    }
+
+    private List<AppItem> buildSortedItems(int maxCount) {
+        final int count = mItemCount;
+        if (mBuiltItems.length < count) {
+            mBuiltItems = new AppItem[Math.max(count, mBuiltItems.length * 2)];
+            mOrder = new int[mBuiltItems.length];
+        }
+        for (int i = 0; i < count; i++) {
+            final AppItem item = new AppItem(mItemKey[i]);
+            if (mItemCategory[i] != CATEGORY_DEFAULT) {
+                item.category = mItemCategory[i];
+            }
+            for (int link = mItemLastLink[i]; link != NO_LINK; link = mLinkNext[link]) {
+                item.addUid(mLinkUid[link]);
+            }
+            item.total = mItemTotal[i];
+            item.restricted = mItemRestricted[i];
+            mBuiltItems[i] = item;
+            mOrder[i] = i;
+        }
+
+        // Heap select: heapify all the items, then take the first maxCount out in order.
+        for (int i = count / 2 - 1; i >= 0; i--) {
+            siftDown(i, count);
+        }
+        final int resultSize = Math.min(Math.max(maxCount, 0), count);
+        final ArrayList<AppItem> result = new ArrayList<>(resultSize);
+        for (int heapSize = count; result.size() < resultSize; heapSize--) {
+            result.add(mBuiltItems[mOrder[0]]);
+            mOrder[0] = mOrder[heapSize - 1];
+            siftDown(0, heapSize - 1);
+        }
+        Arrays.fill(mBuiltItems, 0, count, null);
+        return result;
+    }
+
+    private void siftDown(int position, int heapSize) {
+        final int index = mOrder[position];
+        while (true) {
+            int child = position * 2 + 1;
+            if (child >= heapSize) {
+                break;
+            }
+            if (child + 1 < heapSize && before(mOrder[child + 1], mOrder[child])) {
+                child++;
+            }
+            if (!before(mOrder[child], index)) {
+                break;
+            }
+            mOrder[position] = mOrder[child];
+            position = child;
+        }
+        mOrder[position] = index;
+    }
+
+    /**
+     * Returns whether item {@code a} is listed before item {@code b}: by category, then by
+     * decreasing total, then in the order the items were first seen, as a stable sort would.
+     */
+    private boolean before(int a, int b) {
+        final AppItem itemA = mBuiltItems[a];
+        final AppItem itemB = mBuiltItems[b];
+        if (itemA.category != itemB.category) {
+            return itemA.category < itemB.category;
+        }
+        if (itemA.total != itemB.total) {
+            return itemA.total > itemB.total;
+        }
+        return a < b;
+    }
+
+    private static int hash(int key) {
+        final int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -22,7 +22,9 @@ import android.content.Context;
 import android.net.INetworkPolicyListener;
 import android.net.NetworkPolicyManager;
 import android.os.RemoteException;
-import android.util.SparseIntArray;
+import android.os.UserHandle;
+import android.support.annotation.VisibleForTesting;
+import android.util.SparseArray;
 
 import com.android.internal.logging.nano.MetricsProto.MetricsEvent;
 import com.android.settings.overlay.FeatureFactory;
@@ -31,18 +33,33 @@ import com.android.settingslib.utils.ThreadUtils;
 
 import java.util.ArrayList;
 
+/**
+ * Data saver state and per-uid metered background policies.
+ *
+ * <p>The policies of all the uids are loaded together the first time one is needed, into one
+ * bitset per policy, and then kept up to date with the changes made here and the ones reported
+ * by {@link NetworkPolicyManager}, so that the list of apps is never queried again. The policies
+ * may be read from a background thread, as {@link AppStateDataUsageBridge} does.
+ */
 public class DataSaverBackend {
 
     private static final String TAG = "DataSaverBackend";
 
+    private static final int CHANGED_WHITELIST = 1 << 0;
+    private static final int CHANGED_BLACKLIST = 1 << 1;
+
     private final Context mContext;
     private final MetricsFeatureProvider mMetricsFeatureProvider;
 
     private final NetworkPolicyManager mPolicyManager;
     private final ArrayList<Listener> mListeners = new ArrayList<>();
-    private SparseIntArray mUidPolicies = new SparseIntArray();
-    private boolean mWhitelistInitialized;
-    private boolean mBlacklistInitialized;
+    // Guarded by this
+    private final UidSet mWhitelist = new UidSet();
+    private final UidSet mBlacklist = new UidSet();
+    private boolean mPoliciesLoaded;
+    // Data saver state, only kept while listening to its changes.
+    private boolean mDataSaverEnabled;
+    private boolean mDataSaverEnabledKnown;
 
     // TODO: Staticize into only one.
     public DataSaverBackend(Context context) {
@@ -63,27 +80,40 @@ public class DataSaverBackend {
         mListeners.remove(listener);
         if (mListeners.size() == 0) {
             mPolicyManager.unregisterListener(mPolicyListener);
+            mDataSaverEnabledKnown = false;
         }
     }
 
     public boolean isDataSaverEnabled() {
-        return mPolicyManager.getRestrictBackground();
+        if (mDataSaverEnabledKnown) {
+            return mDataSaverEnabled;
+        }
+        final boolean enabled = mPolicyManager.getRestrictBackground();
+        if (!mListeners.isEmpty()) {
+            // Changes are reported from now on, so the listeners added next reuse the state.
+            mDataSaverEnabled = enabled;
+            mDataSaverEnabledKnown = true;
+        }
+        return enabled;
     }
 
     public void setDataSaverEnabled(boolean enabled) {
         mPolicyManager.setRestrictBackground(enabled);
+        if (mDataSaverEnabledKnown) {
+            mDataSaverEnabled = enabled;
+        }
         mMetricsFeatureProvider.action(
                 mContext, MetricsEvent.ACTION_DATA_SAVER_MODE, enabled ? 1 : 0);
     }
 
     public void refreshWhitelist() {
-        loadWhitelist();
+        loadPolicies();
     }
 
     public void setIsWhitelisted(int uid, String packageName, boolean whitelisted) {
         final int policy = whitelisted ? POLICY_ALLOW_METERED_BACKGROUND : POLICY_NONE;
         mPolicyManager.setUidPolicy(uid, policy);
-        mUidPolicies.put(uid, policy);
+        setPolicy(uid, policy);
         if (whitelisted) {
             mMetricsFeatureProvider.action(
                     mContext, MetricsEvent.ACTION_DATA_SAVER_WHITELIST, packageName);
@@ -91,38 +121,27 @@ public class DataSaverBackend {
     }
 
     public boolean isWhitelisted(int uid) {
-        loadWhitelist();
-        return mUidPolicies.get(uid, POLICY_NONE) == POLICY_ALLOW_METERED_BACKGROUND;
-    }
-
-    public int getWhitelistedCount() {
-        int count = 0;
-        loadWhitelist();
-        for (int i = 0; i < mUidPolicies.size(); i++) {
-            if (mUidPolicies.valueAt(i) == POLICY_ALLOW_METERED_BACKGROUND) {
-                count++;
-            }
+        synchronized (this) {
+            loadPolicies();
+            return mWhitelist.contains(uid);
         }
-        return count;
     }
 
-    private void loadWhitelist() {
-        if (mWhitelistInitialized) return;
-
-        for (int uid : mPolicyManager.getUidsWithPolicy(POLICY_ALLOW_METERED_BACKGROUND)) {
-            mUidPolicies.put(uid, POLICY_ALLOW_METERED_BACKGROUND);
+    public int getWhitelistedCount() {
+        synchronized (this) {
+            loadPolicies();
+            return mWhitelist.size();
         }
-        mWhitelistInitialized = true;
     }
 
     public void refreshBlacklist() {
-        loadBlacklist();
+        loadPolicies();
     }
 
     public void setIsBlacklisted(int uid, String packageName, boolean blacklisted) {
         final int policy = blacklisted ? POLICY_REJECT_METERED_BACKGROUND : POLICY_NONE;
         mPolicyManager.setUidPolicy(uid, policy);
-        mUidPolicies.put(uid, policy);
+        setPolicy(uid, policy);
         if (blacklisted) {
             mMetricsFeatureProvider.action(
                     mContext, MetricsEvent.ACTION_DATA_SAVER_BLACKLIST, packageName);
@@ -130,19 +149,46 @@ public class DataSaverBackend {
     }
 
     public boolean isBlacklisted(int uid) {
-        loadBlacklist();
-        return mUidPolicies.get(uid, POLICY_NONE) == POLICY_REJECT_METERED_BACKGROUND;
+        synchronized (this) {
+            loadPolicies();
+            return mBlacklist.contains(uid);
+        }
     }
 
-    private void loadBlacklist() {
-        if (mBlacklistInitialized) return;
+    private synchronized void loadPolicies() {
+        if (mPoliciesLoaded) return;
+
+        for (int uid : mPolicyManager.getUidsWithPolicy(POLICY_ALLOW_METERED_BACKGROUND)) {
+            mWhitelist.set(uid, true);
+        }
         for (int uid : mPolicyManager.getUidsWithPolicy(POLICY_REJECT_METERED_BACKGROUND)) {
-            mUidPolicies.put(uid, POLICY_REJECT_METERED_BACKGROUND);
+            // A uid has a single policy, it is only whitelisted if it isn't blacklisted too.
+            mWhitelist.set(uid, false);
+            mBlacklist.set(uid, true);
         }
-        mBlacklistInitialized = true;
+        mPoliciesLoaded = true;
+    }
+
+    /**
+     * Records the new policy of {@code uid}, returning a bitmask of the lists it moved in or out
+     * of: {@link #CHANGED_WHITELIST} and {@link #CHANGED_BLACKLIST}.
+     */
+    private synchronized int setPolicy(int uid, int policy) {
+        int changes = 0;
+        if (mWhitelist.set(uid, policy == POLICY_ALLOW_METERED_BACKGROUND)) {
+            changes |= CHANGED_WHITELIST;
+        }
+        if (mBlacklist.set(uid, policy == POLICY_REJECT_METERED_BACKGROUND)) {
+            changes |= CHANGED_BLACKLIST;
+        }
+        return changes;
     }
 
     private void handleRestrictBackgroundChanged(boolean isDataSaving) {
+        if (!mListeners.isEmpty()) {
+            mDataSaverEnabled = isDataSaving;
+            mDataSaverEnabledKnown = true;
+        }
         for (int i = 0; i < mListeners.size(); i++) {
             mListeners.get(i).onDataSaverChanged(isDataSaving);
         }
@@ -160,30 +206,18 @@ public class DataSaverBackend {
         }
     }
 
-    private void handleUidPoliciesChanged(int uid, int newPolicy) {
-        loadWhitelist();
-        loadBlacklist();
+    @VisibleForTesting
+    void handleUidPoliciesChanged(int uid, int newPolicy) {
+        loadPolicies();
+        final int changes = setPolicy(uid, newPolicy);
 
-        final int oldPolicy = mUidPolicies.get(uid, POLICY_NONE);
-        if (newPolicy == POLICY_NONE) {
-            mUidPolicies.delete(uid);
-        } else {
-            mUidPolicies.put(uid, newPolicy);
+        if ((changes & CHANGED_WHITELIST) != 0) {
+            handleWhitelistChanged(uid, newPolicy == POLICY_ALLOW_METERED_BACKGROUND);
         }
 
-        final boolean wasWhitelisted = oldPolicy == POLICY_ALLOW_METERED_BACKGROUND;
-        final boolean wasBlacklisted = oldPolicy == POLICY_REJECT_METERED_BACKGROUND;
-        final boolean isWhitelisted = newPolicy == POLICY_ALLOW_METERED_BACKGROUND;
-        final boolean isBlacklisted = newPolicy == POLICY_REJECT_METERED_BACKGROUND;
-
-        if (wasWhitelisted != isWhitelisted) {
-            handleWhitelistChanged(uid, isWhitelisted);
+        if ((changes & CHANGED_BLACKLIST) != 0) {
+            handleBlacklistChanged(uid, newPolicy == POLICY_REJECT_METERED_BACKGROUND);
         }
-
-        if (wasBlacklisted != isBlacklisted) {
-            handleBlacklistChanged(uid, isBlacklisted);
-        }
-
     }
 
     private final INetworkPolicyListener mPolicyListener = new INetworkPolicyListener.Stub() {
@@ -210,6 +244,61 @@ public class DataSaverBackend {
         }
     };
 
+    /**
+     * Set of uids, kept as a bitset of app ids for each user.
+     */
+    private static class UidSet {
+        // Enough for the app ids of most devices, grown as needed.
+        private static final int INITIAL_WORDS = 256;
+
+        private final SparseArray<long[]> mUserBits = new SparseArray<>();
+        private int mSize;
+
+        boolean contains(int uid) {
+            final int appId = UserHandle.getAppId(uid);
+            final long[] bits = mUserBits.get(UserHandle.getUserId(uid));
+            return appId >= 0 && bits != null && (appId >> 6) < bits.length
+                    && (bits[appId >> 6] & (1L << (appId & 63))) != 0;
+        }
+
+        /**
+         * Adds or removes {@code uid}, returning whether the set changed.
+         */
+        boolean set(int uid, boolean value) {
+            if (contains(uid) == value) {
+                return false;
+            }
+            final int userId = UserHandle.getUserId(uid);
+            final int appId = UserHandle.getAppId(uid);
+            if (appId < 0) {
+                return false;
+            }
+            final int word = appId >> 6;
+            long[] bits = mUserBits.get(userId);
+            if (bits == null || bits.length <= word) {
+                final long[] grown = new long[Math.max(word + 1,
+                        bits != null ? bits.length * 2 : INITIAL_WORDS)];
+                if (bits != null) {
+                    System.arraycopy(bits, 0, grown, 0, bits.length);
+                }
+                bits = grown;
+                mUserBits.put(userId, bits);
+            }
+            if (value) {
+                bits[word] |= 1L << (appId & 63);
+                mSize++;
+            } else {
+                bits[word] &= ~(1L << (appId & 63));
+                mSize--;
+            }
+            return true;
+        }
+
+        int size() {
+            return mSize;
+        }
+    }
+
     public interface Listener {
         void onDataSaverChanged(boolean isDataSaving);
         void onWhitelistStatusChanged(int uid, boolean isWhitelisted);
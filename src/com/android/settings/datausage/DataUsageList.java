@@ -16,8 +16,6 @@ package com.android.settings.datausage;
 
 import static android.net.ConnectivityManager.TYPE_MOBILE;
 import static android.net.NetworkPolicyManager.POLICY_REJECT_METERED_BACKGROUND;
-import static android.net.TrafficStats.UID_REMOVED;
-import static android.net.TrafficStats.UID_TETHERING;
 import static android.telephony.TelephonyManager.SIM_STATE_READY;
 
 import android.app.ActivityManager;
@@ -25,7 +23,6 @@ import android.app.LoaderManager.LoaderCallbacks;
 import android.content.Context;
 import android.content.Intent;
 import android.content.Loader;
-import android.content.pm.UserInfo;
 import android.graphics.Color;
 import android.net.ConnectivityManager;
 import android.net.INetworkStatsSession;
@@ -39,7 +36,6 @@ import android.os.Bundle;
 import android.os.RemoteException;
 import android.os.SystemProperties;
 import android.os.UserHandle;
-import android.os.UserManager;
 import android.provider.Settings;
 import android.support.annotation.VisibleForTesting;
 import android.support.v7.preference.Preference;
@@ -49,7 +45,6 @@ import android.telephony.SubscriptionManager;
 import android.telephony.TelephonyManager;
 import android.text.format.DateUtils;
 import android.util.Log;
-import android.util.SparseArray;
 import android.view.View;
 import android.widget.AdapterView;
 import android.widget.AdapterView.OnItemSelectedListener;
@@ -58,6 +53,8 @@ import android.widget.Spinner;
 import com.android.internal.logging.nano.MetricsProto.MetricsEvent;
 import com.android.settings.R;
 import com.android.settings.core.SubSettingLauncher;
+import com.android.settings.core.instrumentation.PerfCounters;
+import com.android.settings.core.instrumentation.TraceRecorder;
 import com.android.settings.datausage.CycleAdapter.SpinnerInterface;
 import com.android.settings.widget.LoadingViewController;
 import com.android.settingslib.AppItem;
@@ -65,10 +62,10 @@ import com.android.settingslib.net.ChartData;
 import com.android.settingslib.net.ChartDataLoader;
 import com.android.settingslib.net.SummaryForAllUidLoader;
 import com.android.settingslib.net.UidDetailProvider;
+import com.android.settingslib.utils.ThreadUtils;
 
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Panel showing data usage history across various networks, including options
@@ -93,6 +90,7 @@ public class DataUsageList extends DataUsageBase {
             new CellDataPreference.DataStateListener() {
                 @Override
                 public void onChange(boolean selfChange) {
+                    mStatsCache.invalidate();
                     updatePolicy();
                 }
             };
@@ -113,6 +111,18 @@ public class DataUsageList extends DataUsageBase {
     private Preference mUsageAmount;
     private PreferenceGroup mApps;
     private View mHeader;
+    private final AppUsageAggregator mAppUsageAggregator = new AppUsageAggregator(
+            userId -> services.mUserManager.getUserInfo(userId) != null);
+    // Incremented for each summary loaded, so that an outdated aggregation isn't bound.
+    private int mStatsGeneration;
+    @VisibleForTesting
+    DataUsageStatsCache mStatsCache = DataUsageStatsCache.getInstance();
+    // Range of the summary being loaded, or whether the selected one was found in the cache.
+    private long mSummaryStart;
+    private long mSummaryEnd;
+    private boolean mSummaryFromCache;
+    // Start of the summary load in flight, or 0 once its result was recorded
+    private long mSummaryLoadStart;
 
 
     @Override
@@ -202,6 +212,7 @@ public class DataUsageList extends DataUsageBase {
                     // wait a few seconds before kicking off
                     Thread.sleep(2 * DateUtils.SECOND_IN_MILLIS);
                     services.mStatsService.forceUpdate();
+                    mStatsCache.invalidate();
                 } catch (InterruptedException e) {
                 } catch (RemoteException e) {
                 }
@@ -323,9 +334,18 @@ public class DataUsageList extends DataUsageBase {
             entry = mChartData.network.getValues(start, end, now, null);
         }
 
-        // kick off loader for detailed stats
-        getLoaderManager().restartLoader(LOADER_SUMMARY,
-                SummaryForAllUidLoader.buildArgs(mTemplate, start, end), mSummaryCallbacks);
+        // bind the cached detailed stats, or kick off loader for them
+        final NetworkStats cachedStats = mStatsCache.getSummary(mTemplate, start, end);
+        mSummaryFromCache = cachedStats != null;
+        if (mSummaryFromCache) {
+            bindSummary(cachedStats);
+        } else {
+            mSummaryStart = start;
+            mSummaryEnd = end;
+            mSummaryLoadStart = TraceRecorder.getInstance().begin();
+            getLoaderManager().restartLoader(LOADER_SUMMARY,
+                    SummaryForAllUidLoader.buildArgs(mTemplate, start, end), mSummaryCallbacks);
+        }
 
         final long totalBytes = entry != null ? entry.rxBytes + entry.txBytes : 0;
         final CharSequence totalPhrase = DataUsageUtils.formatDataUsage(context, totalBytes);
@@ -333,80 +353,81 @@ public class DataUsageList extends DataUsageBase {
     }
 
     /**
-     * Bind the given {@link NetworkStats}, or {@code null} to clear list.
+     * Loads the summaries of the cycles before and after the selected one in the background,
+     * so that switching to them doesn't wait for {@link SummaryForAllUidLoader}. Only called
+     * once the selected cycle is bound, so that it doesn't wait for them either.
      */
-    public void bindStats(NetworkStats stats, int[] restrictedUids) {
-        ArrayList<AppItem> items = new ArrayList<>();
-        long largest = 0;
-
-        final int currentUserId = ActivityManager.getCurrentUser();
-        UserManager userManager = UserManager.get(getContext());
-        final List<UserHandle> profiles = userManager.getUserProfiles();
-        final SparseArray<AppItem> knownItems = new SparseArray<AppItem>();
-
-        NetworkStats.Entry entry = null;
-        final int size = stats != null ? stats.size() : 0;
-        for (int i = 0; i < size; i++) {
-            entry = stats.getValues(i, entry);
-
-            // Decide how to collapse items together
-            final int uid = entry.uid;
-
-            final int collapseKey;
-            final int category;
-            final int userId = UserHandle.getUserId(uid);
-            if (UserHandle.isApp(uid)) {
-                if (profiles.contains(new UserHandle(userId))) {
-                    if (userId != currentUserId) {
-                        // Add to a managed user item.
-                        final int managedKey = UidDetailProvider.buildKeyForUser(userId);
-                        largest = accumulate(managedKey, knownItems, entry, AppItem.CATEGORY_USER,
-                                items, largest);
-                    }
-                    // Add to app item.
-                    collapseKey = uid;
-                    category = AppItem.CATEGORY_APP;
-                } else {
-                    // If it is a removed user add it to the removed users' key
-                    final UserInfo info = userManager.getUserInfo(userId);
-                    if (info == null) {
-                        collapseKey = UID_REMOVED;
-                        category = AppItem.CATEGORY_APP;
-                    } else {
-                        // Add to other user item.
-                        collapseKey = UidDetailProvider.buildKeyForUser(userId);
-                        category = AppItem.CATEGORY_USER;
-                    }
+    private void prefetchAdjacentCycles() {
+        final int position = mCycleSpinner.getSelectedItemPosition();
+        if (position == AdapterView.INVALID_POSITION) {
+            return;
+        }
+        for (int i = position - 1; i <= position + 1; i += 2) {
+            if (i >= 0 && i < mCycleAdapter.getCount()) {
+                final CycleAdapter.CycleItem cycle = mCycleAdapter.getItem(i);
+                mStatsCache.prefetchSummary(mStatsSession, mTemplate, cycle.start, cycle.end);
+            }
+        }
+    }
+
+    /**
+     * Collapses {@code data} off the main thread, then binds it unless another summary was
+     * bound since.
+     */
+    private void bindSummary(NetworkStats data) {
+        final int generation = ++mStatsGeneration;
+        ThreadUtils.postOnBackgroundThread(() -> {
+            final int[] restrictedUids = services.mPolicyManager.getUidsWithPolicy(
+                    POLICY_REJECT_METERED_BACKGROUND);
+            final AppUsageAggregator.Result result = aggregateStats(data, restrictedUids);
+            ThreadUtils.postOnMainThread(() -> {
+                if (generation != mStatsGeneration || !isAdded()) {
+                    // Stale, another cycle was loaded since.
+                    return;
                 }
-            } else if (uid == UID_REMOVED || uid == UID_TETHERING) {
-                collapseKey = uid;
-                category = AppItem.CATEGORY_APP;
+                bindStats(result);
+                updateEmptyVisible();
+                prefetchAdjacentCycles();
+            });
+        });
+    }
+
+    private void updateEmptyVisible() {
+        if ((mApps.getPreferenceCount() != 0) !=
+                (getPreferenceScreen().getPreferenceCount() != 0)) {
+            if (mApps.getPreferenceCount() != 0) {
+                getPreferenceScreen().addPreference(mUsageAmount);
+                getPreferenceScreen().addPreference(mApps);
             } else {
-                collapseKey = android.os.Process.SYSTEM_UID;
-                category = AppItem.CATEGORY_APP;
+                getPreferenceScreen().removeAll();
             }
-            largest = accumulate(collapseKey, knownItems, entry, category, items, largest);
         }
+    }
 
-        final int restrictedUidsMax = restrictedUids.length;
-        for (int i = 0; i < restrictedUidsMax; ++i) {
-            final int uid = restrictedUids[i];
-            // Only splice in restricted state for current user or managed users
-            if (!profiles.contains(new UserHandle(UserHandle.getUserId(uid)))) {
-                continue;
-            }
+    /**
+     * Bind the given {@link NetworkStats}, or {@code null} to clear list.
+     */
+    public void bindStats(NetworkStats stats, int[] restrictedUids) {
+        bindStats(aggregateStats(stats, restrictedUids));
+    }
 
-            AppItem item = knownItems.get(uid);
-            if (item == null) {
-                item = new AppItem(uid);
-                item.total = -1;
-                items.add(item);
-                knownItems.put(item.key, item);
-            }
-            item.restricted = true;
+    /**
+     * Collapses {@code stats} into the items to list, see {@link AppUsageAggregator}.
+     */
+    @VisibleForTesting
+    AppUsageAggregator.Result aggregateStats(NetworkStats stats, int[] restrictedUids) {
+        final List<UserHandle> profiles = services.mUserManager.getUserProfiles();
+        final int[] profileUserIds = new int[profiles.size()];
+        for (int i = 0; i < profileUserIds.length; i++) {
+            profileUserIds[i] = profiles.get(i).getIdentifier();
         }
+        return mAppUsageAggregator.aggregate(stats, restrictedUids,
+                ActivityManager.getCurrentUser(), profileUserIds, Integer.MAX_VALUE);
+    }
 
-        Collections.sort(items);
+    private void bindStats(AppUsageAggregator.Result result) {
+        final List<AppItem> items = result.items;
+        final long largest = result.largest;
         mApps.removeAll();
         for (int i = 0; i < items.size(); i++) {
             final int percentTotal = largest != 0 ? (int) (items.get(i).total * 100 / largest) : 0;
@@ -438,30 +459,6 @@ public class DataUsageList extends DataUsageBase {
                 .launch();
     }
 
-    /**
-     * Accumulate data usage of a network stats entry for the item mapped by the collapse key.
-     * Creates the item if needed.
-     *
-     * @param collapseKey  the collapse key used to map the item.
-     * @param knownItems   collection of known (already existing) items.
-     * @param entry        the network stats entry to extract data usage from.
-     * @param itemCategory the item is categorized on the list view by this category. Must be
-     */
-    private static long accumulate(int collapseKey, final SparseArray<AppItem> knownItems,
-            NetworkStats.Entry entry, int itemCategory, ArrayList<AppItem> items, long largest) {
-        final int uid = entry.uid;
-        AppItem item = knownItems.get(collapseKey);
-        if (item == null) {
-            item = new AppItem(collapseKey);
-            item.category = itemCategory;
-            items.add(item);
-            knownItems.put(item.key, item);
-        }
-        item.addUid(uid);
-        item.total += entry.rxBytes + entry.txBytes;
-        return Math.max(largest, item.total);
-    }
-
     /**
      * Test if device has a mobile data radio with SIM in ready state.
      */
@@ -576,28 +573,27 @@ public class DataUsageList extends DataUsageBase {
 
         @Override
         public void onLoadFinished(Loader<NetworkStats> loader, NetworkStats data) {
-            final int[] restrictedUids = services.mPolicyManager.getUidsWithPolicy(
-                    POLICY_REJECT_METERED_BACKGROUND);
-            bindStats(data, restrictedUids);
-            updateEmptyVisible();
+            if (mSummaryFromCache) {
+                // The selected cycle was bound from the cache after this loader was started.
+                return;
+            }
+            mStatsCache.putSummary(mTemplate, mSummaryStart, mSummaryEnd, data);
+            bindSummary(data);
+            if (mSummaryLoadStart == 0) {
+                // A result redelivered in onStart, the load was already recorded.
+                return;
+            }
+            TraceRecorder.getInstance().end(TraceRecorder.SPAN_LOADER, mSummaryLoadStart);
+            PerfCounters.getInstance().recordLatency(PerfCounters.DATA_USAGE_SUMMARY_LOAD,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - mSummaryLoadStart));
+            mSummaryLoadStart = 0;
         }
 
         @Override
         public void onLoaderReset(Loader<NetworkStats> loader) {
+            mStatsGeneration++;
             bindStats(null, new int[0]);
             updateEmptyVisible();
         }
-
-        private void updateEmptyVisible() {
-            if ((mApps.getPreferenceCount() != 0) !=
-                    (getPreferenceScreen().getPreferenceCount() != 0)) {
-                if (mApps.getPreferenceCount() != 0) {
-                    getPreferenceScreen().addPreference(mUsageAmount);
-                    getPreferenceScreen().addPreference(mApps);
-                } else {
-                    getPreferenceScreen().removeAll();
-                }
-            }
-        }
     };
 }
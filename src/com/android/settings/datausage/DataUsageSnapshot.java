@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.datausage;
+
+import android.content.Context;
+import android.net.NetworkTemplate;
+import android.os.SystemClock;
+import android.support.annotation.VisibleForTesting;
+import android.support.annotation.WorkerThread;
+import android.util.ArrayMap;
+
+import com.android.settingslib.net.DataUsageController;
+import com.android.settingslib.net.DataUsageController.DataUsageInfo;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process-wide snapshot of the {@link DataUsageInfo} of each subscription and template, shared
+ * by the data usage summary, its homepage summary and {@code dumpsys}.
+ *
+ * <p>{@link #get} queries {@link DataUsageController} at most once per {@link #SNAPSHOT_TTL_MS}
+ * for a template, and concurrent requests for the same template wait for the same query.
+ * {@link #peek} returns the last snapshot whatever its age, so that a screen can be bound right
+ * away while it is refreshed in the background. Snapshots are shared: the same instance is
+ * returned to every caller, so callers must not modify it. A caller that needs to adjust it,
+ * e.g. with the limits of the network policy, works on a {@link #copy}.
+ */
+public class DataUsageSnapshot {
+
+    @VisibleForTesting
+    static final long SNAPSHOT_TTL_MS = TimeUnit.SECONDS.toMillis(10);
+
+    private static DataUsageSnapshot sInstance;
+
+    private final DataUsageController mController;
+    private final ArrayMap<Key, Snapshot> mSnapshots = new ArrayMap<>();
+    // Queries in flight, which the requests for the same key wait for.
+    private final ArrayMap<Key, CompletableFuture<DataUsageInfo>> mPendingQueries =
+            new ArrayMap<>();
+
+    private int mHitCount;
+    private int mQueryCount;
+    private int mSharedQueryCount;
+
+    private static final class Key {
+        final int subId;
+        final NetworkTemplate template;
+
+        Key(int subId, NetworkTemplate template) {
+            this.subId = subId;
+            this.template = template;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return subId == other.subId && Objects.equals(template, other.template);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(subId, template);
+        }
+    }
+
+    private static final class Snapshot {
+        final DataUsageInfo info;
+        final long timestampMs;
+
+        Snapshot(DataUsageInfo info, long timestampMs) {
+            this.info = info;
+            this.timestampMs = timestampMs;
+        }
+    }
+
+    public static synchronized DataUsageSnapshot getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new DataUsageSnapshot(
+                    new DataUsageController(context.getApplicationContext()));
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    DataUsageSnapshot(DataUsageController controller) {
+        mController = controller;
+    }
+
+    /**
+     * Returns the usage of {@code template} for {@code subId}, querying it if the last snapshot
+     * is older than {@link #SNAPSHOT_TTL_MS}. Returns {@code null} if it isn't available. The
+     * returned info is shared and must not be modified.
+     */
+    @WorkerThread
+    public DataUsageInfo get(int subId, NetworkTemplate template) {
+        final Key key = new Key(subId, template);
+        final CompletableFuture<DataUsageInfo> query;
+        final boolean shared;
+        synchronized (this) {
+            final Snapshot snapshot = mSnapshots.get(key);
+            if (snapshot != null
+                    && SystemClock.elapsedRealtime() - snapshot.timestampMs < SNAPSHOT_TTL_MS) {
+                mHitCount++;
+                return snapshot.info;
+            }
+            final CompletableFuture<DataUsageInfo> pending = mPendingQueries.get(key);
+            shared = pending != null;
+            if (shared) {
+                mSharedQueryCount++;
+                query = pending;
+            } else {
+                mQueryCount++;
+                query = new CompletableFuture<>();
+                mPendingQueries.put(key, query);
+            }
+        }
+        if (shared) {
+            // Another request is running the query.
+            return query.join();
+        }
+
+        DataUsageInfo info = null;
+        try {
+            info = mController.getDataUsageInfo(template);
+        } finally {
+            synchronized (this) {
+                mPendingQueries.remove(key);
+                if (info != null) {
+                    mSnapshots.put(key, new Snapshot(info, SystemClock.elapsedRealtime()));
+                }
+            }
+            query.complete(info);
+        }
+        return info;
+    }
+
+    /**
+     * Returns the last snapshot of {@code template} for {@code subId} whatever its age, or
+     * {@code null} if it was never queried. The returned info is shared and must not be modified.
+     */
+    public synchronized DataUsageInfo peek(int subId, NetworkTemplate template) {
+        final Snapshot snapshot = mSnapshots.get(new Key(subId, template));
+        return snapshot != null ? snapshot.info : null;
+    }
+
+    /**
+     * Returns a copy of {@code info}, which can be modified without affecting the other users of
+     * the snapshot.
+     */
+    public static DataUsageInfo copy(DataUsageInfo info) {
+        final DataUsageInfo copy = new DataUsageInfo();
+        copy.carrier = info.carrier;
+        copy.period = info.period;
+        copy.startDate = info.startDate;
+        copy.limitLevel = info.limitLevel;
+        copy.warningLevel = info.warningLevel;
+        copy.usageLevel = info.usageLevel;
+        copy.cycleStart = info.cycleStart;
+        copy.cycleEnd = info.cycleEnd;
+        return copy;
+    }
+
+    /**
+     * Drops all the snapshots, so that the next requests query the usage again.
+     */
+    public synchronized void invalidate() {
+        mSnapshots.clear();
+    }
+
+    /**
+     * Returns the snapshot statistics, for {@code dumpsys}.
+     */
+    public synchronized JSONObject dump() throws JSONException {
+        final JSONObject obj = new JSONObject();
+        obj.put("hits", mHitCount);
+        obj.put("queries", mQueryCount);
+        obj.put("shared_queries", mSharedQueryCount);
+        obj.put("snapshots", mSnapshots.size());
+        return obj;
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.datausage;
+
+import android.net.INetworkStatsSession;
+import android.net.NetworkStats;
+import android.net.NetworkTemplate;
+import android.os.Process;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.support.annotation.VisibleForTesting;
+import android.util.ArraySet;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.android.settingslib.net.ChartData;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process-wide cache of the stats loaded by the data usage screens: the summary of all uids
+ * for a cycle of a template, shown by {@link DataUsageList}, and the history of an app for a
+ * template, shown by {@link AppDataUsage}.
+ *
+ * <p>Switching back to a cycle, or coming back to an app, then binds the cached stats instead
+ * of querying {@link INetworkStatsSession} again. The cycles next to the selected one can be
+ * loaded ahead of time with {@link #prefetchSummary}, on a thread of its own so that they don't
+ * delay the selected cycle. Entries expire after
+ * {@link #STATS_TTL_MS}, and are all dropped by {@link #invalidate()} when the stats change.
+ */
+public class DataUsageStatsCache {
+    private static final String TAG = "DataUsageStatsCache";
+
+    @VisibleForTesting
+    static final long STATS_TTL_MS = TimeUnit.MINUTES.toMillis(5);
+    @VisibleForTesting
+    static final int MAX_SUMMARIES = 8;
+    @VisibleForTesting
+    static final int MAX_CHART_DATA = 4;
+    private static final long PREFETCH_KEEP_ALIVE_MS = TimeUnit.SECONDS.toMillis(10);
+
+    private static DataUsageStatsCache sInstance;
+
+    private final LruCache<Key, Entry<NetworkStats>> mSummaries = new LruCache<>(MAX_SUMMARIES);
+    private final LruCache<Key, Entry<ChartData>> mChartData = new LruCache<>(MAX_CHART_DATA);
+    private final Executor mPrefetchExecutor;
+    // Summaries being prefetched, so that each is only queried once.
+    private final ArraySet<Key> mPendingSummaries = new ArraySet<>();
+    // Incremented by each invalidation, so that stats loaded before aren't cached after it.
+    private int mGeneration;
+    private int mPrefetchCount;
+
+    @VisibleForTesting
+    static final class Key {
+        final NetworkTemplate template;
+        final int uid;
+        final long start;
+        final long end;
+
+        Key(NetworkTemplate template, int uid, long start, long end) {
+            this.template = template;
+            this.uid = uid;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return uid == other.uid && start == other.start && end == other.end
+                    && Objects.equals(template, other.template);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(template, uid, start, end);
+        }
+    }
+
+    private static final class Entry<T> {
+        final T data;
+        final long timestampMs;
+
+        Entry(T data, long timestampMs) {
+            this.data = data;
+            this.timestampMs = timestampMs;
+        }
+    }
+
+    public static synchronized DataUsageStatsCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new DataUsageStatsCache();
+        }
+        return sInstance;
+    }
+
+    private DataUsageStatsCache() {
+        this(createPrefetchExecutor());
+    }
+
+    @VisibleForTesting
+    DataUsageStatsCache(Executor prefetchExecutor) {
+        mPrefetchExecutor = prefetchExecutor;
+    }
+
+    /**
+     * Returns the summary of all uids of {@code template} between {@code start} and
+     * {@code end}, or {@code null} if it isn't cached.
+     */
+    public NetworkStats getSummary(NetworkTemplate template, long start, long end) {
+        return getFresh(mSummaries, new Key(template, NetworkStats.UID_ALL, start, end));
+    }
+
+    public void putSummary(NetworkTemplate template, long start, long end, NetworkStats stats) {
+        if (stats != null) {
+            mSummaries.put(new Key(template, NetworkStats.UID_ALL, start, end),
+                    new Entry<>(stats, SystemClock.elapsedRealtime()));
+        }
+    }
+
+    /**
+     * Returns the history of the app item {@code appKey} for {@code template}, or {@code null}
+     * if it isn't cached.
+     */
+    public ChartData getChartData(NetworkTemplate template, int appKey) {
+        return getFresh(mChartData, new Key(template, appKey, 0, 0));
+    }
+
+    public void putChartData(NetworkTemplate template, int appKey, ChartData data) {
+        if (data != null) {
+            mChartData.put(new Key(template, appKey, 0, 0),
+                    new Entry<>(data, SystemClock.elapsedRealtime()));
+        }
+    }
+
+    /**
+     * Loads the summary of all uids of {@code template} between {@code start} and {@code end}
+     * in the background, unless it is already cached or being loaded.
+     */
+    public void prefetchSummary(INetworkStatsSession session, NetworkTemplate template,
+            long start, long end) {
+        final Key key = new Key(template, NetworkStats.UID_ALL, start, end);
+        if (session == null || getFresh(mSummaries, key) != null) {
+            return;
+        }
+        final int generation;
+        synchronized (this) {
+            if (!mPendingSummaries.add(key)) {
+                return;
+            }
+            generation = mGeneration;
+            mPrefetchCount++;
+        }
+        mPrefetchExecutor.execute(() -> {
+            NetworkStats stats = null;
+            try {
+                stats = session.getSummaryForAllUid(template, start, end, false /* includeTags */);
+            } catch (RemoteException | IllegalStateException e) {
+                // The session was closed in the meantime, the cycle is loaded when selected.
+                Log.w(TAG, "Failed to prefetch summary", e);
+            }
+            synchronized (this) {
+                mPendingSummaries.remove(key);
+                if (generation == mGeneration) {
+                    putSummary(template, start, end, stats);
+                }
+            }
+        });
+    }
+
+    /**
+     * Drops all the cached stats, as well as the ones being prefetched.
+     */
+    public synchronized void invalidate() {
+        mGeneration++;
+        mSummaries.evictAll();
+        mChartData.evictAll();
+    }
+
+    /**
+     * Returns the cache statistics, for {@code dumpsys}.
+     */
+    public synchronized JSONObject dump() throws JSONException {
+        final JSONObject obj = new JSONObject();
+        obj.put("summary_hits", mSummaries.hitCount());
+        obj.put("summary_misses", mSummaries.missCount());
+        obj.put("summary_count", mSummaries.size());
+        obj.put("chart_data_hits", mChartData.hitCount());
+        obj.put("chart_data_misses", mChartData.missCount());
+        obj.put("chart_data_count", mChartData.size());
+        obj.put("prefetches", mPrefetchCount);
+        obj.put("invalidations", mGeneration);
+        return obj;
+    }
+
+    @VisibleForTesting
+    synchronized boolean isPrefetching(NetworkTemplate template, long start, long end) {
+        return mPendingSummaries.contains(new Key(template, NetworkStats.UID_ALL, start, end));
+    }
+
+    private static Executor createPrefetchExecutor() {
+        // Not the ThreadUtils executor: the selected cycle is aggregated there, and shouldn't
+        // wait behind the queries of its neighbours.
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, PREFETCH_KEEP_ALIVE_MS,
+                TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), runnable -> {
+                    final Thread thread = new Thread(() -> {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }, "DataUsagePrefetch");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static <T> T getFresh(LruCache<Key, Entry<T>> cache, Key key) {
+        final Entry<T> entry = cache.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (SystemClock.elapsedRealtime() - entry.timestampMs >= STATS_TTL_MS) {
+            cache.remove(key);
+            return null;
+        }
+        return entry.data;
+    }
+}
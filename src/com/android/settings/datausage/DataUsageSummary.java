@@ -281,12 +281,12 @@ public class DataUsageSummary extends DataUsageBaseFragment implements Indexable
 
         private final Activity mActivity;
         private final SummaryLoader mSummaryLoader;
-        private final DataUsageController mDataController;
+        private final DataUsageSnapshot mUsageSnapshot;
 
         public SummaryProvider(Activity activity, SummaryLoader summaryLoader) {
             mActivity = activity;
             mSummaryLoader = summaryLoader;
-            mDataController = new DataUsageController(activity);
+            mUsageSnapshot = DataUsageSnapshot.getInstance(activity);
         }
 
         @Override
@@ -297,9 +297,9 @@ public class DataUsageSummary extends DataUsageBaseFragment implements Indexable
                             mActivity.getString(R.string.data_usage_summary_format,
                                     formatUsedData()));
                 } else {
-                    final DataUsageController.DataUsageInfo info =
-                            mDataController
-                                    .getDataUsageInfo(NetworkTemplate.buildTemplateWifiWildcard());
+                    final DataUsageController.DataUsageInfo info = mUsageSnapshot.get(
+                            SubscriptionManager.INVALID_SUBSCRIPTION_ID,
+                            NetworkTemplate.buildTemplateWifiWildcard());
 
                     if (info == null) {
                         mSummaryLoader.setSummary(this, null);
@@ -336,7 +336,10 @@ public class DataUsageSummary extends DataUsageBaseFragment implements Indexable
         }
 
         private CharSequence formatFallbackData() {
-            DataUsageController.DataUsageInfo info = mDataController.getDataUsageInfo();
+            // Same template as the summary page, so that both share the snapshot.
+            final int defaultSubId = DataUsageUtils.getDefaultSubscriptionId(mActivity);
+            final DataUsageController.DataUsageInfo info = mUsageSnapshot.get(defaultSubId,
+                    DataUsageUtils.getDefaultTemplate(mActivity, defaultSubId));
             if (info == null) {
                 return DataUsageUtils.formatDataUsage(mActivity, 0);
             } else if (info.limitLevel <= 0) {
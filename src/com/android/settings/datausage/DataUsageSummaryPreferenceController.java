@@ -41,6 +41,7 @@ import com.android.settingslib.core.lifecycle.Lifecycle;
 import com.android.settingslib.core.lifecycle.LifecycleObserver;
 import com.android.settingslib.core.lifecycle.events.OnStart;
 import com.android.settingslib.net.DataUsageController;
+import com.android.settingslib.utils.ThreadUtils;
 
 import java.util.List;
 
@@ -62,7 +63,8 @@ public class DataUsageSummaryPreferenceController extends BasePreferenceControll
     private final EntityHeaderController mEntityHeaderController;
     private final Lifecycle mLifecycle;
     private final DataUsageSummary mDataUsageSummary;
-    private final DataUsageController mDataUsageController;
+    private final DataUsageSnapshot mUsageSnapshot;
+    private final int mDefaultSubId;
     private final DataUsageInfoController mDataInfoController;
     private final NetworkTemplate mDefaultTemplate;
     private final NetworkPolicyEditor mPolicyEditor;
@@ -106,6 +108,7 @@ public class DataUsageSummaryPreferenceController extends BasePreferenceControll
         mDataUsageSummary = dataUsageSummary;
 
         final int defaultSubId = DataUsageUtils.getDefaultSubscriptionId(activity);
+        mDefaultSubId = defaultSubId;
         mDefaultTemplate = DataUsageUtils.getDefaultTemplate(activity, defaultSubId);
         NetworkPolicyManager policyManager = NetworkPolicyManager.from(activity);
         mPolicyEditor = new NetworkPolicyEditor(policyManager);
@@ -113,7 +116,7 @@ public class DataUsageSummaryPreferenceController extends BasePreferenceControll
         mHasMobileData = DataUsageUtils.hasMobileData(activity)
                 && defaultSubId != SubscriptionManager.INVALID_SUBSCRIPTION_ID;
 
-        mDataUsageController = new DataUsageController(activity);
+        mUsageSnapshot = DataUsageSnapshot.getInstance(activity);
         mDataInfoController = new DataUsageInfoController();
 
         if (mHasMobileData) {
@@ -142,7 +145,8 @@ public class DataUsageSummaryPreferenceController extends BasePreferenceControll
             EntityHeaderController entityHeaderController,
             DataUsageSummary dataUsageSummary) {
         super(activity, KEY);
-        mDataUsageController = dataUsageController;
+        mUsageSnapshot = new DataUsageSnapshot(dataUsageController);
+        mDefaultSubId = SubscriptionManager.INVALID_SUBSCRIPTION_ID;
         mDataInfoController = dataInfoController;
         mDefaultTemplate = defaultTemplate;
         mPolicyEditor = policyEditor;
@@ -186,16 +190,49 @@ public class DataUsageSummaryPreferenceController extends BasePreferenceControll
 
     @Override
     public void updateState(Preference preference) {
-        DataUsageSummaryPreference summaryPreference = (DataUsageSummaryPreference) preference;
+        final DataUsageSummaryPreference summaryPreference =
+                (DataUsageSummaryPreference) preference;
+        final boolean hasSim = DataUsageUtils.hasSim(mActivity);
+        final int subId = hasSim ? mDefaultSubId : SubscriptionManager.INVALID_SUBSCRIPTION_ID;
+        final NetworkTemplate template = hasSim ? mDefaultTemplate
+                : NetworkTemplate.buildTemplateWifiWildcard();
+
+        // Bind the last snapshot right away, and refresh it with the plans in the background.
+        final DataUsageController.DataUsageInfo lastInfo = mUsageSnapshot.peek(subId, template);
+        if (lastInfo != null) {
+            bindUsage(summaryPreference, hasSim, lastInfo);
+        }
+        ThreadUtils.postOnBackgroundThread(() -> {
+            final DataUsageController.DataUsageInfo snapshotInfo =
+                    mUsageSnapshot.get(subId, template);
+            if (snapshotInfo == null) {
+                return;
+            }
+            final DataUsageController.DataUsageInfo info;
+            final DataplanInfo dataplanInfo;
+            if (hasSim) {
+                // The snapshot is shared with the homepage summary and dumpsys.
+                info = DataUsageSnapshot.copy(snapshotInfo);
+                mDataInfoController.updateDataLimit(info, mPolicyEditor.getPolicy(template));
+                dataplanInfo = mSubscriptionManager != null ? loadDataplanInfo(info) : null;
+            } else {
+                info = snapshotInfo;
+                dataplanInfo = null;
+            }
+            ThreadUtils.postOnMainThread(() -> {
+                if (dataplanInfo != null) {
+                    applyDataplanInfo(dataplanInfo);
+                }
+                bindUsage(summaryPreference, hasSim, info);
+            });
+        });
+    }
 
-        final DataUsageController.DataUsageInfo info;
-        if (DataUsageUtils.hasSim(mActivity)) {
-            info = mDataUsageController.getDataUsageInfo(mDefaultTemplate);
-            mDataInfoController.updateDataLimit(info, mPolicyEditor.getPolicy(mDefaultTemplate));
+    private void bindUsage(DataUsageSummaryPreference summaryPreference, boolean hasSim,
+            DataUsageController.DataUsageInfo info) {
+        if (hasSim) {
             summaryPreference.setWifiMode(/* isWifiMode */ false, /* usagePeriod */ null);
         } else {
-            info = mDataUsageController.getDataUsageInfo(
-                    NetworkTemplate.buildTemplateWifiWildcard());
             summaryPreference.setWifiMode(/* isWifiMode */ true, /* usagePeriod */ info.period);
             summaryPreference.setLimitInfo(null);
             summaryPreference.setUsageNumbers(info.usageLevel,
@@ -210,10 +247,6 @@ public class DataUsageSummaryPreferenceController extends BasePreferenceControll
             return;
         }
 
-        if (mSubscriptionManager != null) {
-            refreshDataplanInfo(info);
-        }
-
         if (info.warningLevel > 0 && info.limitLevel > 0) {
                 summaryPreference.setLimitInfo(TextUtils.expandTemplate(
                         mContext.getText(R.string.cell_data_warning_and_limit),
@@ -245,46 +278,75 @@ public class DataUsageSummaryPreferenceController extends BasePreferenceControll
                 mDataplanCount, mManageSubscriptionIntent);
     }
 
+    /**
+     * Plan values of the default subscription, loaded in the background by
+     * {@link #loadDataplanInfo} and applied on the main thread.
+     */
+    private static class DataplanInfo {
+        CharSequence carrierName;
+        int dataplanCount;
+        long dataplanSize;
+        long dataBarSize;
+        long dataplanUse;
+        long cycleStart;
+        long cycleEnd;
+        long snapshotTime;
+        Intent manageSubscriptionIntent;
+    }
+
     // TODO(b/70950124) add test for this method once the robolectric shadow run script is
     // completed (b/3526807)
-    private void refreshDataplanInfo(DataUsageController.DataUsageInfo info) {
-        // reset data before overwriting
-        mCarrierName = null;
-        mDataplanCount = 0;
-        mDataplanSize = -1L;
-        mDataBarSize = mDataInfoController.getSummaryLimit(info);
-        mDataplanUse = info.usageLevel;
-        mCycleStart = info.cycleStart;
-        mCycleEnd = info.cycleEnd;
-        mSnapshotTime = -1L;
+    private DataplanInfo loadDataplanInfo(DataUsageController.DataUsageInfo info) {
+        final DataplanInfo dataplan = new DataplanInfo();
+        dataplan.carrierName = null;
+        dataplan.dataplanCount = 0;
+        dataplan.dataplanSize = -1L;
+        dataplan.dataBarSize = mDataInfoController.getSummaryLimit(info);
+        dataplan.dataplanUse = info.usageLevel;
+        dataplan.cycleStart = info.cycleStart;
+        dataplan.cycleEnd = info.cycleEnd;
+        dataplan.snapshotTime = -1L;
 
         final int defaultSubId = SubscriptionManager.getDefaultSubscriptionId();
         final SubscriptionInfo subInfo = mSubscriptionManager.getDefaultDataSubscriptionInfo();
         if (subInfo != null && mHasMobileData) {
-            mCarrierName = subInfo.getCarrierName();
+            dataplan.carrierName = subInfo.getCarrierName();
             List<SubscriptionPlan> plans = mSubscriptionManager.getSubscriptionPlans(defaultSubId);
             final SubscriptionPlan primaryPlan = getPrimaryPlan(mSubscriptionManager, defaultSubId);
             if (primaryPlan != null) {
-                mDataplanCount = plans.size();
-                mDataplanSize = primaryPlan.getDataLimitBytes();
-                if (unlimited(mDataplanSize)) {
-                    mDataplanSize = -1L;
+                dataplan.dataplanCount = plans.size();
+                dataplan.dataplanSize = primaryPlan.getDataLimitBytes();
+                if (unlimited(dataplan.dataplanSize)) {
+                    dataplan.dataplanSize = -1L;
                 }
-                mDataBarSize = mDataplanSize;
-                mDataplanUse = primaryPlan.getDataUsageBytes();
+                dataplan.dataBarSize = dataplan.dataplanSize;
+                dataplan.dataplanUse = primaryPlan.getDataUsageBytes();
 
                 RecurrenceRule rule = primaryPlan.getCycleRule();
                 if (rule != null && rule.start != null && rule.end != null) {
-                    mCycleStart = rule.start.toEpochSecond() * 1000L;
-                    mCycleEnd = rule.end.toEpochSecond() * 1000L;
+                    dataplan.cycleStart = rule.start.toEpochSecond() * 1000L;
+                    dataplan.cycleEnd = rule.end.toEpochSecond() * 1000L;
                 }
-                mSnapshotTime = primaryPlan.getDataUsageTime();
+                dataplan.snapshotTime = primaryPlan.getDataUsageTime();
             }
         }
-        mManageSubscriptionIntent =
+        dataplan.manageSubscriptionIntent =
                 mSubscriptionManager.createManageSubscriptionIntent(defaultSubId);
-        Log.i(TAG, "Have " + mDataplanCount + " plans, dflt sub-id " + defaultSubId
-                + ", intent " + mManageSubscriptionIntent);
+        Log.i(TAG, "Have " + dataplan.dataplanCount + " plans, dflt sub-id " + defaultSubId
+                + ", intent " + dataplan.manageSubscriptionIntent);
+        return dataplan;
+    }
+
+    private void applyDataplanInfo(DataplanInfo dataplan) {
+        mCarrierName = dataplan.carrierName;
+        mDataplanCount = dataplan.dataplanCount;
+        mDataplanSize = dataplan.dataplanSize;
+        mDataBarSize = dataplan.dataBarSize;
+        mDataplanUse = dataplan.dataplanUse;
+        mCycleStart = dataplan.cycleStart;
+        mCycleEnd = dataplan.cycleEnd;
+        mSnapshotTime = dataplan.snapshotTime;
+        mManageSubscriptionIntent = dataplan.manageSubscriptionIntent;
     }
 
     public static SubscriptionPlan getPrimaryPlan(SubscriptionManager subManager, int primaryId) {
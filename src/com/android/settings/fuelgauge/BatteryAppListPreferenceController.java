@@ -73,6 +73,7 @@ public class BatteryAppListPreferenceController extends AbstractPreferenceContro
     @VisibleForTesting
     PreferenceGroup mAppListGroup;
     private BatteryStatsHelper mBatteryStatsHelper;
+    private final BatterySipperRanking mSipperRanking = new BatterySipperRanking();
     private ArrayMap<String, Preference> mPreferenceCache;
     @VisibleForTesting
     BatteryUtils mBatteryUtils;
@@ -206,23 +207,13 @@ public class BatteryAppListPreferenceController extends AbstractPreferenceContro
         mAppListGroup.setOrderingAsAdded(false);
 
         if (averagePower >= MIN_AVERAGE_POWER_THRESHOLD_MILLI_AMP || USE_FAKE_DATA) {
-            final List<BatterySipper> usageList = getCoalescedUsageList(
-                    USE_FAKE_DATA ? getFakeStats() : statsHelper.getUsageList());
-            double hiddenPowerMah = showAllApps ? 0 :
-                    mBatteryUtils.removeHiddenBatterySippers(usageList);
-            mBatteryUtils.sortUsageList(usageList);
+            rankUsageList(statsHelper, dischargeAmount, showAllApps);
 
-            final int numSippers = usageList.size();
+            final int numSippers = mSipperRanking.size();
             for (int i = 0; i < numSippers; i++) {
-                final BatterySipper sipper = usageList.get(i);
-                double totalPower = USE_FAKE_DATA ? 4000 : statsHelper.getTotalPower();
+                final BatterySipper sipper = mSipperRanking.get(i);
+                final double percentOfTotal = mSipperRanking.getPercent(i);
 
-                final double percentOfTotal = mBatteryUtils.calculateBatteryPercent(
-                        sipper.totalPowerMah, totalPower, hiddenPowerMah, dischargeAmount);
-
-                if (((int) (percentOfTotal + .5)) < 1) {
-                    continue;
-                }
                 if (shouldHideSipper(sipper)) {
                     continue;
                 }
@@ -268,12 +259,30 @@ public class BatteryAppListPreferenceController extends AbstractPreferenceContro
         BatteryEntry.startRequestQueue();
     }
 
+    /**
+     * Ranks the sippers of {@code statsHelper} into {@link #mSipperRanking}. Coalescing and
+     * ranking modify the sippers, so they work on a copy of the usage list, which is shared with
+     * the other holders of {@link BatteryStatsSnapshot}.
+     */
+    @VisibleForTesting
+    BatterySipperRanking rankUsageList(BatteryStatsHelper statsHelper, int dischargeAmount,
+            boolean showAllApps) {
+        final List<BatterySipper> usageList = getCoalescedUsageList(USE_FAKE_DATA
+                ? getFakeStats() : BatteryStatsSnapshot.copyUsageList(statsHelper));
+        final double totalPower = USE_FAKE_DATA ? 4000 : statsHelper.getTotalPower();
+        // The refresh stops after MAX_ITEMS_TO_LIST + 2 preferences, so only as many sippers
+        // need to be ranked.
+        mBatteryUtils.rankBatterySippers(usageList, totalPower, dischargeAmount,
+                showAllApps, MAX_ITEMS_TO_LIST + 2, mSipperRanking);
+        return mSipperRanking;
+    }
+
     /**
      * We want to coalesce some UIDs. For example, dex2oat runs under a shared gid that
      * exists for all users of the same app. We detect this case and merge the power use
      * for dex2oat to the device OWNER's use of the app.
      *
-     * @return A sorted list of apps using power.
+     * @return The list of apps using power.
      */
     private List<BatterySipper> getCoalescedUsageList(final List<BatterySipper> sippers) {
         final SparseArray<BatterySipper> uidList = new SparseArray<>();
@@ -349,8 +358,7 @@ public class BatteryAppListPreferenceController extends AbstractPreferenceContro
             results.add(uidList.valueAt(i));
         }
 
-        // The sort order must have changed, so re-sort based on total power use.
-        mBatteryUtils.sortUsageList(results);
+        // Sorted by BatteryUtils.rankBatterySippers().
         return results;
     }
 
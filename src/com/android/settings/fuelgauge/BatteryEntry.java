@@ -34,6 +34,7 @@ import android.util.Log;
 
 import com.android.internal.os.BatterySipper;
 import com.android.settings.R;
+import com.android.settings.utils.AppIconCache;
 import com.android.settingslib.Utils;
 
 import java.util.ArrayList;
@@ -302,13 +303,10 @@ public class BatteryEntry {
                                 + packageLabels[i] + ", user " + userId);
                         continue;
                     }
-                    CharSequence label = ai.loadLabel(pm);
-                    if (label != null) {
-                        packageLabels[i] = label.toString();
-                    }
+                    packageLabels[i] = AppIconCache.getInstance(context).getLabel(ai);
                     if (ai.icon != 0) {
                         defaultPackageName = packages[i];
-                        icon = ai.loadIcon(pm);
+                        icon = AppIconCache.getInstance(context).getIcon(ai);
                         break;
                     }
                 } catch (RemoteException e) {
@@ -336,7 +334,8 @@ public class BatteryEntry {
                                 name = nm.toString();
                                 if (pi.applicationInfo.icon != 0) {
                                     defaultPackageName = pkgName;
-                                    icon = pi.applicationInfo.loadIcon(pm);
+                                    icon = AppIconCache.getInstance(context)
+                                            .getIcon(pi.applicationInfo);
                                 }
                                 break;
                             }
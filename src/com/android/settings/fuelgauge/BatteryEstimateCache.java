@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge;
+
+import android.content.Context;
+import android.support.annotation.VisibleForTesting;
+import android.support.annotation.WorkerThread;
+
+/**
+ * Remembers the latest battery time estimates, so a summary can be shown from the sticky
+ * battery broadcast alone, without parsing the battery stats.
+ *
+ * <p>The time remaining is recorded whenever a {@link BatteryInfo} is built from the full
+ * stats, and aged by the time elapsed since. The enhanced estimate is queried from
+ * {@link PowerUsageFeatureProvider} at most once per {@link #ENHANCED_ESTIMATE_TTL_MS}.
+ */
+public class BatteryEstimateCache {
+
+    @VisibleForTesting
+    static final long ENHANCED_ESTIMATE_TTL_MS = 60 * 1000L;
+    @VisibleForTesting
+    static final long REMAINING_TIME_TTL_MS = 5 * 60 * 1000L;
+
+    private static Estimate sEnhancedEstimate;
+    private static long sEnhancedEstimateTimeMs;
+
+    private static Estimate sEstimate;
+    private static long sEstimateTimeMs;
+    private static boolean sEstimateCharging;
+
+    /**
+     * Records the time remaining computed from the full stats at {@code nowMs}, in the
+     * {@link android.os.SystemClock#elapsedRealtime()} time base. When {@code charging}, it is the
+     * time until fully charged.
+     */
+    public static synchronized void putEstimate(Estimate estimate, boolean charging,
+            long nowMs) {
+        sEstimate = estimate;
+        sEstimateTimeMs = nowMs;
+        sEstimateCharging = charging;
+    }
+
+    /**
+     * Returns the time remaining last recorded by {@link #putEstimate(Estimate, boolean, long)},
+     * less the time elapsed since, or {@code null} if it is stale, was recorded for another
+     * charging state or has already run out.
+     */
+    public static synchronized Estimate getEstimate(boolean charging, long nowMs) {
+        if (sEstimate == null || sEstimateCharging != charging) {
+            return null;
+        }
+        final long ageMs = nowMs - sEstimateTimeMs;
+        if (ageMs < 0 || ageMs > REMAINING_TIME_TTL_MS) {
+            return null;
+        }
+        final long remainingMs = sEstimate.estimateMillis - ageMs;
+        if (remainingMs <= 0) {
+            return null;
+        }
+        return new Estimate(remainingMs, sEstimate.isBasedOnUsage,
+                sEstimate.averageDischargeTime);
+    }
+
+    /**
+     * Returns the enhanced estimate of {@code provider}, querying it only if the cached one is
+     * older than {@link #ENHANCED_ESTIMATE_TTL_MS}. Returns {@code null} if enhanced estimates
+     * are not enabled or not available.
+     */
+    @WorkerThread
+    public static Estimate getEnhancedEstimate(Context context,
+            PowerUsageFeatureProvider provider, long nowMs) {
+        if (provider == null || !provider.isEnhancedBatteryPredictionEnabled(context)) {
+            return null;
+        }
+        synchronized (BatteryEstimateCache.class) {
+            final long ageMs = nowMs - sEnhancedEstimateTimeMs;
+            if (sEnhancedEstimate != null && ageMs >= 0 && ageMs <= ENHANCED_ESTIMATE_TTL_MS) {
+                return sEnhancedEstimate;
+            }
+        }
+        final Estimate estimate = provider.getEnhancedBatteryPrediction(context);
+        putEnhancedEstimate(estimate, nowMs);
+        return estimate;
+    }
+
+    /**
+     * Records an enhanced estimate queried elsewhere at {@code nowMs}.
+     */
+    public static synchronized void putEnhancedEstimate(Estimate estimate, long nowMs) {
+        sEnhancedEstimate = estimate;
+        sEnhancedEstimateTimeMs = nowMs;
+    }
+
+    @VisibleForTesting
+    static synchronized void clear() {
+        sEnhancedEstimate = null;
+        sEnhancedEstimateTimeMs = 0;
+        sEstimate = null;
+        sEstimateTimeMs = 0;
+        sEstimateCharging = false;
+    }
+}
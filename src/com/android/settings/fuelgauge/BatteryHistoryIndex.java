@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge;
+
+import android.os.BatteryStats;
+import android.os.BatteryStats.HistoryItem;
+import android.support.annotation.VisibleForTesting;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+
+/**
+ * Columnar copy of the battery history of a {@link BatteryStats}, built with a single walk
+ * over {@link BatteryStats#getNextHistoryLocked(HistoryItem)}.
+ *
+ * <p>Only the fields read by {@link BatteryInfo.BatteryDataParser}s are kept, in primitive
+ * arrays. The last index is cached and reused for any {@link BatteryStats} with the same history
+ * generation, so the battery graph, the history detail page and the battery tips don't walk the
+ * same history again. The cache doesn't keep the {@link BatteryStats} itself alive: it holds a
+ * whole parcelled history.
+ */
+public class BatteryHistoryIndex {
+
+    private static final int INITIAL_CAPACITY = 256;
+    // A jump in wall time larger than this isn't charted; the history is rebased instead.
+    private static final long MAX_TIME_JUMP_MS = 180 * 24 * 60 * 60 * 1000L;
+    // Time changes this early in the history are noise, so the base time is recomputed.
+    private static final long EARLY_TIME_CHANGE_MS = 5 * 60 * 1000L;
+    private static final long GAP_TIME_CHANGE_MS = 60 * 60 * 1000L;
+
+    // Only to reuse the index for the same stats when their generation isn't known
+    private static WeakReference<BatteryStats> sLastStats;
+    private static Generation sLastGeneration;
+    private static BatteryHistoryIndex sLastIndex;
+
+    private int mSize;
+    private long[] mTime = new long[INITIAL_CAPACITY];
+    private long[] mCurrentTime = new long[INITIAL_CAPACITY];
+    private byte[] mCmd = new byte[INITIAL_CAPACITY];
+    private byte[] mBatteryLevel = new byte[INITIAL_CAPACITY];
+    private int[] mStates = new int[INITIAL_CAPACITY];
+    private int[] mStates2 = new int[INITIAL_CAPACITY];
+
+    // Computed while indexing, as the first walk of BatteryInfo.parse used to do.
+    private long mStartWalltime;
+    private long mEndWalltime;
+    private long mHistoryStart;
+    private long mLastRealtime;
+    private int mLastInteresting;
+
+    /**
+     * Identifies the history of a {@link BatteryStats}, which only grows until the stats are
+     * reset.
+     */
+    @VisibleForTesting
+    static final class Generation {
+        final long startClockTime;
+        final int startCount;
+        final int historyUsedSize;
+
+        Generation(BatteryStats stats) {
+            startClockTime = stats.getStartClockTime();
+            startCount = stats.getStartCount();
+            historyUsedSize = stats.getHistoryUsedSize();
+        }
+
+        boolean isKnown() {
+            return historyUsedSize > 0;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Generation)) {
+                return false;
+            }
+            final Generation other = (Generation) o;
+            return startClockTime == other.startClockTime && startCount == other.startCount
+                    && historyUsedSize == other.historyUsedSize;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (startClockTime ^ (startClockTime >>> 32)) * 31 * 31
+                    + startCount * 31 + historyUsedSize;
+        }
+    }
+
+    /**
+     * Returns the index of the history of {@code stats}, building it unless the last one built
+     * is for the same history.
+     */
+    public static synchronized BatteryHistoryIndex get(BatteryStats stats) {
+        final Generation generation = new Generation(stats);
+        if (sLastIndex != null && ((sLastStats != null && stats == sLastStats.get())
+                || (generation.isKnown() && generation.equals(sLastGeneration)))) {
+            return sLastIndex;
+        }
+        final BatteryHistoryIndex index = build(stats);
+        sLastStats = new WeakReference<>(stats);
+        sLastGeneration = generation;
+        sLastIndex = index;
+        return index;
+    }
+
+    @VisibleForTesting
+    static synchronized void clearCache() {
+        sLastStats = null;
+        sLastGeneration = null;
+        sLastIndex = null;
+    }
+
+    /**
+     * Indexes the history of {@code stats}, without looking at or updating the cached index.
+     */
+    public static BatteryHistoryIndex build(BatteryStats stats) {
+        final BatteryHistoryIndex index = new BatteryHistoryIndex();
+        long lastWallTime = 0;
+        long historyEnd = 0;
+        boolean first = true;
+        if (stats.startIteratingHistoryLocked()) {
+            final HistoryItem rec = new HistoryItem();
+            while (stats.getNextHistoryLocked(rec)) {
+                index.add(rec);
+                if (first) {
+                    first = false;
+                    index.mHistoryStart = rec.time;
+                }
+                if (rec.cmd == HistoryItem.CMD_CURRENT_TIME
+                        || rec.cmd == HistoryItem.CMD_RESET) {
+                    // If there is a ridiculously large jump in time, then we won't be
+                    // able to create a good chart with that data, so just ignore the
+                    // times we got before and pretend like our data extends back from
+                    // the time we have now.
+                    // Also, if we are getting a time change and we are less than 5 minutes
+                    // since the start of the history real time, then also use this new
+                    // time to compute the base time, since whatever time we had before is
+                    // pretty much just noise.
+                    if (rec.currentTime > (lastWallTime + MAX_TIME_JUMP_MS)
+                            || rec.time < (index.mHistoryStart + EARLY_TIME_CHANGE_MS)) {
+                        index.mStartWalltime = 0;
+                    }
+                    lastWallTime = rec.currentTime;
+                    index.mLastRealtime = rec.time;
+                    if (index.mStartWalltime == 0) {
+                        index.mStartWalltime =
+                                lastWallTime - (index.mLastRealtime - index.mHistoryStart);
+                    }
+                }
+                if (rec.isDeltaData()) {
+                    index.mLastInteresting = index.mSize;
+                    historyEnd = rec.time;
+                }
+            }
+        }
+        stats.finishIteratingHistoryLocked();
+        index.mEndWalltime = lastWallTime + historyEnd - index.mLastRealtime;
+        return index;
+    }
+
+    /**
+     * Feeds the indexed history to {@code parsers}, in the same way a walk over
+     * {@link BatteryStats#getNextHistoryLocked(HistoryItem)} would.
+     */
+    public void replay(BatteryInfo.BatteryDataParser... parsers) {
+        final long startWalltime = mStartWalltime;
+        long curWalltime = 0;
+        long lastRealtime = mLastRealtime;
+
+        for (int j = 0; j < parsers.length; j++) {
+            parsers[j].onParsingStarted(startWalltime, mEndWalltime);
+        }
+        if (mEndWalltime > startWalltime) {
+            final HistoryItem rec = new HistoryItem();
+            final int count = Math.min(mLastInteresting, mSize);
+            for (int i = 0; i < count; i++) {
+                fill(i, rec);
+                if (rec.isDeltaData()) {
+                    curWalltime += rec.time - lastRealtime;
+                    lastRealtime = rec.time;
+                    long x = (curWalltime - startWalltime);
+                    if (x < 0) {
+                        x = 0;
+                    }
+                    for (int j = 0; j < parsers.length; j++) {
+                        parsers[j].onDataPoint(x, rec);
+                    }
+                } else {
+                    long lastWalltime = curWalltime;
+                    if (rec.cmd == HistoryItem.CMD_CURRENT_TIME
+                            || rec.cmd == HistoryItem.CMD_RESET) {
+                        if (rec.currentTime >= startWalltime) {
+                            curWalltime = rec.currentTime;
+                        } else {
+                            curWalltime = startWalltime + (rec.time - mHistoryStart);
+                        }
+                        lastRealtime = rec.time;
+                    }
+
+                    if (rec.cmd != HistoryItem.CMD_OVERFLOW
+                            && (rec.cmd != HistoryItem.CMD_CURRENT_TIME
+                            || Math.abs(lastWalltime - curWalltime) > GAP_TIME_CHANGE_MS)) {
+                        for (int j = 0; j < parsers.length; j++) {
+                            parsers[j].onDataGap();
+                        }
+                    }
+                }
+            }
+        }
+
+        for (int j = 0; j < parsers.length; j++) {
+            parsers[j].onParsingDone();
+        }
+    }
+
+    /**
+     * Returns the number of history events in this index.
+     */
+    public int size() {
+        return mSize;
+    }
+
+    public long getStartWalltime() {
+        return mStartWalltime;
+    }
+
+    public long getEndWalltime() {
+        return mEndWalltime;
+    }
+
+    private void add(HistoryItem rec) {
+        if (mSize == mTime.length) {
+            final int capacity = mSize * 2;
+            mTime = Arrays.copyOf(mTime, capacity);
+            mCurrentTime = Arrays.copyOf(mCurrentTime, capacity);
+            mCmd = Arrays.copyOf(mCmd, capacity);
+            mBatteryLevel = Arrays.copyOf(mBatteryLevel, capacity);
+            mStates = Arrays.copyOf(mStates, capacity);
+            mStates2 = Arrays.copyOf(mStates2, capacity);
+        }
+        mTime[mSize] = rec.time;
+        mCurrentTime[mSize] = rec.currentTime;
+        mCmd[mSize] = rec.cmd;
+        mBatteryLevel[mSize] = rec.batteryLevel;
+        mStates[mSize] = rec.states;
+        mStates2[mSize] = rec.states2;
+        mSize++;
+    }
+
+    private void fill(int i, HistoryItem rec) {
+        rec.time = mTime[i];
+        rec.currentTime = mCurrentTime[i];
+        rec.cmd = mCmd[i];
+        rec.batteryLevel = mBatteryLevel[i];
+        rec.states = mStates[i];
+        rec.states2 = mStates2[i];
+    }
+}
@@ -22,7 +22,6 @@ import android.os.AsyncTask;
 import android.os.BatteryManager;
 import android.os.BatteryStats;
 import android.os.BatteryStats.HistoryItem;
-import android.os.Bundle;
 import android.os.SystemClock;
 import android.support.annotation.WorkerThread;
 import android.text.format.Formatter;
@@ -138,11 +137,13 @@ public class BatteryInfo {
 
     public static void getBatteryInfo(final Context context, final Callback callback,
             boolean shortString) {
-        final long startTime = System.currentTimeMillis();
-        BatteryStatsHelper statsHelper = new BatteryStatsHelper(context, true);
-        statsHelper.create((Bundle) null);
-        BatteryUtils.logRuntime(LOG_TAG, "time to make batteryStatsHelper", startTime);
-        BatteryInfo.getBatteryInfo(context, callback, statsHelper, shortString);
+        final BatteryStatsSnapshot snapshot = BatteryStatsSnapshot.getInstance(context);
+        final BatteryStatsHelper statsHelper = snapshot.acquire();
+        try {
+            BatteryInfo.getBatteryInfo(context, callback, statsHelper, shortString);
+        } finally {
+            snapshot.release(statsHelper);
+        }
     }
 
     public static void getBatteryInfo(final Context context, final Callback callback,
@@ -173,6 +174,8 @@ public class BatteryInfo {
                 if (discharging && provider != null
                         && provider.isEnhancedBatteryPredictionEnabled(context)) {
                     Estimate estimate = provider.getEnhancedBatteryPrediction(context);
+                    BatteryEstimateCache.putEnhancedEstimate(estimate,
+                            PowerUtil.convertUsToMs(elapsedRealtimeUs));
                     if(estimate != null) {
                         BatteryUtils
                                 .logRuntime(LOG_TAG, "time for enhanced BatteryInfo", startTime);
@@ -215,6 +218,81 @@ public class BatteryInfo {
     public static BatteryInfo getBatteryInfo(Context context, Intent batteryBroadcast,
             BatteryStats stats, Estimate estimate, long elapsedRealtimeUs, boolean shortString) {
         final long startTime = System.currentTimeMillis();
+        final boolean charging =
+                batteryBroadcast.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+        final long chargeTimeUs = charging
+                ? stats.computeChargeTimeRemaining(elapsedRealtimeUs) : 0;
+        // Keep the time remaining, so the dashboard summary can show it without the stats.
+        final long nowMs = PowerUtil.convertUsToMs(elapsedRealtimeUs);
+        if (charging) {
+            BatteryEstimateCache.putEstimate(new Estimate(PowerUtil.convertUsToMs(chargeTimeUs),
+                    false /* isBasedOnUsage */, Estimate.AVERAGE_TIME_TO_DISCHARGE_UNKNOWN),
+                    true /* charging */, nowMs);
+        } else {
+            BatteryEstimateCache.putEstimate(estimate, false /* charging */, nowMs);
+        }
+        final BatteryInfo info = createBatteryInfo(context, batteryBroadcast, stats, estimate,
+                chargeTimeUs, shortString);
+        BatteryUtils.logRuntime(LOG_TAG, "time for getBatteryInfo", startTime);
+        return info;
+    }
+
+    /**
+     * Loads a {@link BatteryInfo} for a summary, such as the one on the dashboard, without
+     * parsing the battery stats. The {@link BatteryInfo} has no history to bind.
+     */
+    public static void getDashboardBatteryInfo(final Context context, final Callback callback,
+            boolean shortString) {
+        new AsyncTask<Void, Void, BatteryInfo>() {
+            @Override
+            protected BatteryInfo doInBackground(Void... params) {
+                final Intent batteryBroadcast = context.registerReceiver(null,
+                        new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+                return getDashboardBatteryInfo(context, batteryBroadcast,
+                        SystemClock.elapsedRealtime(), shortString);
+            }
+
+            @Override
+            protected void onPostExecute(BatteryInfo batteryInfo) {
+                callback.onBatteryInfoLoaded(batteryInfo);
+            }
+        }.execute();
+    }
+
+    /**
+     * Builds a {@link BatteryInfo} from the sticky battery broadcast alone. The time remaining
+     * is the enhanced estimate when enabled, or else the one kept from the last time the full
+     * stats were parsed, if it is recent enough. Otherwise no time remaining is shown.
+     */
+    @WorkerThread
+    public static BatteryInfo getDashboardBatteryInfo(Context context, Intent batteryBroadcast,
+            long elapsedRealtimeMs, boolean shortString) {
+        final long startTime = System.currentTimeMillis();
+        final boolean charging =
+                batteryBroadcast.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+        Estimate estimate = null;
+        if (!charging) {
+            final PowerUsageFeatureProvider provider =
+                    FeatureFactory.getFactory(context).getPowerUsageFeatureProvider(context);
+            estimate = BatteryEstimateCache.getEnhancedEstimate(context, provider,
+                    elapsedRealtimeMs);
+        }
+        if (estimate == null) {
+            estimate = BatteryEstimateCache.getEstimate(charging, elapsedRealtimeMs);
+        }
+        if (estimate == null) {
+            estimate = new Estimate(0 /* estimateMillis */, false /* isBasedOnUsage */,
+                    Estimate.AVERAGE_TIME_TO_DISCHARGE_UNKNOWN);
+        }
+        final long chargeTimeUs = charging ? PowerUtil.convertMsToUs(estimate.estimateMillis) : 0;
+        final BatteryInfo info = createBatteryInfo(context, batteryBroadcast, null /* stats */,
+                estimate, chargeTimeUs, shortString);
+        BatteryUtils.logRuntime(LOG_TAG, "time for dashboard BatteryInfo", startTime);
+        return info;
+    }
+
+    private static BatteryInfo createBatteryInfo(Context context, Intent batteryBroadcast,
+            BatteryStats stats, Estimate estimate, long chargeTimeUs, boolean shortString) {
         BatteryInfo info = new BatteryInfo();
         info.mStats = stats;
         info.batteryLevel = Utils.getBatteryLevel(batteryBroadcast);
@@ -227,16 +305,14 @@ public class BatteryInfo {
         if (!info.mCharging) {
             updateBatteryInfoDischarging(context, shortString, estimate, info);
         } else {
-            updateBatteryInfoCharging(context, batteryBroadcast, stats, elapsedRealtimeUs, info);
+            updateBatteryInfoCharging(context, batteryBroadcast, chargeTimeUs, info);
         }
-        BatteryUtils.logRuntime(LOG_TAG, "time for getBatteryInfo", startTime);
         return info;
     }
 
     private static void updateBatteryInfoCharging(Context context, Intent batteryBroadcast,
-            BatteryStats stats, long elapsedRealtimeUs, BatteryInfo info) {
+            long chargeTime, BatteryInfo info) {
         final Resources resources = context.getResources();
-        final long chargeTime = stats.computeChargeTimeRemaining(elapsedRealtimeUs);
         final int status = batteryBroadcast.getIntExtra(BatteryManager.EXTRA_STATUS,
                 BatteryManager.BATTERY_STATUS_UNKNOWN);
         info.discharging = false;
@@ -291,101 +367,11 @@ public class BatteryInfo {
         void onParsingDone();
     }
 
+    /**
+     * Feeds the battery history of {@code stats} to {@code parsers}. The history is indexed
+     * once by {@link BatteryHistoryIndex} and shared by later calls for the same history.
+     */
     public static void parse(BatteryStats stats, BatteryDataParser... parsers) {
-        long startWalltime = 0;
-        long endWalltime = 0;
-        long historyStart = 0;
-        long historyEnd = 0;
-        long curWalltime = startWalltime;
-        long lastWallTime = 0;
-        long lastRealtime = 0;
-        int lastInteresting = 0;
-        int pos = 0;
-        boolean first = true;
-        if (stats.startIteratingHistoryLocked()) {
-            final HistoryItem rec = new HistoryItem();
-            while (stats.getNextHistoryLocked(rec)) {
-                pos++;
-                if (first) {
-                    first = false;
-                    historyStart = rec.time;
-                }
-                if (rec.cmd == HistoryItem.CMD_CURRENT_TIME
-                        || rec.cmd == HistoryItem.CMD_RESET) {
-                    // If there is a ridiculously large jump in time, then we won't be
-                    // able to create a good chart with that data, so just ignore the
-                    // times we got before and pretend like our data extends back from
-                    // the time we have now.
-                    // Also, if we are getting a time change and we are less than 5 minutes
-                    // since the start of the history real time, then also use this new
-                    // time to compute the base time, since whatever time we had before is
-                    // pretty much just noise.
-                    if (rec.currentTime > (lastWallTime + (180 * 24 * 60 * 60 * 1000L))
-                            || rec.time < (historyStart + (5 * 60 * 1000L))) {
-                        startWalltime = 0;
-                    }
-                    lastWallTime = rec.currentTime;
-                    lastRealtime = rec.time;
-                    if (startWalltime == 0) {
-                        startWalltime = lastWallTime - (lastRealtime - historyStart);
-                    }
-                }
-                if (rec.isDeltaData()) {
-                    lastInteresting = pos;
-                    historyEnd = rec.time;
-                }
-            }
-        }
-        stats.finishIteratingHistoryLocked();
-        endWalltime = lastWallTime + historyEnd - lastRealtime;
-
-        int i = 0;
-        final int N = lastInteresting;
-
-        for (int j = 0; j < parsers.length; j++) {
-            parsers[j].onParsingStarted(startWalltime, endWalltime);
-        }
-        if (endWalltime > startWalltime && stats.startIteratingHistoryLocked()) {
-            final HistoryItem rec = new HistoryItem();
-            while (stats.getNextHistoryLocked(rec) && i < N) {
-                if (rec.isDeltaData()) {
-                    curWalltime += rec.time - lastRealtime;
-                    lastRealtime = rec.time;
-                    long x = (curWalltime - startWalltime);
-                    if (x < 0) {
-                        x = 0;
-                    }
-                    for (int j = 0; j < parsers.length; j++) {
-                        parsers[j].onDataPoint(x, rec);
-                    }
-                } else {
-                    long lastWalltime = curWalltime;
-                    if (rec.cmd == HistoryItem.CMD_CURRENT_TIME
-                            || rec.cmd == HistoryItem.CMD_RESET) {
-                        if (rec.currentTime >= startWalltime) {
-                            curWalltime = rec.currentTime;
-                        } else {
-                            curWalltime = startWalltime + (rec.time - historyStart);
-                        }
-                        lastRealtime = rec.time;
-                    }
-
-                    if (rec.cmd != HistoryItem.CMD_OVERFLOW
-                            && (rec.cmd != HistoryItem.CMD_CURRENT_TIME
-                            || Math.abs(lastWalltime - curWalltime) > (60 * 60 * 1000))) {
-                        for (int j = 0; j < parsers.length; j++) {
-                            parsers[j].onDataGap();
-                        }
-                    }
-                }
-                i++;
-            }
-        }
-
-        stats.finishIteratingHistoryLocked();
-
-        for (int j = 0; j < parsers.length; j++) {
-            parsers[j].onParsingDone();
-        }
+        BatteryHistoryIndex.get(stats).replay(parsers);
     }
 }
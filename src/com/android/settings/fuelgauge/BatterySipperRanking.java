@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge;
+
+import com.android.internal.os.BatterySipper;
+
+import java.util.Arrays;
+
+/**
+ * The {@link BatterySipper}s using the most power, with their percentage of the battery, as
+ * ranked by {@link BatteryUtils#rankBatterySippers}.
+ *
+ * <p>A ranking is meant to be kept and filled again on each refresh: its arrays only grow, so
+ * no allocation happens once they fit the number of sippers.
+ */
+public class BatterySipperRanking {
+    private static final int INITIAL_CAPACITY = 64;
+
+    // Scratch space for the visible sippers, and their screen time used to smear the screen power
+    private BatterySipper[] mVisible = new BatterySipper[INITIAL_CAPACITY];
+    private long[] mScreenTimeMs = new long[INITIAL_CAPACITY];
+    private int mVisibleCount;
+
+    // Top sippers, sorted by decreasing power
+    private BatterySipper[] mTop = new BatterySipper[0];
+    private double[] mTopPowerMah = new double[0];
+    private double[] mTopPercent = new double[0];
+    private int mTopCount;
+    private int mMaxCount;
+
+    private double mHiddenPowerMah;
+
+    /**
+     * Returns the number of ranked sippers.
+     */
+    public int size() {
+        return mTopCount;
+    }
+
+    /**
+     * Returns the sipper at {@code rank}, 0 being the one using the most power.
+     */
+    public BatterySipper get(int rank) {
+        return mTop[rank];
+    }
+
+    /**
+     * Returns the percentage of the battery used by the sipper at {@code rank}.
+     */
+    public double getPercent(int rank) {
+        return mTopPercent[rank];
+    }
+
+    /**
+     * Returns the power of the hidden sippers that was smeared over the visible ones.
+     */
+    public double getHiddenPowerMah() {
+        return mHiddenPowerMah;
+    }
+
+    void reset(int sipperCount, int maxCount) {
+        Arrays.fill(mVisible, 0, mVisibleCount, null);
+        Arrays.fill(mTop, 0, mTopCount, null);
+        mVisibleCount = 0;
+        mTopCount = 0;
+        mHiddenPowerMah = 0;
+        if (mVisible.length < sipperCount) {
+            final int capacity = Math.max(sipperCount, mVisible.length * 2);
+            mVisible = new BatterySipper[capacity];
+            mScreenTimeMs = new long[capacity];
+        }
+        if (mTop.length < maxCount) {
+            mTop = new BatterySipper[maxCount];
+            mTopPowerMah = new double[maxCount];
+            mTopPercent = new double[maxCount];
+        }
+        mMaxCount = maxCount;
+    }
+
+    void addVisible(BatterySipper sipper, long screenTimeMs) {
+        mVisible[mVisibleCount] = sipper;
+        mScreenTimeMs[mVisibleCount] = screenTimeMs;
+        mVisibleCount++;
+    }
+
+    int getVisibleCount() {
+        return mVisibleCount;
+    }
+
+    BatterySipper getVisible(int index) {
+        return mVisible[index];
+    }
+
+    long getScreenTimeMs(int index) {
+        return mScreenTimeMs[index];
+    }
+
+    void setHiddenPowerMah(double hiddenPowerMah) {
+        mHiddenPowerMah = hiddenPowerMah;
+    }
+
+    /**
+     * Keeps {@code sipper} if it is among the ones using the most power. Sippers
+     * using the same power keep the order they were offered in.
+     */
+    void offer(BatterySipper sipper, double powerMah, double percent) {
+        if (mTopCount == mMaxCount
+                && (mMaxCount == 0 || powerMah <= mTopPowerMah[mTopCount - 1])) {
+            return;
+        }
+        int index = mTopCount < mMaxCount ? mTopCount : mTopCount - 1;
+        while (index > 0 && mTopPowerMah[index - 1] < powerMah) {
+            mTop[index] = mTop[index - 1];
+            mTopPowerMah[index] = mTopPowerMah[index - 1];
+            mTopPercent[index] = mTopPercent[index - 1];
+            index--;
+        }
+        mTop[index] = sipper;
+        mTopPowerMah[index] = powerMah;
+        mTopPercent[index] = percent;
+        if (mTopCount < mMaxCount) {
+            mTopCount++;
+        }
+    }
+}
@@ -17,42 +17,38 @@
 package com.android.settings.fuelgauge;
 
 import android.content.Context;
-import android.os.BatteryStats;
-import android.os.Bundle;
-import android.os.UserManager;
 import android.support.annotation.VisibleForTesting;
 
 import com.android.internal.os.BatteryStatsHelper;
 import com.android.settingslib.utils.AsyncLoader;
 
 /**
- * Loader to get new {@link BatteryStatsHelper} in the background
+ * Loader to get the shared {@link BatteryStatsHelper} from {@link BatteryStatsSnapshot} in the
+ * background
  */
 public class BatteryStatsHelperLoader extends AsyncLoader<BatteryStatsHelper> {
     @VisibleForTesting
-    UserManager mUserManager;
+    BatteryStatsSnapshot mSnapshot;
     @VisibleForTesting
-    BatteryUtils mBatteryUtils;
+    BatteryUsageHistoryStore mHistoryStore;
 
     public BatteryStatsHelperLoader(Context context) {
         super(context);
-        mUserManager = (UserManager) context.getSystemService(Context.USER_SERVICE);
-        mBatteryUtils = BatteryUtils.getInstance(context);
+        mSnapshot = BatteryStatsSnapshot.getInstance(context);
+        mHistoryStore = BatteryUsageHistoryStore.getInstance(context);
     }
 
     @Override
     public BatteryStatsHelper loadInBackground() {
-        Context context = getContext();
-        final BatteryStatsHelper statsHelper = new BatteryStatsHelper(context,
-                true /* collectBatteryBroadcast */);
-        mBatteryUtils.initBatteryStatsHelper(statsHelper, null /* bundle */, mUserManager);
-
-        return statsHelper;
+        final BatteryStatsHelper helper = mSnapshot.acquire();
+        // Keep the per-app usage history going while the battery pages are in use.
+        mHistoryStore.record(helper);
+        return helper;
     }
 
     @Override
     protected void onDiscardResult(BatteryStatsHelper result) {
-
+        mSnapshot.release(result);
     }
 
 }
@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.os.UserManager;
+import android.support.annotation.VisibleForTesting;
+import android.support.annotation.WorkerThread;
+import android.util.Log;
+
+import com.android.internal.os.BatterySipper;
+import com.android.internal.os.BatteryStatsHelper;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Process-wide snapshot of {@link BatteryStatsHelper}, shared by the battery screens, loaders
+ * and the dashboard summary.
+ *
+ * <p>Building a {@link BatteryStatsHelper} parcels the whole battery history over binder, so
+ * callers {@link #acquire()} a shared one instead. A snapshot is reused while it is younger than
+ * {@link #MAX_AGE_MS}, and concurrent callers wait for the one refresh in flight instead of
+ * starting their own. A snapshot is never refreshed in place: holders keep reading the one they
+ * acquired, and {@link #release(BatteryStatsHelper)} lets an outdated one be dropped once
+ * nobody holds it anymore.
+ *
+ * <p>The helper and its {@link BatterySipper}s are read by every holder, so they must not be
+ * modified: callers that merge, smear or annotate sippers work on {@link #copyUsageList}.
+ */
+public class BatteryStatsSnapshot {
+    private static final String TAG = "BatteryStatsSnapshot";
+
+    @VisibleForTesting
+    static final long MAX_AGE_MS = 3000;
+
+    private static BatteryStatsSnapshot sInstance;
+
+    private final Context mContext;
+    private final UserManager mUserManager;
+    private final BatteryUtils mBatteryUtils;
+
+    private BatteryStatsHelper mHelper;
+    private long mTimestamp;
+    private boolean mInvalidated;
+    private int mRefCount;
+    private boolean mRefreshing;
+
+    private int mParseCount;
+    private int mReuseCount;
+    private int mJoinCount;
+
+    public static synchronized BatteryStatsSnapshot getInstance(Context context) {
+        if (sInstance == null) {
+            final Context appContext = context.getApplicationContext();
+            sInstance = new BatteryStatsSnapshot(appContext, BatteryUtils.getInstance(appContext));
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    BatteryStatsSnapshot(Context context, BatteryUtils batteryUtils) {
+        mContext = context;
+        mUserManager = (UserManager) context.getSystemService(Context.USER_SERVICE);
+        mBatteryUtils = batteryUtils;
+    }
+
+    /**
+     * Returns a {@link BatteryStatsHelper} refreshed with {@link
+     * android.os.BatteryStats#STATS_SINCE_CHARGED}, shared with other callers. It must not be
+     * refreshed again by the caller, nor its sippers modified (see {@link #copyUsageList}), and
+     * should be handed back with {@link #release(BatteryStatsHelper)} once it is no longer used.
+     */
+    @WorkerThread
+    public BatteryStatsHelper acquire() {
+        boolean interrupted = false;
+        synchronized (this) {
+            boolean joined = false;
+            while (!isFresh()) {
+                if (!mRefreshing) {
+                    mRefreshing = true;
+                    break;
+                }
+                // Another caller is already parsing the stats, share its result.
+                joined = true;
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    interrupted = true;
+                    break;
+                }
+            }
+            if (!interrupted && isFresh()) {
+                if (joined) {
+                    mJoinCount++;
+                } else {
+                    mReuseCount++;
+                }
+                mRefCount++;
+                return mHelper;
+            }
+        }
+        if (interrupted) {
+            // Don't leave the caller without stats, but keep this one out of the snapshot.
+            Log.w(TAG, "Interrupted while waiting for battery stats");
+            return createHelper();
+        }
+
+        BatteryStatsHelper helper = null;
+        try {
+            helper = createHelper();
+        } finally {
+            synchronized (this) {
+                mRefreshing = false;
+                if (helper != null) {
+                    mHelper = helper;
+                    mTimestamp = SystemClock.elapsedRealtime();
+                    mInvalidated = false;
+                    mRefCount = 1;
+                    mParseCount++;
+                }
+                notifyAll();
+            }
+        }
+        return helper;
+    }
+
+    /**
+     * Hands back a helper returned by {@link #acquire()}.
+     */
+    public synchronized void release(BatteryStatsHelper helper) {
+        if (helper == null || helper != mHelper || mRefCount == 0) {
+            // Not the current snapshot, the caller's reference is all that kept it.
+            return;
+        }
+        mRefCount--;
+        if (mRefCount == 0 && !isFresh()) {
+            mHelper = null;
+        }
+    }
+
+    /**
+     * Makes the next {@link #acquire()} parse the stats again, e.g. after they were reset.
+     */
+    public synchronized void invalidate() {
+        mInvalidated = true;
+        if (mRefCount == 0) {
+            mHelper = null;
+        }
+    }
+
+    /**
+     * Returns a copy of the usage list of {@code helper}, whose sippers can be modified without
+     * affecting the other holders of the snapshot.
+     */
+    public static List<BatterySipper> copyUsageList(BatteryStatsHelper helper) {
+        final List<BatterySipper> usageList = helper.getUsageList();
+        final int size = usageList.size();
+        final List<BatterySipper> copy = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            copy.add(copySipper(usageList.get(i)));
+        }
+        return copy;
+    }
+
+    /**
+     * Returns the snapshot statistics, for {@code dumpsys}.
+     */
+    public synchronized JSONObject dump() throws JSONException {
+        final JSONObject obj = new JSONObject();
+        obj.put("parses", mParseCount);
+        obj.put("reused", mReuseCount);
+        obj.put("joined", mJoinCount);
+        obj.put("parses_avoided", getParsesAvoided());
+        obj.put("ref_count", mRefCount);
+        return obj;
+    }
+
+    @VisibleForTesting
+    synchronized int getParseCount() {
+        return mParseCount;
+    }
+
+    @VisibleForTesting
+    synchronized int getParsesAvoided() {
+        return mReuseCount + mJoinCount;
+    }
+
+    @VisibleForTesting
+    synchronized int getRefCount() {
+        return mRefCount;
+    }
+
+    private boolean isFresh() {
+        return mHelper != null && !mInvalidated
+                && SystemClock.elapsedRealtime() - mTimestamp <= MAX_AGE_MS;
+    }
+
+    private static BatterySipper copySipper(BatterySipper sipper) {
+        final BatterySipper copy = new BatterySipper(sipper.drainType, sipper.uidObj,
+                0 /* value */);
+        // Sums all the usage times and power values of the original into the empty copy.
+        copy.add(sipper);
+        copy.userId = sipper.userId;
+        copy.percent = sipper.percent;
+        copy.noCoveragePercent = sipper.noCoveragePercent;
+        copy.shouldHide = sipper.shouldHide;
+        copy.packageWithHighestDrain = sipper.packageWithHighestDrain;
+        copy.mPackages = sipper.mPackages;
+        return copy;
+    }
+
+    private BatteryStatsHelper createHelper() {
+        final long startTime = System.currentTimeMillis();
+        final BatteryStatsHelper helper = new BatteryStatsHelper(mContext,
+                true /* collectBatteryBroadcast */);
+        mBatteryUtils.initBatteryStatsHelper(helper, null /* bundle */, mUserManager);
+        BatteryUtils.logRuntime(TAG, "time to make batteryStatsHelper", startTime);
+        return helper;
+    }
+}
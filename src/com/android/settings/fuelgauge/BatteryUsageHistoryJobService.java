@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
+
+import com.android.internal.os.BatteryStatsHelper;
+import com.android.settings.R;
+import com.android.settingslib.utils.ThreadUtils;
+
+import java.util.concurrent.TimeUnit;
+
+/** A JobService to record the battery usage of each app in {@link BatteryUsageHistoryStore} */
+public class BatteryUsageHistoryJobService extends JobService {
+    private static final String TAG = "BatteryUsageHistoryJob";
+
+    @VisibleForTesting
+    static final long RECORD_FREQUENCY_MS = TimeUnit.HOURS.toMillis(1);
+
+    public static void scheduleRecord(Context context) {
+        final JobScheduler jobScheduler = context.getSystemService(JobScheduler.class);
+
+        final ComponentName component =
+                new ComponentName(context, BatteryUsageHistoryJobService.class);
+        final JobInfo.Builder jobBuilder =
+                new JobInfo.Builder(R.integer.job_battery_usage_history, component)
+                        .setPeriodic(RECORD_FREQUENCY_MS)
+                        .setPersisted(true);
+        final JobInfo pending = jobScheduler.getPendingJob(R.integer.job_battery_usage_history);
+
+        // Don't schedule it if it already exists, to make sure it runs periodically even after
+        // reboot
+        if (pending == null && jobScheduler.schedule(jobBuilder.build())
+                != JobScheduler.RESULT_SUCCESS) {
+            Log.i(TAG, "Battery usage history job service schedule failed.");
+        }
+    }
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        final BatteryStatsSnapshot snapshot = BatteryStatsSnapshot.getInstance(this);
+        final BatteryUsageHistoryStore historyStore = BatteryUsageHistoryStore.getInstance(this);
+        ThreadUtils.postOnBackgroundThread(() -> {
+            final BatteryStatsHelper helper = snapshot.acquire();
+            try {
+                historyStore.record(helper);
+            } finally {
+                snapshot.release(helper);
+            }
+            jobFinished(params, false /* wantsReschedule */);
+        });
+
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters jobParameters) {
+        return false;
+    }
+}
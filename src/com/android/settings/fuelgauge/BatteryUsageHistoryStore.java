@@ -0,0 +1,505 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge;
+
+import android.content.Context;
+import android.os.BatteryStats;
+import android.support.annotation.VisibleForTesting;
+import android.support.annotation.WorkerThread;
+import android.text.format.DateUtils;
+import android.util.AtomicFile;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.android.internal.os.BatterySipper;
+import com.android.internal.os.BatteryStatsHelper;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Local history of the battery drain of each app, kept in hourly buckets so usage trends over
+ * several days can be shown without {@link android.os.BatteryStats}, which only covers the time
+ * since the last full charge.
+ *
+ * <p>Each {@link #record(BatteryStatsHelper)} stores the drain of each uid since the previous
+ * record, in the bucket of the current hour. {@link BatteryUsageHistoryJobService} records every
+ * hour, and the battery pages whenever they load the stats. The history file is a header followed by an
+ * append-only sequence of segments. A segment holds one bucket column by column: its start hour,
+ * its length in hours, the number of uids, then all the uids followed by all the drains in mAh.
+ * Several segments may cover the same bucket, they are added up when read. The file is rewritten
+ * once it holds too many segments, or when buckets older than {@link #HOURLY_RETENTION_HOURS}
+ * can be downsampled into daily buckets or buckets older than {@link #RETENTION_DAYS} dropped.
+ *
+ * <p>The history is loaded once, queries don't read the disk again.
+ */
+public class BatteryUsageHistoryStore {
+    private static final String TAG = "BatteryUsageHistory";
+
+    @VisibleForTesting
+    static final String HISTORY_FILE_NAME = "battery_usage_history";
+    @VisibleForTesting
+    static final String BASELINE_FILE_NAME = "battery_usage_baseline";
+    private static final int MAGIC = 0x42554831;
+    private static final int VERSION = 1;
+    private static final int BASELINE_VERSION = 2;
+
+    private static final int HOURS_PER_DAY = 24;
+    @VisibleForTesting
+    static final int HOURLY_RETENTION_HOURS = 48;
+    @VisibleForTesting
+    static final int RETENTION_DAYS = 30;
+    @VisibleForTesting
+    static final long MIN_RECORD_INTERVAL_MS = 15 * DateUtils.MINUTE_IN_MILLIS;
+    // Drains below this are rounding noise and not stored.
+    private static final double MIN_DRAIN_MAH = 0.01;
+    // Segments allowed on top of one per bucket before the file is rewritten.
+    private static final int MAX_EXTRA_SEGMENTS = 24;
+    private static final int DUMP_DAYS = 7;
+
+    private static BatteryUsageHistoryStore sInstance;
+
+    private final AtomicFile mHistoryFile;
+    private final AtomicFile mBaselineFile;
+
+    private boolean mLoaded;
+    // Start hour -> bucket
+    private final SparseArray<Bucket> mHourlyBuckets = new SparseArray<>();
+    private final SparseArray<Bucket> mDailyBuckets = new SparseArray<>();
+    private int mSegmentCount;
+    private boolean mNeedsRewrite;
+    // Drain of each uid since the last full charge, as of the last record.
+    private Bucket mBaseline;
+    // BatteryStats#getStartClockTime() of the stats the baseline was taken from
+    private long mBaselineStatsStartMs;
+    private long mLastRecordTimeMs;
+
+    /**
+     * Drain of a set of uids, kept sorted by uid in parallel arrays.
+     */
+    @VisibleForTesting
+    static final class Bucket {
+        final int startHour;
+        final int spanHours;
+        int size;
+        int[] uids = new int[16];
+        double[] powerMah = new double[16];
+
+        Bucket(int startHour, int spanHours) {
+            this.startHour = startHour;
+            this.spanHours = spanHours;
+        }
+
+        void add(int uid, double mah) {
+            int index = Arrays.binarySearch(uids, 0, size, uid);
+            if (index >= 0) {
+                powerMah[index] += mah;
+                return;
+            }
+            index = ~index;
+            if (size == uids.length) {
+                uids = Arrays.copyOf(uids, size * 2);
+                powerMah = Arrays.copyOf(powerMah, size * 2);
+            }
+            System.arraycopy(uids, index, uids, index + 1, size - index);
+            System.arraycopy(powerMah, index, powerMah, index + 1, size - index);
+            uids[index] = uid;
+            powerMah[index] = mah;
+            size++;
+        }
+
+        double get(int uid) {
+            final int index = Arrays.binarySearch(uids, 0, size, uid);
+            return index >= 0 ? powerMah[index] : 0;
+        }
+
+        double getTotal() {
+            double total = 0;
+            for (int i = 0; i < size; i++) {
+                total += powerMah[i];
+            }
+            return total;
+        }
+    }
+
+    public static synchronized BatteryUsageHistoryStore getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new BatteryUsageHistoryStore(
+                    context.getApplicationContext().getFilesDir());
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    BatteryUsageHistoryStore(File dir) {
+        mHistoryFile = new AtomicFile(new File(dir, HISTORY_FILE_NAME));
+        mBaselineFile = new AtomicFile(new File(dir, BASELINE_FILE_NAME));
+    }
+
+    /**
+     * Stores the drain of each app since the previous record. Records closer than
+     * {@link #MIN_RECORD_INTERVAL_MS} to the previous one are skipped.
+     */
+    @WorkerThread
+    public void record(BatteryStatsHelper helper) {
+        final List<BatterySipper> sippers = helper.getUsageList();
+        final Bucket cumulative = new Bucket(0 /* startHour */, 0 /* spanHours */);
+        for (int i = 0, size = sippers.size(); i < size; i++) {
+            final BatterySipper sipper = sippers.get(i);
+            if (sipper.drainType == BatterySipper.DrainType.APP) {
+                cumulative.add(sipper.getUid(), sipper.totalPowerMah);
+            }
+        }
+        final BatteryStats stats = helper.getStats();
+        record(cumulative, stats != null ? stats.getStartClockTime() : 0,
+                System.currentTimeMillis());
+    }
+
+    /**
+     * @param statsStartMs the {@link BatteryStats#getStartClockTime()} of the stats
+     *                     {@code cumulative} comes from, which changes when they are reset
+     */
+    @VisibleForTesting
+    synchronized void record(Bucket cumulative, long statsStartMs, long nowMs) {
+        if (cumulative.size == 0) {
+            return;
+        }
+        ensureLoaded();
+        if (mBaseline != null && nowMs >= mLastRecordTimeMs
+                && nowMs - mLastRecordTimeMs < MIN_RECORD_INTERVAL_MS) {
+            return;
+        }
+
+        final int nowHour = getHour(nowMs);
+        final Bucket drain = new Bucket(nowHour, 1 /* spanHours */);
+        // The first record only sets the baseline, the drain before it can't be placed in time.
+        if (mBaseline != null) {
+            // The stats are reset when the device is fully charged, the whole drain is new then.
+            // The drain may already be above the baseline again, so compare the start times.
+            final boolean reset = statsStartMs != mBaselineStatsStartMs
+                    || cumulative.getTotal() < mBaseline.getTotal();
+            for (int i = 0; i < cumulative.size; i++) {
+                final double mah = reset ? cumulative.powerMah[i]
+                        : cumulative.powerMah[i] - mBaseline.get(cumulative.uids[i]);
+                if (mah >= MIN_DRAIN_MAH) {
+                    drain.add(cumulative.uids[i], mah);
+                }
+            }
+        }
+        mBaseline = cumulative;
+        mBaselineStatsStartMs = statsStartMs;
+        mLastRecordTimeMs = nowMs;
+        writeBaseline();
+
+        if (drain.size > 0) {
+            addSegment(drain.startHour, drain.spanHours, drain.uids, drain.powerMah, drain.size);
+            if (!mNeedsRewrite) {
+                appendSegment(drain);
+            }
+        }
+        if (mNeedsRewrite || mSegmentCount > getBucketCount() + MAX_EXTRA_SEGMENTS
+                || hasBucketsToDownsample(nowHour)) {
+            compact(nowHour);
+        }
+    }
+
+    /**
+     * Returns the drain of {@code uid} in mAh for each of the last {@code days} days, oldest
+     * first. Days are counted in UTC.
+     */
+    public double[] getDailyUsage(int uid, int days) {
+        final double[] usage = getDailyUsage(days).get(uid);
+        return usage != null ? usage : new double[days];
+    }
+
+    /**
+     * Returns the drain of each app in mAh for each of the last {@code days} days, oldest first,
+     * keyed by uid. Days are counted in UTC.
+     */
+    public SparseArray<double[]> getDailyUsage(int days) {
+        return getDailyUsage(days, System.currentTimeMillis());
+    }
+
+    @VisibleForTesting
+    synchronized SparseArray<double[]> getDailyUsage(int days, long nowMs) {
+        ensureLoaded();
+        final SparseArray<double[]> usage = new SparseArray<>();
+        final int firstDay = getHour(nowMs) / HOURS_PER_DAY - days + 1;
+        addDailyUsage(mDailyBuckets, firstDay, days, usage);
+        addDailyUsage(mHourlyBuckets, firstDay, days, usage);
+        return usage;
+    }
+
+    /**
+     * Returns the size of the history and the daily drain of each app, for {@code dumpsys}.
+     */
+    public synchronized JSONObject dump() throws JSONException {
+        final JSONObject obj = new JSONObject();
+        ensureLoaded();
+        obj.put("hourly_buckets", mHourlyBuckets.size());
+        obj.put("daily_buckets", mDailyBuckets.size());
+        obj.put("segments", mSegmentCount);
+        obj.put("file_bytes", mHistoryFile.getBaseFile().length());
+
+        final SparseArray<double[]> usage = getDailyUsage(DUMP_DAYS, System.currentTimeMillis());
+        final JSONObject apps = new JSONObject();
+        for (int i = 0, size = usage.size(); i < size; i++) {
+            final JSONArray days = new JSONArray();
+            for (double mah : usage.valueAt(i)) {
+                days.put(Math.round(mah * 10) / 10.0);
+            }
+            apps.put(String.valueOf(usage.keyAt(i)), days);
+        }
+        obj.put("daily_mah", apps);
+        return obj;
+    }
+
+    private static void addDailyUsage(SparseArray<Bucket> buckets, int firstDay, int days,
+            SparseArray<double[]> usage) {
+        for (int i = 0, size = buckets.size(); i < size; i++) {
+            final Bucket bucket = buckets.valueAt(i);
+            final int day = bucket.startHour / HOURS_PER_DAY - firstDay;
+            if (day < 0 || day >= days) {
+                continue;
+            }
+            for (int j = 0; j < bucket.size; j++) {
+                double[] appUsage = usage.get(bucket.uids[j]);
+                if (appUsage == null) {
+                    appUsage = new double[days];
+                    usage.put(bucket.uids[j], appUsage);
+                }
+                appUsage[day] += bucket.powerMah[j];
+            }
+        }
+    }
+
+    private static int getHour(long timeMs) {
+        return (int) (timeMs / DateUtils.HOUR_IN_MILLIS);
+    }
+
+    private int getBucketCount() {
+        return mHourlyBuckets.size() + mDailyBuckets.size();
+    }
+
+    private void addSegment(int startHour, int spanHours, int[] uids, double[] powerMah,
+            int size) {
+        final SparseArray<Bucket> buckets =
+                spanHours == HOURS_PER_DAY ? mDailyBuckets : mHourlyBuckets;
+        Bucket bucket = buckets.get(startHour);
+        if (bucket == null) {
+            bucket = new Bucket(startHour, spanHours);
+            buckets.put(startHour, bucket);
+        }
+        for (int i = 0; i < size; i++) {
+            bucket.add(uids[i], powerMah[i]);
+        }
+    }
+
+    private boolean hasBucketsToDownsample(int nowHour) {
+        return (mHourlyBuckets.size() > 0
+                && mHourlyBuckets.keyAt(0) < nowHour - HOURLY_RETENTION_HOURS)
+                || (mDailyBuckets.size() > 0
+                && mDailyBuckets.keyAt(0) < nowHour - RETENTION_DAYS * HOURS_PER_DAY);
+    }
+
+    /**
+     * Merges the segments of each bucket, downsamples the old hourly buckets into daily ones,
+     * drops the expired buckets and rewrites the history file.
+     */
+    private void compact(int nowHour) {
+        final int oldestHour = nowHour - RETENTION_DAYS * HOURS_PER_DAY;
+        for (int i = mDailyBuckets.size() - 1; i >= 0; i--) {
+            if (mDailyBuckets.keyAt(i) < oldestHour) {
+                mDailyBuckets.removeAt(i);
+            }
+        }
+        for (int i = mHourlyBuckets.size() - 1; i >= 0; i--) {
+            final Bucket bucket = mHourlyBuckets.valueAt(i);
+            if (bucket.startHour >= nowHour - HOURLY_RETENTION_HOURS) {
+                continue;
+            }
+            mHourlyBuckets.removeAt(i);
+            final int dayStartHour = bucket.startHour - bucket.startHour % HOURS_PER_DAY;
+            if (dayStartHour >= oldestHour) {
+                addSegment(dayStartHour, HOURS_PER_DAY, bucket.uids, bucket.powerMah,
+                        bucket.size);
+            }
+        }
+
+        FileOutputStream fos = null;
+        try {
+            fos = mHistoryFile.startWrite();
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            writeHeader(out);
+            for (int i = 0, size = mDailyBuckets.size(); i < size; i++) {
+                writeSegment(out, mDailyBuckets.valueAt(i));
+            }
+            for (int i = 0, size = mHourlyBuckets.size(); i < size; i++) {
+                writeSegment(out, mHourlyBuckets.valueAt(i));
+            }
+            out.flush();
+            mHistoryFile.finishWrite(fos);
+            mSegmentCount = getBucketCount();
+            mNeedsRewrite = false;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write usage history", e);
+            mHistoryFile.failWrite(fos);
+        }
+    }
+
+    private void appendSegment(Bucket bucket) {
+        final File file = mHistoryFile.getBaseFile();
+        final boolean newFile = !file.exists();
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file, true /* append */)))) {
+            if (newFile) {
+                writeHeader(out);
+            }
+            writeSegment(out, bucket);
+            mSegmentCount++;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to append usage history", e);
+            mNeedsRewrite = true;
+        }
+    }
+
+    private static void writeHeader(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+    }
+
+    private static void writeSegment(DataOutputStream out, Bucket bucket) throws IOException {
+        out.writeInt(bucket.startHour);
+        out.writeInt(bucket.spanHours);
+        out.writeInt(bucket.size);
+        for (int i = 0; i < bucket.size; i++) {
+            out.writeInt(bucket.uids[i]);
+        }
+        for (int i = 0; i < bucket.size; i++) {
+            out.writeFloat((float) bucket.powerMah[i]);
+        }
+    }
+
+    private void ensureLoaded() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+        final long startTime = System.currentTimeMillis();
+        loadHistory();
+        loadBaseline();
+        BatteryUtils.logRuntime(TAG, "load " + mSegmentCount + " segments", startTime);
+    }
+
+    private void loadHistory() {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(mHistoryFile.openRead()))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                Log.w(TAG, "Unknown usage history format, starting over");
+                mNeedsRewrite = true;
+                return;
+            }
+            while (true) {
+                final int startHour;
+                try {
+                    startHour = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                final int spanHours = in.readInt();
+                final int size = in.readInt();
+                if ((spanHours != 1 && spanHours != HOURS_PER_DAY) || size < 0) {
+                    throw new IOException("Corrupted segment");
+                }
+                final int[] uids = new int[size];
+                final double[] powerMah = new double[size];
+                for (int i = 0; i < size; i++) {
+                    uids[i] = in.readInt();
+                }
+                for (int i = 0; i < size; i++) {
+                    powerMah[i] = in.readFloat();
+                }
+                addSegment(startHour, spanHours, uids, powerMah, size);
+                mSegmentCount++;
+            }
+        } catch (FileNotFoundException e) {
+            // No history yet
+        } catch (IOException e) {
+            // Keep the segments read so far, and drop the truncated one on the next write.
+            Log.w(TAG, "Failed to read usage history", e);
+            mNeedsRewrite = true;
+        }
+    }
+
+    private void loadBaseline() {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(mBaselineFile.openRead()))) {
+            if (in.readInt() != MAGIC || in.readInt() != BASELINE_VERSION) {
+                return;
+            }
+            final long recordTimeMs = in.readLong();
+            final long statsStartMs = in.readLong();
+            final int size = in.readInt();
+            final Bucket baseline = new Bucket(0 /* startHour */, 0 /* spanHours */);
+            for (int i = 0; i < size; i++) {
+                baseline.add(in.readInt(), in.readDouble());
+            }
+            mBaseline = baseline;
+            mBaselineStatsStartMs = statsStartMs;
+            mLastRecordTimeMs = recordTimeMs;
+        } catch (FileNotFoundException e) {
+            // Nothing recorded yet
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read usage baseline", e);
+        }
+    }
+
+    private void writeBaseline() {
+        FileOutputStream fos = null;
+        try {
+            fos = mBaselineFile.startWrite();
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(MAGIC);
+            out.writeInt(BASELINE_VERSION);
+            out.writeLong(mLastRecordTimeMs);
+            out.writeLong(mBaselineStatsStartMs);
+            out.writeInt(mBaseline.size);
+            for (int i = 0; i < mBaseline.size; i++) {
+                out.writeInt(mBaseline.uids[i]);
+                out.writeDouble(mBaseline.powerMah[i]);
+            }
+            out.flush();
+            mBaselineFile.finishWrite(fos);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write usage baseline", e);
+            mBaselineFile.failWrite(fos);
+        }
+    }
+}
@@ -20,6 +20,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.pm.ApplicationInfo;
+import android.content.pm.ChangedPackages;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
@@ -38,6 +39,8 @@ import android.support.annotation.VisibleForTesting;
 import android.support.annotation.WorkerThread;
 import android.text.format.DateUtils;
 import android.util.Log;
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
 import android.util.SparseLongArray;
 
 import com.android.internal.os.BatterySipper;
@@ -82,6 +85,8 @@ public class BatteryUtils {
     private static final int MIN_POWER_THRESHOLD_MILLI_AMP = 5;
 
     private static final int SECONDS_IN_HOUR = 60 * 60;
+    @VisibleForTesting
+    static final long PACKAGE_CHECK_INTERVAL_MS = 1000;
     private static BatteryUtils sInstance;
     private PackageManager mPackageManager;
 
@@ -90,6 +95,12 @@ public class BatteryUtils {
     @VisibleForTesting
     PowerUsageFeatureProvider mPowerUsageFeatureProvider;
 
+    // Whether an app uid is a service or system one, and its packages, until a package changes.
+    private final SparseBooleanArray mHiddenTypeUids = new SparseBooleanArray();
+    private final SparseArray<String[]> mUidPackages = new SparseArray<>();
+    private int mPackageSequenceNumber;
+    private long mLastPackageCheckMs = -PACKAGE_CHECK_INTERVAL_MS;
+
     public static BatteryUtils getInstance(Context context) {
         if (sInstance == null || sInstance.isDataCorrupted()) {
             sInstance = new BatteryUtils(context.getApplicationContext());
@@ -127,16 +138,13 @@ public class BatteryUtils {
     }
 
     private long getScreenUsageTimeMs(BatteryStats.Uid uid, int which, long rawRealTimeUs) {
-        final int foregroundTypes[] = {BatteryStats.Uid.PROCESS_STATE_TOP};
-        Log.v(TAG, "package: " + mPackageManager.getNameForUid(uid.getUid()));
-
-        long timeUs = 0;
-        for (int type : foregroundTypes) {
-            final long localTime = uid.getProcessStateTime(type, rawRealTimeUs, which);
-            Log.v(TAG, "type: " + type + " time(us): " + localTime);
-            timeUs += localTime;
+        final long timeUs = uid.getProcessStateTime(BatteryStats.Uid.PROCESS_STATE_TOP,
+                rawRealTimeUs, which);
+        if (Log.isLoggable(TAG, Log.VERBOSE)) {
+            // Looking up the package name is a binder call, only worth it for the log.
+            Log.v(TAG, "package: " + mPackageManager.getNameForUid(uid.getUid()));
+            Log.v(TAG, "foreground time(us): " + timeUs);
         }
-        Log.v(TAG, "foreground time(us): " + timeUs);
 
         // Return the min value of STATE_TOP time and foreground activity time, since both of these
         // time have some errors
@@ -154,8 +162,10 @@ public class BatteryUtils {
         final long timeUs = uid.getProcessStateTime(
                 BatteryStats.Uid.PROCESS_STATE_BACKGROUND, rawRealTimeUs, which);
 
-        Log.v(TAG, "package: " + mPackageManager.getNameForUid(uid.getUid()));
-        Log.v(TAG, "background time(us): " + timeUs);
+        if (Log.isLoggable(TAG, Log.VERBOSE)) {
+            Log.v(TAG, "package: " + mPackageManager.getNameForUid(uid.getUid()));
+            Log.v(TAG, "background time(us): " + timeUs);
+        }
         return PowerUtil.convertUsToMs(timeUs);
     }
 
@@ -180,12 +190,7 @@ public class BatteryUtils {
             final BatterySipper sipper = sippers.get(i);
             if (shouldHideSipper(sipper)) {
                 sippers.remove(i);
-                if (sipper.drainType != BatterySipper.DrainType.OVERCOUNTED
-                        && sipper.drainType != BatterySipper.DrainType.SCREEN
-                        && sipper.drainType != BatterySipper.DrainType.UNACCOUNTED
-                        && sipper.drainType != BatterySipper.DrainType.BLUETOOTH
-                        && sipper.drainType != BatterySipper.DrainType.WIFI
-                        && sipper.drainType != BatterySipper.DrainType.IDLE) {
+                if (isSmearedDrainType(sipper.drainType)) {
                     // Don't add it if it is overcounted, unaccounted, wifi, bluetooth, or screen
                     proportionalSmearPowerMah += sipper.totalPowerMah;
                 }
@@ -253,8 +258,142 @@ public class BatteryUtils {
                 || drainType == BatterySipper.DrainType.BLUETOOTH
                 || drainType == BatterySipper.DrainType.WIFI
                 || (sipper.totalPowerMah * SECONDS_IN_HOUR) < MIN_POWER_THRESHOLD_MILLI_AMP
-                || mPowerUsageFeatureProvider.isTypeService(sipper)
+                || isHiddenType(sipper);
+    }
+
+    /**
+     * Returns whether {@code sipper} is a service or system one. The answer for an app uid is
+     * cached, as the provider looks up its packages each time.
+     */
+    private boolean isHiddenType(BatterySipper sipper) {
+        if (sipper.uidObj == null) {
+            return mPowerUsageFeatureProvider.isTypeService(sipper)
+                    || mPowerUsageFeatureProvider.isTypeSystem(sipper);
+        }
+        final int uid = sipper.getUid();
+        synchronized (mHiddenTypeUids) {
+            checkPackagesChangedLocked();
+            final int index = mHiddenTypeUids.indexOfKey(uid);
+            if (index >= 0) {
+                sipper.mPackages = mUidPackages.get(uid);
+                return mHiddenTypeUids.valueAt(index);
+            }
+        }
+        final boolean hidden = mPowerUsageFeatureProvider.isTypeService(sipper)
                 || mPowerUsageFeatureProvider.isTypeSystem(sipper);
+        synchronized (mHiddenTypeUids) {
+            mHiddenTypeUids.put(uid, hidden);
+            mUidPackages.put(uid, sipper.mPackages);
+        }
+        return hidden;
+    }
+
+    /**
+     * Returns the sequence number of the last package change seen, which changes whenever an app
+     * is installed, updated or removed. Checked at most every {@link #PACKAGE_CHECK_INTERVAL_MS}.
+     */
+    public int getPackageSequenceNumber() {
+        synchronized (mHiddenTypeUids) {
+            checkPackagesChangedLocked();
+            return mPackageSequenceNumber;
+        }
+    }
+
+    private void checkPackagesChangedLocked() {
+        final long now = SystemClock.elapsedRealtime();
+        if (now - mLastPackageCheckMs < PACKAGE_CHECK_INTERVAL_MS) {
+            return;
+        }
+        mLastPackageCheckMs = now;
+        final ChangedPackages changedPackages =
+                mPackageManager.getChangedPackages(mPackageSequenceNumber);
+        if (changedPackages != null) {
+            mPackageSequenceNumber = changedPackages.getSequenceNumber();
+            mHiddenTypeUids.clear();
+            mUidPackages.clear();
+        }
+    }
+
+    /**
+     * Fills {@code ranking} with the {@code maxCount} sippers using the most power, in one pass
+     * over {@code sippers} doing what {@link #removeHiddenBatterySippers(List)},
+     * {@link #sortUsageList(List)} and {@link #calculateBatteryPercent} do.
+     *
+     * <p>Sippers that round to less than 1% of the battery, and the over-counted and unaccounted
+     * power, are never ranked. {@code sippers} itself is left as is, but the power of the hidden
+     * screen sipper is smeared over the visible ones unless {@code showAllApps}.
+     *
+     * @param totalPowerMah   total power used in the system
+     * @param dischargeAmount the discharge amount calculated by {@link BatteryStats}
+     */
+    public void rankBatterySippers(List<BatterySipper> sippers, double totalPowerMah,
+            int dischargeAmount, boolean showAllApps, int maxCount,
+            BatterySipperRanking ranking) {
+        final int size = sippers.size();
+        ranking.reset(size, maxCount);
+
+        double hiddenPowerMah = 0;
+        long totalScreenTimeMs = 0;
+        BatterySipper screenSipper = null;
+        for (int i = 0; i < size; i++) {
+            final BatterySipper sipper = sippers.get(i);
+            if (sipper.drainType == BatterySipper.DrainType.SCREEN) {
+                screenSipper = sipper;
+            }
+            if (showAllApps) {
+                ranking.addVisible(sipper, 0);
+                continue;
+            }
+            if (shouldHideSipper(sipper)) {
+                if (isSmearedDrainType(sipper.drainType)) {
+                    hiddenPowerMah += sipper.totalPowerMah;
+                }
+                continue;
+            }
+            long screenTimeMs = 0;
+            if (sipper.uidObj != null) {
+                screenTimeMs = getProcessTimeMs(StatusType.SCREEN_USAGE, sipper.uidObj,
+                        BatteryStats.STATS_SINCE_CHARGED);
+                totalScreenTimeMs += screenTimeMs;
+            }
+            ranking.addVisible(sipper, screenTimeMs);
+        }
+        ranking.setHiddenPowerMah(hiddenPowerMah);
+
+        // Same as smearScreenBatterySipper(), with the screen time already known.
+        final boolean smear = !showAllApps && screenSipper != null
+                && totalScreenTimeMs >= 10 * DateUtils.MINUTE_IN_MILLIS;
+        final double screenPowerMah = smear ? screenSipper.totalPowerMah : 0;
+        for (int i = 0, count = ranking.getVisibleCount(); i < count; i++) {
+            final BatterySipper sipper = ranking.getVisible(i);
+            if (smear) {
+                sipper.totalPowerMah += screenPowerMah * ranking.getScreenTimeMs(i)
+                        / totalScreenTimeMs;
+            }
+            if (sipper.drainType == BatterySipper.DrainType.OVERCOUNTED
+                    || sipper.drainType == BatterySipper.DrainType.UNACCOUNTED) {
+                continue;
+            }
+            final double percent = calculateBatteryPercent(sipper.totalPowerMah, totalPowerMah,
+                    hiddenPowerMah, dischargeAmount);
+            if (((int) (percent + .5)) < 1) {
+                continue;
+            }
+            ranking.offer(sipper, sipper.totalPowerMah, percent);
+        }
+    }
+
+    /**
+     * Returns whether the power of a hidden sipper of {@code drainType} is smeared over the
+     * visible ones.
+     */
+    private static boolean isSmearedDrainType(BatterySipper.DrainType drainType) {
+        return drainType != BatterySipper.DrainType.OVERCOUNTED
+                && drainType != BatterySipper.DrainType.SCREEN
+                && drainType != BatterySipper.DrainType.UNACCOUNTED
+                && drainType != BatterySipper.DrainType.BLUETOOTH
+                && drainType != BatterySipper.DrainType.WIFI
+                && drainType != BatterySipper.DrainType.IDLE;
     }
 
     /**
@@ -451,6 +590,8 @@ public class BatteryUtils {
         if (mPowerUsageFeatureProvider != null &&
                 mPowerUsageFeatureProvider.isEnhancedBatteryPredictionEnabled(mContext)) {
             estimate = mPowerUsageFeatureProvider.getEnhancedBatteryPrediction(mContext);
+            BatteryEstimateCache.putEnhancedEstimate(estimate,
+                    PowerUtil.convertUsToMs(elapsedRealtimeUs));
         }
         if (estimate == null) {
             estimate = new Estimate(
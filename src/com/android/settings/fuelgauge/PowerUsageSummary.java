@@ -299,6 +299,7 @@ public class PowerUsageSummary extends PowerUsageBase implements OnLongClickList
                 @Override
                 public void onClick(DialogInterface dialog, int which) {
                     mStatsHelper.resetStatistics();
+                    BatteryStatsSnapshot.getInstance(getContext()).invalidate();
                     refreshUi(BatteryUpdateType.MANUAL);
                 }
             })
@@ -471,7 +472,8 @@ public class PowerUsageSummary extends PowerUsageBase implements OnLongClickList
             mLoader = loader;
             mBatteryBroadcastReceiver = new BatteryBroadcastReceiver(mContext);
             mBatteryBroadcastReceiver.setBatteryChangedListener(type -> {
-                BatteryInfo.getBatteryInfo(mContext, new BatteryInfo.Callback() {
+                // The full stats are only parsed once the battery screen is opened.
+                BatteryInfo.getDashboardBatteryInfo(mContext, new BatteryInfo.Callback() {
                     @Override
                     public void onBatteryInfoLoaded(BatteryInfo info) {
                         mLoader.setSummary(SummaryProvider.this, getDashboardLabel(mContext, info));
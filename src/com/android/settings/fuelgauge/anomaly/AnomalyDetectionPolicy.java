@@ -51,6 +51,12 @@ public class AnomalyDetectionPolicy {
     static final String KEY_WAKEUP_BLACKLISTED_TAGS = "wakeup_blacklisted_tags";
     @VisibleForTesting
     static final String KEY_BLUETOOTH_SCAN_THRESHOLD = "bluetooth_scan_threshold";
+    @VisibleForTesting
+    static final String KEY_WAKELOCK_WINDOW = "wakelock_window_ms";
+    @VisibleForTesting
+    static final String KEY_WAKEUP_ALARM_WINDOW = "wakeup_alarm_window_ms";
+    @VisibleForTesting
+    static final String KEY_BLUETOOTH_SCAN_WINDOW = "bluetooth_scan_window_ms";
 
     /**
      * {@code true} if general anomaly detection is enabled
@@ -116,12 +122,41 @@ public class AnomalyDetectionPolicy {
      */
     public final long bluetoothScanThreshold;
 
+    /**
+     * Sliding window in milli seconds over which wakelock time is compared to its threshold, or
+     * 0 to use the time since the last full charge
+     *
+     * @see Settings.Global#ANOMALY_DETECTION_CONSTANTS
+     * @see #KEY_WAKELOCK_WINDOW
+     */
+    public final long wakeLockWindowMs;
+
+    /**
+     * Sliding window in milli seconds over which the wakeup alarm rate is computed, or 0 to use
+     * the time since the last full charge
+     *
+     * @see Settings.Global#ANOMALY_DETECTION_CONSTANTS
+     * @see #KEY_WAKEUP_ALARM_WINDOW
+     */
+    public final long wakeupAlarmWindowMs;
+
+    /**
+     * Sliding window in milli seconds over which bluetooth unoptimized scanning time is compared
+     * to its threshold, or 0 to use the time since the last full charge
+     *
+     * @see Settings.Global#ANOMALY_DETECTION_CONSTANTS
+     * @see #KEY_BLUETOOTH_SCAN_WINDOW
+     */
+    public final long bluetoothScanWindowMs;
+
     private final KeyValueListParser mParser;
+    private final String mConstants;
 
     public AnomalyDetectionPolicy(Context context) {
         mParser = new KeyValueListParser(',');
         final String value = Settings.Global.getString(context.getContentResolver(),
                 Settings.Global.ANOMALY_DETECTION_CONSTANTS);
+        mConstants = value;
 
         try {
             mParser.setString(value);
@@ -143,6 +178,16 @@ public class AnomalyDetectionPolicy {
         wakeupBlacklistedTags = parseStringSet(KEY_WAKEUP_BLACKLISTED_TAGS, null);
         bluetoothScanThreshold = mParser.getLong(KEY_BLUETOOTH_SCAN_THRESHOLD,
                 30 * DateUtils.MINUTE_IN_MILLIS);
+        wakeLockWindowMs = mParser.getLong(KEY_WAKELOCK_WINDOW, 0);
+        wakeupAlarmWindowMs = mParser.getLong(KEY_WAKEUP_ALARM_WINDOW, 0);
+        bluetoothScanWindowMs = mParser.getLong(KEY_BLUETOOTH_SCAN_WINDOW, 0);
+    }
+
+    /**
+     * Returns the raw constants this policy was parsed from, to tell whether it changed.
+     */
+    String getConstants() {
+        return mConstants;
     }
 
     public boolean isAnomalyDetectionEnabled() {
@@ -18,14 +18,12 @@ package com.android.settings.fuelgauge.anomaly;
 
 import android.content.Context;
 import android.content.pm.PackageManager;
-import android.os.BatteryStats;
-import android.os.Bundle;
-import android.os.UserManager;
 import android.support.annotation.VisibleForTesting;
 import android.util.Log;
 
 import com.android.internal.os.BatteryStatsHelper;
 import com.android.internal.util.ArrayUtils;
+import com.android.settings.fuelgauge.BatteryStatsSnapshot;
 import com.android.settingslib.utils.AsyncLoader;
 
 import java.io.FileDescriptor;
@@ -43,7 +41,6 @@ public class AnomalyLoader extends AsyncLoader<List<Anomaly>> {
     private static final boolean USE_FAKE_DATA = false;
     private BatteryStatsHelper mBatteryStatsHelper;
     private String mPackageName;
-    private UserManager mUserManager;
     @VisibleForTesting
     AnomalyUtils mAnomalyUtils;
     @VisibleForTesting
@@ -62,7 +59,7 @@ public class AnomalyLoader extends AsyncLoader<List<Anomaly>> {
      * detect anomalies related to {@code packageName}, or check all apps if {@code packageName}
      * is {@code null}.
      *
-     * This constructor will create {@link BatteryStatsHelper} in background thread.
+     * This constructor will get the shared {@link BatteryStatsHelper} in background thread.
      *
      * @param packageName if set, only finds anomalies for this package. If {@code null},
      *                    detects all anomalies of this type.
@@ -78,7 +75,6 @@ public class AnomalyLoader extends AsyncLoader<List<Anomaly>> {
         mBatteryStatsHelper = batteryStatsHelper;
         mPackageName = packageName;
         mAnomalyUtils = AnomalyUtils.getInstance(context);
-        mUserManager = (UserManager) context.getSystemService(Context.USER_SERVICE);
         mPolicy = policy;
     }
 
@@ -91,14 +87,17 @@ public class AnomalyLoader extends AsyncLoader<List<Anomaly>> {
         if (USE_FAKE_DATA) {
             return generateFakeData();
         }
-        if (mBatteryStatsHelper == null) {
-            mBatteryStatsHelper = new BatteryStatsHelper(getContext());
-            mBatteryStatsHelper.create((Bundle) null);
-            mBatteryStatsHelper.refreshStats(BatteryStats.STATS_SINCE_CHARGED,
-                    mUserManager.getUserProfiles());
+        if (mBatteryStatsHelper != null) {
+            return mAnomalyUtils.detectAnomalies(mBatteryStatsHelper, mPolicy, mPackageName);
         }
 
-        return mAnomalyUtils.detectAnomalies(mBatteryStatsHelper, mPolicy, mPackageName);
+        final BatteryStatsSnapshot snapshot = BatteryStatsSnapshot.getInstance(getContext());
+        final BatteryStatsHelper statsHelper = snapshot.acquire();
+        try {
+            return mAnomalyUtils.detectAnomalies(statsHelper, mPolicy, mPackageName);
+        } finally {
+            snapshot.release(statsHelper);
+        }
     }
 
     @VisibleForTesting
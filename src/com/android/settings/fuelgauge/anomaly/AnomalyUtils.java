@@ -20,6 +20,7 @@ import android.content.Context;
 import android.os.Build;
 import android.support.annotation.VisibleForTesting;
 import android.util.Pair;
+import android.util.SparseArray;
 import android.util.SparseIntArray;
 
 import com.android.internal.logging.nano.MetricsProto;
@@ -36,6 +37,7 @@ import com.android.settingslib.core.instrumentation.MetricsFeatureProvider;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 
 /**
  * Utility class for anomaly detection
@@ -44,6 +46,11 @@ public class AnomalyUtils {
     private Context mContext;
     private static AnomalyUtils sInstance;
 
+    // Detectors keep per-uid state between detections, so they are reused until the policy
+    // changes.
+    private final SparseArray<AnomalyDetector> mDetectors = new SparseArray<>();
+    private String mDetectorConstants;
+
     private static final SparseIntArray mMetricArray;
     static {
         mMetricArray = new SparseIntArray();
@@ -98,7 +105,18 @@ public class AnomalyUtils {
      *
      * @return corresponding {@link AnomalyDetector}, or null if cannot find it.
      */
-    public AnomalyDetector getAnomalyDetector(@Anomaly.AnomalyType int anomalyType) {
+    public synchronized AnomalyDetector getAnomalyDetector(@Anomaly.AnomalyType int anomalyType) {
+        AnomalyDetector detector = mDetectors.get(anomalyType);
+        if (detector == null) {
+            detector = createAnomalyDetector(anomalyType);
+            if (detector != null) {
+                mDetectors.put(anomalyType, detector);
+            }
+        }
+        return detector;
+    }
+
+    private AnomalyDetector createAnomalyDetector(@Anomaly.AnomalyType int anomalyType) {
         switch (anomalyType) {
             case Anomaly.AnomalyType.WAKE_LOCK:
                 return new WakeLockAnomalyDetector(mContext);
@@ -122,6 +140,12 @@ public class AnomalyUtils {
      */
     public List<Anomaly> detectAnomalies(BatteryStatsHelper batteryStatsHelper,
             AnomalyDetectionPolicy policy, String targetPackageName) {
+        synchronized (this) {
+            if (!Objects.equals(mDetectorConstants, policy.getConstants())) {
+                mDetectorConstants = policy.getConstants();
+                mDetectors.clear();
+            }
+        }
         final List<Anomaly> anomalies = new ArrayList<>();
         for (@Anomaly.AnomalyType int type : Anomaly.ANOMALY_TYPE_LIST) {
             if (policy.isAnomalyDetectorEnabled(type)) {
@@ -37,6 +37,9 @@ import java.util.List;
 
 /**
  * Check whether apps have unoptimized bluetooth scanning in the background
+ *
+ * The detector keeps the scanning time of each uid between detections, and only evaluates again
+ * the uids whose time over {@link AnomalyDetectionPolicy#bluetoothScanWindowMs} changed.
  */
 public class BluetoothScanAnomalyDetector implements AnomalyDetector {
     private static final String TAG = "BluetoothScanAnomalyDetector";
@@ -45,6 +48,8 @@ public class BluetoothScanAnomalyDetector implements AnomalyDetector {
     private long mBluetoothScanningThreshold;
     private Context mContext;
     private AnomalyUtils mAnomalyUtils;
+    @VisibleForTesting
+    final UidDeltaTracker mTracker;
 
     public BluetoothScanAnomalyDetector(Context context) {
         this(context, new AnomalyDetectionPolicy(context), AnomalyUtils.getInstance(context));
@@ -57,6 +62,7 @@ public class BluetoothScanAnomalyDetector implements AnomalyDetector {
         mBatteryUtils = BatteryUtils.getInstance(context);
         mBluetoothScanningThreshold = policy.bluetoothScanThreshold;
         mAnomalyUtils = anomalyUtils;
+        mTracker = new UidDeltaTracker(policy.bluetoothScanWindowMs);
     }
 
     @Override
@@ -66,13 +72,14 @@ public class BluetoothScanAnomalyDetector implements AnomalyDetector {
     }
 
     @Override
-    public List<Anomaly> detectAnomalies(BatteryStatsHelper batteryStatsHelper,
+    public synchronized List<Anomaly> detectAnomalies(BatteryStatsHelper batteryStatsHelper,
             String targetPackageName) {
         final List<BatterySipper> batterySippers = batteryStatsHelper.getUsageList();
         final List<Anomaly> anomalies = new ArrayList<>();
         final int targetUid = mBatteryUtils.getPackageUid(targetPackageName);
         final long elapsedRealtimeMs = SystemClock.elapsedRealtime();
 
+        mTracker.beginPass();
         for (int i = 0, size = batterySippers.size(); i < size; i++) {
             final BatterySipper sipper = batterySippers.get(i);
             final BatteryStats.Uid uid = sipper.uidObj;
@@ -82,29 +89,45 @@ public class BluetoothScanAnomalyDetector implements AnomalyDetector {
                 continue;
             }
 
-            final long bluetoothTimeMs = getBluetoothUnoptimizedBgTimeMs(uid, elapsedRealtimeMs);
-            if (bluetoothTimeMs > mBluetoothScanningThreshold) {
-                final String packageName = mBatteryUtils.getPackageName(uid.getUid());
-                final CharSequence displayName = Utils.getApplicationLabel(mContext,
-                        packageName);
-
-                Anomaly anomaly = new Anomaly.Builder()
-                        .setUid(uid.getUid())
-                        .setType(Anomaly.AnomalyType.BLUETOOTH_SCAN)
-                        .setDisplayName(displayName)
-                        .setPackageName(packageName)
-                        .setBluetoothScanningTimeMs(bluetoothTimeMs)
-                        .build();
-
-                if (mAnomalyUtils.getAnomalyAction(anomaly).isActionActive(anomaly)) {
-                    anomalies.add(anomaly);
-                }
+            final int uidValue = uid.getUid();
+            final long bluetoothTimeMs = mTracker.update(uidValue,
+                    getBluetoothUnoptimizedBgTimeMs(uid, elapsedRealtimeMs), elapsedRealtimeMs);
+
+            Anomaly anomaly = mTracker.getAnomaly(uidValue);
+            if (!mTracker.isUnchanged(uidValue, bluetoothTimeMs, 0 /* flags */)) {
+                anomaly = bluetoothTimeMs > mBluetoothScanningThreshold
+                        ? createAnomaly(uidValue, bluetoothTimeMs, anomaly)
+                        : null;
+                mTracker.setResult(uidValue, bluetoothTimeMs, 0 /* flags */, anomaly);
+            }
+            if (anomaly != null
+                    && mAnomalyUtils.getAnomalyAction(anomaly).isActionActive(anomaly)) {
+                anomalies.add(anomaly);
             }
         }
+        if (targetUid == BatteryUtils.UID_NULL) {
+            mTracker.endPass();
+        }
 
         return anomalies;
     }
 
+    private Anomaly createAnomaly(int uid, long bluetoothTimeMs, Anomaly previous) {
+        // Package name and label are looked up once per uid
+        final String packageName = previous != null ? previous.packageName
+                : mBatteryUtils.getPackageName(uid);
+        final CharSequence displayName = previous != null ? previous.displayName
+                : Utils.getApplicationLabel(mContext, packageName);
+
+        return new Anomaly.Builder()
+                .setUid(uid)
+                .setType(Anomaly.AnomalyType.BLUETOOTH_SCAN)
+                .setDisplayName(displayName)
+                .setPackageName(packageName)
+                .setBluetoothScanningTimeMs(bluetoothTimeMs)
+                .build();
+    }
+
     @VisibleForTesting
     public long getBluetoothUnoptimizedBgTimeMs(BatteryStats.Uid uid, long elapsedRealtimeMs) {
         BatteryStats.Timer timer = uid.getBluetoothUnoptimizedScanBackgroundTimer();
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge.anomaly.checker;
+
+import android.support.annotation.VisibleForTesting;
+import android.util.SparseArray;
+
+import com.android.settings.fuelgauge.anomaly.Anomaly;
+
+/**
+ * Keeps the recent samples of a cumulative per-uid battery stat between two detections, so a
+ * detector can look at its change over a sliding window, and only evaluate again the uids whose
+ * value changed since the previous detection.
+ *
+ * <p>A sample is only stored when the value changes, and at most {@link #MAX_SAMPLES} are kept
+ * per uid. When the window reaches further back than the samples, the oldest one is used.
+ */
+class UidDeltaTracker {
+    /**
+     * Window covering everything since the last full charge, the cumulative value is used as is.
+     */
+    static final long WINDOW_SINCE_CHARGED = 0;
+
+    @VisibleForTesting
+    static final int MAX_SAMPLES = 16;
+
+    private final long mWindowMs;
+    private final SparseArray<UidState> mUids = new SparseArray<>();
+    private int mPass;
+    private int mEvaluatedCount;
+
+    private static final class UidState {
+        // Ring buffer of samples, oldest at start
+        final long[] times = new long[MAX_SAMPLES];
+        final long[] values = new long[MAX_SAMPLES];
+        int start;
+        int count;
+        int lastPass;
+
+        // Result of the last evaluation
+        boolean evaluated;
+        long evaluatedMetric;
+        int evaluatedFlags;
+        Anomaly anomaly;
+
+        long getLatestValue() {
+            return values[(start + count - 1) % MAX_SAMPLES];
+        }
+
+        void add(long timeMs, long value) {
+            if (count == MAX_SAMPLES) {
+                start = (start + 1) % MAX_SAMPLES;
+                count--;
+            }
+            final int index = (start + count) % MAX_SAMPLES;
+            times[index] = timeMs;
+            values[index] = value;
+            count++;
+        }
+    }
+
+    UidDeltaTracker(long windowMs) {
+        mWindowMs = windowMs;
+    }
+
+    /**
+     * Starts a new detection over all the uids.
+     */
+    void beginPass() {
+        mPass++;
+        mEvaluatedCount = 0;
+    }
+
+    /**
+     * Forgets the uids that were not part of the detection started by {@link #beginPass()}, e.g.
+     * uninstalled apps.
+     */
+    void endPass() {
+        for (int i = mUids.size() - 1; i >= 0; i--) {
+            if (mUids.valueAt(i).lastPass != mPass) {
+                mUids.removeAt(i);
+            }
+        }
+    }
+
+    /**
+     * Records the cumulative {@code value} of {@code uid}, and returns its change over the
+     * window.
+     */
+    long update(int uid, long value, long nowMs) {
+        UidState state = mUids.get(uid);
+        if (state == null) {
+            state = new UidState();
+            mUids.put(uid, state);
+        }
+        state.lastPass = mPass;
+        if (state.count > 0 && value < state.getLatestValue()) {
+            // The stats were reset, older samples don't apply anymore.
+            state.count = 0;
+        }
+        if (state.count == 0 || value != state.getLatestValue()) {
+            state.add(nowMs, value);
+        }
+        return mWindowMs == WINDOW_SINCE_CHARGED ? value
+                : value - getBaseline(state, nowMs - mWindowMs);
+    }
+
+    /**
+     * Returns the time covered by the window of {@code uid}, which is shorter than the window
+     * while not enough samples are known.
+     */
+    long getWindowDurationMs(int uid, long nowMs) {
+        final UidState state = mUids.get(uid);
+        if (state == null || state.count == 0) {
+            return 0;
+        }
+        return Math.min(mWindowMs, nowMs - state.times[state.start]);
+    }
+
+    /**
+     * Returns {@code true} if {@code uid} was evaluated before with the same metric and flags, in
+     * which case {@link #getAnomaly(int)} still holds its result.
+     */
+    boolean isUnchanged(int uid, long metric, int flags) {
+        final UidState state = mUids.get(uid);
+        if (state != null && state.evaluated && state.evaluatedMetric == metric
+                && state.evaluatedFlags == flags) {
+            return true;
+        }
+        mEvaluatedCount++;
+        return false;
+    }
+
+    /**
+     * Returns the anomaly found for {@code uid} by the last evaluation, or {@code null}.
+     */
+    Anomaly getAnomaly(int uid) {
+        final UidState state = mUids.get(uid);
+        return state != null ? state.anomaly : null;
+    }
+
+    void setResult(int uid, long metric, int flags, Anomaly anomaly) {
+        final UidState state = mUids.get(uid);
+        if (state == null) {
+            return;
+        }
+        state.evaluated = true;
+        state.evaluatedMetric = metric;
+        state.evaluatedFlags = flags;
+        state.anomaly = anomaly;
+    }
+
+    /**
+     * Returns how many uids were evaluated again in the current detection.
+     */
+    int getEvaluatedCount() {
+        return mEvaluatedCount;
+    }
+
+    private static long getBaseline(UidState state, long windowStartMs) {
+        // The value at the window start is the one of the latest sample before it.
+        long baseline = state.values[state.start];
+        for (int i = 0; i < state.count; i++) {
+            final int index = (state.start + i) % MAX_SAMPLES;
+            if (state.times[index] > windowStartMs) {
+                break;
+            }
+            baseline = state.values[index];
+        }
+        return baseline;
+    }
+}
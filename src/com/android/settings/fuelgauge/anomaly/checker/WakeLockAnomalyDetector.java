@@ -35,6 +35,10 @@ import java.util.List;
 
 /**
  * Check whether apps holding wakelock too long
+ *
+ * The detector keeps the background wakelock time of each uid between detections, and only
+ * evaluates again the uids whose time over {@link AnomalyDetectionPolicy#wakeLockWindowMs}
+ * changed.
  */
 public class WakeLockAnomalyDetector implements AnomalyDetector {
     private static final String TAG = "WakeLockAnomalyChecker";
@@ -45,6 +49,8 @@ public class WakeLockAnomalyDetector implements AnomalyDetector {
     private PackageManager mPackageManager;
     private Context mContext;
     private AnomalyUtils mAnomalyUtils;
+    @VisibleForTesting
+    final UidDeltaTracker mTracker;
 
     public WakeLockAnomalyDetector(Context context) {
         this(context, new AnomalyDetectionPolicy(context), AnomalyUtils.getInstance(context));
@@ -58,6 +64,7 @@ public class WakeLockAnomalyDetector implements AnomalyDetector {
         mBatteryUtils = BatteryUtils.getInstance(context);
         mAnomalyUtils = anomalyUtils;
         mWakeLockThresholdMs = policy.wakeLockThreshold;
+        mTracker = new UidDeltaTracker(policy.wakeLockWindowMs);
     }
 
     @Override
@@ -67,13 +74,14 @@ public class WakeLockAnomalyDetector implements AnomalyDetector {
     }
 
     @Override
-    public List<Anomaly> detectAnomalies(BatteryStatsHelper batteryStatsHelper,
+    public synchronized List<Anomaly> detectAnomalies(BatteryStatsHelper batteryStatsHelper,
             String targetPackageName) {
         final List<BatterySipper> batterySippers = batteryStatsHelper.getUsageList();
         final List<Anomaly> anomalies = new ArrayList<>();
         final long rawRealtime = SystemClock.elapsedRealtime();
         final int targetUid = mBatteryUtils.getPackageUid(targetPackageName);
 
+        mTracker.beginPass();
         // Check the app one by one
         for (int i = 0, size = batterySippers.size(); i < size; i++) {
             final BatterySipper sipper = batterySippers.get(i);
@@ -84,30 +92,45 @@ public class WakeLockAnomalyDetector implements AnomalyDetector {
                 continue;
             }
 
-            final long currentDurationMs = getCurrentDurationMs(uid, rawRealtime);
-            final long backgroundDurationMs = getBackgroundTotalDurationMs(uid, rawRealtime);
-
-            if (backgroundDurationMs > mWakeLockThresholdMs && currentDurationMs != 0) {
-                final String packageName = mBatteryUtils.getPackageName(uid.getUid());
-                final CharSequence displayName = Utils.getApplicationLabel(mContext,
-                        packageName);
-
-                Anomaly anomaly = new Anomaly.Builder()
-                        .setUid(uid.getUid())
-                        .setType(Anomaly.AnomalyType.WAKE_LOCK)
-                        .setDisplayName(displayName)
-                        .setPackageName(packageName)
-                        .setWakeLockTimeMs(backgroundDurationMs)
-                        .build();
-
-                if (mAnomalyUtils.getAnomalyAction(anomaly).isActionActive(anomaly)) {
-                    anomalies.add(anomaly);
-                }
+            final int uidValue = uid.getUid();
+            final long backgroundDurationMs = mTracker.update(uidValue,
+                    getBackgroundTotalDurationMs(uid, rawRealtime), rawRealtime);
+            final int holding = getCurrentDurationMs(uid, rawRealtime) != 0 ? 1 : 0;
+
+            Anomaly anomaly = mTracker.getAnomaly(uidValue);
+            if (!mTracker.isUnchanged(uidValue, backgroundDurationMs, holding)) {
+                anomaly = backgroundDurationMs > mWakeLockThresholdMs && holding != 0
+                        ? createAnomaly(uidValue, backgroundDurationMs, anomaly)
+                        : null;
+                mTracker.setResult(uidValue, backgroundDurationMs, holding, anomaly);
+            }
+            if (anomaly != null
+                    && mAnomalyUtils.getAnomalyAction(anomaly).isActionActive(anomaly)) {
+                anomalies.add(anomaly);
             }
         }
+        if (targetUid == BatteryUtils.UID_NULL) {
+            mTracker.endPass();
+        }
         return anomalies;
     }
 
+    private Anomaly createAnomaly(int uid, long backgroundDurationMs, Anomaly previous) {
+        // Package name and label are looked up once per uid
+        final String packageName = previous != null ? previous.packageName
+                : mBatteryUtils.getPackageName(uid);
+        final CharSequence displayName = previous != null ? previous.displayName
+                : Utils.getApplicationLabel(mContext, packageName);
+
+        return new Anomaly.Builder()
+                .setUid(uid)
+                .setType(Anomaly.AnomalyType.WAKE_LOCK)
+                .setDisplayName(displayName)
+                .setPackageName(packageName)
+                .setWakeLockTimeMs(backgroundDurationMs)
+                .build();
+    }
+
     @VisibleForTesting
     long getCurrentDurationMs(BatteryStats.Uid uid, long elapsedRealtimeMs) {
         BatteryStats.Timer timer = uid.getAggregatedPartialWakelockTimer();
@@ -18,6 +18,7 @@ package com.android.settings.fuelgauge.anomaly.checker;
 
 import android.content.Context;
 import android.os.BatteryStats;
+import android.os.SystemClock;
 import android.support.annotation.VisibleForTesting;
 import android.text.format.DateUtils;
 import android.util.ArrayMap;
@@ -40,6 +41,9 @@ import java.util.Set;
 
 /**
  * Check whether apps has too many wakeup alarms
+ *
+ * The detector keeps the wakeup alarm count of each uid between detections, and only evaluates
+ * again the uids whose rate over {@link AnomalyDetectionPolicy#wakeupAlarmWindowMs} changed.
  */
 public class WakeupAlarmAnomalyDetector implements AnomalyDetector {
     private static final String TAG = "WakeupAlarmAnomalyDetector";
@@ -49,6 +53,9 @@ public class WakeupAlarmAnomalyDetector implements AnomalyDetector {
     private Set<String> mWakeupBlacklistedTags;
     private Context mContext;
     private AnomalyUtils mAnomalyUtils;
+    private long mWindowMs;
+    @VisibleForTesting
+    final UidDeltaTracker mTracker;
 
     public WakeupAlarmAnomalyDetector(Context context) {
         this(context, new AnomalyDetectionPolicy(context), AnomalyUtils.getInstance(context));
@@ -62,6 +69,8 @@ public class WakeupAlarmAnomalyDetector implements AnomalyDetector {
         mAnomalyUtils = anomalyUtils;
         mWakeupAlarmThreshold = policy.wakeupAlarmThreshold;
         mWakeupBlacklistedTags = policy.wakeupBlacklistedTags;
+        mWindowMs = policy.wakeupAlarmWindowMs;
+        mTracker = new UidDeltaTracker(mWindowMs);
     }
 
     @Override
@@ -71,7 +80,7 @@ public class WakeupAlarmAnomalyDetector implements AnomalyDetector {
     }
 
     @Override
-    public List<Anomaly> detectAnomalies(BatteryStatsHelper batteryStatsHelper,
+    public synchronized List<Anomaly> detectAnomalies(BatteryStatsHelper batteryStatsHelper,
             String targetPackageName) {
         final List<BatterySipper> batterySippers = batteryStatsHelper.getUsageList();
         final List<Anomaly> anomalies = new ArrayList<>();
@@ -80,7 +89,11 @@ public class WakeupAlarmAnomalyDetector implements AnomalyDetector {
                 / (double) DateUtils.HOUR_IN_MILLIS;
         final int targetUid = mBatteryUtils.getPackageUid(targetPackageName);
 
-        if (totalRunningHours >= 1) {
+        final long elapsedRealtimeMs = SystemClock.elapsedRealtime();
+        final boolean sinceCharged = mWindowMs == UidDeltaTracker.WINDOW_SINCE_CHARGED;
+
+        if (!sinceCharged || totalRunningHours >= 1) {
+            mTracker.beginPass();
             for (int i = 0, size = batterySippers.size(); i < size; i++) {
                 final BatterySipper sipper = batterySippers.get(i);
                 final BatteryStats.Uid uid = sipper.uidObj;
@@ -90,36 +103,59 @@ public class WakeupAlarmAnomalyDetector implements AnomalyDetector {
                     continue;
                 }
 
-                final int wakeupAlarmCount = (int) (getWakeupAlarmCountFromUid(uid)
-                        / totalRunningHours);
-                if (wakeupAlarmCount > mWakeupAlarmThreshold) {
-                    final String packageName = mBatteryUtils.getPackageName(uid.getUid());
-                    final CharSequence displayName = Utils.getApplicationLabel(mContext,
-                            packageName);
-                    final int targetSdkVersion = mBatteryUtils.getTargetSdkVersion(packageName);
-
-                    Anomaly anomaly = new Anomaly.Builder()
-                            .setUid(uid.getUid())
-                            .setType(Anomaly.AnomalyType.WAKEUP_ALARM)
-                            .setDisplayName(displayName)
-                            .setPackageName(packageName)
-                            .setTargetSdkVersion(targetSdkVersion)
-                            .setBackgroundRestrictionEnabled(
-                                    mBatteryUtils.isBackgroundRestrictionEnabled(targetSdkVersion,
-                                            uid.getUid(), packageName))
-                            .setWakeupAlarmCount(wakeupAlarmCount)
-                            .build();
-
-                    if (mAnomalyUtils.getAnomalyAction(anomaly).isActionActive(anomaly)) {
-                        anomalies.add(anomaly);
-                    }
+                final int uidValue = uid.getUid();
+                final long wakeups = mTracker.update(uidValue, getWakeupAlarmCountFromUid(uid),
+                        elapsedRealtimeMs);
+                final double runningHours = sinceCharged ? totalRunningHours
+                        : mTracker.getWindowDurationMs(uidValue, elapsedRealtimeMs)
+                                / (double) DateUtils.HOUR_IN_MILLIS;
+                final int wakeupAlarmCount = runningHours >= 1
+                        ? (int) (wakeups / runningHours) : 0;
+
+                Anomaly anomaly = mTracker.getAnomaly(uidValue);
+                if (!mTracker.isUnchanged(uidValue, wakeupAlarmCount, 0 /* flags */)) {
+                    anomaly = wakeupAlarmCount > mWakeupAlarmThreshold
+                            ? createAnomaly(uidValue, wakeupAlarmCount, anomaly)
+                            : null;
+                    mTracker.setResult(uidValue, wakeupAlarmCount, 0 /* flags */, anomaly);
+                } else if (anomaly != null) {
+                    // The app may have been restricted or updated since, which changes its action
+                    anomaly = createAnomaly(uidValue, wakeupAlarmCount, anomaly);
+                }
+                if (anomaly != null
+                        && mAnomalyUtils.getAnomalyAction(anomaly).isActionActive(anomaly)) {
+                    anomalies.add(anomaly);
                 }
             }
+            if (targetUid == BatteryUtils.UID_NULL) {
+                mTracker.endPass();
+            }
         }
 
         return anomalies;
     }
 
+    private Anomaly createAnomaly(int uid, int wakeupAlarmCount, Anomaly previous) {
+        // Package name and label are looked up once per uid
+        final String packageName = previous != null ? previous.packageName
+                : mBatteryUtils.getPackageName(uid);
+        final CharSequence displayName = previous != null ? previous.displayName
+                : Utils.getApplicationLabel(mContext, packageName);
+        final int targetSdkVersion = mBatteryUtils.getTargetSdkVersion(packageName);
+
+        return new Anomaly.Builder()
+                .setUid(uid)
+                .setType(Anomaly.AnomalyType.WAKEUP_ALARM)
+                .setDisplayName(displayName)
+                .setPackageName(packageName)
+                .setTargetSdkVersion(targetSdkVersion)
+                .setBackgroundRestrictionEnabled(
+                        mBatteryUtils.isBackgroundRestrictionEnabled(targetSdkVersion, uid,
+                                packageName))
+                .setWakeupAlarmCount(wakeupAlarmCount)
+                .build();
+    }
+
     @VisibleForTesting
     int getWakeupAlarmCountFromUid(BatteryStats.Uid uid) {
         int wakeups = 0;
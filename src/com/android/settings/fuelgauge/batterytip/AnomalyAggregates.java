@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge.batterytip;
+
+import android.util.ArrayMap;
+import android.util.SparseArray;
+import android.util.SparseLongArray;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * In-memory view of the anomaly table, keeping for each state, uid, package and anomaly type
+ * only the time of the latest anomaly. It answers {@link BatteryDatabaseManager#queryAllAnomalies}
+ * in time proportional to the number of apps instead of the number of anomalies.
+ *
+ * <p>Anomalies are kept per package as well as per uid, since
+ * {@link BatteryDatabaseManager#updateAnomalies} moves them by package name and the packages
+ * sharing a uid have their own rows. Queries merge the packages of a uid, reporting the package
+ * of its latest anomaly.
+ *
+ * <p>All the changes are idempotent, so applying a change that is already part of the loaded
+ * view leaves it as it is. Not thread safe.
+ */
+class AnomalyAggregates {
+
+    private static final class PackageAnomalies {
+        long latestTimestampMs = Long.MIN_VALUE;
+        // Anomaly type -> time of the latest anomaly of that type
+        final SparseLongArray typeTimestamps = new SparseLongArray();
+
+        void add(int type, long timestampMs) {
+            if (timestampMs > typeTimestamps.get(type, Long.MIN_VALUE)) {
+                typeTimestamps.put(type, timestampMs);
+            }
+            latestTimestampMs = Math.max(latestTimestampMs, timestampMs);
+        }
+    }
+
+    // Anomaly state -> uid -> package name -> anomalies
+    private final SparseArray<SparseArray<ArrayMap<String, PackageAnomalies>>> mStates =
+            new SparseArray<>();
+
+    void add(int uid, String packageName, int type, int state, long timestampMs) {
+        SparseArray<ArrayMap<String, PackageAnomalies>> uids = mStates.get(state);
+        if (uids == null) {
+            uids = new SparseArray<>();
+            mStates.put(state, uids);
+        }
+        ArrayMap<String, PackageAnomalies> packages = uids.get(uid);
+        if (packages == null) {
+            packages = new ArrayMap<>();
+            uids.put(uid, packages);
+        }
+        PackageAnomalies anomalies = packages.get(packageName);
+        if (anomalies == null) {
+            anomalies = new PackageAnomalies();
+            packages.put(packageName, anomalies);
+        }
+        anomalies.add(type, timestampMs);
+    }
+
+    /**
+     * Moves the anomalies of {@code packageNames} to {@code state}, as
+     * {@link BatteryDatabaseManager#updateAnomalies} does in the database.
+     */
+    void moveToState(Collection<String> packageNames, int state) {
+        for (int i = 0; i < mStates.size(); i++) {
+            final int fromState = mStates.keyAt(i);
+            if (fromState == state) {
+                continue;
+            }
+            final SparseArray<ArrayMap<String, PackageAnomalies>> uids = mStates.valueAt(i);
+            for (int j = uids.size() - 1; j >= 0; j--) {
+                final int uid = uids.keyAt(j);
+                final ArrayMap<String, PackageAnomalies> packages = uids.valueAt(j);
+                for (int k = packages.size() - 1; k >= 0; k--) {
+                    final String packageName = packages.keyAt(k);
+                    if (!packageNames.contains(packageName)) {
+                        continue;
+                    }
+                    final SparseLongArray types = packages.removeAt(k).typeTimestamps;
+                    for (int t = 0, size = types.size(); t < size; t++) {
+                        add(uid, packageName, types.keyAt(t), state, types.valueAt(t));
+                    }
+                }
+                if (packages.isEmpty()) {
+                    uids.removeAt(j);
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops the anomalies older than {@code timestampMs}.
+     */
+    void removeBefore(long timestampMs) {
+        for (int i = 0; i < mStates.size(); i++) {
+            final SparseArray<ArrayMap<String, PackageAnomalies>> uids = mStates.valueAt(i);
+            for (int j = uids.size() - 1; j >= 0; j--) {
+                final ArrayMap<String, PackageAnomalies> packages = uids.valueAt(j);
+                for (int k = packages.size() - 1; k >= 0; k--) {
+                    final PackageAnomalies anomalies = packages.valueAt(k);
+                    if (anomalies.latestTimestampMs < timestampMs) {
+                        packages.removeAt(k);
+                        continue;
+                    }
+                    final SparseLongArray types = anomalies.typeTimestamps;
+                    for (int t = types.size() - 1; t >= 0; t--) {
+                        if (types.valueAt(t) < timestampMs) {
+                            types.removeAt(t);
+                        }
+                    }
+                }
+                if (packages.isEmpty()) {
+                    uids.removeAt(j);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the apps with anomalies in {@code state} that happened after
+     * {@code timestampMsAfter}, ordered by uid.
+     */
+    List<AppInfo> query(long timestampMsAfter, int state) {
+        final List<AppInfo> appInfos = new ArrayList<>();
+        final SparseArray<ArrayMap<String, PackageAnomalies>> uids = mStates.get(state);
+        if (uids == null) {
+            return appInfos;
+        }
+        for (int i = 0, size = uids.size(); i < size; i++) {
+            final ArrayMap<String, PackageAnomalies> packages = uids.valueAt(i);
+            String latestPackageName = null;
+            long latestTimestampMs = timestampMsAfter;
+            final AppInfo.Builder builder = new AppInfo.Builder().setUid(uids.keyAt(i));
+            for (int k = 0, packageCount = packages.size(); k < packageCount; k++) {
+                final PackageAnomalies anomalies = packages.valueAt(k);
+                if (anomalies.latestTimestampMs <= timestampMsAfter) {
+                    continue;
+                }
+                if (latestPackageName == null || anomalies.latestTimestampMs > latestTimestampMs) {
+                    latestPackageName = packages.keyAt(k);
+                    latestTimestampMs = anomalies.latestTimestampMs;
+                }
+                final SparseLongArray types = anomalies.typeTimestamps;
+                for (int t = 0, typeCount = types.size(); t < typeCount; t++) {
+                    if (types.valueAt(t) > timestampMsAfter) {
+                        builder.addAnomalyType(types.keyAt(t));
+                    }
+                }
+            }
+            if (latestPackageName != null) {
+                appInfos.add(builder.setPackageName(latestPackageName).build());
+            }
+        }
+        return appInfos;
+    }
+}
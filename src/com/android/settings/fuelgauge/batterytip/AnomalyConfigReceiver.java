@@ -24,6 +24,7 @@ import android.content.Intent;
 import android.util.Log;
 
 import com.android.internal.annotations.VisibleForTesting;
+import com.android.settings.fuelgauge.BatteryUsageHistoryJobService;
 
 /**
  * Receive broadcast when {@link StatsManager} restart, then check the anomaly config and
@@ -49,6 +50,7 @@ public class AnomalyConfigReceiver extends BroadcastReceiver {
 
             if (Intent.ACTION_BOOT_COMPLETED.equals(intent.getAction())) {
                 AnomalyCleanupJobService.scheduleCleanUp(context);
+                BatteryUsageHistoryJobService.scheduleRecord(context);
             }
         }
     }
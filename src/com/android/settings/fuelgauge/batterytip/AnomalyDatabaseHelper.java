@@ -34,7 +34,9 @@ public class AnomalyDatabaseHelper extends SQLiteOpenHelper {
     private static final String TAG = "BatteryDatabaseHelper";
 
     private static final String DATABASE_NAME = "battery_settings.db";
-    private static final int DATABASE_VERSION = 4;
+    private static final int DATABASE_VERSION = 5;
+    // Last version with the current anomaly table, only missing the indexes.
+    private static final int VERSION_WITHOUT_INDEXES = 4;
 
     @Retention(RetentionPolicy.SOURCE)
     @IntDef({State.NEW,
@@ -50,6 +52,11 @@ public class AnomalyDatabaseHelper extends SQLiteOpenHelper {
         String TABLE_ANOMALY = "anomaly";
     }
 
+    public interface Indexes {
+        String INDEX_STATE_TIME = "anomaly_state_time_index";
+        String INDEX_UID = "anomaly_uid_index";
+    }
+
     public interface AnomalyColumns {
         /**
          * The package name of the anomaly app
@@ -92,6 +99,15 @@ public class AnomalyDatabaseHelper extends SQLiteOpenHelper {
                     + AnomalyColumns.ANOMALY_STATE + "," + AnomalyColumns.TIME_STAMP_MS + ")"
                     + ")";
 
+    private static final String CREATE_STATE_TIME_INDEX =
+            "CREATE INDEX IF NOT EXISTS " + Indexes.INDEX_STATE_TIME + " ON " + Tables.TABLE_ANOMALY
+                    + "(" + AnomalyColumns.ANOMALY_STATE + "," + AnomalyColumns.TIME_STAMP_MS
+                    + ")";
+
+    private static final String CREATE_UID_INDEX =
+            "CREATE INDEX IF NOT EXISTS " + Indexes.INDEX_UID + " ON " + Tables.TABLE_ANOMALY
+                    + "(" + AnomalyColumns.UID + ")";
+
     private static AnomalyDatabaseHelper sSingleton;
 
     public static synchronized AnomalyDatabaseHelper getInstance(Context context) {
@@ -103,6 +119,8 @@ public class AnomalyDatabaseHelper extends SQLiteOpenHelper {
 
     private AnomalyDatabaseHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        // Lets the battery screens read anomalies while the detection job is writing them.
+        setWriteAheadLoggingEnabled(true);
     }
 
     @Override
@@ -112,12 +130,21 @@ public class AnomalyDatabaseHelper extends SQLiteOpenHelper {
 
     private void bootstrapDB(SQLiteDatabase db) {
         db.execSQL(CREATE_ANOMALY_TABLE);
+        createIndexes(db);
         Log.i(TAG, "Bootstrapped database");
     }
 
+    private void createIndexes(SQLiteDatabase db) {
+        db.execSQL(CREATE_STATE_TIME_INDEX);
+        db.execSQL(CREATE_UID_INDEX);
+    }
+
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        if (oldVersion < DATABASE_VERSION) {
+        if (oldVersion == VERSION_WITHOUT_INDEXES) {
+            // Keep the anomalies, only the indexes are new.
+            createIndexes(db);
+        } else if (oldVersion < DATABASE_VERSION) {
             Log.w(TAG, "Detected schema version '" + oldVersion + "'. " +
                     "Index needs to be rebuilt for schema version '" + newVersion + "'.");
             // We need to drop the tables and recreate them
@@ -32,6 +32,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.os.Bundle;
 import android.os.StatsDimensionsValue;
+import android.os.SystemClock;
 import android.os.UserManager;
 import android.provider.Settings;
 import android.support.annotation.GuardedBy;
@@ -68,6 +69,8 @@ public class AnomalyDetectionJobService extends JobService {
     @GuardedBy("mLock")
     @VisibleForTesting
     boolean mIsJobCanceled = false;
+    @VisibleForTesting
+    AnomalyIngestFilter mIngestFilter = AnomalyIngestFilter.getInstance();
 
     public static void scheduleAnomalyDetection(Context context, Intent intent) {
         final JobScheduler jobScheduler = context.getSystemService(JobScheduler.class);
@@ -103,13 +106,25 @@ public class AnomalyDetectionJobService extends JobService {
             final MetricsFeatureProvider metricsFeatureProvider = FeatureFactory
                     .getFactory(this).getMetricsFeatureProvider();
 
-            for (JobWorkItem item = dequeueWork(params); item != null; item = dequeueWork(params)) {
-                saveAnomalyToDatabase(context, userManager,
-                        batteryDatabaseManager, batteryUtils, policy, powerWhitelistBackend,
-                        contentResolver, powerUsageFeatureProvider, metricsFeatureProvider,
-                        item.getIntent().getExtras());
+            // Write all the anomalies of this run in one transaction, and only complete the work
+            // items once they are committed.
+            final List<JobWorkItem> items = new ArrayList<>();
+            batteryDatabaseManager.beginBatch();
+            try {
+                for (JobWorkItem item = dequeueWork(params); item != null;
+                        item = dequeueWork(params)) {
+                    saveAnomalyToDatabase(context, userManager,
+                            batteryDatabaseManager, batteryUtils, policy, powerWhitelistBackend,
+                            contentResolver, powerUsageFeatureProvider, metricsFeatureProvider,
+                            item.getIntent().getExtras());
+                    items.add(item);
+                }
+            } finally {
+                batteryDatabaseManager.endBatch();
+            }
 
-                completeWork(params, item);
+            for (int i = 0, size = items.size(); i < size; i++) {
+                completeWork(params, items.get(i));
             }
         });
 
@@ -143,13 +158,21 @@ public class AnomalyDetectionJobService extends JobService {
 
         try {
             final int uid = extractUidFromStatsDimensionsValue(intentDimsValue);
+            final long nowElapsedMs = SystemClock.elapsedRealtime();
+            // Skip the lookups and the insert for repeated anomalies, and during storms.
+            if (mIngestFilter.filter(uid, anomalyInfo.anomalyType, timeMs, nowElapsedMs)
+                    != AnomalyIngestFilter.Result.ACCEPTED) {
+                return;
+            }
             final boolean autoFeatureOn = powerUsageFeatureProvider.isSmartBatterySupported()
                     ? Settings.Global.getInt(contentResolver,
                             Settings.Global.ADAPTIVE_BATTERY_MANAGEMENT_ENABLED, ON) == ON
                     : Settings.Global.getInt(contentResolver,
                             Settings.Global.APP_AUTO_RESTRICTION_ENABLED, ON) == ON;
-            final String packageName = batteryUtils.getPackageName(uid);
-            final long versionCode = batteryUtils.getAppLongVersionCode(packageName);
+            final AnomalyIngestFilter.PackageMetadata metadata =
+                    mIngestFilter.getPackageMetadata(batteryUtils, uid, nowElapsedMs);
+            final String packageName = metadata.packageName;
+            final long versionCode = metadata.versionCode;
 
             if (batteryUtils.shouldHideAnomaly(powerWhitelistBackend, uid, anomalyInfo)) {
                 metricsFeatureProvider.action(context,
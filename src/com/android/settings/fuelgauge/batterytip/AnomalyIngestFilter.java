@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge.batterytip;
+
+import android.support.annotation.IntDef;
+import android.support.annotation.VisibleForTesting;
+import android.util.SparseArray;
+import android.util.SparseLongArray;
+
+import com.android.settings.fuelgauge.BatteryUtils;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * First stage of {@link AnomalyDetectionJobService}, which bounds the work done for the
+ * anomalies reported by statsd.
+ *
+ * <p>An anomaly of the same uid and type as one accepted less than {@link #DEDUP_WINDOW_MS}
+ * before is merged into it. The others are accepted while a token bucket of
+ * {@link #BUCKET_CAPACITY} tokens, refilled every {@link #TOKEN_REFILL_MS}, isn't empty, and
+ * dropped otherwise. It also caches the package name and version code of each uid, which
+ * every anomaly needs, until a package is installed, updated or removed.
+ */
+public class AnomalyIngestFilter {
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({Result.ACCEPTED,
+            Result.MERGED,
+            Result.DROPPED})
+    public @interface Result {
+        int ACCEPTED = 0;
+        int MERGED = 1;
+        int DROPPED = 2;
+    }
+
+    @VisibleForTesting
+    static final long DEDUP_WINDOW_MS = TimeUnit.MINUTES.toMillis(10);
+    @VisibleForTesting
+    static final int BUCKET_CAPACITY = 50;
+    @VisibleForTesting
+    static final long TOKEN_REFILL_MS = TimeUnit.SECONDS.toMillis(6);
+    @VisibleForTesting
+    static final long PACKAGE_CACHE_TTL_MS = TimeUnit.MINUTES.toMillis(10);
+    // Past this many uids, the ones whose anomalies are all out of the window, or whose package
+    // is cached for too long, are forgotten.
+    @VisibleForTesting
+    static final int MAX_TRACKED_UIDS = 256;
+
+    private static AnomalyIngestFilter sInstance;
+
+    // uid -> anomaly type -> time of the last accepted anomaly
+    private final SparseArray<SparseLongArray> mLastAccepted = new SparseArray<>();
+    private final SparseArray<PackageMetadata> mPackages = new SparseArray<>();
+    // BatteryUtils#getPackageSequenceNumber() when mPackages was last valid
+    private int mPackageSequenceNumber;
+
+    private double mTokens = BUCKET_CAPACITY;
+    private long mLastRefillMs = -1;
+
+    private int mAcceptedCount;
+    private int mMergedCount;
+    private int mDroppedCount;
+    private int mPackageLookupCount;
+
+    /**
+     * Package name and version code of a uid, as looked up by {@link BatteryUtils}.
+     */
+    public static class PackageMetadata {
+        public final String packageName;
+        public final long versionCode;
+        private final long mTimestampMs;
+
+        PackageMetadata(String packageName, long versionCode, long timestampMs) {
+            this.packageName = packageName;
+            this.versionCode = versionCode;
+            mTimestampMs = timestampMs;
+        }
+    }
+
+    public static synchronized AnomalyIngestFilter getInstance() {
+        if (sInstance == null) {
+            sInstance = new AnomalyIngestFilter();
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    AnomalyIngestFilter() {
+    }
+
+    /**
+     * Decides what to do with an anomaly of {@code type} reported for {@code uid} at
+     * {@code timestampMs}, in wall time.
+     *
+     * @param nowElapsedMs current {@link android.os.SystemClock#elapsedRealtime()}, which
+     *                     refills the token bucket
+     */
+    @Result
+    public synchronized int filter(int uid, int type, long timestampMs, long nowElapsedMs) {
+        refill(nowElapsedMs);
+
+        SparseLongArray types = mLastAccepted.get(uid);
+        if (types != null) {
+            final int index = types.indexOfKey(type);
+            if (index >= 0 && Math.abs(timestampMs - types.valueAt(index)) < DEDUP_WINDOW_MS) {
+                mMergedCount++;
+                return Result.MERGED;
+            }
+        }
+        if (mTokens < 1) {
+            mDroppedCount++;
+            return Result.DROPPED;
+        }
+        mTokens--;
+        mAcceptedCount++;
+
+        if (types == null) {
+            if (mLastAccepted.size() >= MAX_TRACKED_UIDS) {
+                prune(timestampMs);
+            }
+            types = new SparseLongArray();
+            mLastAccepted.put(uid, types);
+        }
+        types.put(type, timestampMs);
+        return Result.ACCEPTED;
+    }
+
+    /**
+     * Returns the package name and version code of {@code uid}, looking them up with
+     * {@code batteryUtils} if not cached, cached more than {@link #PACKAGE_CACHE_TTL_MS} ago, or
+     * cached before a package changed.
+     */
+    public PackageMetadata getPackageMetadata(BatteryUtils batteryUtils, int uid,
+            long nowElapsedMs) {
+        final int sequenceNumber = batteryUtils.getPackageSequenceNumber();
+        synchronized (this) {
+            if (sequenceNumber != mPackageSequenceNumber) {
+                // The version code of any app may have changed.
+                mPackages.clear();
+                mPackageSequenceNumber = sequenceNumber;
+            }
+            final PackageMetadata cached = mPackages.get(uid);
+            if (cached != null && nowElapsedMs - cached.mTimestampMs < PACKAGE_CACHE_TTL_MS) {
+                return cached;
+            }
+        }
+        final String packageName = batteryUtils.getPackageName(uid);
+        final PackageMetadata metadata = new PackageMetadata(packageName,
+                batteryUtils.getAppLongVersionCode(packageName), nowElapsedMs);
+        synchronized (this) {
+            mPackageLookupCount++;
+            if (mPackages.size() >= MAX_TRACKED_UIDS && mPackages.indexOfKey(uid) < 0) {
+                prunePackages(nowElapsedMs);
+            }
+            mPackages.put(uid, metadata);
+        }
+        return metadata;
+    }
+
+    /**
+     * Returns the ingest statistics, for {@code dumpsys}.
+     */
+    public synchronized JSONObject dump() throws JSONException {
+        final JSONObject obj = new JSONObject();
+        obj.put("accepted", mAcceptedCount);
+        obj.put("merged", mMergedCount);
+        obj.put("dropped", mDroppedCount);
+        obj.put("package_lookups", mPackageLookupCount);
+        obj.put("tracked_uids", mLastAccepted.size());
+        obj.put("cached_packages", mPackages.size());
+        return obj;
+    }
+
+    @VisibleForTesting
+    synchronized int getMergedCount() {
+        return mMergedCount;
+    }
+
+    @VisibleForTesting
+    synchronized int getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    @VisibleForTesting
+    synchronized int getCachedPackageCount() {
+        return mPackages.size();
+    }
+
+    private void refill(long nowElapsedMs) {
+        if (mLastRefillMs >= 0 && nowElapsedMs > mLastRefillMs) {
+            mTokens = Math.min(BUCKET_CAPACITY,
+                    mTokens + (double) (nowElapsedMs - mLastRefillMs) / TOKEN_REFILL_MS);
+        }
+        mLastRefillMs = nowElapsedMs;
+    }
+
+    private void prunePackages(long nowElapsedMs) {
+        for (int i = mPackages.size() - 1; i >= 0; i--) {
+            if (nowElapsedMs - mPackages.valueAt(i).mTimestampMs >= PACKAGE_CACHE_TTL_MS) {
+                mPackages.removeAt(i);
+            }
+        }
+        if (mPackages.size() >= MAX_TRACKED_UIDS) {
+            // All recent, start over rather than growing.
+            mPackages.clear();
+        }
+    }
+
+    private void prune(long timestampMs) {
+        for (int i = mLastAccepted.size() - 1; i >= 0; i--) {
+            final SparseLongArray types = mLastAccepted.valueAt(i);
+            for (int j = types.size() - 1; j >= 0; j--) {
+                if (Math.abs(timestampMs - types.valueAt(j)) >= DEDUP_WINDOW_MS) {
+                    types.removeAt(j);
+                }
+            }
+            if (types.size() == 0) {
+                mLastAccepted.removeAt(i);
+            }
+        }
+    }
+}
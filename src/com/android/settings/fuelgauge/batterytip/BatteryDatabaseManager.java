@@ -34,35 +34,95 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.text.TextUtils;
-import android.util.ArrayMap;
+import android.util.Log;
+
+import com.android.settings.fuelgauge.BatteryUtils;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Database manager for battery data. Now it only contains anomaly data stored in {@link AppInfo}.
  *
- * This manager may be accessed by multi-threads. All the database related methods are synchronized
- * so each operation won't be interfered by other threads.
+ * This manager may be accessed by multi-threads. The database is kept open in write-ahead logging
+ * mode, so queries read the last committed data without waiting for writers, and the write
+ * methods are synchronized so each operation won't be interfered by other threads.
+ *
+ * Anomalies inserted between {@link #beginBatch()} and {@link #endBatch()} are written together
+ * in one transaction.
+ *
+ * Queries are answered from {@link AnomalyAggregates}, loaded once with a grouped query and then
+ * kept up to date by every write.
  */
 public class BatteryDatabaseManager {
+    private static final String TAG = "BatteryDatabaseManager";
+
     private static BatteryDatabaseManager sSingleton;
 
     private AnomalyDatabaseHelper mDatabaseHelper;
+    private final List<ContentValues> mPendingAnomalies = new ArrayList<>();
+    private int mBatchDepth;
+
+    // Separate from the write lock, so queries don't wait for a write transaction.
+    private final Object mAggregatesLock = new Object();
+    private AnomalyAggregates mAggregates;
 
     private BatteryDatabaseManager(Context context) {
         mDatabaseHelper = AnomalyDatabaseHelper.getInstance(context);
     }
 
-    public static BatteryDatabaseManager getInstance(Context context) {
+    public static synchronized BatteryDatabaseManager getInstance(Context context) {
         if (sSingleton == null) {
             sSingleton = new BatteryDatabaseManager(context);
         }
         return sSingleton;
     }
 
+    /**
+     * Starts queueing the anomalies passed to {@link #insertAnomaly}, until the matching
+     * {@link #endBatch()}. Batches may be nested.
+     */
+    public synchronized void beginBatch() {
+        mBatchDepth++;
+    }
+
+    /**
+     * Writes the anomalies queued since the outermost {@link #beginBatch()} in one transaction.
+     */
+    public synchronized void endBatch() {
+        if (mBatchDepth == 0) {
+            Log.w(TAG, "endBatch() without beginBatch()");
+            return;
+        }
+        if (--mBatchDepth > 0 || mPendingAnomalies.isEmpty()) {
+            return;
+        }
+        final long startTime = System.currentTimeMillis();
+        final SQLiteDatabase db = mDatabaseHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (int i = 0, size = mPendingAnomalies.size(); i < size; i++) {
+                db.insertWithOnConflict(TABLE_ANOMALY, null, mPendingAnomalies.get(i),
+                        CONFLICT_IGNORE);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        BatteryUtils.logRuntime(TAG, "insert " + mPendingAnomalies.size() + " anomalies",
+                startTime);
+        synchronized (mAggregatesLock) {
+            if (mAggregates != null) {
+                for (int i = 0, size = mPendingAnomalies.size(); i < size; i++) {
+                    addToAggregates(mPendingAnomalies.get(i));
+                }
+            }
+        }
+        mPendingAnomalies.clear();
+    }
+
     /**
      * Insert an anomaly log to database.
      *
@@ -71,63 +131,53 @@ public class BatteryDatabaseManager {
      * @param type         the type of the anomaly
      * @param anomalyState the state of the anomaly
      * @param timestampMs  the time when it is happened
-     * @return {@code true} if insert operation succeed
+     * @return {@code true} if insert operation succeed, or if the anomaly is queued in a batch
      */
     public synchronized boolean insertAnomaly(int uid, String packageName, int type,
             int anomalyState,
             long timestampMs) {
-        try (SQLiteDatabase db = mDatabaseHelper.getWritableDatabase()) {
-            ContentValues values = new ContentValues();
-            values.put(UID, uid);
-            values.put(PACKAGE_NAME, packageName);
-            values.put(ANOMALY_TYPE, type);
-            values.put(ANOMALY_STATE, anomalyState);
-            values.put(TIME_STAMP_MS, timestampMs);
-            return db.insertWithOnConflict(TABLE_ANOMALY, null, values, CONFLICT_IGNORE) != -1;
+        final ContentValues values = new ContentValues();
+        values.put(UID, uid);
+        values.put(PACKAGE_NAME, packageName);
+        values.put(ANOMALY_TYPE, type);
+        values.put(ANOMALY_STATE, anomalyState);
+        values.put(TIME_STAMP_MS, timestampMs);
+        if (mBatchDepth > 0) {
+            mPendingAnomalies.add(values);
+            return true;
+        }
+        final SQLiteDatabase db = mDatabaseHelper.getWritableDatabase();
+        if (db.insertWithOnConflict(TABLE_ANOMALY, null, values, CONFLICT_IGNORE) == -1) {
+            return false;
         }
+        synchronized (mAggregatesLock) {
+            if (mAggregates != null) {
+                addToAggregates(values);
+            }
+        }
+        return true;
     }
 
     /**
      * Query all the anomalies that happened after {@code timestampMsAfter} and with {@code state}.
      */
-    public synchronized List<AppInfo> queryAllAnomalies(long timestampMsAfter, int state) {
-        final List<AppInfo> appInfos = new ArrayList<>();
-        try (SQLiteDatabase db = mDatabaseHelper.getReadableDatabase()) {
-            final String[] projection = {PACKAGE_NAME, ANOMALY_TYPE, UID};
-            final String orderBy = AnomalyDatabaseHelper.AnomalyColumns.TIME_STAMP_MS + " DESC";
-            final Map<Integer, AppInfo.Builder> mAppInfoBuilders = new ArrayMap<>();
-            final String selection = TIME_STAMP_MS + " > ? AND " + ANOMALY_STATE + " = ? ";
-            final String[] selectionArgs = new String[]{String.valueOf(timestampMsAfter),
-                    String.valueOf(state)};
-
-            try (Cursor cursor = db.query(TABLE_ANOMALY, projection, selection, selectionArgs,
-                    null /* groupBy */, null /* having */, orderBy)) {
-                while (cursor.moveToNext()) {
-                    final int uid = cursor.getInt(cursor.getColumnIndex(UID));
-                    if (!mAppInfoBuilders.containsKey(uid)) {
-                        final AppInfo.Builder builder = new AppInfo.Builder()
-                                .setUid(uid)
-                                .setPackageName(
-                                        cursor.getString(cursor.getColumnIndex(PACKAGE_NAME)));
-                        mAppInfoBuilders.put(uid, builder);
-                    }
-                    mAppInfoBuilders.get(uid).addAnomalyType(
-                            cursor.getInt(cursor.getColumnIndex(ANOMALY_TYPE)));
-                }
-            }
-
-            for (Integer uid : mAppInfoBuilders.keySet()) {
-                appInfos.add(mAppInfoBuilders.get(uid).build());
+    public List<AppInfo> queryAllAnomalies(long timestampMsAfter, int state) {
+        synchronized (mAggregatesLock) {
+            if (mAggregates == null) {
+                mAggregates = loadAggregates();
             }
+            return mAggregates.query(timestampMsAfter, state);
         }
-
-        return appInfos;
     }
 
     public synchronized void deleteAllAnomaliesBeforeTimeStamp(long timestampMs) {
-        try (SQLiteDatabase db = mDatabaseHelper.getWritableDatabase()) {
-            db.delete(TABLE_ANOMALY, TIME_STAMP_MS + " < ?",
-                    new String[]{String.valueOf(timestampMs)});
+        final SQLiteDatabase db = mDatabaseHelper.getWritableDatabase();
+        db.delete(TABLE_ANOMALY, TIME_STAMP_MS + " < ?",
+                new String[]{String.valueOf(timestampMs)});
+        synchronized (mAggregatesLock) {
+            if (mAggregates != null) {
+                mAggregates.removeBefore(timestampMs);
+            }
         }
     }
 
@@ -144,12 +194,47 @@ public class BatteryDatabaseManager {
             for (int i = 0; i < size; i++) {
                 whereArgs[i] = appInfos.get(i).packageName;
             }
-            try (SQLiteDatabase db = mDatabaseHelper.getWritableDatabase()) {
-                final ContentValues values = new ContentValues();
-                values.put(ANOMALY_STATE, state);
-                db.update(TABLE_ANOMALY, values, PACKAGE_NAME + " IN (" + TextUtils.join(",",
-                        Collections.nCopies(appInfos.size(), "?")) + ")", whereArgs);
+            final SQLiteDatabase db = mDatabaseHelper.getWritableDatabase();
+            final ContentValues values = new ContentValues();
+            values.put(ANOMALY_STATE, state);
+            db.update(TABLE_ANOMALY, values, PACKAGE_NAME + " IN (" + TextUtils.join(",",
+                    Collections.nCopies(appInfos.size(), "?")) + ")", whereArgs);
+            synchronized (mAggregatesLock) {
+                if (mAggregates != null) {
+                    mAggregates.moveToState(Arrays.asList(whereArgs), state);
+                }
             }
         }
     }
+
+    /**
+     * Builds the aggregates with one row per state, uid, package and anomaly type, grouped by the
+     * database with the help of the uid index.
+     */
+    private AnomalyAggregates loadAggregates() {
+        final long startTime = System.currentTimeMillis();
+        final AnomalyAggregates aggregates = new AnomalyAggregates();
+        final SQLiteDatabase db = mDatabaseHelper.getReadableDatabase();
+        final String[] projection = {ANOMALY_STATE, UID, ANOMALY_TYPE, PACKAGE_NAME,
+                "MAX(" + TIME_STAMP_MS + ")"};
+        final String groupBy = ANOMALY_STATE + "," + UID + "," + PACKAGE_NAME + ","
+                + ANOMALY_TYPE;
+
+        try (Cursor cursor = db.query(TABLE_ANOMALY, projection, null /* selection */,
+                null /* selectionArgs */, groupBy, null /* having */, null /* orderBy */)) {
+            while (cursor.moveToNext()) {
+                aggregates.add(cursor.getInt(1) /* uid */, cursor.getString(3) /* packageName */,
+                        cursor.getInt(2) /* type */, cursor.getInt(0) /* state */,
+                        cursor.getLong(4) /* timestampMs */);
+            }
+        }
+        BatteryUtils.logRuntime(TAG, "load anomaly aggregates", startTime);
+        return aggregates;
+    }
+
+    private void addToAggregates(ContentValues values) {
+        mAggregates.add(values.getAsInteger(UID), values.getAsString(PACKAGE_NAME),
+                values.getAsInteger(ANOMALY_TYPE), values.getAsInteger(ANOMALY_STATE),
+                values.getAsLong(TIME_STAMP_MS));
+    }
 }
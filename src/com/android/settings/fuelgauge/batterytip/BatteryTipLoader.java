@@ -17,12 +17,17 @@
 package com.android.settings.fuelgauge.batterytip;
 
 import android.content.Context;
+import android.os.Process;
+import android.os.SystemClock;
 import android.support.annotation.VisibleForTesting;
+import android.util.ArrayMap;
+import android.util.Log;
 
 import com.android.internal.os.BatteryStatsHelper;
 import com.android.settings.fuelgauge.BatteryInfo;
 import com.android.settings.fuelgauge.BatteryUtils;
 import com.android.settings.fuelgauge.Estimate;
+import com.android.settings.fuelgauge.batterytip.detectors.BatteryTipDetector;
 import com.android.settings.fuelgauge.batterytip.detectors.EarlyWarningDetector;
 import com.android.settings.fuelgauge.batterytip.detectors.HighUsageDetector;
 import com.android.settings.fuelgauge.batterytip.detectors.LowBatteryDetector;
@@ -33,21 +38,42 @@ import com.android.settings.fuelgauge.batterytip.tips.BatteryTip;
 import com.android.settings.fuelgauge.batterytip.tips.LowBatteryTip;
 import com.android.settings.fuelgauge.batterytip.tips.SummaryTip;
 import com.android.settingslib.utils.AsyncLoader;
+import com.android.settingslib.utils.ThreadUtils;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Loader to compute and return a battery tip list. It will always return a full length list even
  * though some tips may have state {@code BaseBatteryTip.StateType.INVISIBLE}.
+ *
+ * <p>Slow detectors run concurrently, each bounded by {@link #DETECTOR_TIMEOUT_MS}. If they are
+ * still running once the cheap tips are ready, a partial list is delivered first, with
+ * {@code null} in place of the pending tips.
  */
 public class BatteryTipLoader extends AsyncLoader<List<BatteryTip>> {
     private static final String TAG = "BatteryTipLoader";
 
     private static final boolean USE_FAKE_DATA = false;
 
+    @VisibleForTesting
+    static final long DETECTOR_TIMEOUT_MS = 3000;
+    private static final int SLOW_DETECTOR_THREADS = 3;
+    // Idle threads exit after this, so the pool costs nothing between two loads.
+    private static final long SLOW_DETECTOR_KEEP_ALIVE_MS = 10000;
+
+    private static ExecutorService sExecutor;
+
     private BatteryStatsHelper mBatteryStatsHelper;
+    private final ArrayMap<String, Long> mDetectorTimings = new ArrayMap<>();
     @VisibleForTesting
     BatteryUtils mBatteryUtils;
 
@@ -62,21 +88,129 @@ public class BatteryTipLoader extends AsyncLoader<List<BatteryTip>> {
         if (USE_FAKE_DATA) {
             return getFakeData();
         }
-        final List<BatteryTip> tips = new ArrayList<>();
         final BatteryTipPolicy policy = new BatteryTipPolicy(getContext());
         final BatteryInfo batteryInfo = mBatteryUtils.getBatteryInfo(mBatteryStatsHelper, TAG);
         final Context context = getContext();
 
-        tips.add(new LowBatteryDetector(context, policy, batteryInfo).detect());
-        tips.add(new HighUsageDetector(context, policy, mBatteryStatsHelper,
-                batteryInfo.discharging).detect());
-        tips.add(new SmartBatteryDetector(policy, context.getContentResolver()).detect());
-        tips.add(new EarlyWarningDetector(policy, context).detect());
-        tips.add(new SummaryDetector(policy, batteryInfo.averageTimeToDischarge).detect());
-        tips.add(new RestrictAppDetector(context, policy).detect());
+        // Listed in the display order of their tips, so partial results keep the same sequence.
+        final BatteryTipDetector[] detectors = {
+                new RestrictAppDetector(context, policy),
+                new EarlyWarningDetector(policy, context),
+                new HighUsageDetector(context, policy, mBatteryStatsHelper,
+                        batteryInfo.discharging),
+                new LowBatteryDetector(context, policy, batteryInfo),
+                new SummaryDetector(policy, batteryInfo.averageTimeToDischarge),
+                new SmartBatteryDetector(policy, context.getContentResolver())};
+        final BatteryTip[] tips = new BatteryTip[detectors.length];
+        mDetectorTimings.clear();
 
-        Collections.sort(tips);
-        return tips;
+        // Detectors that make binder or database calls, or walk the battery history, run
+        // concurrently while the cheap ones run on this thread.
+        final List<Future<BatteryTip>> futures = new ArrayList<>(detectors.length);
+        final long startTime = SystemClock.elapsedRealtime();
+        for (BatteryTipDetector detector : detectors) {
+            futures.add(isSlow(detector) ? getExecutor().submit(() -> detect(detector)) : null);
+        }
+        boolean pending = false;
+        for (int i = 0; i < detectors.length; i++) {
+            final Future<BatteryTip> future = futures.get(i);
+            if (future == null) {
+                tips[i] = detect(detectors[i]);
+            } else if (future.isDone()) {
+                tips[i] = getTip(future, detectors[i], 0 /* timeoutMs */);
+            } else {
+                pending = true;
+            }
+        }
+
+        if (pending) {
+            // Show the cheap tips right away, the slow ones are merged in once they finish.
+            final List<BatteryTip> partialTips = toList(tips);
+            ThreadUtils.postOnMainThread(() -> deliverResult(partialTips));
+        }
+        for (int i = 0; i < detectors.length; i++) {
+            if (tips[i] == null && futures.get(i) != null) {
+                tips[i] = getTip(futures.get(i), detectors[i],
+                        startTime + DETECTOR_TIMEOUT_MS - SystemClock.elapsedRealtime());
+            }
+        }
+
+        final List<BatteryTip> result = toList(tips);
+        if (!result.contains(null)) {
+            Collections.sort(result);
+        }
+        return result;
+    }
+
+    /**
+     * Returns how long each detector took in the last load, in milliseconds.
+     */
+    public ArrayMap<String, Long> getDetectorTimings() {
+        synchronized (mDetectorTimings) {
+            return new ArrayMap<>(mDetectorTimings);
+        }
+    }
+
+    private BatteryTip detect(BatteryTipDetector detector) {
+        final long startTime = System.currentTimeMillis();
+        final BatteryTip tip = detector.detect();
+        final long duration = System.currentTimeMillis() - startTime;
+        synchronized (mDetectorTimings) {
+            mDetectorTimings.put(getName(detector), duration);
+        }
+        BatteryUtils.logRuntime(TAG, getName(detector), startTime);
+        return tip;
+    }
+
+    @VisibleForTesting
+    static boolean isSlow(BatteryTipDetector detector) {
+        return detector instanceof RestrictAppDetector
+                || detector instanceof EarlyWarningDetector
+                || detector instanceof HighUsageDetector;
+    }
+
+    private static BatteryTip getTip(Future<BatteryTip> future, BatteryTipDetector detector,
+            long timeoutMs) {
+        try {
+            return future.get(Math.max(timeoutMs, 0), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            Log.w(TAG, getName(detector) + " timed out");
+            future.cancel(true /* mayInterruptIfRunning */);
+        } catch (InterruptedException | ExecutionException e) {
+            Log.w(TAG, getName(detector) + " failed", e);
+        }
+        return null;
+    }
+
+    private static List<BatteryTip> toList(BatteryTip[] tips) {
+        // A tip that isn't detected yet is left null, so the list keeps its full length.
+        final List<BatteryTip> list = new ArrayList<>(tips.length);
+        for (BatteryTip tip : tips) {
+            list.add(tip);
+        }
+        return list;
+    }
+
+    private static String getName(BatteryTipDetector detector) {
+        return detector.getClass().getSimpleName();
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (sExecutor == null) {
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(SLOW_DETECTOR_THREADS,
+                    SLOW_DETECTOR_THREADS, SLOW_DETECTOR_KEEP_ALIVE_MS, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<>(), runnable -> {
+                        final Thread thread = new Thread(() -> {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            runnable.run();
+                        }, "BatteryTipDetector");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            executor.allowCoreThreadTimeOut(true);
+            sExecutor = executor;
+        }
+        return sExecutor;
     }
 
     @Override
@@ -99,16 +99,26 @@ public class BatteryTipPreferenceController extends BasePreferenceController {
         if (mBatteryTips == null) {
             mBatteryTips = batteryTips;
         } else {
-            // mBatteryTips and batteryTips always have the same length and same sequence.
+            // mBatteryTips and batteryTips always have the same length and same sequence. A tip
+            // may be null while its detector is still running, it is filled in by a later update.
             for (int i = 0, size = batteryTips.size(); i < size; i++) {
-                mBatteryTips.get(i).updateState(batteryTips.get(i));
+                final BatteryTip newTip = batteryTips.get(i);
+                if (newTip == null) {
+                    continue;
+                }
+                final BatteryTip batteryTip = mBatteryTips.get(i);
+                if (batteryTip == null) {
+                    mBatteryTips.set(i, newTip);
+                } else {
+                    batteryTip.updateState(newTip);
+                }
             }
         }
 
         mPreferenceGroup.removeAll();
         for (int i = 0, size = batteryTips.size(); i < size; i++) {
             final BatteryTip batteryTip = mBatteryTips.get(i);
-            if (batteryTip.getState() != BatteryTip.StateType.INVISIBLE) {
+            if (batteryTip != null && batteryTip.getState() != BatteryTip.StateType.INVISIBLE) {
                 final Preference preference = batteryTip.buildPreference(mPrefContext);
                 mBatteryTipMap.put(preference.getKey(), batteryTip);
                 mPreferenceGroup.addPreference(preference);
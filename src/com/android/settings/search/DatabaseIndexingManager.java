@@ -59,6 +59,8 @@ import android.support.annotation.VisibleForTesting;
 import android.text.TextUtils;
 import android.util.Log;
 
+import com.android.settings.core.instrumentation.PerfCounters;
+import com.android.settings.core.instrumentation.TraceRecorder;
 import com.android.settings.overlay.FeatureFactory;
 import com.android.settings.search.indexing.IndexData;
 import com.android.settings.search.indexing.IndexDataConverter;
@@ -95,6 +97,7 @@ public class DatabaseIndexingManager {
      * calls will only gather non-indexable keys.
      */
     public void performIndexing() {
+        final long traceStart = TraceRecorder.getInstance().begin();
         final long startTime = System.currentTimeMillis();
         final Intent intent = new Intent(SearchIndexablesContract.PROVIDER_INTERFACE);
         final List<ResolveInfo> providers =
@@ -116,8 +119,10 @@ public class DatabaseIndexingManager {
 
         final long updateDatabaseStartTime = System.currentTimeMillis();
         updateDatabase(indexData, isFullIndex);
+        final long updateDatabaseTime = System.currentTimeMillis() - updateDatabaseStartTime;
+        PerfCounters.getInstance().recordLatency(PerfCounters.SEARCH_INDEX_UPDATE_DATABASE,
+                updateDatabaseTime);
         if (SettingsSearchIndexablesProvider.DEBUG) {
-            final long updateDatabaseTime = System.currentTimeMillis() - updateDatabaseStartTime;
             Log.d(LOG_TAG, "performIndexing updateDatabase took time: " + updateDatabaseTime);
         }
 
@@ -126,8 +131,10 @@ public class DatabaseIndexingManager {
         IndexDatabaseHelper.setBuildIndexed(mContext, fingerprint);
         IndexDatabaseHelper.setProvidersIndexed(mContext, providerVersionedNames);
 
+        final long indexingTime = System.currentTimeMillis() - startTime;
+        PerfCounters.getInstance().recordLatency(PerfCounters.SEARCH_INDEX, indexingTime);
+        TraceRecorder.getInstance().end(TraceRecorder.SPAN_SEARCH_INDEX, traceStart);
         if (SettingsSearchIndexablesProvider.DEBUG) {
-            final long indexingTime = System.currentTimeMillis() - startTime;
             Log.d(LOG_TAG, "performIndexing took time: " + indexingTime
                     + "ms. Full index? " + isFullIndex);
         }
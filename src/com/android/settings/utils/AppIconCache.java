@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.utils;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.content.res.Configuration;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.UserHandle;
+import android.support.annotation.VisibleForTesting;
+import android.util.ArrayMap;
+import android.util.LruCache;
+
+import com.android.settingslib.utils.ThreadUtils;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * Process-wide cache of app icons and labels, shared by the app list screens.
+ *
+ * <p>Entries are keyed by (package, user, version), so an updated package is loaded again.
+ * Icons are bounded by their size in bytes. {@link #loadIcon(ApplicationInfo, Callback)} loads
+ * icons in the background, and concurrent requests for the same icon share a single load.
+ * Icons are dropped once Settings goes to the background and the system asks it to trim memory.
+ */
+public class AppIconCache implements ComponentCallbacks2 {
+
+    @VisibleForTesting
+    static final int MAX_ICON_BYTES = 8 * 1024 * 1024;
+    @VisibleForTesting
+    static final int MAX_LABELS = 1024;
+
+    private static AppIconCache sInstance;
+
+    private final PackageManager mPm;
+    private final LruCache<Key, Drawable> mIcons;
+    private final LruCache<Key, String> mLabels;
+    // Labels are only valid for the locale they were loaded in.
+    private Locale mLabelLocale;
+    // Callbacks waiting for icons that are being loaded in the background.
+    private final ArrayMap<Key, List<Callback>> mPendingIcons = new ArrayMap<>();
+
+    /**
+     * Receives an icon loaded by {@link #loadIcon(ApplicationInfo, Callback)}, on the main thread.
+     */
+    public interface Callback {
+        void onIconLoaded(Drawable icon);
+    }
+
+    @VisibleForTesting
+    static final class Key {
+        final String packageName;
+        final int userId;
+        final long versionCode;
+
+        Key(ApplicationInfo info) {
+            packageName = info.packageName;
+            userId = UserHandle.getUserId(info.uid);
+            versionCode = info.longVersionCode;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return userId == other.userId && versionCode == other.versionCode
+                    && Objects.equals(packageName, other.packageName);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(packageName, userId, versionCode);
+        }
+    }
+
+    public static synchronized AppIconCache getInstance(Context context) {
+        if (sInstance == null) {
+            final Context appContext = context.getApplicationContext();
+            sInstance = new AppIconCache(appContext.getPackageManager());
+            appContext.registerComponentCallbacks(sInstance);
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    AppIconCache(PackageManager pm) {
+        mPm = pm;
+        mIcons = new LruCache<Key, Drawable>(MAX_ICON_BYTES) {
+            @Override
+            protected int sizeOf(Key key, Drawable icon) {
+                return getByteCount(icon);
+            }
+        };
+        mLabels = new LruCache<>(MAX_LABELS);
+    }
+
+    /**
+     * Returns the icon of {@code info}, loading it on the calling thread if it isn't cached.
+     */
+    public Drawable getIcon(ApplicationInfo info) {
+        final Key key = new Key(info);
+        Drawable icon = mIcons.get(key);
+        if (icon == null) {
+            icon = info.loadIcon(mPm);
+            mIcons.put(key, icon);
+        }
+        return newDrawable(icon);
+    }
+
+    /**
+     * Returns the label of {@code info}, loading it on the calling thread if it isn't cached.
+     */
+    public String getLabel(ApplicationInfo info) {
+        final Locale locale = Locale.getDefault();
+        synchronized (mLabels) {
+            if (!locale.equals(mLabelLocale)) {
+                mLabels.evictAll();
+                mLabelLocale = locale;
+            }
+        }
+        final Key key = new Key(info);
+        String label = mLabels.get(key);
+        if (label == null) {
+            final CharSequence loaded = info.loadLabel(mPm);
+            label = loaded != null ? loaded.toString() : info.packageName;
+            mLabels.put(key, label);
+        }
+        return label;
+    }
+
+    /**
+     * Delivers the icon of {@code info} to {@code callback}. Cached icons are delivered right
+     * away; otherwise the icon is loaded in the background, once for all pending callbacks.
+     */
+    public void loadIcon(ApplicationInfo info, Callback callback) {
+        final Key key = new Key(info);
+        final Drawable cached = mIcons.get(key);
+        if (cached != null) {
+            callback.onIconLoaded(newDrawable(cached));
+            return;
+        }
+        synchronized (mPendingIcons) {
+            List<Callback> callbacks = mPendingIcons.get(key);
+            if (callbacks != null) {
+                // Already being loaded.
+                callbacks.add(callback);
+                return;
+            }
+            callbacks = new ArrayList<>();
+            callbacks.add(callback);
+            mPendingIcons.put(key, callbacks);
+        }
+        ThreadUtils.postOnBackgroundThread(() -> {
+            final Drawable icon = info.loadIcon(mPm);
+            mIcons.put(key, icon);
+            final List<Callback> callbacks;
+            synchronized (mPendingIcons) {
+                callbacks = mPendingIcons.remove(key);
+            }
+            ThreadUtils.postOnMainThread(() -> {
+                for (Callback c : callbacks) {
+                    c.onIconLoaded(newDrawable(icon));
+                }
+            });
+        });
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_BACKGROUND) {
+            mIcons.evictAll();
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        mIcons.evictAll();
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+
+    public void clear() {
+        mIcons.evictAll();
+        mLabels.evictAll();
+    }
+
+    /**
+     * Returns the cache statistics, for {@code dumpsys}.
+     */
+    public JSONObject dump() throws JSONException {
+        final JSONObject obj = new JSONObject();
+        obj.put("icon_hits", mIcons.hitCount());
+        obj.put("icon_misses", mIcons.missCount());
+        obj.put("icon_hit_rate", String.valueOf(getHitRate(mIcons)));
+        obj.put("icon_bytes", mIcons.size());
+        obj.put("label_hits", mLabels.hitCount());
+        obj.put("label_misses", mLabels.missCount());
+        obj.put("label_hit_rate", String.valueOf(getHitRate(mLabels)));
+        obj.put("label_count", mLabels.size());
+        return obj;
+    }
+
+    @VisibleForTesting
+    static float getHitRate(LruCache<?, ?> cache) {
+        final int requests = cache.hitCount() + cache.missCount();
+        return requests > 0 ? (float) cache.hitCount() / requests : 0f;
+    }
+
+    @VisibleForTesting
+    LruCache<Key, Drawable> getIconCache() {
+        return mIcons;
+    }
+
+    @VisibleForTesting
+    LruCache<Key, String> getLabelCache() {
+        return mLabels;
+    }
+
+    private static int getByteCount(Drawable icon) {
+        if (icon instanceof BitmapDrawable && ((BitmapDrawable) icon).getBitmap() != null) {
+            return ((BitmapDrawable) icon).getBitmap().getAllocationByteCount();
+        }
+        // Estimate other drawables by the size of their rendered bitmap.
+        return Math.max(1, icon.getIntrinsicWidth() * icon.getIntrinsicHeight() * 4);
+    }
+
+    private static Drawable newDrawable(Drawable icon) {
+        // Give each caller its own drawable, so bounds and state aren't shared between views.
+        final Drawable.ConstantState state = icon.getConstantState();
+        return state != null ? state.newDrawable() : icon;
+    }
+}
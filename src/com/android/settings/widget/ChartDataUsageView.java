@@ -236,8 +236,9 @@ public class ChartDataUsageView extends ChartView {
             mSweepLimit.setValidRange(0L, newMax);
 
             if (changed) {
-                mSeries.invalidatePath();
-                mDetailSeries.invalidatePath();
+                // only the vertical axis changed, the series keep their geometry
+                mSeries.invalidateVerticalScale();
+                mDetailSeries.invalidateVerticalScale();
             }
 
             mGrid.invalidate();
@@ -26,6 +26,7 @@ import android.graphics.Paint.Style;
 import android.graphics.Path;
 import android.graphics.RectF;
 import android.net.NetworkStatsHistory;
+import android.support.annotation.VisibleForTesting;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.View;
@@ -33,12 +34,18 @@ import android.view.View;
 import com.android.internal.util.Preconditions;
 import com.android.settings.R;
 
+import java.util.Arrays;
+
 import static android.text.format.DateUtils.DAY_IN_MILLIS;
 import static android.text.format.DateUtils.WEEK_IN_MILLIS;
 
 /**
  * {@link NetworkStatsHistory} series to render inside a {@link ChartView},
  * using {@link ChartAxis} to map into screen coordinates.
+ *
+ * <p>The series is decimated to one vertex per pixel column, whatever the number of buckets,
+ * and its geometry is kept until the data or the horizontal axis changes: a change of the
+ * vertical axis, as when dragging a sweep, only maps the cached vertices again.
  */
 public class ChartNetworkSeriesView extends View {
     private static final String TAG = "ChartNetworkSeriesView";
@@ -46,6 +53,10 @@ public class ChartNetworkSeriesView extends View {
 
     private static final boolean ESTIMATE_ENABLED = false;
 
+    private static final int INITIAL_VERTEX_CAPACITY = 256;
+    // Total of a vertex at the bottom of the graph, before any data.
+    private static final long TOTAL_BOTTOM = -1;
+
     private ChartAxis mHoriz;
     private ChartAxis mVert;
 
@@ -56,10 +67,15 @@ public class ChartNetworkSeriesView extends View {
 
     private NetworkStatsHistory mStats;
 
-    private Path mPathStroke;
     private Path mPathFill;
     private Path mPathEstimate;
 
+    // Vertices of the series, at most one per pixel column, with their cumulative total
+    private float[] mVertexX = new float[INITIAL_VERTEX_CAPACITY];
+    private long[] mVertexTotal = new long[INITIAL_VERTEX_CAPACITY];
+    private int mVertexCount;
+    private long mLastTime;
+
     private int mSafeRegion;
 
     private long mStart;
@@ -69,6 +85,7 @@ public class ChartNetworkSeriesView extends View {
     private long mEndTime = Long.MIN_VALUE;
 
     private boolean mPathValid = false;
+    private boolean mGeometryValid = false;
     private boolean mEstimateVisible = false;
     private boolean mSecondary = false;
 
@@ -102,7 +119,6 @@ public class ChartNetworkSeriesView extends View {
 
         a.recycle();
 
-        mPathStroke = new Path();
         mPathFill = new Path();
         mPathEstimate = new Path();
     }
@@ -148,6 +164,9 @@ public class ChartNetworkSeriesView extends View {
     }
 
     public void setBounds(long start, long end) {
+        if (mStart != start || mEnd != end) {
+            mGeometryValid = false;
+        }
         mStart = start;
         mEnd = end;
     }
@@ -156,41 +175,50 @@ public class ChartNetworkSeriesView extends View {
         mSecondary = secondary;
     }
 
+    /**
+     * Regenerate the series from the bound {@link NetworkStatsHistory}, after the data or any
+     * axis changed.
+     */
     public void invalidatePath() {
+        mGeometryValid = false;
         mPathValid = false;
         mMax = 0;
         invalidate();
     }
 
     /**
-     * Erase any existing {@link Path} and generate series outline based on
-     * currently bound {@link NetworkStatsHistory} data.
+     * Map the series again after only the vertical axis changed, keeping its geometry.
      */
-    private void generatePath() {
-        if (LOGD) Log.d(TAG, "generatePath()");
+    public void invalidateVerticalScale() {
+        mPathValid = false;
+        invalidate();
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        mGeometryValid = false;
+        mPathValid = false;
+    }
 
+    /**
+     * Walk the buckets of the bound {@link NetworkStatsHistory} within the bounds, and collect
+     * the vertices of the series outline, keeping the last one of each pixel column.
+     */
+    private void generateGeometry() {
+        if (LOGD) Log.d(TAG, "generateGeometry()");
+
+        mVertexCount = 0;
         mMax = 0;
-        mPathStroke.reset();
-        mPathFill.reset();
-        mPathEstimate.reset();
-        mPathValid = true;
+        mGeometryValid = true;
 
         // bail when not enough stats to render
         if (mStats == null || mStats.size() < 2) {
             return;
         }
 
-        final int width = getWidth();
-        final int height = getHeight();
-
-        boolean started = false;
-        float lastX = 0;
-        float lastY = height;
-        long lastTime = mHoriz.convertToValue(lastX);
-
-        // move into starting position
-        mPathStroke.moveTo(lastX, lastY);
-        mPathFill.moveTo(lastX, lastY);
+        long lastTotal = TOTAL_BOTTOM;
+        long lastTime = mHoriz.convertToValue(0);
 
         // TODO: count fractional data from first bucket crossing start;
         // currently it only accepts first full bucket.
@@ -207,7 +235,6 @@ public class ChartNetworkSeriesView extends View {
             final long startTime = entry.bucketStart;
             final long endTime = startTime + entry.bucketDuration;
 
-            final float startX = mHoriz.convertToPoint(startTime);
             final float endX = mHoriz.convertToPoint(endTime);
 
             // skip until we find first stats on screen
@@ -216,29 +243,75 @@ public class ChartNetworkSeriesView extends View {
             // increment by current bucket total
             totalData += entry.rxBytes + entry.txBytes;
 
-            final float startY = lastY;
-            final float endY = mVert.convertToPoint(totalData);
-
             if (lastTime != startTime) {
                 // gap in buckets; line to start of current bucket
-                mPathStroke.lineTo(startX, startY);
-                mPathFill.lineTo(startX, startY);
+                addVertex(mHoriz.convertToPoint(startTime), lastTotal);
             }
 
             // always draw to end of current bucket
-            mPathStroke.lineTo(endX, endY);
-            mPathFill.lineTo(endX, endY);
+            addVertex(endX, totalData);
 
-            lastX = endX;
-            lastY = endY;
+            lastTotal = totalData;
             lastTime = endTime;
         }
 
         // when data falls short, extend to requested end time
         if (lastTime < mEndTime) {
-            lastX = mHoriz.convertToPoint(mEndTime);
+            addVertex(mHoriz.convertToPoint(mEndTime), lastTotal);
+        }
+
+        mMax = totalData;
+        mLastTime = lastTime;
+    }
 
-            mPathStroke.lineTo(lastX, lastY);
+    private void addVertex(float x, long total) {
+        if (mVertexCount > 0 && (int) x == (int) mVertexX[mVertexCount - 1]) {
+            // Same pixel column, the series only grows so its last vertex is enough.
+            mVertexX[mVertexCount - 1] = x;
+            mVertexTotal[mVertexCount - 1] = total;
+            return;
+        }
+        if (mVertexCount == mVertexX.length) {
+            mVertexX = Arrays.copyOf(mVertexX, mVertexCount * 2);
+            mVertexTotal = Arrays.copyOf(mVertexTotal, mVertexCount * 2);
+        }
+        mVertexX[mVertexCount] = x;
+        mVertexTotal[mVertexCount] = total;
+        mVertexCount++;
+    }
+
+    /**
+     * Erase any existing {@link Path} and generate series outline based on
+     * currently bound {@link NetworkStatsHistory} data.
+     */
+    private void generatePath() {
+        if (!mGeometryValid) {
+            generateGeometry();
+        }
+        if (LOGD) Log.d(TAG, "generatePath()");
+
+        // rewind keeps the path buffers for the next outline
+        mPathFill.rewind();
+        mPathEstimate.rewind();
+        mPathValid = true;
+
+        // bail when not enough stats to render
+        if (mStats == null || mStats.size() < 2) {
+            return;
+        }
+
+        final int width = getWidth();
+        final int height = getHeight();
+
+        float lastX = 0;
+        float lastY = height;
+
+        // move into starting position
+        mPathFill.moveTo(lastX, lastY);
+        for (int i = 0; i < mVertexCount; i++) {
+            lastX = mVertexX[i];
+            lastY = mVertexTotal[i] == TOTAL_BOTTOM ? height
+                    : mVert.convertToPoint(mVertexTotal[i]);
             mPathFill.lineTo(lastX, lastY);
         }
 
@@ -246,16 +319,18 @@ public class ChartNetworkSeriesView extends View {
             final RectF bounds = new RectF();
             mPathFill.computeBounds(bounds, true);
             Log.d(TAG, "onLayout() rendered with bounds=" + bounds.toString() + " and totalData="
-                    + totalData);
+                    + mMax);
         }
 
         // drop to bottom of graph from current location
         mPathFill.lineTo(lastX, height);
         mPathFill.lineTo(0, height);
 
-        mMax = totalData;
-
         if (ESTIMATE_ENABLED) {
+            long lastTime = mLastTime;
+            long totalData = mMax;
+            NetworkStatsHistory.Entry entry = null;
+
             // build estimated data
             mPathEstimate.moveTo(lastX, lastY);
 
@@ -292,6 +367,9 @@ public class ChartNetworkSeriesView extends View {
     }
 
     public void setEndTime(long endTime) {
+        if (mEndTime != endTime) {
+            mGeometryValid = false;
+        }
         mEndTime = endTime;
     }
 
@@ -300,6 +378,11 @@ public class ChartNetworkSeriesView extends View {
         invalidate();
     }
 
+    @VisibleForTesting
+    int getVertexCount() {
+        return mVertexCount;
+    }
+
     public long getMaxEstimate() {
         return mMaxEstimate;
     }
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.benchmark;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.rules.TestRule;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH-style harness of the Settings host benchmarks.
+ *
+ * <p>{@link #measure(Operation)} runs an operation in batches sized to last
+ * {@link #ITERATION_TIME_MS} each: {@link #WARMUP_ITERATIONS} batches to warm up the JIT, then
+ * {@link #MEASURED_ITERATIONS} measured ones. It reports the average time per operation as a
+ * JSON object shaped like a JMH result entry, printed after {@code BENCHMARK} and appended to
+ * the file named by {@link #PROPERTY_OUTPUT} if set. The benchmark is named after the test
+ * method.
+ */
+public class BenchmarkRule implements TestRule {
+
+    /** System property naming the file the results are appended to, one per line. */
+    public static final String PROPERTY_OUTPUT = "settings.perftests.output";
+
+    static final int WARMUP_ITERATIONS = 5;
+    static final int MEASURED_ITERATIONS = 10;
+    static final long ITERATION_TIME_MS = 100;
+    // Student's t quantile for a 99.9% confidence interval over MEASURED_ITERATIONS samples.
+    private static final double T_QUANTILE_999 = 4.781;
+    private static final String OUTPUT_PREFIX = "BENCHMARK ";
+
+    /**
+     * Operation to measure. Its result is consumed by the harness, so that the JIT can't drop
+     * the work producing it.
+     */
+    public interface Operation {
+        Object run() throws Exception;
+    }
+
+    private String mName;
+    // Hash of all the results, written so the results are used.
+    private volatile int mSink;
+
+    @Override
+    public Statement apply(Statement base, Description description) {
+        mName = description.getTestClass().getSimpleName() + "." + description.getMethodName();
+        return base;
+    }
+
+    /**
+     * Measures {@code operation} and reports its average time per call.
+     *
+     * @return the average time per call in ns
+     */
+    public double measure(Operation operation) throws Exception {
+        final long iterationNanos = TimeUnit.MILLISECONDS.toNanos(ITERATION_TIME_MS);
+
+        // Grow the batch until it is long enough to time, then size it to the iteration time.
+        long batchSize = 1;
+        long batchNanos;
+        while ((batchNanos = runBatch(operation, batchSize)) < iterationNanos / 10) {
+            batchSize *= 2;
+        }
+        batchSize = Math.max(1, batchSize * iterationNanos / Math.max(batchNanos, 1));
+
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            runBatch(operation, batchSize);
+        }
+        final double[] samples = new double[MEASURED_ITERATIONS];
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            samples[i] = (double) runBatch(operation, batchSize) / batchSize;
+        }
+
+        report(batchSize, samples);
+        return mean(samples);
+    }
+
+    private long runBatch(Operation operation, long batchSize) throws Exception {
+        int sink = 0;
+        final long start = System.nanoTime();
+        for (long i = 0; i < batchSize; i++) {
+            final Object result = operation.run();
+            sink += result != null ? result.hashCode() : 0;
+        }
+        final long duration = System.nanoTime() - start;
+        mSink += sink;
+        return duration;
+    }
+
+    private void report(long batchSize, double[] samples) throws JSONException, IOException {
+        final double mean = mean(samples);
+        double variance = 0;
+        final JSONArray rawData = new JSONArray();
+        for (double sample : samples) {
+            variance += (sample - mean) * (sample - mean);
+            rawData.put(sample);
+        }
+        variance /= samples.length - 1;
+        final double error = T_QUANTILE_999 * Math.sqrt(variance / samples.length);
+
+        final JSONObject primaryMetric = new JSONObject();
+        primaryMetric.put("score", mean);
+        primaryMetric.put("scoreError", error);
+        primaryMetric.put("scoreUnit", "ns/op");
+        primaryMetric.put("rawData", new JSONArray().put(rawData));
+        final JSONObject result = new JSONObject();
+        result.put("benchmark", mName);
+        result.put("mode", "avgt");
+        result.put("warmupIterations", WARMUP_ITERATIONS);
+        result.put("iterations", MEASURED_ITERATIONS);
+        result.put("batchSize", batchSize);
+        result.put("primaryMetric", primaryMetric);
+
+        final String line = result.toString();
+        System.out.println(OUTPUT_PREFIX + line);
+        final String output = System.getProperty(PROPERTY_OUTPUT);
+        if (output != null) {
+            try (Writer writer = new FileWriter(output, true /* append */)) {
+                writer.write(line);
+                writer.write('\n');
+            }
+        }
+    }
+
+    private static double mean(double[] samples) {
+        double total = 0;
+        for (double sample : samples) {
+            total += sample;
+        }
+        return total / samples.length;
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.core;
+
+import android.content.Context;
+
+import com.android.settings.R;
+import com.android.settings.benchmark.BenchmarkRule;
+import com.android.settings.core.PreferenceXmlParserUtils.MetadataFlag;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+
+/**
+ * Measures {@link PreferenceXmlParserUtils#extractMetadata} on a set of real Settings screens,
+ * with the flags used to build the controllers and the search index.
+ */
+@RunWith(SettingsRobolectricTestRunner.class)
+public class PreferenceXmlParserUtilsBenchmark {
+    private static final int[] XML_RES_IDS = {
+            R.xml.display_settings,
+            R.xml.sound_settings,
+            R.xml.power_usage_summary,
+            R.xml.location_settings,
+    };
+
+    @Rule
+    public final BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    private Context mContext;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+    }
+
+    @Test
+    public void extractMetadata_keyAndController() throws Exception {
+        measure(MetadataFlag.FLAG_NEED_KEY | MetadataFlag.FLAG_NEED_PREF_CONTROLLER);
+    }
+
+    @Test
+    public void extractMetadata_searchIndex() throws Exception {
+        measure(MetadataFlag.FLAG_NEED_KEY | MetadataFlag.FLAG_NEED_PREF_TYPE
+                | MetadataFlag.FLAG_NEED_PREF_TITLE | MetadataFlag.FLAG_NEED_PREF_SUMMARY
+                | MetadataFlag.FLAG_NEED_KEYWORDS);
+    }
+
+    private void measure(int flags) throws Exception {
+        mBenchmarkRule.measure(() -> {
+            int count = 0;
+            for (int xmlResId : XML_RES_IDS) {
+                count += PreferenceXmlParserUtils.extractMetadata(mContext, xmlResId, flags)
+                        .size();
+            }
+            return count;
+        });
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.core.instrumentation;
+
+import com.android.settings.benchmark.BenchmarkRule;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Measures the overhead of recording one span with {@link TraceRecorder}, as the instrumented
+ * code does it: {@code begin()} and {@code end()} on the shared instance. It should stay well
+ * under a microsecond.
+ */
+@RunWith(SettingsRobolectricTestRunner.class)
+public class TraceRecorderBenchmark {
+
+    @Rule
+    public final BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    @Test
+    public void beginEnd() throws Exception {
+        mBenchmarkRule.measure(() -> {
+            final long start = TraceRecorder.getInstance().begin();
+            TraceRecorder.getInstance().end(TraceRecorder.SPAN_LOADER, start);
+            return start;
+        });
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.dashboard;
+
+import android.support.v7.util.DiffUtil;
+
+import com.android.settings.benchmark.BenchmarkRule;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+import com.android.settingslib.drawer.DashboardCategory;
+import com.android.settingslib.drawer.Tile;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+
+/**
+ * Measures the diff of the homepage items with {@link DashboardData.ItemsDataDiffCallback},
+ * between two sets of 60 tiles where a few tiles were removed, added or had their summary
+ * changed, as after a tile refresh.
+ */
+@RunWith(SettingsRobolectricTestRunner.class)
+public class DashboardDataDiffBenchmark {
+    private static final int TILE_COUNT = 60;
+
+    @Rule
+    public final BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    private List<DashboardData.Item> mOldItems;
+    private List<DashboardData.Item> mNewItems;
+
+    @Before
+    public void setUp() {
+        final DashboardCategory oldCategory = new DashboardCategory();
+        final DashboardCategory newCategory = new DashboardCategory();
+        for (int i = 0; i < TILE_COUNT; i++) {
+            if (i % 20 != 5) {
+                oldCategory.addTile(buildTile("tile " + i, "summary " + i));
+            }
+            if (i % 20 != 15) {
+                final String summary = i % 6 == 0 ? "new summary " + i : "summary " + i;
+                newCategory.addTile(buildTile("tile " + i, summary));
+            }
+        }
+        mOldItems = new DashboardData.Builder().setCategory(oldCategory).build().getItemList();
+        mNewItems = new DashboardData.Builder().setCategory(newCategory).build().getItemList();
+    }
+
+    @Test
+    public void calculateDiff() throws Exception {
+        mBenchmarkRule.measure(() -> DiffUtil.calculateDiff(
+                new DashboardData.ItemsDataDiffCallback(mOldItems, mNewItems)));
+    }
+
+    private static Tile buildTile(String title, String summary) {
+        final Tile tile = new Tile();
+        tile.title = title;
+        tile.summary = summary;
+        return tile;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+import android.os.BatteryStats;
+import android.os.BatteryStats.HistoryItem;
+
+import com.android.settings.benchmark.BenchmarkRule;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Measures {@link BatteryHistoryIndex#build} and {@link BatteryHistoryIndex#replay} of a battery
+ * history of 10,000 events, about two days of a busy device, to the parsers of the battery graph.
+ *
+ * <p>The history is read from a stubbed {@link BatteryStats}, so the build time includes the
+ * cost of the stub, which is the same from one build to the next.
+ */
+@RunWith(SettingsRobolectricTestRunner.class)
+public class BatteryHistoryIndexBenchmark {
+    private static final int EVENT_COUNT = 10000;
+    private static final long START_WALL_TIME = 1500000000000L;
+    private static final long EVENT_INTERVAL_MS = 15000;
+
+    @Rule
+    public final BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    private BatteryStats mStats;
+    private int mNextEvent;
+
+    @Before
+    public void setUp() {
+        mStats = mock(BatteryStats.class);
+        doReturn(true).when(mStats).startIteratingHistoryLocked();
+        doAnswer(invocation -> {
+            if (mNextEvent >= EVENT_COUNT) {
+                return false;
+            }
+            fillEvent(mNextEvent++, invocation.getArgument(0));
+            return true;
+        }).when(mStats).getNextHistoryLocked(any(HistoryItem.class));
+        doAnswer(invocation -> {
+            mNextEvent = 0;
+            return null;
+        }).when(mStats).finishIteratingHistoryLocked();
+    }
+
+    @Test
+    public void build() throws Exception {
+        mBenchmarkRule.measure(() -> BatteryHistoryIndex.build(mStats).size());
+    }
+
+    @Test
+    public void replay() throws Exception {
+        final BatteryHistoryIndex index = BatteryHistoryIndex.build(mStats);
+        mBenchmarkRule.measure(() -> {
+            final BatteryInfo.BatteryDataParser[] parsers = createParsers();
+            index.replay(parsers);
+            return parsers;
+        });
+    }
+
+    private static void fillEvent(int i, HistoryItem rec) {
+        rec.time = i * EVENT_INTERVAL_MS;
+        if (i == 0) {
+            rec.cmd = HistoryItem.CMD_CURRENT_TIME;
+            rec.currentTime = START_WALL_TIME;
+            return;
+        }
+        rec.cmd = HistoryItem.CMD_UPDATE;
+        rec.batteryLevel = (byte) (100 - (i * 100L / EVENT_COUNT));
+        // Screen, gps and wifi toggling at different rates, as on a device in use.
+        rec.states = ((i / 20) % 2 == 0 ? HistoryItem.STATE_SCREEN_ON_FLAG : 0)
+                | ((i / 50) % 3 == 0 ? HistoryItem.STATE_GPS_ON_FLAG : 0);
+        rec.states2 = ((i / 30) % 2 == 0 ? HistoryItem.STATE2_WIFI_ON_FLAG : 0)
+                | ((i / 200) % 5 == 0 ? HistoryItem.STATE2_CAMERA_FLAG : 0);
+    }
+
+    private static BatteryInfo.BatteryDataParser[] createParsers() {
+        return new BatteryInfo.BatteryDataParser[] {
+                new BatteryFlagParser(0, false, HistoryItem.STATE_SCREEN_ON_FLAG),
+                new BatteryFlagParser(0, false, HistoryItem.STATE_GPS_ON_FLAG),
+                new BatteryFlagParser(0, true, HistoryItem.STATE2_CAMERA_FLAG),
+                new BatteryWifiParser(0),
+                new BatteryCellParser(),
+        };
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge;
+
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+import android.os.BatteryStats;
+import android.os.Process;
+
+import com.android.internal.os.BatterySipper;
+import com.android.settings.benchmark.BenchmarkRule;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures {@link BatteryUtils#rankBatterySippers} ranking the top sippers of the battery app
+ * list out of 1,000 sippers. The stubbed uids report no screen time, so the screen power isn't
+ * smeared and the sippers are the same for each run.
+ */
+@RunWith(SettingsRobolectricTestRunner.class)
+public class BatterySipperRankingBenchmark {
+    private static final int SIPPER_COUNT = 1000;
+    private static final int MAX_COUNT = 12;
+    private static final double TOTAL_POWER_MAH = 5000;
+    private static final int DISCHARGE_AMOUNT = 50;
+
+    @Rule
+    public final BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    private BatteryUtils mBatteryUtils;
+    private List<BatterySipper> mSippers;
+    private BatterySipperRanking mRanking;
+
+    @Before
+    public void setUp() {
+        mBatteryUtils = BatteryUtils.getInstance(RuntimeEnvironment.application);
+        mSippers = new ArrayList<>(SIPPER_COUNT);
+        final BatterySipper.DrainType[] drainTypes = BatterySipper.DrainType.values();
+        for (int i = 0; i < SIPPER_COUNT; i++) {
+            // Mostly apps, with a few of each hardware drain type.
+            final BatterySipper.DrainType drainType = i < drainTypes.length
+                    ? drainTypes[i] : BatterySipper.DrainType.APP;
+            BatteryStats.Uid uid = null;
+            if (drainType == BatterySipper.DrainType.APP) {
+                uid = mock(BatteryStats.Uid.class);
+                doReturn(Process.FIRST_APPLICATION_UID + i).when(uid).getUid();
+            }
+            // Power spread over several orders of magnitude, in no particular order.
+            final double powerMah = ((i * 7919) % SIPPER_COUNT) * 0.5;
+            mSippers.add(new BatterySipper(drainType, uid, powerMah));
+        }
+        mRanking = new BatterySipperRanking();
+    }
+
+    @Test
+    public void rankBatterySippers() throws Exception {
+        mBenchmarkRule.measure(() -> {
+            mBatteryUtils.rankBatterySippers(mSippers, TOTAL_POWER_MAH, DISCHARGE_AMOUNT,
+                    false /* showAllApps */, MAX_COUNT, mRanking);
+            return mRanking.size();
+        });
+    }
+}
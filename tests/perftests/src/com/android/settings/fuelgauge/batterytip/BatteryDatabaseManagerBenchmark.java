@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge.batterytip;
+
+import android.content.Context;
+
+import com.android.settings.benchmark.BenchmarkRule;
+import com.android.settings.testutils.DatabaseTestUtils;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+
+/**
+ * Measures {@link BatteryDatabaseManager} storing a burst of 1,000 anomalies of 100 uids, in a
+ * batch and one by one. Each run then deletes them, so every run starts from an empty table.
+ */
+@RunWith(SettingsRobolectricTestRunner.class)
+public class BatteryDatabaseManagerBenchmark {
+    private static final String PACKAGE_NAME = "com.android.settings.benchmark";
+    private static final int ANOMALY_COUNT = 1000;
+    private static final int UID_COUNT = 100;
+    private static final int FIRST_UID = 90000;
+    private static final int ANOMALY_TYPE = 6;
+
+    @Rule
+    public final BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    private Context mContext;
+    private BatteryDatabaseManager mDatabaseManager;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mDatabaseManager = BatteryDatabaseManager.getInstance(mContext);
+    }
+
+    @After
+    public void tearDown() {
+        DatabaseTestUtils.clearDb(mContext);
+    }
+
+    @Test
+    public void batchedInsert() throws Exception {
+        mBenchmarkRule.measure(() -> {
+            mDatabaseManager.beginBatch();
+            try {
+                insertAnomalies();
+            } finally {
+                mDatabaseManager.endBatch();
+            }
+            return deleteAnomalies();
+        });
+    }
+
+    @Test
+    public void singleInsert() throws Exception {
+        mBenchmarkRule.measure(() -> {
+            insertAnomalies();
+            return deleteAnomalies();
+        });
+    }
+
+    private void insertAnomalies() {
+        for (int i = 0; i < ANOMALY_COUNT; i++) {
+            mDatabaseManager.insertAnomaly(FIRST_UID + i % UID_COUNT, PACKAGE_NAME, ANOMALY_TYPE,
+                    AnomalyDatabaseHelper.State.NEW, i + 1);
+        }
+    }
+
+    private int deleteAnomalies() {
+        final int count = mDatabaseManager.queryAllAnomalies(0 /* timestampMsAfter */,
+                AnomalyDatabaseHelper.State.NEW).size();
+        mDatabaseManager.deleteAllAnomaliesBeforeTimeStamp(ANOMALY_COUNT + 1);
+        return count;
+    }
+}
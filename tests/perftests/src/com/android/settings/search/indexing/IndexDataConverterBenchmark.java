@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.search.indexing;
+
+import android.content.Context;
+import android.provider.SearchIndexableResource;
+
+import com.android.settings.R;
+import com.android.settings.benchmark.BenchmarkRule;
+import com.android.settings.search.SearchIndexableRaw;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.Locale;
+
+/**
+ * Measures {@link IndexDataConverter#convertPreIndexDataToIndexData} on 500 raw entries and
+ * a few real Settings screens, about the size of a full index of one provider.
+ */
+@RunWith(SettingsRobolectricTestRunner.class)
+public class IndexDataConverterBenchmark {
+    private static final int RAW_COUNT = 500;
+    private static final int[] XML_RES_IDS = {
+            R.xml.display_settings,
+            R.xml.sound_settings,
+            R.xml.location_settings,
+    };
+
+    @Rule
+    public final BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    private IndexDataConverter mConverter;
+    private PreIndexData mPreIndexData;
+
+    @Before
+    public void setUp() {
+        final Context context = RuntimeEnvironment.application;
+        mConverter = new IndexDataConverter(context);
+        mPreIndexData = new PreIndexData();
+        for (int i = 0; i < RAW_COUNT; i++) {
+            final SearchIndexableRaw raw = new SearchIndexableRaw(context);
+            raw.locale = Locale.getDefault();
+            raw.key = "key_" + i;
+            raw.title = "Setting title " + i;
+            raw.summaryOn = "Summary of the setting " + i;
+            raw.keywords = "keyword" + i + ", keyword" + (i % 7) + ", keyword" + (i % 13);
+            raw.screenTitle = "Screen " + (i % 20);
+            raw.className = "com.android.settings.Fake" + (i % 20);
+            raw.packageName = context.getPackageName();
+            raw.intentAction = "android.settings.FAKE_" + (i % 20);
+            raw.enabled = true;
+            mPreIndexData.dataToUpdate.add(raw);
+        }
+        for (int xmlResId : XML_RES_IDS) {
+            final SearchIndexableResource resource = new SearchIndexableResource(context);
+            resource.xmlResId = xmlResId;
+            resource.className = "com.android.settings.FakeScreen" + xmlResId;
+            resource.packageName = context.getPackageName();
+            mPreIndexData.dataToUpdate.add(resource);
+        }
+    }
+
+    @Test
+    public void convertPreIndexDataToIndexData() throws Exception {
+        mBenchmarkRule.measure(() ->
+                mConverter.convertPreIndexDataToIndexData(mPreIndexData).size());
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.widget;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.net.NetworkStatsHistory;
+import android.text.format.DateUtils;
+
+import com.android.settings.benchmark.BenchmarkRule;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+
+/**
+ * Measures building the path of a {@link ChartNetworkSeriesView} of 90 days of one minute
+ * buckets, when the data or time range changes and when only the vertical axis changes, as
+ * while dragging a sweep. The host canvas doesn't rasterize, so a draw only builds the path.
+ */
+@RunWith(SettingsRobolectricTestRunner.class)
+public class ChartNetworkSeriesViewBenchmark {
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 600;
+    private static final long BUCKET_DURATION = DateUtils.MINUTE_IN_MILLIS;
+    private static final long DURATION = DateUtils.DAY_IN_MILLIS * 90;
+    private static final long MAX_BYTES = 1024L * 1024 * 1024 * 100;
+
+    @Rule
+    public final BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    private ChartNetworkSeriesView mSeries;
+    private ChartAxis mVert;
+    private Canvas mCanvas;
+    private int mDraws;
+
+    @Before
+    public void setUp() {
+        // Fixed range, so the buckets fall the same way from one run to the next.
+        final long end = 1500000000000L;
+        final long start = end - DURATION;
+        final ChartAxis horiz = new ChartDataUsageView.TimeAxis();
+        horiz.setBounds(start, end);
+        horiz.setSize(WIDTH);
+        mVert = new InvertedChartAxis(new ChartDataUsageView.DataAxis());
+        mVert.setBounds(0, MAX_BYTES);
+        mVert.setSize(HEIGHT);
+
+        final NetworkStatsHistory stats = new NetworkStatsHistory(BUCKET_DURATION,
+                (int) (DURATION / BUCKET_DURATION));
+        long time = start;
+        for (int i = 0; time < end; i++, time += BUCKET_DURATION) {
+            stats.recordData(time, time + BUCKET_DURATION, (i * 7919L) % 100000, i % 1000);
+        }
+
+        mSeries = new ChartNetworkSeriesView(RuntimeEnvironment.application);
+        mSeries.init(horiz, mVert);
+        mSeries.setBounds(start, end);
+        mSeries.layout(0, 0, WIDTH, HEIGHT);
+        mSeries.bindNetworkStats(stats);
+        mCanvas = new Canvas(Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888));
+    }
+
+    @Test
+    public void invalidatePath() throws Exception {
+        mBenchmarkRule.measure(() -> {
+            mSeries.invalidatePath();
+            mSeries.draw(mCanvas);
+            return mSeries.getVertexCount();
+        });
+    }
+
+    @Test
+    public void invalidateVerticalScale() throws Exception {
+        mBenchmarkRule.measure(() -> {
+            // Grow the axis as a sweep dragged near its edge does.
+            mVert.setBounds(0, MAX_BYTES * (10 + mDraws++ % 2) / 10);
+            mSeries.invalidateVerticalScale();
+            mSeries.draw(mCanvas);
+            return mSeries.getVertexCount();
+        });
+    }
+}
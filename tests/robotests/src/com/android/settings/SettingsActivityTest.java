@@ -21,7 +21,9 @@ import static org.mockito.ArgumentMatchers.nullable;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -84,6 +86,20 @@ public class SettingsActivityTest {
             .isEqualTo(View.INVISIBLE);
     }
 
+    @Test
+    @Config(shadows = {
+        SettingsShadowResourcesImpl.class,
+        SettingsShadowResources.SettingsShadowTheme.class,
+    })
+    public void onCreate_subSettings_shouldApplyThemeBeforeCreatingDecor() {
+        final Intent intent = new Intent(mContext, TestSubSettings.class);
+        final TestSubSettings activity =
+            Robolectric.buildActivity(TestSubSettings.class, intent).create(Bundle.EMPTY).get();
+
+        assertThat(activity.getThemeResId()).isEqualTo(R.style.Theme_SubSettings);
+        assertThat(activity.mDecorCreatedBeforeTheme).isFalse();
+    }
+
     @Test
     @Config(shadows = {
         SettingsShadowResourcesImpl.class,
@@ -108,10 +124,44 @@ public class SettingsActivityTest {
         mActivity.launchSettingFragment(null, true, mock(Intent.class));
     }
 
+    @Test
+    public void runAfterFirstDraw_notDrawn_deferUntilFirstDraw() {
+        final Runnable work = mock(Runnable.class);
+
+        mActivity.runAfterFirstDraw(work);
+        mActivity.runAfterFirstDraw(work);
+        verify(work, never()).run();
+
+        mActivity.onFirstDraw();
+        verify(work, times(1)).run();
+    }
+
+    @Test
+    public void runAfterFirstDraw_drawn_runNow() {
+        final Runnable work = mock(Runnable.class);
+        mActivity.onFirstDraw();
+
+        mActivity.runAfterFirstDraw(work);
+
+        verify(work).run();
+    }
+
     @Test
     public void testSetTaskDescription_IconChanged() {
         mActivity.setTaskDescription(mTaskDescription);
 
         verify(mTaskDescription).setIcon(nullable(Bitmap.class));
     }
+
+    public static class TestSubSettings extends SubSettings {
+        private boolean mDecorCreatedBeforeTheme;
+
+        @Override
+        public void setTheme(int resid) {
+            if (resid == R.style.Theme_SubSettings) {
+                mDecorCreatedBeforeTheme = getWindow().peekDecorView() != null;
+            }
+            super.setTheme(resid);
+        }
+    }
 }
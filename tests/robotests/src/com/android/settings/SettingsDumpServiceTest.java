@@ -28,7 +28,6 @@ import android.content.SharedPreferences;
 import android.content.pm.ActivityInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
-import android.support.annotation.NonNull;
 
 import com.android.settings.fuelgauge.batterytip.AnomalyConfigJobService;
 import com.android.settings.testutils.SettingsRobolectricTestRunner;
@@ -42,8 +41,10 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.robolectric.RuntimeEnvironment;
 
-import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 @RunWith(SettingsRobolectricTestRunner.class)
 public class SettingsDumpServiceTest {
@@ -51,6 +52,8 @@ public class SettingsDumpServiceTest {
     private static final String PACKAGE_BROWSER = "com.android.test.browser";
     private static final String PACKAGE_NULL = "android";
     private static final int ANOMALY_VERSION = 2;
+    private static final String SECTION_SLOW = "slow";
+    private static final String SECTION_FAST = "fast";
 
     @Mock
     private PackageManager mPackageManager;
@@ -104,12 +107,73 @@ public class SettingsDumpServiceTest {
     public void testDump_ReturnJsonObject() throws JSONException {
         mResolveInfo.activityInfo = new ActivityInfo();
         mResolveInfo.activityInfo.packageName = PACKAGE_BROWSER;
-        TestPrintWriter printWriter = new TestPrintWriter(System.out);
+        final StringWriter stringWriter = new StringWriter();
 
-        mTestService.dump(null, printWriter, null);
-        JSONObject object = (JSONObject) printWriter.getPrintObject();
+        mTestService.dump(null, new PrintWriter(stringWriter), null);
+        final JSONObject object = new JSONObject(stringWriter.toString());
 
         assertThat(object.get(TestService.KEY_SERVICE)).isNotNull();
+        assertThat(object.getString(TestService.KEY_DEFAULT_BROWSER_APP))
+                .isEqualTo(PACKAGE_BROWSER);
+        assertThat(object.has(TestService.KEY_SECTION_TIMINGS)).isTrue();
+    }
+
+    @Test
+    public void testDump_WithArgs_OnlyDumpSelectedSections() throws JSONException {
+        mResolveInfo.activityInfo = new ActivityInfo();
+        mResolveInfo.activityInfo.packageName = PACKAGE_BROWSER;
+        final StringWriter stringWriter = new StringWriter();
+
+        mTestService.dump(null, new PrintWriter(stringWriter),
+                new String[] {TestService.KEY_DEFAULT_BROWSER_APP});
+        final JSONObject object = new JSONObject(stringWriter.toString());
+
+        assertThat(object.getString(TestService.KEY_DEFAULT_BROWSER_APP))
+                .isEqualTo(PACKAGE_BROWSER);
+        assertThat(object.has(TestService.KEY_STORAGE)).isFalse();
+        assertThat(object.has(TestService.KEY_MEMORY)).isFalse();
+    }
+
+    @Test
+    public void testDump_SectionOverBudget_ReportTimeoutAndContinue() throws JSONException {
+        final Map<String, SettingsDumpService.Section> sections = new LinkedHashMap<>();
+        sections.put(SECTION_SLOW, () -> {
+            Thread.sleep(5000);
+            return "late";
+        });
+        sections.put(SECTION_FAST, () -> "done");
+        doReturn(sections).when(mTestService).getSections();
+        mTestService.mSectionBudgetMs = 50;
+        final StringWriter stringWriter = new StringWriter();
+
+        mTestService.dump(null, new PrintWriter(stringWriter), null);
+        final JSONObject object = new JSONObject(stringWriter.toString());
+
+        assertThat(object.getJSONObject(SECTION_SLOW).getString("error")).isEqualTo("timeout");
+        assertThat(object.getString(SECTION_FAST)).isEqualTo("done");
+    }
+
+    @Test
+    public void testDump_SectionThrows_ReportErrorAndContinue() throws JSONException {
+        final Map<String, SettingsDumpService.Section> sections = new LinkedHashMap<>();
+        sections.put(SECTION_SLOW, () -> {
+            throw new IllegalStateException();
+        });
+        sections.put(SECTION_FAST, () -> new JSONObject().put("count", 1));
+        doReturn(sections).when(mTestService).getSections();
+        final StringWriter stringWriter = new StringWriter();
+
+        mTestService.dump(null, new PrintWriter(stringWriter), null);
+        final JSONObject object = new JSONObject(stringWriter.toString());
+
+        assertThat(object.getJSONObject(SECTION_SLOW).has("error")).isTrue();
+        assertThat(object.getJSONObject(SECTION_FAST).getInt("count")).isEqualTo(1);
+    }
+
+    @Test
+    public void testGetHitRate() {
+        assertThat(SettingsDumpService.getHitRate(3, 1)).isEqualTo("0.75");
+        assertThat(SettingsDumpService.getHitRate(0, 0)).isEqualTo("0.0");
     }
 
     /**
@@ -127,24 +191,4 @@ public class SettingsDumpServiceTest {
             return mPm;
         }
     }
-
-    /**
-     * Test printWriter to store the object to be printed
-     */
-    private class TestPrintWriter extends PrintWriter {
-        private Object mPrintObject;
-
-        private TestPrintWriter(@NonNull OutputStream out) {
-            super(out);
-        }
-
-        @Override
-        public void println(Object object) {
-            mPrintObject = object;
-        }
-
-        private Object getPrintObject() {
-            return mPrintObject;
-        }
-    }
 }
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.os.SystemClock;
+
+import com.android.internal.app.procstats.ProcessStats;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+public class ProcStatsCacheTest {
+
+    private static final long DURATION = 3 * 60 * 60 * 1000;
+    private static final long OTHER_DURATION = 6 * 60 * 60 * 1000;
+
+    private ProcStatsCache mCache;
+    private ProcessStats mStats;
+
+    @Before
+    public void setUp() {
+        mCache = ProcStatsCache.getInstance();
+        mStats = new ProcessStats(false);
+    }
+
+    @After
+    public void tearDown() {
+        mCache.clear();
+    }
+
+    @Test
+    public void get_notLoaded_returnsNull() {
+        assertThat(mCache.get(DURATION)).isNull();
+        assertThat(mCache.contains(DURATION)).isFalse();
+    }
+
+    @Test
+    public void putStats_isKeyedByDuration() {
+        mCache.putStats(DURATION, mStats);
+
+        assertThat(mCache.get(DURATION).stats).isSameAs(mStats);
+        assertThat(mCache.contains(OTHER_DURATION)).isFalse();
+    }
+
+    @Test
+    public void putResults_matchingStates_hasResults() {
+        final int[] memStates = ProcessStats.ALL_MEM_ADJ;
+        final int[] states = ProcessStats.BACKGROUND_PROC_STATES;
+        mCache.putStats(DURATION, mStats);
+
+        mCache.putResults(DURATION, mStats, memStates, states, new ArrayList<>(), null, 100);
+
+        final ProcStatsCache.Entry entry = mCache.get(DURATION);
+        assertThat(entry.hasResults(mStats, memStates.clone(), states.clone())).isTrue();
+        assertThat(entry.hasResults(mStats, memStates, ProcessStats.NON_CACHED_PROC_STATES))
+                .isFalse();
+        assertThat(entry.hasResults(new ProcessStats(false), memStates, states)).isFalse();
+        assertThat(entry.memTotalTime).isEqualTo(100);
+    }
+
+    @Test
+    public void putResults_staleStats_isIgnored() {
+        mCache.putStats(DURATION, mStats);
+
+        mCache.putResults(DURATION, new ProcessStats(false), ProcessStats.ALL_MEM_ADJ,
+                ProcessStats.BACKGROUND_PROC_STATES, new ArrayList<>(), null, 100);
+
+        assertThat(mCache.get(DURATION).pkgEntries).isNull();
+    }
+
+    @Test
+    public void putResults_keepsCopyOfEntries() {
+        final ArrayList<ProcStatsPackageEntry> pkgEntries = new ArrayList<>();
+        pkgEntries.add(new ProcStatsPackageEntry("pkg", 100));
+        mCache.putStats(DURATION, mStats);
+
+        mCache.putResults(DURATION, mStats, ProcessStats.ALL_MEM_ADJ,
+                ProcessStats.BACKGROUND_PROC_STATES, pkgEntries, null, 100);
+        pkgEntries.clear();
+
+        assertThat(mCache.get(DURATION).pkgEntries).hasSize(1);
+    }
+
+    @Test
+    public void putStats_trimsExpiredEntries() {
+        mCache.putStats(DURATION, mStats);
+
+        SystemClock.setCurrentTimeMillis(
+                SystemClock.elapsedRealtime() + ProcStatsCache.MAX_AGE_MS + 1);
+        mCache.putStats(OTHER_DURATION, new ProcessStats(false));
+
+        assertThat(mCache.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void get_expired_returnsNull() {
+        mCache.putStats(DURATION, mStats);
+
+        SystemClock.setCurrentTimeMillis(
+                SystemClock.elapsedRealtime() + ProcStatsCache.MAX_AGE_MS + 1);
+
+        assertThat(mCache.get(DURATION)).isNull();
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.app.ActivityManager;
+import android.content.ComponentName;
+
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+public class ProcessDeltaTrackerTest {
+
+    private static final int UID_1 = 10001;
+    private static final int UID_2 = 10002;
+    private static final long BASE_DELAY = 2000;
+
+    private ProcessDeltaTracker mTracker;
+    private List<ActivityManager.RunningAppProcessInfo> mProcesses;
+    private List<ActivityManager.RunningServiceInfo> mServices;
+
+    @Before
+    public void setUp() {
+        mTracker = new ProcessDeltaTracker();
+        mProcesses = new ArrayList<>();
+        mProcesses.add(createProcess(101, UID_1, "app1"));
+        mProcesses.add(createProcess(102, UID_2, "app2"));
+        mServices = new ArrayList<>();
+        mServices.add(createService(101, UID_1, "app1"));
+    }
+
+    @Test
+    public void computeDelta_firstCall_reportsChanged() {
+        assertThat(mTracker.computeDelta(mProcesses, mServices)).isTrue();
+        assertThat(mTracker.isUidChanged(UID_1)).isTrue();
+    }
+
+    @Test
+    public void computeDelta_sameLists_reportsUnchanged() {
+        mTracker.computeDelta(mProcesses, mServices);
+
+        assertThat(mTracker.computeDelta(mProcesses, mServices)).isFalse();
+        assertThat(mTracker.isUidChanged(UID_1)).isFalse();
+        assertThat(mTracker.isUidChanged(UID_2)).isFalse();
+    }
+
+    @Test
+    public void computeDelta_importanceChanged_onlyMarksThatUid() {
+        mTracker.computeDelta(mProcesses, mServices);
+        mProcesses.get(1).importance =
+                ActivityManager.RunningAppProcessInfo.IMPORTANCE_BACKGROUND;
+
+        assertThat(mTracker.computeDelta(mProcesses, mServices)).isTrue();
+        assertThat(mTracker.isUidChanged(UID_1)).isFalse();
+        assertThat(mTracker.isUidChanged(UID_2)).isTrue();
+    }
+
+    @Test
+    public void computeDelta_serviceRemoved_marksUid() {
+        mTracker.computeDelta(mProcesses, mServices);
+        mServices.clear();
+
+        assertThat(mTracker.computeDelta(mProcesses, mServices)).isTrue();
+        assertThat(mTracker.isUidChanged(UID_1)).isTrue();
+    }
+
+    @Test
+    public void computeDelta_processDied_reportsChanged() {
+        mTracker.computeDelta(mProcesses, mServices);
+        mProcesses.remove(1);
+
+        assertThat(mTracker.computeDelta(mProcesses, mServices)).isTrue();
+    }
+
+    @Test
+    public void invalidate_forcesChange() {
+        mTracker.computeDelta(mProcesses, mServices);
+        mTracker.invalidate();
+
+        assertThat(mTracker.computeDelta(mProcesses, mServices)).isTrue();
+    }
+
+    @Test
+    public void getNextDelay_backsOffWhileUnchanged_andResetsOnChange() {
+        mTracker.computeDelta(mProcesses, mServices);
+        assertThat(mTracker.getNextDelay(BASE_DELAY)).isEqualTo(BASE_DELAY);
+
+        for (int i = 0; i < ProcessDeltaTracker.MAX_BACKOFF_SHIFT + 2; i++) {
+            mTracker.computeDelta(mProcesses, mServices);
+            mTracker.getNextDelay(BASE_DELAY);
+        }
+        mTracker.computeDelta(mProcesses, mServices);
+        assertThat(mTracker.getNextDelay(BASE_DELAY))
+                .isEqualTo(BASE_DELAY << ProcessDeltaTracker.MAX_BACKOFF_SHIFT);
+
+        mProcesses.get(0).lru++;
+        mTracker.computeDelta(mProcesses, mServices);
+        assertThat(mTracker.getNextDelay(BASE_DELAY)).isEqualTo(BASE_DELAY);
+    }
+
+    @Test
+    public void getNextDelay_memoryChanged_resetsBackoff() {
+        for (int i = 0; i < ProcessDeltaTracker.MAX_BACKOFF_SHIFT + 2; i++) {
+            mTracker.computeDelta(mProcesses, mServices);
+            mTracker.getNextDelay(BASE_DELAY);
+        }
+
+        mTracker.computeDelta(mProcesses, mServices);
+        mTracker.setMemoryChanged();
+        assertThat(mTracker.getNextDelay(BASE_DELAY)).isEqualTo(BASE_DELAY);
+
+        mTracker.computeDelta(mProcesses, mServices);
+        assertThat(mTracker.getNextDelay(BASE_DELAY)).isEqualTo(BASE_DELAY << 1);
+    }
+
+    @Test
+    public void recordRefresh_tracksSkippedRefreshesAndCpuTime() {
+        mTracker.computeDelta(mProcesses, mServices);
+        mTracker.recordRefresh(300);
+        mTracker.computeDelta(mProcesses, mServices);
+        mTracker.recordRefresh(100);
+
+        assertThat(mTracker.getRefreshCount()).isEqualTo(2);
+        assertThat(mTracker.getSkippedCount()).isEqualTo(1);
+        assertThat(mTracker.getLastCpuTimeNanos()).isEqualTo(100);
+        assertThat(mTracker.getAverageCpuTimeNanos()).isEqualTo(200);
+    }
+
+    private static ActivityManager.RunningAppProcessInfo createProcess(int pid, int uid,
+            String name) {
+        final ActivityManager.RunningAppProcessInfo info =
+                new ActivityManager.RunningAppProcessInfo(name, pid, new String[] {name});
+        info.uid = uid;
+        info.importance = ActivityManager.RunningAppProcessInfo.IMPORTANCE_SERVICE;
+        return info;
+    }
+
+    private static ActivityManager.RunningServiceInfo createService(int pid, int uid,
+            String process) {
+        final ActivityManager.RunningServiceInfo info = new ActivityManager.RunningServiceInfo();
+        info.service = new ComponentName(process, process + ".Service");
+        info.pid = pid;
+        info.uid = uid;
+        info.process = process;
+        info.started = true;
+        return info;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications.appops;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import android.app.AppOpsManager;
+
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+public class AppOpsSnapshotTest {
+
+    private static final String PACKAGE_NAME = "com.android.app";
+    private static final int UID = 10001;
+
+    private static final AppOpsState.OpsTemplate LOCATION = new AppOpsState.OpsTemplate(
+            new int[] {AppOpsManager.OP_COARSE_LOCATION, AppOpsManager.OP_FINE_LOCATION},
+            new boolean[] {true, true});
+    private static final AppOpsState.OpsTemplate CAMERA = new AppOpsState.OpsTemplate(
+            new int[] {AppOpsManager.OP_CAMERA},
+            new boolean[] {true});
+
+    @Mock
+    private AppOpsManager mAppOpsManager;
+
+    private AppOpsSnapshot mSnapshot;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        mSnapshot = new AppOpsSnapshot(new AppOpsState.OpsTemplate[] {LOCATION, CAMERA});
+
+        final List<AppOpsManager.OpEntry> ops = new ArrayList<>();
+        ops.add(createOp(AppOpsManager.OP_CAMERA));
+        ops.add(createOp(AppOpsManager.OP_FINE_LOCATION));
+        final List<AppOpsManager.PackageOps> packages = new ArrayList<>();
+        packages.add(new AppOpsManager.PackageOps(PACKAGE_NAME, UID, ops));
+        doReturn(packages).when(mAppOpsManager).getPackagesForOps(any(int[].class));
+    }
+
+    @Test
+    public void getPackagesForOps_onlyReturnsRequestedOps() {
+        final List<AppOpsManager.PackageOps> result =
+                mSnapshot.getPackagesForOps(mAppOpsManager, LOCATION.ops);
+
+        assertThat(result).hasSize(1);
+        assertThat(result.get(0).getPackageName()).isEqualTo(PACKAGE_NAME);
+        assertThat(result.get(0).getUid()).isEqualTo(UID);
+        assertThat(result.get(0).getOps()).hasSize(1);
+        assertThat(result.get(0).getOps().get(0).getOp())
+                .isEqualTo(AppOpsManager.OP_FINE_LOCATION);
+    }
+
+    @Test
+    public void getPackagesForOps_severalTemplates_queriesOnce() {
+        mSnapshot.getPackagesForOps(mAppOpsManager, LOCATION.ops);
+        mSnapshot.getPackagesForOps(mAppOpsManager, CAMERA.ops);
+
+        verify(mAppOpsManager, times(1)).getPackagesForOps(any(int[].class));
+    }
+
+    @Test
+    public void getPackagesForOps_afterInvalidate_queriesAgain() {
+        mSnapshot.getPackagesForOps(mAppOpsManager, LOCATION.ops);
+        mSnapshot.invalidate();
+        mSnapshot.getPackagesForOps(mAppOpsManager, LOCATION.ops);
+
+        verify(mAppOpsManager, times(2)).getPackagesForOps(any(int[].class));
+    }
+
+    @Test
+    public void getPackagesForOps_opNotInSnapshot_queriesDirectly() {
+        final int[] ops = new int[] {AppOpsManager.OP_READ_SMS};
+
+        mSnapshot.getPackagesForOps(mAppOpsManager, ops);
+
+        verify(mAppOpsManager).getPackagesForOps(ops);
+    }
+
+    private static AppOpsManager.OpEntry createOp(int op) {
+        return new AppOpsManager.OpEntry(op, AppOpsManager.MODE_ALLOWED, 0, 0, 0, 0, "");
+    }
+}
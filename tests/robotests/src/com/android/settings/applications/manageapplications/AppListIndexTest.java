@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications.manageapplications;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+
+import android.content.pm.ApplicationInfo;
+
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+import com.android.settingslib.applications.ApplicationsState;
+import com.android.settingslib.applications.ApplicationsState.AppEntry;
+import com.android.settingslib.applications.ApplicationsState.AppFilter;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+public class AppListIndexTest {
+
+    private static final Comparator<AppEntry> LABEL_COMPARATOR =
+            (a, b) -> a.label.compareTo(b.label);
+
+    private AppListIndex mIndex;
+    private List<AppEntry> mApps;
+    private CountingFilter mEvenFilter;
+    private CountingFilter mNotFirstFilter;
+
+    @Before
+    public void setUp() {
+        mIndex = new AppListIndex(RuntimeEnvironment.application);
+        mApps = new ArrayList<>();
+        mApps.add(createEntry(0, "d"));
+        mApps.add(createEntry(1, "c"));
+        mApps.add(createEntry(2, "b"));
+        mApps.add(createEntry(3, "a"));
+        mApps.add(createEntry(4, "e"));
+        mEvenFilter = new CountingFilter(entry -> entry.info.uid % 2 == 0);
+        mNotFirstFilter = new CountingFilter(entry -> entry.info.uid != 0);
+    }
+
+    @Test
+    public void query_intersectsFiltersAndSorts() {
+        final List<AppEntry> result = mIndex.query(mApps,
+                Arrays.asList(mEvenFilter, mNotFirstFilter), LABEL_COMPARATOR);
+
+        assertThat(result).containsExactly(mApps.get(2), mApps.get(4)).inOrder();
+    }
+
+    @Test
+    public void query_noComparator_keepsListOrder() {
+        final List<AppEntry> result = mIndex.query(mApps, Arrays.asList(mEvenFilter), null);
+
+        assertThat(result).containsExactly(mApps.get(0), mApps.get(2), mApps.get(4)).inOrder();
+    }
+
+    @Test
+    public void query_sameList_reusesFilterResults() {
+        mIndex.query(mApps, Arrays.asList(mEvenFilter), LABEL_COMPARATOR);
+        mIndex.query(mApps, Arrays.asList(mEvenFilter, mNotFirstFilter), LABEL_COMPARATOR);
+        mIndex.query(new ArrayList<>(mApps), Arrays.asList(mEvenFilter), null);
+
+        assertThat(mEvenFilter.mCalls).isEqualTo(mApps.size());
+        assertThat(mNotFirstFilter.mCalls).isEqualTo(mApps.size());
+        assertThat(mIndex.getGeneration()).isEqualTo(1);
+    }
+
+    @Test
+    public void query_listChanged_filtersAgain() {
+        mIndex.query(mApps, Arrays.asList(mEvenFilter), null);
+        mApps.add(createEntry(5, "f"));
+
+        final List<AppEntry> result = mIndex.query(mApps, Arrays.asList(mEvenFilter), null);
+
+        assertThat(result).hasSize(3);
+        assertThat(mEvenFilter.mCalls).isEqualTo(11);
+        assertThat(mIndex.getGeneration()).isEqualTo(2);
+    }
+
+    @Test
+    public void query_afterInvalidate_filtersAgain() {
+        mIndex.query(mApps, Arrays.asList(mEvenFilter), null);
+        mIndex.invalidate();
+        mIndex.query(mApps, Arrays.asList(mEvenFilter), null);
+
+        assertThat(mEvenFilter.mCalls).isEqualTo(2 * mApps.size());
+    }
+
+    @Test
+    public void query_afterInvalidateOrderings_sortsAgain() {
+        mIndex.query(mApps, Arrays.asList(mEvenFilter), LABEL_COMPARATOR);
+        mApps.get(0).label = "0";
+        mIndex.invalidateOrderings();
+
+        final List<AppEntry> result =
+                mIndex.query(mApps, Arrays.asList(mEvenFilter), LABEL_COMPARATOR);
+
+        assertThat(result.get(0)).isSameAs(mApps.get(0));
+        assertThat(mEvenFilter.mCalls).isEqualTo(mApps.size());
+    }
+
+    @Test
+    public void query_sizeComparator_largestFirstThenByLabel() {
+        mApps.get(0).size = 10;
+        mApps.get(1).size = 30;
+        mApps.get(2).size = 10;
+        mApps.get(3).size = 20;
+        mApps.get(4).size = 10;
+
+        final List<AppEntry> result = mIndex.query(mApps, new ArrayList<>(),
+                ApplicationsState.SIZE_COMPARATOR);
+
+        assertThat(result).containsExactly(mApps.get(1), mApps.get(3), mApps.get(2),
+                mApps.get(0), mApps.get(4)).inOrder();
+    }
+
+    @Test
+    public void query_alphaComparator_byLabelThenUid() {
+        mApps.get(4).label = "a";
+
+        final List<AppEntry> result = mIndex.query(mApps, new ArrayList<>(),
+                ApplicationsState.ALPHA_COMPARATOR);
+
+        assertThat(result).containsExactly(mApps.get(3), mApps.get(4), mApps.get(2),
+                mApps.get(1), mApps.get(0)).inOrder();
+    }
+
+    private static AppEntry createEntry(int uid, String label) {
+        final AppEntry entry = mock(AppEntry.class);
+        entry.info = new ApplicationInfo();
+        entry.info.uid = uid;
+        entry.label = label;
+        return entry;
+    }
+
+    private interface Predicate {
+        boolean test(AppEntry entry);
+    }
+
+    private static class CountingFilter implements AppFilter {
+        private final Predicate mPredicate;
+        private int mCalls;
+
+        CountingFilter(Predicate predicate) {
+            mPredicate = predicate;
+        }
+
+        @Override
+        public void init() {
+        }
+
+        @Override
+        public boolean filterApp(AppEntry entry) {
+            mCalls++;
+            return mPredicate.test(entry);
+        }
+    }
+}
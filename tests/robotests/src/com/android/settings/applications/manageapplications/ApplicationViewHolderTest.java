@@ -22,8 +22,10 @@ import static org.mockito.Mockito.mock;
 import android.content.Context;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
+import android.graphics.drawable.ColorDrawable;
 import android.view.View;
 import android.widget.FrameLayout;
+import android.widget.ImageView;
 
 import com.android.settings.R;
 import com.android.settings.testutils.SettingsRobolectricTestRunner;
@@ -59,6 +61,15 @@ public class ApplicationViewHolderTest {
         assertThat(mHolder.mDisabled.getText()).isEqualTo(mContext.getText(R.string.disabled));
     }
 
+    @Test
+    public void clearIcon_recycledRow_dropIcon() {
+        mHolder.setIcon(new ColorDrawable());
+
+        mHolder.clearIcon();
+
+        assertThat(getIconView().getDrawable()).isNull();
+    }
+
     @Test
     public void setSummaries() {
         mHolder.setSummary("hello");
@@ -118,4 +129,8 @@ public class ApplicationViewHolderTest {
         assertThat(mHolder.mSwitch.isEnabled()).isTrue();
         assertThat(mHolder.mWidgetContainer.hasOnClickListeners()).isTrue();
     }
+
+    private ImageView getIconView() {
+        return mView.findViewById(android.R.id.icon);
+    }
 }
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.core;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.Context;
+import android.os.SystemClock;
+
+import com.android.settings.R;
+import com.android.settings.location.LocationSettings;
+import com.android.settings.slices.FakePreferenceController;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+import com.android.settings.testutils.shadow.ShadowThreadUtils;
+
+import org.json.JSONException;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.List;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(qualifiers = "mcc999", shadows = ShadowThreadUtils.class)
+public class PreferenceControllerPrefetcherTest {
+    private static final String FRAGMENT_NAME = LocationSettings.class.getName();
+
+    private Context mContext;
+    private PreferenceControllerPrefetcher mPrefetcher;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mPrefetcher = new PreferenceControllerPrefetcher();
+    }
+
+    @Test
+    public void getXmlResId_indexableFragment_returnScreenXml() {
+        assertThat(PreferenceControllerPrefetcher.getXmlResId(mContext, FRAGMENT_NAME))
+                .isEqualTo(R.xml.location_settings);
+    }
+
+    @Test
+    public void getXmlResId_notIndexable_returnZero() {
+        assertThat(PreferenceControllerPrefetcher.getXmlResId(mContext,
+                PreferenceControllerPrefetcherTest.class.getName())).isEqualTo(0);
+        assertThat(PreferenceControllerPrefetcher.getXmlResId(mContext, "not.a.Fragment"))
+                .isEqualTo(0);
+    }
+
+    @Test
+    public void getPreferenceControllers_prefetched_useOnceAndCountHit() throws JSONException {
+        mPrefetcher.prefetch(mContext, FRAGMENT_NAME);
+
+        final List<BasePreferenceController> controllers = mPrefetcher.getPreferenceControllers(
+                mContext, FRAGMENT_NAME, R.xml.location_settings);
+        mPrefetcher.getPreferenceControllers(mContext, FRAGMENT_NAME, R.xml.location_settings);
+
+        assertThat(controllers).isNotEmpty();
+        for (BasePreferenceController controller : controllers) {
+            assertThat(controller).isInstanceOf(FakePreferenceController.class);
+        }
+        assertThat(mPrefetcher.dump().getLong("hits")).isEqualTo(1);
+        assertThat(mPrefetcher.dump().getLong("misses")).isEqualTo(1);
+    }
+
+    @Test
+    public void getPreferenceControllers_notPrefetched_parseXml() throws JSONException {
+        final List<BasePreferenceController> controllers = mPrefetcher.getPreferenceControllers(
+                mContext, FRAGMENT_NAME, R.xml.location_settings);
+
+        assertThat(controllers).isNotEmpty();
+        assertThat(mPrefetcher.dump().getLong("misses")).isEqualTo(1);
+    }
+
+    @Test
+    public void getPreferenceControllers_otherXml_ignorePrefetch() throws JSONException {
+        mPrefetcher.prefetch(mContext, FRAGMENT_NAME);
+
+        mPrefetcher.getPreferenceControllers(mContext, FRAGMENT_NAME, R.xml.display_settings);
+
+        assertThat(mPrefetcher.dump().getLong("hits")).isEqualTo(0);
+        assertThat(mPrefetcher.dump().getLong("pending")).isEqualTo(0);
+    }
+
+    @Test
+    public void getPreferenceControllers_expired_ignorePrefetch() throws JSONException {
+        mPrefetcher.prefetch(mContext, FRAGMENT_NAME);
+
+        SystemClock.setCurrentTimeMillis(
+                SystemClock.elapsedRealtime() + PreferenceControllerPrefetcher.PREFETCH_TTL_MS);
+        mPrefetcher.getPreferenceControllers(mContext, FRAGMENT_NAME, R.xml.location_settings);
+
+        assertThat(mPrefetcher.dump().getLong("hits")).isEqualTo(0);
+    }
+
+    @Test
+    public void prefetch_full_skipNewPages() throws JSONException {
+        for (int i = 0; i < PreferenceControllerPrefetcher.MAX_PREFETCHES + 1; i++) {
+            mPrefetcher.prefetch(mContext, "not.a.Fragment" + i);
+        }
+
+        assertThat(mPrefetcher.dump().getLong("pending"))
+                .isEqualTo(PreferenceControllerPrefetcher.MAX_PREFETCHES);
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.core.instrumentation;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.os.SystemClock;
+
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+public class LaunchTrackerTest {
+    private static final String DESTINATION = "com.android.settings.TestFragment";
+
+    private LaunchTracker mTracker;
+
+    @Before
+    public void setUp() {
+        mTracker = new LaunchTracker();
+    }
+
+    @Test
+    public void mark_keepFirstMarkOfPhase() {
+        final LaunchTracker.Launch launch = new LaunchTracker.Launch(SystemClock.uptimeMillis());
+
+        launch.mark(LaunchTracker.PHASE_INTENT_PARSED);
+        advance(100);
+        launch.mark(LaunchTracker.PHASE_INTENT_PARSED);
+
+        assertThat(launch.getPhaseMs(LaunchTracker.PHASE_INTENT_PARSED)).isEqualTo(0);
+        assertThat(launch.getPhaseMs(LaunchTracker.PHASE_DATA_READY)).isEqualTo(-1);
+    }
+
+    @Test
+    public void finish_recordPhasesPerDestination() throws JSONException {
+        final LaunchTracker.Launch launch = new LaunchTracker.Launch(SystemClock.uptimeMillis());
+        launch.setDestination(DESTINATION);
+        advance(10);
+        launch.mark(LaunchTracker.PHASE_FRAGMENT_INSTANTIATED);
+        advance(20);
+        launch.mark(LaunchTracker.PHASE_FIRST_DRAW);
+
+        mTracker.finish(launch);
+
+        final JSONObject destination =
+                mTracker.dump().getJSONObject("destinations").getJSONObject(DESTINATION);
+        assertThat(destination.getLong("launches")).isEqualTo(1);
+        assertThat(destination.getLong("over_budget")).isEqualTo(0);
+        assertThat(destination.getJSONObject("phases").getJSONObject("first_draw")
+                .getLong("max_ms")).isEqualTo(30);
+        assertThat(destination.getJSONArray("recent").getJSONObject(0)
+                .getLong("fragment_instantiated")).isEqualTo(10);
+        assertThat(destination.getJSONObject("phases").has("data_ready")).isFalse();
+    }
+
+    @Test
+    public void finish_overBudget_countOverBudget() throws JSONException {
+        final LaunchTracker.Launch launch = new LaunchTracker.Launch(SystemClock.uptimeMillis());
+        launch.setDestination(DESTINATION);
+        advance(LaunchTracker.LAUNCH_BUDGET_MS + 1);
+        launch.mark(LaunchTracker.PHASE_FIRST_DRAW);
+
+        mTracker.finish(launch);
+
+        assertThat(mTracker.dump().getJSONObject("destinations").getJSONObject(DESTINATION)
+                .getLong("over_budget")).isEqualTo(1);
+    }
+
+    @Test
+    public void finish_ignoreLaterMarks() {
+        final LaunchTracker.Launch launch = new LaunchTracker.Launch(SystemClock.uptimeMillis());
+        launch.setDestination(DESTINATION);
+
+        mTracker.finish(launch);
+        launch.mark(LaunchTracker.PHASE_DATA_READY);
+
+        assertThat(launch.getPhaseMs(LaunchTracker.PHASE_DATA_READY)).isEqualTo(-1);
+    }
+
+    @Test
+    public void finish_manyLaunches_keepRecentOnes() throws JSONException {
+        final int total = LaunchTracker.MAX_RECENT_LAUNCHES + 2;
+        for (int i = 0; i < total; i++) {
+            final LaunchTracker.Launch launch =
+                    new LaunchTracker.Launch(SystemClock.uptimeMillis());
+            launch.setDestination(DESTINATION);
+            mTracker.finish(launch);
+        }
+
+        final JSONObject destination =
+                mTracker.dump().getJSONObject("destinations").getJSONObject(DESTINATION);
+        assertThat(destination.getLong("launches")).isEqualTo(total);
+        assertThat(destination.getJSONArray("recent").length())
+                .isEqualTo(LaunchTracker.MAX_RECENT_LAUNCHES);
+    }
+
+    private static void advance(long ms) {
+        SystemClock.setCurrentTimeMillis(SystemClock.uptimeMillis() + ms);
+    }
+}
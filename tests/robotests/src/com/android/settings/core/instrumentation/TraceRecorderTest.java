@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.core.instrumentation;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.util.Base64;
+
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.ByteBuffer;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+public class TraceRecorderTest {
+    private TraceRecorder mRecorder;
+
+    @Before
+    public void setUp() {
+        mRecorder = new TraceRecorder();
+    }
+
+    @Test
+    public void end_recordSpansInOrder() {
+        mRecorder.end(TraceRecorder.SPAN_LOADER, 100);
+        mRecorder.end(TraceRecorder.SPAN_SLICE_BIND, 200);
+
+        final TraceRecorder.Snapshot snapshot = mRecorder.snapshot();
+
+        assertThat(snapshot.size).isEqualTo(2);
+        assertThat(snapshot.spanIds[0]).isEqualTo(TraceRecorder.SPAN_LOADER);
+        assertThat(snapshot.startNanos[0]).isEqualTo(100);
+        assertThat(snapshot.spanIds[1]).isEqualTo(TraceRecorder.SPAN_SLICE_BIND);
+        assertThat(snapshot.startNanos[1]).isEqualTo(200);
+    }
+
+    @Test
+    public void end_bufferFull_keepLatestSpans() {
+        final int total = TraceRecorder.CAPACITY + 10;
+        for (int i = 0; i < total; i++) {
+            mRecorder.end(TraceRecorder.SPAN_LOADER, i);
+        }
+
+        final TraceRecorder.Snapshot snapshot = mRecorder.snapshot();
+
+        assertThat(mRecorder.getRecordedCount()).isEqualTo(total);
+        assertThat(snapshot.size).isEqualTo(TraceRecorder.CAPACITY);
+        assertThat(snapshot.startNanos[0]).isEqualTo(10);
+        assertThat(snapshot.startNanos[snapshot.size - 1]).isEqualTo(total - 1);
+    }
+
+    @Test
+    public void dump_summaryAndBinaryEvents() throws JSONException {
+        mRecorder.end(TraceRecorder.SPAN_SEARCH_INDEX, mRecorder.begin());
+        mRecorder.end(TraceRecorder.SPAN_SEARCH_INDEX, mRecorder.begin());
+
+        final JSONObject dump = mRecorder.dump();
+
+        assertThat(dump.getLong("recorded")).isEqualTo(2);
+        assertThat(dump.getJSONObject("spans").getJSONObject("search_index").getLong("count"))
+                .isEqualTo(2);
+        final ByteBuffer events = ByteBuffer.wrap(
+                Base64.decode(dump.getString("events"), Base64.DEFAULT));
+        assertThat(events.getInt()).isEqualTo(TraceRecorder.FORMAT_VERSION);
+        assertThat(events.getShort()).isEqualTo((short) TraceRecorder.SPAN_SEARCH_INDEX);
+        assertThat(events.remaining()).isEqualTo(8 + 4 + 2 + 8 + 4);
+    }
+
+    @Test
+    public void dumpEvents_namedEvents() throws JSONException {
+        mRecorder.end(TraceRecorder.SPAN_FRAGMENT_CREATE, 100);
+
+        final JSONArray events = mRecorder.dumpEvents();
+
+        assertThat(events.length()).isEqualTo(1);
+        assertThat(events.getJSONObject(0).getString("name")).isEqualTo("fragment_create");
+        assertThat(events.getJSONObject(0).getLong("start_ns")).isEqualTo(100);
+    }
+
+    @Test
+    public void end_concurrentWriters_recordAllSpans() throws InterruptedException {
+        final Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 1000; j++) {
+                    mRecorder.end(TraceRecorder.SPAN_LOADER, mRecorder.begin());
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertThat(mRecorder.getRecordedCount()).isEqualTo(4000);
+        assertThat(mRecorder.snapshot().size).isEqualTo(TraceRecorder.CAPACITY);
+    }
+}
@@ -17,12 +17,16 @@
 package com.android.settings.dashboard;
 
 import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
 import android.app.Activity;
+import android.content.ComponentName;
 import android.content.Intent;
+import android.util.ArrayMap;
 
+import com.android.settings.core.instrumentation.TraceRecorder;
 import com.android.settings.testutils.FakeFeatureFactory;
 import com.android.settings.testutils.SettingsRobolectricTestRunner;
 import com.android.settingslib.drawer.CategoryKey;
@@ -34,6 +38,7 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.MockitoAnnotations;
 import org.robolectric.Robolectric;
+import org.robolectric.util.ReflectionHelpers;
 
 @RunWith(SettingsRobolectricTestRunner.class)
 public class SummaryLoaderTest {
@@ -80,6 +85,28 @@ public class SummaryLoaderTest {
         assertThat(mCallbackInvoked).isTrue();
     }
 
+    @Test
+    public void setListeningW_recordSpanWhenAllProvidersSetSummary() {
+        final SummaryLoader.SummaryProvider provider1 = mock(SummaryLoader.SummaryProvider.class);
+        final SummaryLoader.SummaryProvider provider2 = mock(SummaryLoader.SummaryProvider.class);
+        final ArrayMap<SummaryLoader.SummaryProvider, ComponentName> providers =
+                ReflectionHelpers.getField(mSummaryLoader, "mSummaryProviderMap");
+        providers.put(provider1, new ComponentName("pkg", "cls1"));
+        providers.put(provider2, new ComponentName("pkg", "cls2"));
+        final TraceRecorder recorder = TraceRecorder.getInstance();
+        final long recorded = recorder.getRecordedCount();
+
+        mSummaryLoader.setListeningW(true);
+        mSummaryLoader.setSummary(provider1, SUMMARY_1);
+        mSummaryLoader.setSummary(provider1, SUMMARY_2);
+
+        assertThat(recorder.getRecordedCount()).isEqualTo(recorded);
+
+        mSummaryLoader.setSummary(provider2, SUMMARY_1);
+
+        assertThat(recorder.getRecordedCount()).isEqualTo(recorded + 1);
+    }
+
     @Test
     public void testUpdateSummaryToCache_hasCache_shouldUpdate() {
         final String testSummary = "test_summary";
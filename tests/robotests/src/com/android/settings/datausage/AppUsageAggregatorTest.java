@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.datausage;
+
+import static android.net.TrafficStats.UID_REMOVED;
+import static android.net.TrafficStats.UID_TETHERING;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.net.NetworkStats;
+import android.os.Process;
+import android.os.UserHandle;
+
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+import com.android.settingslib.AppItem;
+import com.android.settingslib.net.UidDetailProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+public class AppUsageAggregatorTest {
+    private static final int CURRENT_USER = 0;
+    private static final int MANAGED_PROFILE = 10;
+    private static final int OTHER_USER = 11;
+    private static final int REMOVED_USER = 12;
+    private static final int[] PROFILES = {CURRENT_USER, MANAGED_PROFILE};
+    private static final int APP_UID = UserHandle.getUid(CURRENT_USER, 10001);
+    private static final int OTHER_APP_UID = UserHandle.getUid(CURRENT_USER, 10002);
+    private static final int MANAGED_APP_UID = UserHandle.getUid(MANAGED_PROFILE, 10001);
+    private static final int RESTRICTED_UID = UserHandle.getUid(CURRENT_USER, 10003);
+
+    private AppUsageAggregator mAggregator;
+    private NetworkStats mStats;
+    private int mUserLookups;
+
+    @Before
+    public void setUp() {
+        mAggregator = new AppUsageAggregator(userId -> {
+            mUserLookups++;
+            return userId == OTHER_USER;
+        });
+        mStats = new NetworkStats(0 /* elapsedRealtime */, 10 /* initialSize */);
+    }
+
+    @Test
+    public void aggregate_collapsesEntriesByUserAndApp() {
+        addEntry(APP_UID, 100);
+        addEntry(APP_UID, 50);
+        addEntry(OTHER_APP_UID, 400);
+        addEntry(MANAGED_APP_UID, 30);
+        addEntry(UserHandle.getUid(OTHER_USER, 10001), 20);
+        addEntry(UserHandle.getUid(OTHER_USER, 10002), 20);
+        addEntry(UserHandle.getUid(REMOVED_USER, 10001), 5);
+        addEntry(UserHandle.getUid(REMOVED_USER, 10002), 5);
+        addEntry(UID_TETHERING, 60);
+        addEntry(Process.ROOT_UID, 7);
+        addEntry(Process.SYSTEM_UID, 3);
+
+        final AppUsageAggregator.Result result = mAggregator.aggregate(mStats, new int[0],
+                CURRENT_USER, PROFILES, Integer.MAX_VALUE);
+
+        assertThat(result.largest).isEqualTo(400);
+        final List<AppItem> items = result.items;
+        // Users first, then apps by decreasing usage.
+        assertThat(items).hasSize(8);
+        assertThat(items.get(0).key).isEqualTo(UidDetailProvider.buildKeyForUser(OTHER_USER));
+        assertThat(items.get(0).total).isEqualTo(40);
+        assertThat(items.get(0).uids.size()).isEqualTo(2);
+        assertThat(items.get(1).key).isEqualTo(
+                UidDetailProvider.buildKeyForUser(MANAGED_PROFILE));
+        assertThat(items.get(2).key).isEqualTo(OTHER_APP_UID);
+        assertThat(items.get(3).key).isEqualTo(APP_UID);
+        assertThat(items.get(3).total).isEqualTo(150);
+        assertThat(items.get(4).key).isEqualTo(UID_TETHERING);
+        assertThat(items.get(5).key).isEqualTo(MANAGED_APP_UID);
+        assertThat(items.get(6).key).isEqualTo(UID_REMOVED);
+        assertThat(items.get(7).key).isEqualTo(Process.SYSTEM_UID);
+        assertThat(items.get(7).total).isEqualTo(10);
+        // Each other user is only looked up once.
+        assertThat(mUserLookups).isEqualTo(2);
+    }
+
+    @Test
+    public void aggregate_restrictedUids_markedOnlyForProfiles() {
+        addEntry(APP_UID, 100);
+
+        final AppUsageAggregator.Result result = mAggregator.aggregate(mStats,
+                new int[] {APP_UID, RESTRICTED_UID, UserHandle.getUid(OTHER_USER, 10001)},
+                CURRENT_USER, PROFILES, Integer.MAX_VALUE);
+
+        assertThat(result.items).hasSize(2);
+        for (AppItem item : result.items) {
+            assertThat(item.restricted).isTrue();
+            if (item.key == RESTRICTED_UID) {
+                assertThat(item.total).isEqualTo(-1);
+            }
+        }
+    }
+
+    @Test
+    public void aggregate_maxCount_keepTopItems() {
+        for (int i = 0; i < 100; i++) {
+            addEntry(UserHandle.getUid(CURRENT_USER, 10000 + i), i + 1);
+        }
+
+        final AppUsageAggregator.Result result = mAggregator.aggregate(mStats, new int[0],
+                CURRENT_USER, PROFILES, 3 /* maxCount */);
+
+        assertThat(result.largest).isEqualTo(100);
+        assertThat(result.items).hasSize(3);
+        assertThat(result.items.get(0).total).isEqualTo(100);
+        assertThat(result.items.get(1).total).isEqualTo(99);
+        assertThat(result.items.get(2).total).isEqualTo(98);
+    }
+
+    @Test
+    public void aggregate_reused_startsFromScratch() {
+        addEntry(APP_UID, 100);
+        mAggregator.aggregate(mStats, new int[0], CURRENT_USER, PROFILES, Integer.MAX_VALUE);
+
+        final AppUsageAggregator.Result result = mAggregator.aggregate(null, new int[0],
+                CURRENT_USER, PROFILES, Integer.MAX_VALUE);
+
+        assertThat(result.items).isEmpty();
+        assertThat(result.largest).isEqualTo(0);
+    }
+
+    private void addEntry(int uid, long bytes) {
+        mStats.addValues(NetworkStats.IFACE_ALL, uid, NetworkStats.SET_DEFAULT,
+                NetworkStats.TAG_NONE, bytes /* rxBytes */, 1 /* rxPackets */, 0 /* txBytes */,
+                0 /* txPackets */, 0 /* operations */);
+    }
+}
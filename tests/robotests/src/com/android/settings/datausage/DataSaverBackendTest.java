@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.datausage;
+
+import static android.net.NetworkPolicyManager.POLICY_ALLOW_METERED_BACKGROUND;
+import static android.net.NetworkPolicyManager.POLICY_NONE;
+import static android.net.NetworkPolicyManager.POLICY_REJECT_METERED_BACKGROUND;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.content.Context;
+import android.net.NetworkPolicyManager;
+import android.os.UserHandle;
+
+import com.android.settings.testutils.FakeFeatureFactory;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RuntimeEnvironment;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+public class DataSaverBackendTest {
+    private static final int UID_WHITELISTED = 10001;
+    private static final int UID_BLACKLISTED = 10002;
+    private static final int UID_OTHER = 10003;
+    private static final int UID_PROFILE_WHITELISTED = UserHandle.getUid(10, 10001);
+
+    @Mock
+    private NetworkPolicyManager mPolicyManager;
+    private DataSaverBackend mBackend;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        FakeFeatureFactory.setupForTest();
+        final Context context = spy(RuntimeEnvironment.application);
+        when(context.getSystemService(Context.NETWORK_POLICY_SERVICE)).thenReturn(mPolicyManager);
+        doReturn(new int[] {UID_WHITELISTED, UID_PROFILE_WHITELISTED})
+                .when(mPolicyManager).getUidsWithPolicy(POLICY_ALLOW_METERED_BACKGROUND);
+        doReturn(new int[] {UID_BLACKLISTED})
+                .when(mPolicyManager).getUidsWithPolicy(POLICY_REJECT_METERED_BACKGROUND);
+        mBackend = new DataSaverBackend(context);
+    }
+
+    @Test
+    public void isWhitelisted_loadPoliciesOnce() {
+        assertThat(mBackend.isWhitelisted(UID_WHITELISTED)).isTrue();
+        assertThat(mBackend.isWhitelisted(UID_PROFILE_WHITELISTED)).isTrue();
+        assertThat(mBackend.isWhitelisted(UID_BLACKLISTED)).isFalse();
+        assertThat(mBackend.isBlacklisted(UID_BLACKLISTED)).isTrue();
+        assertThat(mBackend.isBlacklisted(UID_OTHER)).isFalse();
+        assertThat(mBackend.getWhitelistedCount()).isEqualTo(2);
+        mBackend.refreshWhitelist();
+        mBackend.refreshBlacklist();
+
+        verify(mPolicyManager, times(1)).getUidsWithPolicy(POLICY_ALLOW_METERED_BACKGROUND);
+        verify(mPolicyManager, times(1)).getUidsWithPolicy(POLICY_REJECT_METERED_BACKGROUND);
+    }
+
+    @Test
+    public void setIsWhitelisted_updateSnapshot() {
+        mBackend.setIsWhitelisted(UID_BLACKLISTED, "package", true);
+        mBackend.setIsWhitelisted(UID_WHITELISTED, "package", false);
+
+        assertThat(mBackend.isWhitelisted(UID_BLACKLISTED)).isTrue();
+        assertThat(mBackend.isBlacklisted(UID_BLACKLISTED)).isFalse();
+        assertThat(mBackend.isWhitelisted(UID_WHITELISTED)).isFalse();
+        assertThat(mBackend.getWhitelistedCount()).isEqualTo(2);
+        verify(mPolicyManager).setUidPolicy(UID_BLACKLISTED, POLICY_ALLOW_METERED_BACKGROUND);
+        verify(mPolicyManager).setUidPolicy(UID_WHITELISTED, POLICY_NONE);
+    }
+
+    @Test
+    public void handleUidPoliciesChanged_notifyDeltas() {
+        final DataSaverBackend.Listener listener = mock(DataSaverBackend.Listener.class);
+        mBackend.addListener(listener);
+
+        mBackend.handleUidPoliciesChanged(UID_BLACKLISTED, POLICY_ALLOW_METERED_BACKGROUND);
+        mBackend.handleUidPoliciesChanged(UID_OTHER, POLICY_NONE);
+
+        verify(listener).onWhitelistStatusChanged(UID_BLACKLISTED, true);
+        verify(listener).onBlacklistStatusChanged(UID_BLACKLISTED, false);
+        verify(listener, never()).onWhitelistStatusChanged(UID_OTHER, false);
+        verify(listener, never()).onBlacklistStatusChanged(UID_OTHER, false);
+        assertThat(mBackend.getWhitelistedCount()).isEqualTo(3);
+    }
+
+    @Test
+    public void addListener_queryDataSaverStateOnce() {
+        doReturn(true).when(mPolicyManager).getRestrictBackground();
+        final DataSaverBackend.Listener first = mock(DataSaverBackend.Listener.class);
+        final DataSaverBackend.Listener second = mock(DataSaverBackend.Listener.class);
+
+        mBackend.addListener(first);
+        mBackend.addListener(second);
+
+        verify(first).onDataSaverChanged(true);
+        verify(second).onDataSaverChanged(true);
+        verify(mPolicyManager, times(1)).getRestrictBackground();
+    }
+
+    @Test
+    public void remListener_lastOne_queryDataSaverStateAgain() {
+        final DataSaverBackend.Listener listener = mock(DataSaverBackend.Listener.class);
+        mBackend.addListener(listener);
+        mBackend.remListener(listener);
+
+        mBackend.isDataSaverEnabled();
+
+        verify(mPolicyManager, times(2)).getRestrictBackground();
+    }
+}
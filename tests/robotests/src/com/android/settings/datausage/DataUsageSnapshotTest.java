@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.datausage;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import android.net.NetworkTemplate;
+import android.os.SystemClock;
+
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+import com.android.settingslib.net.DataUsageController;
+
+import org.json.JSONException;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+public class DataUsageSnapshotTest {
+    private static final int SUB_ID = 1;
+
+    @Mock
+    private DataUsageController mController;
+    private NetworkTemplate mTemplate;
+    private DataUsageController.DataUsageInfo mInfo;
+    private DataUsageSnapshot mSnapshot;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        mTemplate = NetworkTemplate.buildTemplateWifiWildcard();
+        mInfo = new DataUsageController.DataUsageInfo();
+        doReturn(mInfo).when(mController).getDataUsageInfo(mTemplate);
+        mSnapshot = new DataUsageSnapshot(mController);
+    }
+
+    @Test
+    public void get_withinTtl_queryOnce() {
+        assertThat(mSnapshot.get(SUB_ID, mTemplate)).isSameAs(mInfo);
+        assertThat(mSnapshot.get(SUB_ID, mTemplate)).isSameAs(mInfo);
+
+        verify(mController, times(1)).getDataUsageInfo(mTemplate);
+    }
+
+    @Test
+    public void get_expired_queryAgain() {
+        mSnapshot.get(SUB_ID, mTemplate);
+
+        SystemClock.setCurrentTimeMillis(
+                SystemClock.elapsedRealtime() + DataUsageSnapshot.SNAPSHOT_TTL_MS);
+        mSnapshot.get(SUB_ID, mTemplate);
+
+        verify(mController, times(2)).getDataUsageInfo(mTemplate);
+    }
+
+    @Test
+    public void get_otherSubscription_queryAgain() {
+        mSnapshot.get(SUB_ID, mTemplate);
+        mSnapshot.get(SUB_ID + 1, mTemplate);
+
+        verify(mController, times(2)).getDataUsageInfo(mTemplate);
+    }
+
+    @Test
+    public void get_unavailable_notCached() {
+        doReturn(null).when(mController).getDataUsageInfo(mTemplate);
+
+        assertThat(mSnapshot.get(SUB_ID, mTemplate)).isNull();
+        assertThat(mSnapshot.peek(SUB_ID, mTemplate)).isNull();
+    }
+
+    @Test
+    public void get_concurrentRequests_shareQuery() throws Exception {
+        final CountDownLatch queryStarted = new CountDownLatch(1);
+        final CountDownLatch releaseQuery = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            queryStarted.countDown();
+            releaseQuery.await(5, TimeUnit.SECONDS);
+            return mInfo;
+        }).when(mController).getDataUsageInfo(mTemplate);
+        final DataUsageController.DataUsageInfo[] results =
+                new DataUsageController.DataUsageInfo[2];
+
+        final Thread first = new Thread(() -> results[0] = mSnapshot.get(SUB_ID, mTemplate));
+        first.start();
+        queryStarted.await(5, TimeUnit.SECONDS);
+        final Thread second = new Thread(() -> results[1] = mSnapshot.get(SUB_ID, mTemplate));
+        second.start();
+        // Let the second request reach the pending query before it completes.
+        while (second.getState() != Thread.State.WAITING && second.isAlive()) {
+            Thread.sleep(10);
+        }
+        releaseQuery.countDown();
+        first.join();
+        second.join();
+
+        assertThat(results[0]).isSameAs(mInfo);
+        assertThat(results[1]).isSameAs(mInfo);
+        verify(mController, times(1)).getDataUsageInfo(mTemplate);
+    }
+
+    @Test
+    public void peek_expired_returnLastSnapshot() {
+        mSnapshot.get(SUB_ID, mTemplate);
+
+        SystemClock.setCurrentTimeMillis(
+                SystemClock.elapsedRealtime() + DataUsageSnapshot.SNAPSHOT_TTL_MS);
+
+        assertThat(mSnapshot.peek(SUB_ID, mTemplate)).isSameAs(mInfo);
+    }
+
+    @Test
+    public void copy_modifyCopy_snapshotUnchanged() {
+        mInfo.usageLevel = 100;
+        mInfo.limitLevel = 200;
+        final DataUsageController.DataUsageInfo info = mSnapshot.get(SUB_ID, mTemplate);
+
+        final DataUsageController.DataUsageInfo copy = DataUsageSnapshot.copy(info);
+        copy.limitLevel = 300;
+
+        assertThat(copy.usageLevel).isEqualTo(100);
+        assertThat(mSnapshot.peek(SUB_ID, mTemplate).limitLevel).isEqualTo(200);
+    }
+
+    @Test
+    public void invalidate_queryAgain() throws JSONException {
+        mSnapshot.get(SUB_ID, mTemplate);
+        mSnapshot.invalidate();
+        mSnapshot.get(SUB_ID, mTemplate);
+
+        verify(mController, times(2)).getDataUsageInfo(mTemplate);
+        assertThat(mSnapshot.dump().getInt("queries")).isEqualTo(2);
+    }
+}
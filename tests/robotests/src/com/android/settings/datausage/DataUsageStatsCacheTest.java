@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.datausage;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import android.net.INetworkStatsSession;
+import android.net.NetworkStats;
+import android.net.NetworkTemplate;
+import android.os.RemoteException;
+import android.os.SystemClock;
+
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+import com.android.settingslib.net.ChartData;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+public class DataUsageStatsCacheTest {
+    private static final long START = 1000;
+    private static final long END = 2000;
+    private static final int APP_KEY = 10001;
+
+    @Mock
+    private INetworkStatsSession mSession;
+    private NetworkTemplate mTemplate;
+    private NetworkStats mStats;
+    private DataUsageStatsCache mCache;
+
+    @Before
+    public void setUp() throws RemoteException {
+        MockitoAnnotations.initMocks(this);
+        mTemplate = NetworkTemplate.buildTemplateWifiWildcard();
+        mStats = new NetworkStats(0 /* elapsedRealtime */, 1 /* initialSize */);
+        mCache = new DataUsageStatsCache(Runnable::run);
+        doReturn(mStats).when(mSession).getSummaryForAllUid(eq(mTemplate), anyLong(), anyLong(),
+                anyBoolean());
+    }
+
+    @Test
+    public void getSummary_sameTemplateAndCycle_returnCached() {
+        mCache.putSummary(mTemplate, START, END, mStats);
+
+        assertThat(mCache.getSummary(mTemplate, START, END)).isSameAs(mStats);
+        assertThat(mCache.getSummary(mTemplate, END, END + 1000)).isNull();
+        assertThat(mCache.getSummary(NetworkTemplate.buildTemplateEthernet(), START, END))
+                .isNull();
+    }
+
+    @Test
+    public void getSummary_expired_returnNull() {
+        mCache.putSummary(mTemplate, START, END, mStats);
+
+        SystemClock.setCurrentTimeMillis(
+                SystemClock.elapsedRealtime() + DataUsageStatsCache.STATS_TTL_MS);
+
+        assertThat(mCache.getSummary(mTemplate, START, END)).isNull();
+    }
+
+    @Test
+    public void getChartData_perApp() {
+        final ChartData data = new ChartData();
+        mCache.putChartData(mTemplate, APP_KEY, data);
+
+        assertThat(mCache.getChartData(mTemplate, APP_KEY)).isSameAs(data);
+        assertThat(mCache.getChartData(mTemplate, APP_KEY + 1)).isNull();
+    }
+
+    @Test
+    public void invalidate_dropEverything() {
+        mCache.putSummary(mTemplate, START, END, mStats);
+        mCache.putChartData(mTemplate, APP_KEY, new ChartData());
+
+        mCache.invalidate();
+
+        assertThat(mCache.getSummary(mTemplate, START, END)).isNull();
+        assertThat(mCache.getChartData(mTemplate, APP_KEY)).isNull();
+    }
+
+    @Test
+    public void prefetchSummary_loadOnce() throws RemoteException {
+        mCache.prefetchSummary(mSession, mTemplate, START, END);
+        mCache.prefetchSummary(mSession, mTemplate, START, END);
+
+        assertThat(mCache.getSummary(mTemplate, START, END)).isSameAs(mStats);
+        assertThat(mCache.isPrefetching(mTemplate, START, END)).isFalse();
+        verify(mSession, times(1)).getSummaryForAllUid(mTemplate, START, END, false);
+    }
+
+    @Test
+    public void prefetchSummary_onPrefetchExecutor() throws RemoteException {
+        final List<Runnable> prefetches = new ArrayList<>();
+        mCache = new DataUsageStatsCache(prefetches::add);
+
+        mCache.prefetchSummary(mSession, mTemplate, START, END);
+
+        assertThat(mCache.isPrefetching(mTemplate, START, END)).isTrue();
+        verify(mSession, never()).getSummaryForAllUid(eq(mTemplate), anyLong(), anyLong(),
+                anyBoolean());
+
+        prefetches.get(0).run();
+
+        assertThat(mCache.getSummary(mTemplate, START, END)).isSameAs(mStats);
+    }
+
+    @Test
+    public void prefetchSummary_sessionClosed_notCached() throws RemoteException {
+        doThrow(new IllegalStateException()).when(mSession).getSummaryForAllUid(eq(mTemplate),
+                anyLong(), anyLong(), anyBoolean());
+
+        mCache.prefetchSummary(mSession, mTemplate, START, END);
+
+        assertThat(mCache.getSummary(mTemplate, START, END)).isNull();
+        assertThat(mCache.isPrefetching(mTemplate, START, END)).isFalse();
+    }
+
+    @Test
+    public void prefetchSummary_noSession_doNothing() throws RemoteException {
+        mCache.prefetchSummary(null, mTemplate, START, END);
+
+        verify(mSession, never()).getSummaryForAllUid(eq(mTemplate), anyLong(), anyLong(),
+                anyBoolean());
+        assertThat(mCache.getSummary(mTemplate, START, END)).isNull();
+    }
+}
@@ -22,6 +22,7 @@ import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.when;
 
 import android.content.Context;
+import android.os.Process;
 import android.support.v7.preference.PreferenceGroup;
 import android.text.TextUtils;
 import android.text.format.DateUtils;
@@ -29,6 +30,7 @@ import android.util.FeatureFlagUtils;
 import android.util.SparseArray;
 
 import com.android.internal.os.BatterySipper;
+import com.android.internal.os.BatteryStatsHelper;
 import com.android.internal.os.BatteryStatsImpl;
 import com.android.settings.R;
 import com.android.settings.SettingsActivity;
@@ -45,6 +47,7 @@ import org.mockito.MockitoAnnotations;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.RuntimeEnvironment;
 
+import java.util.ArrayList;
 import java.util.List;
 
 @RunWith(RobolectricTestRunner.class)
@@ -53,6 +56,9 @@ public class BatteryAppListPreferenceControllerTest {
     private static final String[] PACKAGE_NAMES = {"com.app1", "com.app2"};
     private static final String KEY_APP_LIST = "app_list";
     private static final int UID = 123;
+    private static final int APP_UID = 10001;
+    private static final int LOGD_UID = 1036;
+    private static final int DISCHARGE_AMOUNT = 100;
 
     @Mock
     private BatterySipper mNormalBatterySipper;
@@ -64,6 +70,8 @@ public class BatteryAppListPreferenceControllerTest {
     private InstrumentedPreferenceFragment mFragment;
     @Mock
     private BatteryUtils mBatteryUtils;
+    @Mock
+    private BatteryStatsHelper mBatteryStatsHelper;
 
     private Context mContext;
     private PowerGaugePreference mPreference;
@@ -202,8 +210,45 @@ public class BatteryAppListPreferenceControllerTest {
         assertThat(mPreferenceController.shouldHideSipper(mNormalBatterySipper)).isFalse();
     }
 
+    @Test
+    public void testRankUsageList_rankTwiceOnSameHelper_samePercents() {
+        final BatterySipper systemSipper = createSipper(Process.SYSTEM_UID, 20);
+        final List<BatterySipper> usageList = new ArrayList<>();
+        usageList.add(systemSipper);
+        usageList.add(createSipper(LOGD_UID, 10));
+        usageList.add(createSipper(APP_UID, 40));
+        doReturn(usageList).when(mBatteryStatsHelper).getUsageList();
+        doReturn(100d).when(mBatteryStatsHelper).getTotalPower();
+        mPreferenceController.mBatteryUtils = new BatteryUtils(mContext);
+
+        final List<Double> firstPercents = getPercents(mPreferenceController.rankUsageList(
+                mBatteryStatsHelper, DISCHARGE_AMOUNT, true /* showAllApps */));
+        final List<Double> secondPercents = getPercents(mPreferenceController.rankUsageList(
+                mBatteryStatsHelper, DISCHARGE_AMOUNT, true /* showAllApps */));
+
+        // logd is merged into the system uid, in a copy of the shared system sipper.
+        assertThat(firstPercents).containsExactly(40d, 30d).inOrder();
+        assertThat(secondPercents).isEqualTo(firstPercents);
+        assertThat(systemSipper.totalPowerMah).isEqualTo(20d);
+    }
+
     @Test
     public void testNeverUseFakeData() {
         assertThat(BatteryAppListPreferenceController.USE_FAKE_DATA).isFalse();
     }
+
+    private static BatterySipper createSipper(int uid, double powerMah) {
+        final BatterySipper sipper = new BatterySipper(BatterySipper.DrainType.APP,
+                new FakeUid(uid), powerMah);
+        sipper.totalPowerMah = powerMah;
+        return sipper;
+    }
+
+    private static List<Double> getPercents(BatterySipperRanking ranking) {
+        final List<Double> percents = new ArrayList<>();
+        for (int i = 0; i < ranking.size(); i++) {
+            percents.add(ranking.getPercent(i));
+        }
+        return percents;
+    }
 }
@@ -136,6 +136,26 @@ public class BatteryDatabaseManagerTest {
         assertThat(handledAppInfos).containsExactly(mOldAppInfo);
     }
 
+    @Test
+    public void testUpdateAnomalies_afterQuery_queryReflectsUpdate() {
+        mBatteryDatabaseManager.insertAnomaly(UID_OLD, PACKAGE_NAME_OLD, TYPE_OLD,
+                AnomalyDatabaseHelper.State.NEW, NOW);
+        assertThat(mBatteryDatabaseManager.queryAllAnomalies(ONE_DAY_BEFORE,
+                AnomalyDatabaseHelper.State.NEW)).containsExactly(mOldAppInfo);
+        final List<AppInfo> updateAppInfos = new ArrayList<>();
+        updateAppInfos.add(mOldAppInfo);
+
+        mBatteryDatabaseManager.updateAnomalies(updateAppInfos,
+                AnomalyDatabaseHelper.State.HANDLED);
+        mBatteryDatabaseManager.insertAnomaly(UID_NEW, PACKAGE_NAME_NEW, TYPE_NEW,
+                AnomalyDatabaseHelper.State.NEW, NOW);
+
+        assertThat(mBatteryDatabaseManager.queryAllAnomalies(ONE_DAY_BEFORE,
+                AnomalyDatabaseHelper.State.NEW)).containsExactly(mNewAppInfo);
+        assertThat(mBatteryDatabaseManager.queryAllAnomalies(ONE_DAY_BEFORE,
+                AnomalyDatabaseHelper.State.HANDLED)).containsExactly(mOldAppInfo);
+    }
+
     @Test
     public void testQueryAnomalies_removeDuplicateByUid() {
         mBatteryDatabaseManager.insertAnomaly(UID_NEW, PACKAGE_NAME_NEW, TYPE_NEW,
@@ -148,4 +168,39 @@ public class BatteryDatabaseManagerTest {
                 AnomalyDatabaseHelper.State.NEW);
         assertThat(newAppInfos).containsExactly(mCombinedAppInfo);
     }
+
+    @Test
+    public void testBatch_insertAnomaliesOnEndBatch() {
+        mBatteryDatabaseManager.beginBatch();
+        mBatteryDatabaseManager.insertAnomaly(UID_NEW, PACKAGE_NAME_NEW, TYPE_NEW,
+                AnomalyDatabaseHelper.State.NEW, NOW);
+        mBatteryDatabaseManager.insertAnomaly(UID_OLD, PACKAGE_NAME_OLD, TYPE_OLD,
+                AnomalyDatabaseHelper.State.NEW, NOW);
+
+        // Nothing is written before the batch ends
+        assertThat(mBatteryDatabaseManager.queryAllAnomalies(ONE_DAY_BEFORE,
+                AnomalyDatabaseHelper.State.NEW)).isEmpty();
+
+        mBatteryDatabaseManager.endBatch();
+
+        assertThat(mBatteryDatabaseManager.queryAllAnomalies(ONE_DAY_BEFORE,
+                AnomalyDatabaseHelper.State.NEW)).containsExactly(mNewAppInfo, mOldAppInfo);
+    }
+
+    @Test
+    public void testBatch_nested_insertOnOutermostEndBatch() {
+        mBatteryDatabaseManager.beginBatch();
+        mBatteryDatabaseManager.beginBatch();
+        mBatteryDatabaseManager.insertAnomaly(UID_NEW, PACKAGE_NAME_NEW, TYPE_NEW,
+                AnomalyDatabaseHelper.State.NEW, NOW);
+        mBatteryDatabaseManager.endBatch();
+
+        assertThat(mBatteryDatabaseManager.queryAllAnomalies(ONE_DAY_BEFORE,
+                AnomalyDatabaseHelper.State.NEW)).isEmpty();
+
+        mBatteryDatabaseManager.endBatch();
+
+        assertThat(mBatteryDatabaseManager.queryAllAnomalies(ONE_DAY_BEFORE,
+                AnomalyDatabaseHelper.State.NEW)).containsExactly(mNewAppInfo);
+    }
 }
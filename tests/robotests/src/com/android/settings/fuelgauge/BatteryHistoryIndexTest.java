@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import android.os.BatteryStats;
+import android.os.BatteryStats.HistoryItem;
+import android.util.SparseIntArray;
+
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+public class BatteryHistoryIndexTest {
+
+    private static final long START_WALL_TIME = 1500000000000L;
+    private static final long[] TIMES = {1000, 1500, 2000};
+    private static final byte[] LEVELS = {99, 98, 97};
+    private static final int HISTORY_SIZE = 512;
+
+    @After
+    public void tearDown() {
+        BatteryHistoryIndex.clearCache();
+    }
+
+    @Test
+    public void replay_feedsDataPointsRelativeToStart() {
+        final BatteryStats stats = createStats(HISTORY_SIZE);
+        final LevelParser parser = new LevelParser();
+
+        BatteryInfo.parse(stats, parser);
+
+        assertThat(parser.mStarted).isTrue();
+        assertThat(parser.mDone).isTrue();
+        assertThat(parser.mPoints.size()).isEqualTo(TIMES.length);
+        assertThat(parser.mPoints.keyAt(0)).isEqualTo(0);
+        assertThat(parser.mPoints.valueAt(0)).isEqualTo(99);
+        assertThat(parser.mPoints.keyAt(2)).isEqualTo(1000);
+        assertThat(parser.mPoints.valueAt(2)).isEqualTo(97);
+    }
+
+    @Test
+    public void get_sameGeneration_walksHistoryOnce() {
+        final BatteryStats stats = createStats(HISTORY_SIZE);
+        final BatteryStats sameHistory = createStats(HISTORY_SIZE);
+
+        BatteryInfo.parse(stats, new LevelParser());
+        BatteryInfo.parse(stats, new LevelParser());
+        BatteryInfo.parse(sameHistory, new LevelParser());
+
+        verify(stats, times(1)).startIteratingHistoryLocked();
+        verify(sameHistory, times(0)).startIteratingHistoryLocked();
+    }
+
+    @Test
+    public void get_historyGrown_indexesAgain() {
+        final BatteryStats stats = createStats(HISTORY_SIZE);
+        final BatteryStats grown = createStats(HISTORY_SIZE + 1);
+
+        BatteryInfo.parse(stats, new LevelParser());
+        BatteryInfo.parse(grown, new LevelParser());
+
+        verify(grown).startIteratingHistoryLocked();
+    }
+
+    @Test
+    public void build_keepsEveryEvent() {
+        final BatteryHistoryIndex index = BatteryHistoryIndex.build(createStats(HISTORY_SIZE));
+
+        // One time change followed by the data points.
+        assertThat(index.size()).isEqualTo(TIMES.length + 1);
+        assertThat(index.getStartWalltime()).isEqualTo(START_WALL_TIME);
+        assertThat(index.getEndWalltime()).isEqualTo(START_WALL_TIME + 1000);
+    }
+
+    private static BatteryStats createStats(int historyUsedSize) {
+        final BatteryStats stats = mock(BatteryStats.class);
+        doReturn(historyUsedSize).when(stats).getHistoryUsedSize();
+        doReturn(START_WALL_TIME).when(stats).getStartClockTime();
+        doAnswer(invocation -> {
+            final int[] count = {0};
+            doAnswer(next -> {
+                if (count[0] > TIMES.length) {
+                    return false;
+                }
+                final HistoryItem rec = next.getArgument(0);
+                if (count[0] == 0) {
+                    rec.cmd = HistoryItem.CMD_CURRENT_TIME;
+                    rec.time = TIMES[0];
+                    rec.currentTime = START_WALL_TIME;
+                } else {
+                    rec.cmd = HistoryItem.CMD_UPDATE;
+                    rec.time = TIMES[count[0] - 1];
+                    rec.batteryLevel = LEVELS[count[0] - 1];
+                }
+                count[0]++;
+                return true;
+            }).when(stats).getNextHistoryLocked(any(HistoryItem.class));
+            return true;
+        }).when(stats).startIteratingHistoryLocked();
+        return stats;
+    }
+
+    private static class LevelParser implements BatteryInfo.BatteryDataParser {
+        private final SparseIntArray mPoints = new SparseIntArray();
+        private boolean mStarted;
+        private boolean mDone;
+
+        @Override
+        public void onParsingStarted(long startTime, long endTime) {
+            mStarted = true;
+        }
+
+        @Override
+        public void onDataPoint(long time, HistoryItem record) {
+            mPoints.put((int) time, record.batteryLevel);
+        }
+
+        @Override
+        public void onDataGap() {
+        }
+
+        @Override
+        public void onParsingDone() {
+            mDone = true;
+        }
+    }
+}
@@ -43,6 +43,7 @@ import com.android.settings.testutils.SettingsRobolectricTestRunner;
 import com.android.settingslib.R;
 import com.android.settingslib.utils.PowerUtil;
 
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -95,6 +96,11 @@ public class BatteryInfoTest {
         mChargingBatteryBroadcast = BatteryTestUtils.getChargingIntent();
     }
 
+    @After
+    public void tearDown() {
+        BatteryEstimateCache.clear();
+    }
+
     @Test
     public void testGetBatteryInfo_hasStatusLabel() {
         doReturn(REMAINING_TIME_NULL).when(mBatteryStats).computeBatteryTimeRemaining(anyLong());
@@ -347,4 +353,78 @@ public class BatteryInfoTest {
         info = getBatteryInfo(true /* charging */, true /* enhanced */, true /* estimate */);
         assertHistoryAndLinearProjection(info);
     }
+
+    @Test
+    public void testGetDashboardBatteryInfo_afterFullParse_usesAgedRemainingTime() {
+        final long nowMs = SystemClock.elapsedRealtime();
+        final Estimate estimate = new Estimate(Duration.ofHours(4).toMillis(),
+                false /* isBasedOnUsage */, 1000 /* averageDischargeTime */);
+        BatteryInfo.getBatteryInfo(mContext, mDisChargingBatteryBroadcast, mBatteryStats,
+                estimate, PowerUtil.convertMsToUs(nowMs), true /* shortString */);
+
+        final BatteryInfo info = BatteryInfo.getDashboardBatteryInfo(mContext,
+                mDisChargingBatteryBroadcast, nowMs + Duration.ofMinutes(1).toMillis(),
+                true /* shortString */);
+
+        assertThat(info.remainingTimeUs).isEqualTo(
+                PowerUtil.convertMsToUs(Duration.ofMinutes(239).toMillis()));
+        assertThat(info.remainingLabel).isNotNull();
+        assertThat(info.batteryPercentString).isEqualTo(TEST_BATTERY_LEVEL_10);
+    }
+
+    @Test
+    public void testGetDashboardBatteryInfo_remainingTimeStale_onlyShowBatteryLevel() {
+        final long nowMs = SystemClock.elapsedRealtime();
+        BatteryInfo.getBatteryInfo(mContext, mDisChargingBatteryBroadcast, mBatteryStats,
+                new Estimate(Duration.ofHours(4).toMillis(), false /* isBasedOnUsage */,
+                        1000 /* averageDischargeTime */),
+                PowerUtil.convertMsToUs(nowMs), true /* shortString */);
+
+        final BatteryInfo info = BatteryInfo.getDashboardBatteryInfo(mContext,
+                mDisChargingBatteryBroadcast,
+                nowMs + BatteryEstimateCache.REMAINING_TIME_TTL_MS + 1, true /* shortString */);
+
+        assertThat(info.remainingLabel).isNull();
+        assertThat(info.chargeLabel).isEqualTo(TEST_BATTERY_LEVEL_10);
+    }
+
+    @Test
+    public void testGetDashboardBatteryInfo_chargedStateChanged_ignoreRemainingTime() {
+        final long nowMs = SystemClock.elapsedRealtime();
+        BatteryInfo.getBatteryInfo(mContext, mDisChargingBatteryBroadcast, mBatteryStats,
+                new Estimate(Duration.ofHours(4).toMillis(), false /* isBasedOnUsage */,
+                        1000 /* averageDischargeTime */),
+                PowerUtil.convertMsToUs(nowMs), true /* shortString */);
+
+        final BatteryInfo info = BatteryInfo.getDashboardBatteryInfo(mContext,
+                mChargingBatteryBroadcast, nowMs, true /* shortString */);
+
+        assertThat(info.remainingLabel).isNull();
+        assertThat(info.discharging).isFalse();
+    }
+
+    @Test
+    public void testGetDashboardBatteryInfo_enhanced_queryPredictionOncePerTtl() {
+        final long nowMs = SystemClock.elapsedRealtime();
+        doReturn(true).when(mFeatureFactory.powerUsageFeatureProvider)
+                .isEnhancedBatteryPredictionEnabled(mContext);
+        doReturn(new Estimate(Duration.ofHours(4).toMillis(), true /* isBasedOnUsage */,
+                1000 /* averageDischargeTime */))
+                .when(mFeatureFactory.powerUsageFeatureProvider)
+                .getEnhancedBatteryPrediction(mContext);
+
+        BatteryInfo.getDashboardBatteryInfo(mContext, mDisChargingBatteryBroadcast, nowMs,
+                true /* shortString */);
+        final BatteryInfo info = BatteryInfo.getDashboardBatteryInfo(mContext,
+                mDisChargingBatteryBroadcast, nowMs + 1000, true /* shortString */);
+        BatteryInfo.getDashboardBatteryInfo(mContext, mDisChargingBatteryBroadcast,
+                nowMs + BatteryEstimateCache.ENHANCED_ESTIMATE_TTL_MS + 1,
+                true /* shortString */);
+
+        assertThat(info.remainingTimeUs).isEqualTo(
+                PowerUtil.convertMsToUs(Duration.ofHours(4).toMillis()));
+        verify(mFeatureFactory.powerUsageFeatureProvider, times(2))
+                .getEnhancedBatteryPrediction(mContext);
+        verify(mBatteryStats, never()).computeBatteryTimeRemaining(anyLong());
+    }
 }
@@ -52,7 +52,7 @@ public class BatteryStatsHelperLoaderTest {
                 Context.CONNECTIVITY_SERVICE);
 
         mBatteryStatsHelperLoader = spy(new BatteryStatsHelperLoader(mContext));
-        mBatteryStatsHelperLoader.mBatteryUtils = mBatteryUtils;
+        mBatteryStatsHelperLoader.mSnapshot = new BatteryStatsSnapshot(mContext, mBatteryUtils);
     }
 
     @Test
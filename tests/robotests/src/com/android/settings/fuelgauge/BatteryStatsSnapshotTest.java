@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.os.SystemClock;
+
+import com.android.internal.os.BatteryStatsHelper;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RuntimeEnvironment;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+public class BatteryStatsSnapshotTest {
+    @Mock
+    private BatteryUtils mBatteryUtils;
+    @Mock
+    private ConnectivityManager mConnectivityManager;
+
+    private BatteryStatsSnapshot mSnapshot;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        final Context context = spy(RuntimeEnvironment.application);
+        doReturn(mConnectivityManager).when(context).getSystemService(
+                Context.CONNECTIVITY_SERVICE);
+
+        mSnapshot = new BatteryStatsSnapshot(context, mBatteryUtils);
+    }
+
+    @Test
+    public void acquire_withinFreshnessWindow_parsesOnce() {
+        final BatteryStatsHelper first = mSnapshot.acquire();
+        final BatteryStatsHelper second = mSnapshot.acquire();
+
+        assertThat(second).isSameAs(first);
+        verify(mBatteryUtils, times(1)).initBatteryStatsHelper(any(), eq(null), any());
+        assertThat(mSnapshot.getParseCount()).isEqualTo(1);
+        assertThat(mSnapshot.getParsesAvoided()).isEqualTo(1);
+        assertThat(mSnapshot.getRefCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void acquire_expired_parsesAgain() {
+        final BatteryStatsHelper first = mSnapshot.acquire();
+
+        SystemClock.setCurrentTimeMillis(
+                SystemClock.elapsedRealtime() + BatteryStatsSnapshot.MAX_AGE_MS + 1);
+        final BatteryStatsHelper second = mSnapshot.acquire();
+
+        assertThat(second).isNotSameAs(first);
+        assertThat(mSnapshot.getParseCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void acquire_afterInvalidate_parsesAgain() {
+        mSnapshot.release(mSnapshot.acquire());
+        mSnapshot.invalidate();
+
+        mSnapshot.acquire();
+
+        verify(mBatteryUtils, times(2)).initBatteryStatsHelper(any(), eq(null), any());
+    }
+
+    @Test
+    public void release_outdatedSnapshot_ignored() {
+        final BatteryStatsHelper first = mSnapshot.acquire();
+        mSnapshot.invalidate();
+        mSnapshot.acquire();
+
+        mSnapshot.release(first);
+
+        assertThat(mSnapshot.getRefCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void dump_containsParsesAvoided() throws Exception {
+        mSnapshot.acquire();
+        mSnapshot.acquire();
+        mSnapshot.acquire();
+
+        final JSONObject dump = mSnapshot.dump();
+
+        assertThat(dump.getInt("parses")).isEqualTo(1);
+        assertThat(dump.getInt("parses_avoided")).isEqualTo(2);
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.Context;
+
+import com.android.settings.R;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.Shadows;
+import org.robolectric.shadows.ShadowJobScheduler;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+public class BatteryUsageHistoryJobServiceTest {
+
+    private Context mContext;
+    private JobScheduler mJobScheduler;
+
+    @Before
+    public void setUp() {
+        mContext = spy(RuntimeEnvironment.application);
+        mJobScheduler = spy(mContext.getSystemService(JobScheduler.class));
+        when(mContext.getSystemService(JobScheduler.class)).thenReturn(mJobScheduler);
+    }
+
+    @Test
+    public void scheduleRecord_hourlyAndPersisted() {
+        BatteryUsageHistoryJobService.scheduleRecord(mContext);
+
+        final ShadowJobScheduler shadowJobScheduler =
+                Shadows.shadowOf(mContext.getSystemService(JobScheduler.class));
+        final List<JobInfo> pendingJobs = shadowJobScheduler.getAllPendingJobs();
+        assertThat(pendingJobs).hasSize(1);
+        final JobInfo pendingJob = pendingJobs.get(0);
+        assertThat(pendingJob.getId()).isEqualTo(R.integer.job_battery_usage_history);
+        assertThat(pendingJob.getIntervalMillis()).isEqualTo(TimeUnit.HOURS.toMillis(1));
+        assertThat(pendingJob.isPersisted()).isTrue();
+    }
+
+    @Test
+    public void scheduleRecord_invokeTwice_onlyScheduleOnce() {
+        BatteryUsageHistoryJobService.scheduleRecord(mContext);
+        BatteryUsageHistoryJobService.scheduleRecord(mContext);
+
+        verify(mJobScheduler, times(1)).schedule(any());
+    }
+}
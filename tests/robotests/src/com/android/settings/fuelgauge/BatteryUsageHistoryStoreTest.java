@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.text.format.DateUtils;
+
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+public class BatteryUsageHistoryStoreTest {
+    private static final int UID = 10001;
+    private static final int OTHER_UID = 10002;
+    private static final double DELTA = 0.001;
+    // Midnight UTC, so the hours below fall on the same day.
+    private static final long NOW = 17500 * DateUtils.DAY_IN_MILLIS;
+    private static final long STATS_START = NOW - DateUtils.DAY_IN_MILLIS;
+
+    private File mDir;
+    private BatteryUsageHistoryStore mStore;
+
+    @Before
+    public void setUp() {
+        mDir = new File(RuntimeEnvironment.application.getFilesDir(), "usage_history_test");
+        mDir.mkdirs();
+        mStore = new BatteryUsageHistoryStore(mDir);
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : mDir.listFiles()) {
+            file.delete();
+        }
+        mDir.delete();
+    }
+
+    @Test
+    public void record_storesDrainSincePreviousRecord() {
+        mStore.record(cumulative(100, 50), STATS_START, NOW);
+        mStore.record(cumulative(130, 60), STATS_START, NOW + DateUtils.HOUR_IN_MILLIS);
+
+        final double[] usage = mStore.getDailyUsage(1, NOW + DateUtils.HOUR_IN_MILLIS).get(UID);
+        assertThat(usage[0]).isWithin(DELTA).of(30);
+    }
+
+    @Test
+    public void record_withinMinInterval_skipped() {
+        mStore.record(cumulative(100, 50), STATS_START, NOW);
+        mStore.record(cumulative(130, 60), STATS_START, NOW + DateUtils.MINUTE_IN_MILLIS);
+
+        assertThat(mStore.getDailyUsage(1, NOW + DateUtils.MINUTE_IN_MILLIS).size()).isEqualTo(0);
+    }
+
+    @Test
+    public void record_afterStatsReset_storesWholeDrain() {
+        mStore.record(cumulative(100, 50), STATS_START, NOW);
+        mStore.record(cumulative(5, 2), NOW, NOW + DateUtils.HOUR_IN_MILLIS);
+
+        final double[] usage = mStore.getDailyUsage(1, NOW + DateUtils.HOUR_IN_MILLIS).get(UID);
+        assertThat(usage[0]).isWithin(DELTA).of(5);
+    }
+
+    @Test
+    public void record_afterStatsResetAndMoreDrain_storesWholeDrain() {
+        mStore.record(cumulative(100, 50), STATS_START, NOW);
+        mStore.record(cumulative(160, 90), NOW, NOW + DateUtils.HOUR_IN_MILLIS);
+
+        final double[] usage = mStore.getDailyUsage(1, NOW + DateUtils.HOUR_IN_MILLIS).get(UID);
+        assertThat(usage[0]).isWithin(DELTA).of(160);
+    }
+
+    @Test
+    public void getDailyUsage_reloadedFromDisk() {
+        mStore.record(cumulative(100, 50), STATS_START, NOW);
+        mStore.record(cumulative(110, 70), STATS_START, NOW + DateUtils.HOUR_IN_MILLIS);
+        mStore.record(cumulative(120, 75), STATS_START, NOW + DateUtils.DAY_IN_MILLIS);
+
+        final BatteryUsageHistoryStore reloaded = new BatteryUsageHistoryStore(mDir);
+        final double[] usage = reloaded.getDailyUsage(2, NOW + DateUtils.DAY_IN_MILLIS)
+                .get(OTHER_UID);
+        assertThat(usage[0]).isWithin(DELTA).of(20);
+        assertThat(usage[1]).isWithin(DELTA).of(5);
+    }
+
+    @Test
+    public void record_oldBuckets_downsampledAndExpired() {
+        mStore.record(cumulative(100, 50), STATS_START, NOW);
+        mStore.record(cumulative(110, 50), STATS_START, NOW + DateUtils.HOUR_IN_MILLIS);
+        mStore.record(cumulative(130, 50), STATS_START, NOW + 2 * DateUtils.HOUR_IN_MILLIS);
+
+        // Hourly buckets of the first day are merged into one day
+        final long threeDaysLater = NOW + 3 * DateUtils.DAY_IN_MILLIS;
+        mStore.record(cumulative(140, 50), STATS_START, threeDaysLater);
+        final double[] usage = new BatteryUsageHistoryStore(mDir).getDailyUsage(4,
+                threeDaysLater).get(UID);
+        assertThat(usage[0]).isWithin(DELTA).of(30);
+
+        // And dropped once they are too old
+        final long expired = NOW + (BatteryUsageHistoryStore.RETENTION_DAYS + 1)
+                * DateUtils.DAY_IN_MILLIS;
+        mStore.record(cumulative(150, 50), STATS_START, expired);
+        assertThat(new BatteryUsageHistoryStore(mDir).getDailyUsage(
+                BatteryUsageHistoryStore.RETENTION_DAYS + 2, expired).get(UID)[0]).isEqualTo(0.0);
+    }
+
+    private static BatteryUsageHistoryStore.Bucket cumulative(double uidMah,
+            double otherUidMah) {
+        final BatteryUsageHistoryStore.Bucket bucket = new BatteryUsageHistoryStore.Bucket(
+                0 /* startHour */, 0 /* spanHours */);
+        bucket.add(UID, uidMah);
+        bucket.add(OTHER_UID, otherUidMah);
+        return bucket;
+    }
+}
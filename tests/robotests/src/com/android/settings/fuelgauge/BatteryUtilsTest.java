@@ -32,6 +32,7 @@ import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -388,6 +389,81 @@ public class BatteryUtilsTest {
                 BATTERY_APP_USAGE + BATTERY_SCREEN_USAGE / 2);
     }
 
+    @Test
+    public void testRankBatterySippers_hideSmearAndKeepTopSippers() {
+        final BatterySipper sipperBg = createTestSmearBatterySipper(TIME_FOREGROUND_ZERO,
+                BATTERY_APP_USAGE, 1 /* uid */, false /* isUidNull */);
+        final BatterySipper sipperFg = createTestSmearBatterySipper(TIME_FOREGROUND,
+                BATTERY_APP_USAGE, 2 /* uid */, false /* isUidNull */);
+        final BatterySipper sipperFg2 = createTestSmearBatterySipper(TIME_FOREGROUND,
+                BATTERY_APP_USAGE, 3 /* uid */, false /* isUidNull */);
+        final BatterySipper sipperTiny = createTestSmearBatterySipper(TIME_FOREGROUND_ZERO,
+                1 /* totalPowerMah */, 4 /* uid */, false /* isUidNull */);
+        when(mProvider.isTypeSystem(mSystemBatterySipper)).thenReturn(true);
+        final List<BatterySipper> sippers = new ArrayList<>();
+        sippers.add(sipperBg);
+        sippers.add(mScreenBatterySipper);
+        sippers.add(sipperFg);
+        sippers.add(sipperTiny);
+        sippers.add(mSystemBatterySipper);
+        sippers.add(sipperFg2);
+        sippers.add(mOvercountedBatterySipper);
+        final BatterySipperRanking ranking = new BatterySipperRanking();
+
+        mBatteryUtils.rankBatterySippers(sippers, TOTAL_BATTERY_USAGE, DISCHARGE_AMOUNT,
+                false /* showAllApps */, 2 /* maxCount */, ranking);
+
+        assertThat(sippers).hasSize(7);
+        assertThat(ranking.getHiddenPowerMah()).isWithin(PRECISION).of(BATTERY_SYSTEM_USAGE);
+        assertThat(ranking.size()).isEqualTo(2);
+        assertThat(ranking.get(0)).isSameAs(sipperFg);
+        assertThat(ranking.get(1)).isSameAs(sipperFg2);
+        assertThat(sipperFg.totalPowerMah).isWithin(PRECISION).of(
+                BATTERY_APP_USAGE + BATTERY_SCREEN_USAGE / 2);
+        assertThat(ranking.getPercent(0)).isWithin(PRECISION).of(
+                mBatteryUtils.calculateBatteryPercent(sipperFg.totalPowerMah,
+                        TOTAL_BATTERY_USAGE, BATTERY_SYSTEM_USAGE, DISCHARGE_AMOUNT));
+    }
+
+    @Test
+    public void testRankBatterySippers_reused_dropTinySippers() {
+        final BatterySipper sipperBg = createTestSmearBatterySipper(TIME_FOREGROUND_ZERO,
+                BATTERY_APP_USAGE, 1 /* uid */, false /* isUidNull */);
+        final BatterySipper sipperTiny = createTestSmearBatterySipper(TIME_FOREGROUND_ZERO,
+                0.01 /* totalPowerMah */, 2 /* uid */, false /* isUidNull */);
+        final BatterySipper sipperFg = createTestSmearBatterySipper(TIME_FOREGROUND_ZERO,
+                BATTERY_APP_USAGE * 2, 3 /* uid */, false /* isUidNull */);
+        final List<BatterySipper> sippers = new ArrayList<>();
+        sippers.add(sipperBg);
+        sippers.add(sipperTiny);
+        sippers.add(sipperFg);
+        final BatterySipperRanking ranking = new BatterySipperRanking();
+        mBatteryUtils.rankBatterySippers(sippers, TOTAL_BATTERY_USAGE, DISCHARGE_AMOUNT,
+                false /* showAllApps */, 10 /* maxCount */, ranking);
+
+        mBatteryUtils.rankBatterySippers(sippers, TOTAL_BATTERY_USAGE, DISCHARGE_AMOUNT,
+                true /* showAllApps */, 10 /* maxCount */, ranking);
+
+        assertThat(ranking.size()).isEqualTo(2);
+        assertThat(ranking.get(0)).isSameAs(sipperFg);
+        assertThat(ranking.get(1)).isSameAs(sipperBg);
+        assertThat(ranking.getHiddenPowerMah()).isWithin(PRECISION).of(0);
+    }
+
+    @Test
+    public void testShouldHideSipper_sameAppUid_lookUpTypeOnce() {
+        final BatterySipper sipper = createTestSmearBatterySipper(TIME_FOREGROUND_ZERO,
+                BATTERY_APP_USAGE, UID, false /* isUidNull */);
+        final BatterySipper sameUidSipper = createTestSmearBatterySipper(TIME_FOREGROUND_ZERO,
+                BATTERY_APP_USAGE, UID, false /* isUidNull */);
+        when(mProvider.isTypeService(any())).thenReturn(true);
+
+        assertThat(mBatteryUtils.shouldHideSipper(sipper)).isTrue();
+        assertThat(mBatteryUtils.shouldHideSipper(sameUidSipper)).isTrue();
+
+        verify(mProvider, times(1)).isTypeService(any());
+    }
+
     @Test
     public void testSmearScreenBatterySipper_screenSipperNull_shouldNotCrash() {
         final BatterySipper sipperFg = createTestSmearBatterySipper(TIME_FOREGROUND,
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge.anomaly.checker;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.text.format.DateUtils;
+
+import com.android.settings.fuelgauge.anomaly.Anomaly;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+public class UidDeltaTrackerTest {
+    private static final int UID = 111;
+    private static final long HOUR = DateUtils.HOUR_IN_MILLIS;
+
+    @Test
+    public void update_sinceCharged_returnCumulativeValue() {
+        final UidDeltaTracker tracker = new UidDeltaTracker(UidDeltaTracker.WINDOW_SINCE_CHARGED);
+
+        tracker.update(UID, 100, 0);
+
+        assertThat(tracker.update(UID, 250, HOUR)).isEqualTo(250);
+    }
+
+    @Test
+    public void update_slidingWindow_returnChangeInWindow() {
+        final UidDeltaTracker tracker = new UidDeltaTracker(2 * HOUR);
+
+        tracker.update(UID, 100, 0);
+        tracker.update(UID, 150, HOUR);
+        tracker.update(UID, 300, 2 * HOUR);
+
+        // The window starts at one hour, when the value was 150
+        assertThat(tracker.update(UID, 400, 3 * HOUR)).isEqualTo(250);
+        assertThat(tracker.getWindowDurationMs(UID, 3 * HOUR)).isEqualTo(2 * HOUR);
+    }
+
+    @Test
+    public void update_statsReset_dropOldSamples() {
+        final UidDeltaTracker tracker = new UidDeltaTracker(2 * HOUR);
+
+        tracker.update(UID, 100, 0);
+
+        assertThat(tracker.update(UID, 10, HOUR)).isEqualTo(0);
+    }
+
+    @Test
+    public void isUnchanged_sameMetric_keepResult() {
+        final UidDeltaTracker tracker = new UidDeltaTracker(UidDeltaTracker.WINDOW_SINCE_CHARGED);
+        final Anomaly anomaly = new Anomaly.Builder().setUid(UID).build();
+        tracker.beginPass();
+        tracker.update(UID, 100, 0);
+        assertThat(tracker.isUnchanged(UID, 100, 0 /* flags */)).isFalse();
+        tracker.setResult(UID, 100, 0 /* flags */, anomaly);
+
+        tracker.beginPass();
+        tracker.update(UID, 100, HOUR);
+
+        assertThat(tracker.isUnchanged(UID, 100, 0 /* flags */)).isTrue();
+        assertThat(tracker.isUnchanged(UID, 100, 1 /* flags */)).isFalse();
+        assertThat(tracker.getAnomaly(UID)).isSameAs(anomaly);
+        assertThat(tracker.getEvaluatedCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void endPass_forgetUidsNotSeen() {
+        final UidDeltaTracker tracker = new UidDeltaTracker(UidDeltaTracker.WINDOW_SINCE_CHARGED);
+        tracker.beginPass();
+        tracker.update(UID, 100, 0);
+        tracker.setResult(UID, 100, 0 /* flags */, new Anomaly.Builder().setUid(UID).build());
+
+        tracker.beginPass();
+        tracker.endPass();
+
+        assertThat(tracker.getAnomaly(UID)).isNull();
+    }
+}
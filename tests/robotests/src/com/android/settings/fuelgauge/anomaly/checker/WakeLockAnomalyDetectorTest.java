@@ -176,6 +176,20 @@ public class WakeLockAnomalyDetectorTest {
         assertThat(mAnomalies).containsExactly(mTargetAnomaly);
     }
 
+    @Test
+    public void testDetectAnomalies_detectAgain_onlyEvaluateChangedUid() {
+        doReturn(BatteryUtils.UID_NULL).when(mBatteryUtils).getPackageUid(nullable(String.class));
+        mWakelockAnomalyDetector.detectAnomalies(mBatteryStatsHelper);
+        doReturn(ANOMALY_WAKELOCK_TIME_MS + 1).when(mWakelockAnomalyDetector)
+            .getBackgroundTotalDurationMs(eq(mTargetUid), anyLong());
+
+        List<Anomaly> mAnomalies = mWakelockAnomalyDetector.detectAnomalies(mBatteryStatsHelper);
+
+        assertThat(mWakelockAnomalyDetector.mTracker.getEvaluatedCount()).isEqualTo(1);
+        assertThat(mAnomalies).hasSize(2);
+        assertThat(mAnomalies).contains(mAnomaly);
+    }
+
     @Test
     public void testContainsThresholdFromPolicy() {
         assertThat(mWakelockAnomalyDetector.mWakeLockThresholdMs).isEqualTo(WAKELOCK_THRESHOLD_MS);
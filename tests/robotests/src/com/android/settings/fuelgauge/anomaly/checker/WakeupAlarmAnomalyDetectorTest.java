@@ -196,6 +196,26 @@ public class WakeupAlarmAnomalyDetectorTest {
         assertThat(mAnomalies).containsExactly(mTargetAnomaly);
     }
 
+    @Test
+    public void testDetectAnomalies_unchangedCountAfterRestriction_detectRestrictedAnomaly() {
+        doReturn(-1).when(mBatteryUtils).getPackageUid(nullable(String.class));
+        doReturn(ANOMALY_WAKEUP_COUNT).when(mWakeupAlarmAnomalyDetector)
+            .getWakeupAlarmCountFromUid(mAnomalyUid);
+        doReturn(NORMAL_WAKEUP_COUNT).when(mWakeupAlarmAnomalyDetector)
+            .getWakeupAlarmCountFromUid(mTargetUid);
+        doReturn(NORMAL_WAKEUP_COUNT).when(mWakeupAlarmAnomalyDetector)
+            .getWakeupAlarmCountFromUid(mNormalUid);
+        mWakeupAlarmAnomalyDetector.detectAnomalies(mBatteryStatsHelper);
+
+        doReturn(!ANOMALY_BACKGROUND_RESTRICTION_ON).when(mBatteryUtils)
+                .isBackgroundRestrictionEnabled(ANOMALY_SDK, ANOMALY_UID, ANOMALY_PACKAGE_NAME);
+        List<Anomaly> mAnomalies = mWakeupAlarmAnomalyDetector.detectAnomalies(mBatteryStatsHelper);
+
+        assertThat(mAnomalies).hasSize(1);
+        assertThat(mAnomalies.get(0).backgroundRestrictionEnabled)
+            .isEqualTo(!ANOMALY_BACKGROUND_RESTRICTION_ON);
+    }
+
     @Test
     public void testGetWakeupAlarmCountFromUid_countCorrect() {
         final ArrayMap<String, BatteryStats.Uid.Pkg> packageStats = new ArrayMap<>();
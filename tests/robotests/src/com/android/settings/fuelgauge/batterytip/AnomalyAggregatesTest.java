@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge.batterytip;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Collections;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+public class AnomalyAggregatesTest {
+    private static final String PACKAGE_NAME = "com.android.app";
+    private static final String SHARED_PACKAGE_NAME = "com.android.app.shared";
+    private static final int UID = 345;
+    private static final int TYPE_WAKELOCK = 1;
+    private static final int TYPE_WAKEUP = 2;
+
+    private AnomalyAggregates mAggregates;
+
+    @Before
+    public void setUp() {
+        mAggregates = new AnomalyAggregates();
+    }
+
+    @Test
+    public void query_onlyTypesAfterTimestamp() {
+        mAggregates.add(UID, PACKAGE_NAME, TYPE_WAKELOCK, AnomalyDatabaseHelper.State.NEW, 100);
+        mAggregates.add(UID, PACKAGE_NAME, TYPE_WAKEUP, AnomalyDatabaseHelper.State.NEW, 300);
+
+        assertThat(mAggregates.query(200, AnomalyDatabaseHelper.State.NEW)).containsExactly(
+                new AppInfo.Builder()
+                        .setUid(UID)
+                        .setPackageName(PACKAGE_NAME)
+                        .addAnomalyType(TYPE_WAKEUP)
+                        .build());
+        assertThat(mAggregates.query(300, AnomalyDatabaseHelper.State.NEW)).isEmpty();
+    }
+
+    @Test
+    public void add_sameAnomalyTwice_keepOneType() {
+        mAggregates.add(UID, PACKAGE_NAME, TYPE_WAKELOCK, AnomalyDatabaseHelper.State.NEW, 100);
+        mAggregates.add(UID, PACKAGE_NAME, TYPE_WAKELOCK, AnomalyDatabaseHelper.State.NEW, 100);
+
+        assertThat(mAggregates.query(0, AnomalyDatabaseHelper.State.NEW).get(0).anomalyTypes)
+                .containsExactly(TYPE_WAKELOCK);
+    }
+
+    @Test
+    public void moveToState_moveAllTypesOfPackage() {
+        mAggregates.add(UID, PACKAGE_NAME, TYPE_WAKELOCK, AnomalyDatabaseHelper.State.NEW, 100);
+        mAggregates.add(UID, PACKAGE_NAME, TYPE_WAKEUP, AnomalyDatabaseHelper.State.NEW, 200);
+
+        mAggregates.moveToState(Collections.singletonList(PACKAGE_NAME),
+                AnomalyDatabaseHelper.State.HANDLED);
+
+        assertThat(mAggregates.query(0, AnomalyDatabaseHelper.State.NEW)).isEmpty();
+        assertThat(mAggregates.query(0, AnomalyDatabaseHelper.State.HANDLED).get(0).anomalyTypes)
+                .containsExactly(TYPE_WAKELOCK, TYPE_WAKEUP);
+    }
+
+    @Test
+    public void moveToState_sharedUid_moveOnlyThatPackage() {
+        mAggregates.add(UID, PACKAGE_NAME, TYPE_WAKELOCK, AnomalyDatabaseHelper.State.NEW, 100);
+        mAggregates.add(UID, SHARED_PACKAGE_NAME, TYPE_WAKEUP, AnomalyDatabaseHelper.State.NEW,
+                200);
+
+        mAggregates.moveToState(Collections.singletonList(PACKAGE_NAME),
+                AnomalyDatabaseHelper.State.HANDLED);
+
+        assertThat(mAggregates.query(0, AnomalyDatabaseHelper.State.NEW)).containsExactly(
+                new AppInfo.Builder()
+                        .setUid(UID)
+                        .setPackageName(SHARED_PACKAGE_NAME)
+                        .addAnomalyType(TYPE_WAKEUP)
+                        .build());
+        assertThat(mAggregates.query(0, AnomalyDatabaseHelper.State.HANDLED)).containsExactly(
+                new AppInfo.Builder()
+                        .setUid(UID)
+                        .setPackageName(PACKAGE_NAME)
+                        .addAnomalyType(TYPE_WAKELOCK)
+                        .build());
+    }
+
+    @Test
+    public void removeBefore_dropOldTypesOnly() {
+        mAggregates.add(UID, PACKAGE_NAME, TYPE_WAKELOCK, AnomalyDatabaseHelper.State.NEW, 100);
+        mAggregates.add(UID, PACKAGE_NAME, TYPE_WAKEUP, AnomalyDatabaseHelper.State.NEW, 300);
+
+        mAggregates.removeBefore(200);
+
+        assertThat(mAggregates.query(0, AnomalyDatabaseHelper.State.NEW).get(0).anomalyTypes)
+                .containsExactly(TYPE_WAKEUP);
+    }
+}
@@ -124,6 +124,7 @@ public class AnomalyDetectionJobServiceTest {
                 Robolectric.buildService(AnomalyDetectionJobService.class);
         mAnomalyDetectionJobService = spy(controller.get());
         doNothing().when(mAnomalyDetectionJobService).jobFinished(any(), anyBoolean());
+        mAnomalyDetectionJobService.mIngestFilter = new AnomalyIngestFilter();
     }
 
     @Test
@@ -262,6 +263,29 @@ public class AnomalyDetectionJobServiceTest {
                 Pair.create(MetricsProto.MetricsEvent.FIELD_APP_VERSION_CODE, VERSION_CODE));
     }
 
+    @Test
+    public void saveAnomalyToDatabase_sameAnomalyTwice_saveOnce() {
+        final ArrayList<String> cookies = new ArrayList<>();
+        cookies.add(SUBSCRIBER_COOKIES_NOT_AUTO_RESTRICTION);
+        mBundle.putStringArrayList(StatsManager.EXTRA_STATS_BROADCAST_SUBSCRIBER_COOKIES, cookies);
+        doReturn(SYSTEM_PACKAGE).when(mBatteryUtils).getPackageName(anyInt());
+        doReturn(Process.FIRST_APPLICATION_UID).when(
+                mAnomalyDetectionJobService).extractUidFromStatsDimensionsValue(any());
+
+        for (int i = 0; i < 2; i++) {
+            mAnomalyDetectionJobService.saveAnomalyToDatabase(mContext,
+                    mUserManager, mBatteryDatabaseManager, mBatteryUtils, mPolicy,
+                    mPowerWhitelistBackend, mContext.getContentResolver(),
+                    mFeatureFactory.powerUsageFeatureProvider,
+                    mFeatureFactory.metricsFeatureProvider, mBundle);
+        }
+
+        verify(mBatteryDatabaseManager).insertAnomaly(anyInt(), anyString(), eq(6),
+                eq(AnomalyDatabaseHelper.State.NEW), anyLong());
+        verify(mBatteryUtils).getPackageName(anyInt());
+        assertThat(mAnomalyDetectionJobService.mIngestFilter.getMergedCount()).isEqualTo(1);
+    }
+
     @Test
     public void extractUidFromStatsDimensionsValue_extractCorrectUid() {
         // Build an integer dimensions value.
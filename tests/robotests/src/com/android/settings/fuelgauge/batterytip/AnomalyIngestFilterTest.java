@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge.batterytip;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import com.android.settings.fuelgauge.BatteryUtils;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.json.JSONException;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+public class AnomalyIngestFilterTest {
+    private static final int UID = 10001;
+    private static final int UID_OTHER = 10002;
+    private static final int TYPE = 6;
+    private static final int TYPE_OTHER = 7;
+    private static final String PACKAGE_NAME = "com.android.app";
+    private static final long VERSION_CODE = 15;
+    private static final long TIMESTAMP_MS = 1500000000000L;
+    private static final long NOW_MS = 100000;
+
+    @Mock
+    private BatteryUtils mBatteryUtils;
+    private AnomalyIngestFilter mFilter;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        mFilter = new AnomalyIngestFilter();
+        doReturn(PACKAGE_NAME).when(mBatteryUtils).getPackageName(UID);
+        doReturn(VERSION_CODE).when(mBatteryUtils).getAppLongVersionCode(PACKAGE_NAME);
+    }
+
+    @Test
+    public void filter_sameUidAndTypeInWindow_merged() {
+        assertThat(mFilter.filter(UID, TYPE, TIMESTAMP_MS, NOW_MS))
+                .isEqualTo(AnomalyIngestFilter.Result.ACCEPTED);
+        assertThat(mFilter.filter(UID, TYPE, TIMESTAMP_MS + 1000, NOW_MS))
+                .isEqualTo(AnomalyIngestFilter.Result.MERGED);
+        assertThat(mFilter.getMergedCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void filter_otherUidOrTypeOrOutOfWindow_accepted() {
+        mFilter.filter(UID, TYPE, TIMESTAMP_MS, NOW_MS);
+
+        assertThat(mFilter.filter(UID_OTHER, TYPE, TIMESTAMP_MS, NOW_MS))
+                .isEqualTo(AnomalyIngestFilter.Result.ACCEPTED);
+        assertThat(mFilter.filter(UID, TYPE_OTHER, TIMESTAMP_MS, NOW_MS))
+                .isEqualTo(AnomalyIngestFilter.Result.ACCEPTED);
+        assertThat(mFilter.filter(UID, TYPE,
+                TIMESTAMP_MS + AnomalyIngestFilter.DEDUP_WINDOW_MS, NOW_MS))
+                .isEqualTo(AnomalyIngestFilter.Result.ACCEPTED);
+    }
+
+    @Test
+    public void filter_bucketEmpty_droppedUntilRefilled() {
+        for (int i = 0; i < AnomalyIngestFilter.BUCKET_CAPACITY; i++) {
+            assertThat(mFilter.filter(UID + i, TYPE, TIMESTAMP_MS, NOW_MS))
+                    .isEqualTo(AnomalyIngestFilter.Result.ACCEPTED);
+        }
+
+        assertThat(mFilter.filter(UID_OTHER + AnomalyIngestFilter.BUCKET_CAPACITY, TYPE,
+                TIMESTAMP_MS, NOW_MS)).isEqualTo(AnomalyIngestFilter.Result.DROPPED);
+        assertThat(mFilter.getDroppedCount()).isEqualTo(1);
+        assertThat(mFilter.filter(UID_OTHER + AnomalyIngestFilter.BUCKET_CAPACITY, TYPE,
+                TIMESTAMP_MS, NOW_MS + AnomalyIngestFilter.TOKEN_REFILL_MS))
+                .isEqualTo(AnomalyIngestFilter.Result.ACCEPTED);
+    }
+
+    @Test
+    public void getPackageMetadata_cachedUntilTtl() {
+        AnomalyIngestFilter.PackageMetadata metadata =
+                mFilter.getPackageMetadata(mBatteryUtils, UID, NOW_MS);
+        mFilter.getPackageMetadata(mBatteryUtils, UID, NOW_MS + 1000);
+
+        assertThat(metadata.packageName).isEqualTo(PACKAGE_NAME);
+        assertThat(metadata.versionCode).isEqualTo(VERSION_CODE);
+        verify(mBatteryUtils, times(1)).getPackageName(UID);
+
+        mFilter.getPackageMetadata(mBatteryUtils, UID,
+                NOW_MS + AnomalyIngestFilter.PACKAGE_CACHE_TTL_MS);
+        verify(mBatteryUtils, times(2)).getPackageName(UID);
+    }
+
+    @Test
+    public void getPackageMetadata_packagesChanged_lookUpAgain() {
+        mFilter.getPackageMetadata(mBatteryUtils, UID, NOW_MS);
+        doReturn(1).when(mBatteryUtils).getPackageSequenceNumber();
+
+        mFilter.getPackageMetadata(mBatteryUtils, UID, NOW_MS + 1000);
+
+        verify(mBatteryUtils, times(2)).getPackageName(UID);
+    }
+
+    @Test
+    public void getPackageMetadata_manyUids_pruneExpired() {
+        for (int i = 0; i < AnomalyIngestFilter.MAX_TRACKED_UIDS; i++) {
+            mFilter.getPackageMetadata(mBatteryUtils, UID + i, NOW_MS);
+        }
+        final long later = NOW_MS + AnomalyIngestFilter.PACKAGE_CACHE_TTL_MS;
+        mFilter.getPackageMetadata(mBatteryUtils, UID - 1, later);
+
+        assertThat(mFilter.getCachedPackageCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void dump_containsCounters() throws JSONException {
+        mFilter.filter(UID, TYPE, TIMESTAMP_MS, NOW_MS);
+        mFilter.filter(UID, TYPE, TIMESTAMP_MS, NOW_MS);
+
+        assertThat(mFilter.dump().getInt("accepted")).isEqualTo(1);
+        assertThat(mFilter.dump().getInt("merged")).isEqualTo(1);
+        assertThat(mFilter.dump().getInt("dropped")).isEqualTo(0);
+    }
+}
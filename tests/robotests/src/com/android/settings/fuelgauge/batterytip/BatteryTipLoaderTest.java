@@ -19,6 +19,7 @@ package com.android.settings.fuelgauge.batterytip;
 import static com.google.common.truth.Truth.assertThat;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
 
 import android.content.Context;
@@ -28,6 +29,9 @@ import android.os.PowerManager;
 import com.android.internal.os.BatteryStatsHelper;
 import com.android.settings.fuelgauge.BatteryInfo;
 import com.android.settings.fuelgauge.BatteryUtils;
+import com.android.settings.fuelgauge.batterytip.detectors.HighUsageDetector;
+import com.android.settings.fuelgauge.batterytip.detectors.RestrictAppDetector;
+import com.android.settings.fuelgauge.batterytip.detectors.SmartBatteryDetector;
 import com.android.settings.fuelgauge.batterytip.tips.BatteryTip;
 import com.android.settings.testutils.SettingsRobolectricTestRunner;
 
@@ -86,4 +90,18 @@ public class BatteryTipLoaderTest {
             assertThat(batteryTips.get(i).getType()).isEqualTo(TIP_ORDER[i]);
         }
     }
+
+    @Test
+    public void testLoadBackground_recordsDetectorTimings() {
+        mBatteryTipLoader.loadInBackground();
+
+        assertThat(mBatteryTipLoader.getDetectorTimings()).hasSize(TIP_ORDER.length);
+    }
+
+    @Test
+    public void testIsSlow_onlyDetectorsWithBinderOrHistoryWork() {
+        assertThat(BatteryTipLoader.isSlow(mock(RestrictAppDetector.class))).isTrue();
+        assertThat(BatteryTipLoader.isSlow(mock(HighUsageDetector.class))).isTrue();
+        assertThat(BatteryTipLoader.isSlow(mock(SmartBatteryDetector.class))).isFalse();
+    }
 }
@@ -135,6 +135,18 @@ public class BatteryTipPreferenceControllerTest {
                 BatteryTip.StateType.NEW);
     }
 
+    @Test
+    public void testUpdateBatteryTips_pendingTipFilledLater_showTip() {
+        final List<BatteryTip> partialTips = new ArrayList<>();
+        partialTips.add(null);
+        mBatteryTipPreferenceController.updateBatteryTips(partialTips);
+        assertThat(mPreferenceGroup.getPreferenceCount()).isEqualTo(0);
+
+        mBatteryTipPreferenceController.updateBatteryTips(mOldBatteryTips);
+
+        assertOnlyContainsSummaryTip(mPreferenceGroup);
+    }
+
     @Test
     public void testSaveAndRestore() {
         mBatteryTipPreferenceController.updateBatteryTips(mOldBatteryTips);
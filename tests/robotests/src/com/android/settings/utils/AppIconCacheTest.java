@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.utils;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import android.content.ComponentCallbacks2;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.UserHandle;
+
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+import com.android.settings.testutils.shadow.ShadowThreadUtils;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(shadows = ShadowThreadUtils.class)
+public class AppIconCacheTest {
+
+    private static final String PACKAGE_NAME = "com.android.app";
+    private static final String LABEL = "App";
+    private static final int UID = 10001;
+
+    @Mock
+    private PackageManager mPackageManager;
+
+    private AppIconCache mCache;
+    private ApplicationInfo mInfo;
+    private Drawable mIcon;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        mCache = new AppIconCache(mPackageManager);
+        mIcon = new BitmapDrawable(RuntimeEnvironment.application.getResources(),
+                Bitmap.createBitmap(10, 10, Bitmap.Config.ARGB_8888));
+        mInfo = createInfo(UID, 1);
+    }
+
+    @Test
+    public void getIcon_sameApp_loadsOnce() {
+        mCache.getIcon(mInfo);
+        mCache.getIcon(createInfo(UID, 1));
+
+        verify(mInfo, times(1)).loadIcon(mPackageManager);
+        assertThat(mCache.getIconCache().hitCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void getIcon_newVersion_loadsAgain() {
+        final ApplicationInfo updated = createInfo(UID, 2);
+
+        mCache.getIcon(mInfo);
+        mCache.getIcon(updated);
+
+        verify(updated).loadIcon(mPackageManager);
+        assertThat(mCache.getIconCache().hitCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void getIcon_otherUser_loadsAgain() {
+        final ApplicationInfo otherUser = createInfo(UserHandle.getUid(10, UID), 1);
+
+        mCache.getIcon(mInfo);
+        mCache.getIcon(otherUser);
+
+        verify(otherUser).loadIcon(mPackageManager);
+    }
+
+    @Test
+    public void getIcon_boundedByBytes() {
+        final Bitmap bitmap = ((BitmapDrawable) mIcon).getBitmap();
+
+        mCache.getIcon(mInfo);
+
+        assertThat(mCache.getIconCache().size()).isEqualTo(bitmap.getAllocationByteCount());
+        assertThat(mCache.getIconCache().maxSize()).isEqualTo(AppIconCache.MAX_ICON_BYTES);
+    }
+
+    @Test
+    public void onTrimMemory_background_evictIcons() {
+        mCache.getIcon(mInfo);
+
+        mCache.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND);
+
+        assertThat(mCache.getIconCache().size()).isEqualTo(0);
+    }
+
+    @Test
+    public void onTrimMemory_uiHidden_keepIcons() {
+        mCache.getIcon(mInfo);
+
+        mCache.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+
+        assertThat(mCache.getIconCache().size()).isGreaterThan(0);
+    }
+
+    @Test
+    public void getLabel_cachedUntilLocaleChanges() {
+        final Locale locale = Locale.getDefault();
+        try {
+            assertThat(mCache.getLabel(mInfo)).isEqualTo(LABEL);
+            mCache.getLabel(mInfo);
+            verify(mInfo, times(1)).loadLabel(mPackageManager);
+
+            Locale.setDefault(Locale.FRANCE);
+            mCache.getLabel(mInfo);
+            verify(mInfo, times(2)).loadLabel(mPackageManager);
+        } finally {
+            Locale.setDefault(locale);
+        }
+    }
+
+    @Test
+    public void loadIcon_repeatedRequests_shareOneLoad() {
+        final List<Drawable> results = new ArrayList<>();
+
+        mCache.loadIcon(mInfo, results::add);
+        mCache.loadIcon(mInfo, results::add);
+
+        assertThat(results).hasSize(2);
+        verify(mInfo, times(1)).loadIcon(mPackageManager);
+    }
+
+    @Test
+    public void dump_containsHitRate() throws Exception {
+        mCache.getIcon(mInfo);
+        mCache.getIcon(mInfo);
+
+        final JSONObject dump = mCache.dump();
+
+        assertThat(dump.getInt("icon_hits")).isEqualTo(1);
+        assertThat(dump.getInt("icon_misses")).isEqualTo(1);
+        assertThat(dump.getString("icon_hit_rate")).isEqualTo("0.5");
+    }
+
+    private ApplicationInfo createInfo(int uid, long versionCode) {
+        final ApplicationInfo info = spy(new ApplicationInfo());
+        info.packageName = PACKAGE_NAME;
+        info.uid = uid;
+        info.longVersionCode = versionCode;
+        doReturn(mIcon).when(info).loadIcon(mPackageManager);
+        doReturn(LABEL).when(info).loadLabel(mPackageManager);
+        return info;
+    }
+}
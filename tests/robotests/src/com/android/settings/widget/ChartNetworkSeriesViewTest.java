@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.widget;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.net.NetworkStatsHistory;
+import android.text.format.DateUtils;
+
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+public class ChartNetworkSeriesViewTest {
+    private static final int WIDTH = 100;
+    private static final int HEIGHT = 50;
+    private static final long START = 1500000000000L;
+    private static final long END = START + DateUtils.DAY_IN_MILLIS * 30;
+    private static final long BUCKET_DURATION = DateUtils.MINUTE_IN_MILLIS * 5;
+    private static final long BYTES = 1000;
+
+    private ChartNetworkSeriesView mSeries;
+    private ChartAxis mVert;
+    private NetworkStatsHistory mStats;
+    private Canvas mCanvas;
+
+    @Before
+    public void setUp() {
+        final ChartAxis horiz = new ChartDataUsageView.TimeAxis();
+        horiz.setBounds(START, END);
+        horiz.setSize(WIDTH);
+        mVert = new InvertedChartAxis(new ChartDataUsageView.DataAxis());
+        mVert.setBounds(0, BYTES * 10000);
+        mVert.setSize(HEIGHT);
+
+        mSeries = new ChartNetworkSeriesView(RuntimeEnvironment.application);
+        mSeries.init(horiz, mVert);
+        mSeries.setBounds(START, END);
+        mSeries.layout(0, 0, WIDTH, HEIGHT);
+        mCanvas = new Canvas(Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888));
+
+        mStats = new NetworkStatsHistory(BUCKET_DURATION, 10 /* initialSize */);
+        for (long time = START; time < END; time += BUCKET_DURATION) {
+            mStats.recordData(time, time + BUCKET_DURATION, BYTES, 0 /* txBytes */);
+        }
+        mSeries.bindNetworkStats(mStats);
+    }
+
+    @Test
+    public void draw_fineBuckets_oneVertexPerColumn() {
+        mSeries.draw(mCanvas);
+
+        assertThat(mSeries.getVertexCount()).isAtMost(WIDTH + 1);
+        assertThat(mSeries.getMaxVisible()).isEqualTo(mStats.getTotalBytes());
+    }
+
+    @Test
+    public void invalidateVerticalScale_keepGeometry() {
+        mSeries.draw(mCanvas);
+        final long max = mSeries.getMaxVisible();
+        mStats.recordData(END - BUCKET_DURATION, END, BYTES, 0 /* txBytes */);
+
+        mVert.setBounds(0, BYTES * 20000);
+        mSeries.invalidateVerticalScale();
+        mSeries.draw(mCanvas);
+
+        assertThat(mSeries.getMaxVisible()).isEqualTo(max);
+    }
+
+    @Test
+    public void invalidatePath_regenerateGeometry() {
+        mSeries.draw(mCanvas);
+        final long max = mSeries.getMaxVisible();
+        mStats.recordData(END - BUCKET_DURATION, END, BYTES, 0 /* txBytes */);
+
+        mSeries.invalidatePath();
+        mSeries.draw(mCanvas);
+
+        assertThat(mSeries.getMaxVisible()).isEqualTo(max + BYTES);
+    }
+}